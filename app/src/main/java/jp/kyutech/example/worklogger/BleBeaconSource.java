@@ -0,0 +1,345 @@
+// BleBeaconSource for receiving advertisements by a BLE scanner
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import android.Manifest;
+import android.app.AlarmManager;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * BleBeaconSource class is a BeaconSource scanning advertisements of
+ * a beacon by BluetoothLeScanner.  Advertisements are filtered by the
+ * address of the beacon in the Bluetooth stack so that the application
+ * is not woken up by other devices.
+ *
+ * A scan is not kept running but duty-cycled by a ScanScheduler: it
+ * runs for a window and is stopped until the next interval.  Turning
+ * the screen on and a significant motion start a scan at once, since a
+ * user may be checking the state or walking in or out.  Results are
+ * batched by the controller, if supported, and flushed at the end of
+ * each window.
+ *
+ * Windows are started and stopped by wakeup alarms so that the cycle
+ * goes on while the device is asleep; a message posted to a handler
+ * would wait until something else wakes the device.  The alarm
+ * manager holds a wakelock while an alarm is dispatched, and a scan
+ * runs in the controller between alarms.  Alarms are deferred in Doze,
+ * when a device is stationary anyway.
+ *
+ * A scan needs the location permission granted at runtime, which must
+ * be requested by an activity; see hasPermission().
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+class BleBeaconSource implements BeaconSource
+{
+  private static final String	LOGTAG = "BleBeaconSource";
+  static final String		PERMISSION =
+    Manifest.permission.ACCESS_FINE_LOCATION;
+  private Context		context = null;
+  private String		address = null;
+  private BluetoothLeScanner	scanner = null;
+  private ScanCallback		callback = null;
+  private ScanScheduler		scheduler = null;
+  private AlarmManager		alarm_manager = null;
+  private Handler		handler = new Handler(Looper.getMainLooper());
+  private boolean		scanning_p = false;
+  private boolean		batching_p = false;
+  private BroadcastReceiver	screen_receiver = null;
+  private SensorManager		sensor_manager = null;
+  private Sensor		motion_sensor = null;
+  private TriggerEventListener	motion_listener = null;
+
+  private final AlarmManager.OnAlarmListener start_window =
+    new AlarmManager.OnAlarmListener()
+    {
+      @Override
+      public void onAlarm()
+      {
+	startWindow();
+      }
+    };
+
+  private final AlarmManager.OnAlarmListener stop_window =
+    new AlarmManager.OnAlarmListener()
+    {
+      @Override
+      public void onAlarm()
+      {
+	stopWindow();
+      }
+    };
+
+  /*
+   * Create a source of advertisements of a beacon.
+   *
+   * @param context a context
+   * @param address the address of a beacon
+   * @param scheduler a scheduler of scans
+   */
+  BleBeaconSource(Context context, String address, ScanScheduler scheduler)
+  {
+    this.context = context.getApplicationContext();
+    this.address = address;
+    this.scheduler = scheduler;
+    this.alarm_manager =
+      (AlarmManager)this.context.getSystemService(Context.ALARM_SERVICE);
+  }
+
+  /*
+   * Check if scans are permitted.  The location permission is needed
+   * by a scan since Android 10, and results are silently dropped
+   * without it.
+   *
+   * @param context a context
+   * @return true if the permission is granted
+   */
+  static boolean hasPermission(Context context)
+  {
+    return context.checkSelfPermission(PERMISSION) ==
+      PackageManager.PERMISSION_GRANTED;
+  }
+
+  @Override
+  public synchronized void start(final Listener listener)
+  {
+    if(callback != null){
+      return;
+    }
+    if(!hasPermission(context)){
+      Log.w(LOGTAG, "No permission to scan");
+      return;
+    }
+    BluetoothManager manager =
+      (BluetoothManager)context.getSystemService(Context.BLUETOOTH_SERVICE);
+    BluetoothAdapter adapter = (manager != null) ? manager.getAdapter() : null;
+    if(adapter == null || !adapter.isEnabled()){
+      Log.w(LOGTAG, "Bluetooth is not available");
+      return;
+    }
+    scanner = adapter.getBluetoothLeScanner();
+    batching_p = adapter.isOffloadedScanBatchingSupported();
+    callback = new ScanCallback()
+      {
+	@Override
+	public void onScanResult(int callbackType, ScanResult result)
+	{
+	  // A batched result was received before it is delivered.
+	  long age = (SystemClock.elapsedRealtimeNanos() -
+		      result.getTimestampNanos()) / 1000000;
+	  listener.onAdvertisement(result.getDevice().getAddress(),
+				   result.getRssi(),
+				   System.currentTimeMillis() - Math.max(0, age));
+	}
+
+	@Override
+	public void onBatchScanResults(List<ScanResult> results)
+	{
+	  for(ScanResult result : results){
+	    onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
+	  }
+	}
+
+	@Override
+	public void onScanFailed(int errorCode)
+	{
+	  Log.w(LOGTAG, "Scan failed: " + errorCode);
+	}
+      };
+    registerTriggers();
+    startWindow();
+  }
+
+  /*
+   * Start a scan for a window, and schedule its stop.
+   */
+  private synchronized void startWindow()
+  {
+    if(callback == null || scanning_p){
+      return;
+    }
+    alarm_manager.cancel(start_window);
+    long now = System.currentTimeMillis();
+    ScanFilter filter = new ScanFilter.Builder()
+      .setDeviceAddress(address)
+      .build();
+    ScanSettings.Builder builder = new ScanSettings.Builder()
+      .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER);
+    if(batching_p){
+      builder.setReportDelay(scheduler.getReportDelayMillis(now));
+    }
+    try {
+      scanner.startScan(Collections.singletonList(filter),
+			builder.build(), callback);
+      scanning_p = true;
+    } catch(SecurityException ex){
+      Log.w(LOGTAG, "No permission to scan", ex);
+      stop();
+      return;
+    } catch(IllegalStateException ex){
+      Log.w(LOGTAG, "Cannot start a scan", ex);
+    }
+    setAlarm(stop_window, "BleBeaconSource.stop", scheduler.getWindowMillis());
+  }
+
+  /*
+   * Stop a scan at the end of a window, and schedule the next one.
+   */
+  private synchronized void stopWindow()
+  {
+    if(callback == null){
+      return;
+    }
+    if(scanning_p){
+      try {
+	scanner.flushPendingScanResults(callback);
+	scanner.stopScan(callback);
+      } catch(SecurityException | IllegalStateException ex){
+	Log.w(LOGTAG, "Cannot stop a scan", ex);
+      }
+      scanning_p = false;
+    }
+    long now = System.currentTimeMillis();
+    scheduler.onCycle(now);
+    long delay = scheduler.getIntervalMillis(now) - scheduler.getWindowMillis();
+    setAlarm(start_window, "BleBeaconSource.start", Math.max(0, delay));
+  }
+
+  /*
+   * Set a wakeup alarm dispatched on the main thread, replacing the
+   * same alarm if set.
+   *
+   * @param alarm a listener of the alarm
+   * @param tag a tag of the alarm for dumpsys
+   * @param delay the delay from now in msec.
+   */
+  private void setAlarm(AlarmManager.OnAlarmListener alarm,
+			String tag,
+			long delay)
+  {
+    alarm_manager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+			   SystemClock.elapsedRealtime() + delay,
+			   tag, alarm, handler);
+  }
+
+  /*
+   * Start a scan now instead of at the next interval, if not scanning.
+   */
+  private void startWindowNow()
+  {
+    handler.post(new Runnable()
+      {
+	@Override
+	public void run()
+	{
+	  startWindow();
+	}
+      });
+  }
+
+  /*
+   * Register the receiver of screen-on and the trigger of a significant
+   * motion, which is re-armed each time it fires.
+   */
+  private void registerTriggers()
+  {
+    screen_receiver = new BroadcastReceiver()
+      {
+	@Override
+	public void onReceive(Context context, Intent intent)
+	{
+	  scheduler.onScreenOn(System.currentTimeMillis());
+	  startWindowNow();
+	}
+      };
+    context.registerReceiver(screen_receiver,
+			     new IntentFilter(Intent.ACTION_SCREEN_ON));
+
+    sensor_manager =
+      (SensorManager)context.getSystemService(Context.SENSOR_SERVICE);
+    if(sensor_manager == null){
+      return;
+    }
+    motion_sensor =
+      sensor_manager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+    if(motion_sensor == null){
+      return;
+    }
+    motion_listener = new TriggerEventListener()
+      {
+	@Override
+	public void onTrigger(TriggerEvent event)
+	{
+	  scheduler.onMotion(System.currentTimeMillis());
+	  startWindowNow();
+	  synchronized(BleBeaconSource.this){
+	    if(motion_listener != null){
+	      sensor_manager.requestTriggerSensor(motion_listener,
+						  motion_sensor);
+	    }
+	  }
+	}
+      };
+    sensor_manager.requestTriggerSensor(motion_listener, motion_sensor);
+  }
+
+  private void unregisterTriggers()
+  {
+    if(screen_receiver != null){
+      context.unregisterReceiver(screen_receiver);
+      screen_receiver = null;
+    }
+    if(motion_listener != null){
+      sensor_manager.cancelTriggerSensor(motion_listener, motion_sensor);
+      motion_listener = null;
+    }
+  }
+
+  @Override
+  public synchronized void stop()
+  {
+    if(callback == null){
+      return;
+    }
+    alarm_manager.cancel(start_window);
+    alarm_manager.cancel(stop_window);
+    unregisterTriggers();
+    if(scanning_p){
+      try {
+	scanner.stopScan(callback);
+      } catch(SecurityException | IllegalStateException ex){
+	Log.w(LOGTAG, "Cannot stop a scan", ex);
+      }
+      scanning_p = false;
+    }
+    callback = null;
+  }
+}
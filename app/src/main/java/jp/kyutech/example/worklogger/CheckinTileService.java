@@ -0,0 +1,78 @@
+// CheckinTileService for checking in and out from quick settings
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+import android.util.Log;
+
+/**
+ * CheckinTileService class provides a quick settings tile which checks
+ * in and out by a tap as the CheckinWidgetProvider does.  A tile is
+ * active while checked in.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class CheckinTileService extends TileService
+{
+  private static final String	LOGTAG = "CheckinTileService";
+
+  @Override
+  public void onStartListening()
+  {
+    super.onStartListening();
+    updateTile();
+  }
+
+  @Override
+  public void onClick()
+  {
+    super.onClick();
+    Log.d(LOGTAG, "onClick()");
+    // NOTE: A write must not be lost when the tile is unbound.
+    WorkLoggerApplication.from(this).toggleCheckinInBackground(null);
+  }
+
+  /*
+   * Ask the system to redraw the tile.
+   *
+   * @param context a context
+   */
+  static void requestUpdate(Context context)
+  {
+    try {
+      requestListeningState(context,
+			    new ComponentName(context,
+					      CheckinTileService.class));
+    } catch(IllegalArgumentException ex){
+      // The tile is not added.
+      Log.d(LOGTAG, "requestUpdate(): " + ex.getMessage());
+    }
+  }
+
+  /*
+   * Update the tile according to the snapshot of today.
+   */
+  private void updateTile()
+  {
+    Tile tile = getQsTile();
+    if(tile == null){
+      return;
+    }
+    int state = WorkLoggerApplication.from(this).getTodaySnapshot().getState();
+    boolean checked_in_p = TodaySnapshot.isCheckedIn(state);
+    tile.setState(checked_in_p ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE);
+    tile.setLabel(getString(checked_in_p ?
+			    R.string.stop_working :
+			    R.string.start_working));
+    tile.updateTile();
+  }
+}
@@ -0,0 +1,110 @@
+// CheckinWidgetProvider for checking in and out from a home screen
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+import android.widget.RemoteViews;
+
+/**
+ * CheckinWidgetProvider class provides a home screen widget which
+ * checks in and out by a tap.  A tap is delivered to this receiver as
+ * a broadcast, and only a work record is written by
+ * WorkRecordManager.updateWorkRecordBy() on a background thread; no
+ * activity is started.  A widget is drawn from the TodaySnapshot.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class CheckinWidgetProvider extends AppWidgetProvider
+{
+  private static final String	LOGTAG = "CheckinWidgetProvider";
+  static final String		ACTION_TOGGLE =
+    "jp.kyutech.example.worklogger.action.TOGGLE_CHECKIN";
+
+  @Override
+  public void onUpdate(Context context,
+		       AppWidgetManager manager,
+		       int[] widget_ids)
+  {
+    manager.updateAppWidget(widget_ids, createViews(context));
+  }
+
+  @Override
+  public void onReceive(Context context, Intent intent)
+  {
+    if(!ACTION_TOGGLE.equals(intent.getAction())){
+      super.onReceive(context, intent);
+      return;
+    }
+    Log.d(LOGTAG, "onReceive(): " + intent.getAction());
+    final BroadcastReceiver.PendingResult result = goAsync();
+    WorkLoggerApplication.from(context).toggleCheckinInBackground
+      (new Runnable()
+	{
+	  @Override
+	  public void run()
+	  {
+	    result.finish();
+	  }
+	});
+  }
+
+  /*
+   * Redraw all the widgets on home screens.
+   *
+   * @param context a context
+   */
+  static void updateAll(Context context)
+  {
+    AppWidgetManager manager = AppWidgetManager.getInstance(context);
+    if(manager == null){
+      return;
+    }
+    ComponentName provider =
+      new ComponentName(context, CheckinWidgetProvider.class);
+    int[] widget_ids = manager.getAppWidgetIds(provider);
+    if(widget_ids.length > 0){
+      manager.updateAppWidget(widget_ids, createViews(context));
+    }
+  }
+
+  /*
+   * Create views of a widget according to the snapshot of today.
+   */
+  private static RemoteViews createViews(Context context)
+  {
+    int state =
+      WorkLoggerApplication.from(context).getTodaySnapshot().getState();
+    boolean checked_in_p = TodaySnapshot.isCheckedIn(state);
+    RemoteViews views =
+      new RemoteViews(context.getPackageName(), R.layout.checkin_widget);
+    views.setImageViewResource(R.id.checkinWidgetButton,
+			       checked_in_p ?
+			       R.drawable.starter_stop :
+			       R.drawable.starter_start);
+    views.setTextViewText(R.id.checkinWidgetLabel,
+			  context.getString(checked_in_p ?
+					    R.string.stop_working :
+					    R.string.start_working));
+    Intent intent = new Intent(context, CheckinWidgetProvider.class)
+      .setAction(ACTION_TOGGLE);
+    PendingIntent pending =
+      PendingIntent.getBroadcast(context, 0, intent,
+				 PendingIntent.FLAG_UPDATE_CURRENT |
+				 PendingIntent.FLAG_IMMUTABLE);
+    views.setOnClickPendingIntent(R.id.checkinWidgetButton, pending);
+    return views;
+  }
+}
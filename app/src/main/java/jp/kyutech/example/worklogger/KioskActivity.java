@@ -0,0 +1,167 @@
+// KioskActivity for checking in many users on a shared device
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.KeyEvent;
+import android.view.WindowManager;
+import android.view.inputmethod.EditorInfo;
+import android.widget.EditText;
+import android.widget.TextView;
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * KioskActivity class is the screen of a kiosk at an entrance.  A
+ * badge reader acting as a keyboard types the ID of a badge followed
+ * by Enter, and the user of the badge is checked in or out by the
+ * KioskRecorder of the application.  A badge is handed to the recorder
+ * on a background thread, which never waits for the commit, so that
+ * badges read in a burst are batched by the recorder.  The result is
+ * shown once the punch is committed.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class KioskActivity extends AppCompatActivity
+{
+  private static final String	LOGTAG = "KioskActivity";
+  private final ExecutorService	puncher = Executors.newSingleThreadExecutor();
+  private final Handler		handler = new Handler(Looper.getMainLooper());
+  private EditText		badgeInput = null;
+  private TextView		kioskStatus = null;
+
+  @Override
+  protected void onCreate(Bundle savedInstanceState)
+  {
+    super.onCreate(savedInstanceState);
+    setContentView(R.layout.kiosk);
+    getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+
+    badgeInput = (EditText)findViewById(R.id.badgeInput);
+    kioskStatus = (TextView)findViewById(R.id.kioskStatus);
+    badgeInput.setOnEditorActionListener(new TextView.OnEditorActionListener()
+      {
+	@Override
+	public boolean onEditorAction(TextView view, int action, KeyEvent event)
+	{
+	  if(action == EditorInfo.IME_ACTION_DONE ||
+	     (event != null && event.getKeyCode() == KeyEvent.KEYCODE_ENTER &&
+	      event.getAction() == KeyEvent.ACTION_DOWN)){
+	    String badge = view.getText().toString();
+	    view.setText("");
+	    if(badge.trim().length() > 0){
+	      punch(badge);
+	    }
+	    return true;
+	  }
+	  return false;
+	}
+      });
+
+    // Load the roster and today's records before the first badge.
+    final WorkLoggerApplication application = WorkLoggerApplication.from(this);
+    puncher.execute(new Runnable()
+      {
+	@Override
+	public void run()
+	{
+	  if(application.getKioskRecorder() == null){
+	    showStatus(getString(R.string.kiosk_no_roster));
+	  }
+	}
+      });
+  }
+
+  @Override
+  protected void onDestroy()
+  {
+    super.onDestroy();
+    puncher.shutdown();
+  }
+
+  /*
+   * Punch a badge in the background, and show the result when the
+   * punch is committed.
+   *
+   * @param badge the ID of a badge
+   */
+  private void punch(final String badge)
+  {
+    final WorkLoggerApplication application = WorkLoggerApplication.from(this);
+    puncher.execute(new Runnable()
+      {
+	@Override
+	public void run()
+	{
+	  KioskRecorder recorder = application.getKioskRecorder();
+	  if(recorder == null){
+	    showStatus(getString(R.string.kiosk_no_roster));
+	    return;
+	  }
+	  KioskRecorder.Punch punch = recorder.punch(badge);
+	  if(punch == null){
+	    showStatus(getString(R.string.kiosk_unknown_badge, badge));
+	    return;
+	  }
+	  punch.addListener(new KioskRecorder.PunchListener()
+	    {
+	      @Override
+	      public void onPunchDone(KioskRecorder.Punch punch,
+				      RuntimeException error)
+	      {
+		showResult(punch, error);
+	      }
+	    });
+	}
+      });
+  }
+
+  private void showResult(KioskRecorder.Punch punch, RuntimeException error)
+  {
+    if(error != null){
+      Log.e(LOGTAG, error.getMessage(), error);
+      showStatus(MessageFormatter.getErrorReason(error));
+      return;
+    }
+    String time = new SimpleDateFormat("HH:mm", Locale.getDefault())
+      .format(new java.util.Date(punch.getTime()));
+    int message;
+    switch(punch.getKind()){
+    case KioskRecorder.PUNCH_IN:
+      message = R.string.kiosk_checked_in;
+      break;
+    case KioskRecorder.PUNCH_OUT:
+      message = R.string.kiosk_checked_out;
+      break;
+    default:
+      message = R.string.kiosk_done_already;
+      break;
+    }
+    showStatus(getString(message, punch.getUser(), time));
+  }
+
+  private void showStatus(final String message)
+  {
+    handler.post(new Runnable()
+      {
+	@Override
+	public void run()
+	{
+	  kioskStatus.setText(message);
+	}
+      });
+  }
+}
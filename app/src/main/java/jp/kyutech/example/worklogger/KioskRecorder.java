@@ -0,0 +1,403 @@
+// KioskRecorder for recording check-ins of many users at a kiosk
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * KioskRecorder class records check-ins and check-outs of many users
+ * on a shared device, e.g. a tablet at an entrance at the start of a
+ * shift.  A punch of a badge is handled in two steps:
+ *
+ *   1. The user is looked up by a BadgeIndex, and the work record of
+ *      the user today is checked in or out in a cache of today's
+ *      records in memory.  No database is accessed here.
+ *   2. The record is queued to a writer thread, which writes all the
+ *      records queued meanwhile in a single transaction of the
+ *      WorkRecordManager, i.e. group commit.
+ *
+ * A caller may wait for the commit of a punch by Punch.await(), or be
+ * called back by a PunchListener without blocking the next punch.  A
+ * burst of punches costs one transaction per batch instead of one per
+ * punch, so that the latency of a punch stays low however many users
+ * are queued.  A badge read again within DEBOUNCE_MILLIS is ignored,
+ * and a badge of a user checked out today is reported as PUNCH_DONE
+ * without writing anything.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+class KioskRecorder
+{
+  public static final int	PUNCH_IN = 1;
+  public static final int	PUNCH_OUT = 2;
+  public static final int	PUNCH_DONE = 3;	// Checked out already
+  public static final long	DEBOUNCE_MILLIS = 60 * 1000;
+  public static final int	MAX_BATCH = 256;
+
+  /*
+   * Listener called once a punch is committed or failed.
+   */
+  interface PunchListener
+  {
+    /*
+     * Called on the writer thread, or on the thread adding this
+     * listener if the punch has been done already.
+     *
+     * @param punch a punch done
+     * @param error an exception if failed to be written, or null
+     */
+    void onPunchDone(Punch punch, RuntimeException error);
+  }
+
+  /*
+   * A punch of a badge.
+   */
+  static class Punch
+  {
+    private final String	user;
+    private final int		kind;	// PUNCH_*
+    private final long		time;
+    private final WorkRecord	record;	// Cached
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile long	commit_time = -1;
+    private volatile RuntimeException error = null;
+    private List<PunchListener>	listeners = null; // Guarded by this
+
+    Punch(String user, int kind, long time, WorkRecord record)
+    {
+      this.user = user;
+      this.kind = kind;
+      this.time = time;
+      this.record = record;
+    }
+
+    String getUser()
+    {
+      return user;
+    }
+
+    int getKind()
+    {
+      return kind;
+    }
+
+    long getTime()
+    {
+      return time;
+    }
+
+    /*
+     * Wait until this punch is committed.
+     *
+     * @param timeout_ms the maximum time to wait in msec.
+     * @return a boolean true if committed, or false if timed out
+     * @throws RuntimeException if the punch failed to be written
+     * @throws InterruptedException if interrupted
+     */
+    boolean await(long timeout_ms)
+      throws InterruptedException
+    {
+      if(!done.await(timeout_ms, TimeUnit.MILLISECONDS)){
+	return false;
+      }
+      if(error != null){
+	throw error;
+      }
+      return true;
+    }
+
+    /*
+     * Add a listener called once this punch is done.  A punch read
+     * twice may have more than one listener.
+     *
+     * @param listener a PunchListener
+     */
+    void addListener(PunchListener listener)
+    {
+      synchronized(this){
+	if(done.getCount() > 0){
+	  if(listeners == null){
+	    listeners = new ArrayList<>();
+	  }
+	  listeners.add(listener);
+	  return;
+	}
+      }
+      listener.onPunchDone(this, error);
+    }
+
+    /*
+     * Return the time from the punch to its commit.
+     *
+     * @return a long in msec., or -1 if not committed
+     */
+    long getLatency()
+    {
+      return (commit_time < 0) ? -1 : commit_time - time;
+    }
+
+    private void complete(RuntimeException error)
+    {
+      this.error = error;
+      this.commit_time = System.currentTimeMillis();
+      List<PunchListener> targets;
+      synchronized(this){
+	done.countDown();
+	targets = listeners;
+	listeners = null;
+      }
+      if(targets != null){
+	for(PunchListener listener : targets){
+	  listener.onPunchDone(this, error);
+	}
+      }
+    }
+  }
+
+  // Queued by stop() after the punches to be written.
+  private static final Punch		STOP = new Punch(null, 0, 0, null);
+  private final WorkRecordManager	recordManager;
+  private final BadgeIndex		badges;
+  private final LinkedBlockingQueue<Punch> queue = new LinkedBlockingQueue<>();
+  // Today's records and last punches of users.  Guarded by this.
+  private final Map<String,WorkRecord>	records = new HashMap<>();
+  private final Map<String,Punch>	last_punches = new HashMap<>();
+  private final Set<WorkRecord>		new_records = new HashSet<>();
+  private Date				today = null;
+  private Thread			writer = null;
+  private long				nbatches = 0;
+
+  KioskRecorder(WorkRecordManager recordManager, BadgeIndex badges)
+  {
+    this.recordManager = recordManager;
+    this.badges = badges;
+  }
+
+  /*
+   * Start the writer thread, loading the records of today in advance.
+   */
+  synchronized void start()
+  {
+    if(writer != null){
+      return;
+    }
+    prepareToday(System.currentTimeMillis());
+    writer = new Thread(new Runnable()
+      {
+	@Override
+	public void run()
+	{
+	  try {
+	    while(true){
+	      List<Punch> batch = new ArrayList<>();
+	      batch.add(queue.take());
+	      queue.drainTo(batch, MAX_BATCH - 1);
+	      boolean stopped_p = batch.remove(STOP);
+	      if(!batch.isEmpty()){
+		write(batch);
+	      }
+	      if(stopped_p){
+		return;
+	      }
+	    }
+	  } catch(InterruptedException ex){
+	    // Stopped.
+	  }
+	}
+      }, "KioskRecorder");
+    writer.start();
+  }
+
+  /*
+   * Stop the writer thread after the punches queued are written.
+   */
+  void stop()
+    throws InterruptedException
+  {
+    Thread thread;
+    synchronized(this){
+      thread = writer;
+      writer = null;
+    }
+    if(thread == null){
+      return;
+    }
+    queue.add(STOP);
+    thread.join();
+  }
+
+  /*
+   * Punch a badge: check in the user if not checked in, or check out
+   * if checked in.  A punch of a user checked out already is done at
+   * once as PUNCH_DONE, and is not queued.
+   *
+   * @param badge the ID of a badge
+   * @return a Punch, or null if the badge is not registered
+   */
+  Punch punch(String badge)
+  {
+    String user = badges.getUser(badge);
+    if(user == null){
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    Punch punch;
+    synchronized(this){
+      Punch last = last_punches.get(user);
+      if(last != null && now - last.getTime() < DEBOUNCE_MILLIS){
+	return last;		// Read twice
+      }
+      prepareToday(now);
+      WorkRecord record = records.get(user);
+      if(record == null ||
+	 (!isToday(record) && record.getCheckoutTime() != null)){
+	record = new WorkRecord(user);
+	record.setDate(today);
+	records.put(user, record);
+	new_records.add(record);
+      }
+      int kind;
+      if(record.getCheckinTime() == null){
+	record.checkinNow();
+	kind = PUNCH_IN;
+      } else if(record.getCheckoutTime() == null){
+	record.checkoutNow();
+	kind = PUNCH_OUT;
+      } else {
+	// NOTE: checkinNow() would reopen the record of today.
+	kind = PUNCH_DONE;
+      }
+      punch = new Punch(user, kind, now, record);
+      if(kind == PUNCH_DONE){
+	punch.complete(null);
+	return punch;
+      }
+      last_punches.put(user, punch);
+    }
+    queue.add(punch);
+    return punch;
+  }
+
+  /*
+   * Load the records of today into the cache unless loaded.  A record
+   * of yesterday checked in but not out is loaded as well unless the
+   * user has a record of today, so that a user working over midnight
+   * checks out the record of yesterday as WorkRecordManager does.
+   */
+  private void prepareToday(long now)
+  {
+    Date date = DateTimeUtils.getDateOf(now);
+    if(date.equals(today)){
+      return;
+    }
+    records.clear();
+    last_punches.clear();
+    new_records.clear();
+    today = date;
+    Date yesterday =
+      DateTimeUtils.fromEpochDay(DateTimeUtils.toEpochDay(date) - 1);
+    for(WorkRecord record :
+	  recordManager.getWorkRecordsBetween(yesterday, date)){
+      if(record.getUser() == null){
+	continue;
+      }
+      if(isToday(record)){
+	records.put(record.getUser(), record);
+      } else if(record.getCheckinTime() != null &&
+		record.getCheckoutTime() == null &&
+		!records.containsKey(record.getUser())){
+	records.put(record.getUser(), record);
+      }
+    }
+  }
+
+  private boolean isToday(WorkRecord record)
+  {
+    return record.getDate() != null &&
+      DateTimeUtils.toEpochDay(record.getDate()) ==
+      DateTimeUtils.toEpochDay(today);
+  }
+
+  /*
+   * Write the records of a batch of punches in a single transaction.
+   * A record punched more than once is written once.
+   *
+   * NOTE: Records are copied before the transaction and their IDs and
+   * versions are copied back after it, so that the lock of this
+   * recorder is never acquired while holding the lock of the manager.
+   */
+  private void write(List<Punch> batch)
+  {
+    final Map<WorkRecord,WorkRecord> copies = new LinkedHashMap<>();
+    final Set<WorkRecord> inserts = new HashSet<>();
+    synchronized(this){
+      for(Punch punch : batch){
+	WorkRecord copy = new WorkRecord(punch.record);
+	copies.put(punch.record, copy);
+	if(new_records.contains(punch.record)){
+	  inserts.add(copy);
+	}
+      }
+    }
+    RuntimeException error = null;
+    try {
+      recordManager.runInTransaction(new Runnable()
+	{
+	  @Override
+	  public void run()
+	  {
+	    for(WorkRecord copy : copies.values()){
+	      if(inserts.contains(copy)){
+		recordManager.addWorkRecord(copy);
+	      } else {
+		recordManager.updateWorkRecord(copy);
+	      }
+	    }
+	  }
+	});
+    } catch(RuntimeException ex){
+      error = ex;
+    }
+    synchronized(this){
+      if(error == null){
+	for(Map.Entry<WorkRecord,WorkRecord> entry : copies.entrySet()){
+	  entry.getKey().setId(entry.getValue().getId());
+	  entry.getKey().setVersion(entry.getValue().getVersion());
+	  new_records.remove(entry.getKey());
+	}
+      } else {
+	today = null;		// Reload the cache from the database.
+      }
+      nbatches++;
+    }
+    for(Punch punch : batch){
+      punch.complete(error);
+    }
+  }
+
+  /*
+   * Return the number of transactions written.
+   *
+   * @return a long
+   */
+  synchronized long getBatches()
+  {
+    return nbatches;
+  }
+}
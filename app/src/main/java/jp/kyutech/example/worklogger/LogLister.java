@@ -10,44 +10,69 @@ import android.app.TimePickerDialog;
 import android.content.DialogInterface;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.ListView;
+import android.widget.TextView;
 import android.widget.TimePicker;
+import androidx.lifecycle.Observer;
 
 import java.sql.Time;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
-import java.util.List;
 
 /**
  * LogLister class which implements
  * AdapterView.OnItemLongClickListener shows a list of work hours and
- * allows to edit them.
+ * allows to edit them.  The list is backed by a WorkRecordPager so
+ * that the whole history can be scrolled with a bounded number of
+ * records in memory.  The pager is held by a LogViewModel so that it
+ * survives the recreation of the activity, and the view model applies
+ * changes published by a WorkRecordManager to the pager.
  *
  * @author Masanobu UMEDA
  * @version $Revision$
  */
 
 class LogLister
-  implements AdapterView.OnItemLongClickListener
+  implements AdapterView.OnItemLongClickListener,
+	     AbsListView.OnScrollListener
 {
   private static final String LOGTAG = "LogLister";
   private MainActivity		activity = null;
   private ListView logList = null;
   private WorkRecordManager	recordManager = null;
-  private ArrayList<String> last_items = null;
+  private LogViewModel		viewModel = null;
+  private WorkRecordPager	pager = null;
+  private HistoryAdapter	adapter = null;
+  private RecordLabelCache	labels = null;
   private AlertDialog alertDialog = null;
 
   LogLister(MainActivity activity,
             ListView logList,
-            WorkRecordManager recordManager)
+	    LogViewModel viewModel)
   {
     this.activity = activity;
     this.logList = logList;
-    this.recordManager = recordManager;
+    this.viewModel = viewModel;
+    this.recordManager = viewModel.getRecordManager();
+    this.pager = viewModel.getPager();
+    this.labels = viewModel.getLabels();
+
+    adapter = new HistoryAdapter();
+    logList.setAdapter(adapter);
+    logList.setOnScrollListener(this);
+    viewModel.getRecordsChanged().observe(activity, new Observer<Integer>()
+      {
+	@Override
+	public void onChanged(Integer generation)
+	{
+	  adapter.notifyDataSetChanged();
+	}
+      });
   }
 
   /*
@@ -58,58 +83,74 @@ class LogLister
   public boolean onItemLongClick(AdapterView<?> av,
                                  View view,
                                  int position, // 0..?
-                                 long id)
+				 long id)	 // Record ID
   {
-    editTimeRecord(position);
+    editTimeRecord(id);
     return true;		// No need to call onItemClick()
   }
 
   /*
-   * Update the list of the newest work records within one month days.
+   * Prefetch the next page when the list is scrolled close to the end
+   * of loaded records.
    */
-  void updateListView()
+  public void onScroll(AbsListView view,
+		       int firstVisibleItem,
+		       int visibleItemCount,
+		       int totalItemCount)
   {
-     List<WorkRecord> records = recordManager.getWorkRecords(31);
+    viewModel.prefetch(firstVisibleItem + visibleItemCount);
+  }
 
-    // Create a list of items to be displayed.
-    ArrayList<String> items = new ArrayList<>();
+  public void onScrollStateChanged(AbsListView view, int scrollState)
+  {
+    // Nothing to do.
+  }
 
-    for(WorkRecord record : records){
-        if(record.isToday()) {
-            String checkin_time = record.getCheckinTimeAsString("        ");
-            String checkout_time = record.getCheckoutTimeAsString("        ");
-            if (checkout_time == "        ") {
-                //int dummy = 1/0;
-                System.out.println("Checkin : " + checkin_time);
-                System.out.println("Checkout: " + checkout_time);
+  /*
+   * Adapter showing the work records held by a pager.
+   */
+  private class HistoryAdapter extends BaseAdapter
+  {
+    @Override
+    public int getCount()
+    {
+      return pager.getCount();
+    }
 
-                String label =
-                        String.format("%s%n 休憩開始時間：%s",
-                                record.getDate(), checkin_time);
-                items.add(label);
-            } else {
-                String sub_time = record.getProgressTime();
-                //int dummy = 1/0;
-                System.out.println("Checkin : " + checkin_time);
-                System.out.println("Checkout: " + checkout_time);
+    @Override
+    public Object getItem(int position)
+    {
+      return pager.getRecordAt(position);
+    }
 
-                String label =
-                        String.format("%s%n 休憩開始時間：%s%n 休憩終了時間：%s%n 休憩時間：%s",
-                                record.getDate(), checkin_time, checkout_time, sub_time);
-                items.add(label);
-            }
-        }
+    @Override
+    public long getItemId(int position)
+    {
+      WorkRecord record = pager.getRecordAt(position);
+      return (record != null) ? record.getId() : AdapterView.INVALID_ROW_ID;
     }
 
-    if(items.equals(last_items)){
-      // No need to update a listView because nothing is updated.
-      return;
+    @Override
+    public boolean hasStableIds()
+    {
+      return true;
     }
-    last_items = items;
 
-    ArrayAdapter<String> adapter =
-      new ArrayAdapter<>(activity, android.R.layout.simple_list_item_1, items);
-    logList.setAdapter(adapter);
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent)
+    {
+      TextView view = (TextView)convertView;
+      if(view == null){
+	view = (TextView)activity.getLayoutInflater()
+	  .inflate(android.R.layout.simple_list_item_1, parent, false);
+      }
+      WorkRecord record = pager.getRecordAt(position);
+      if(record == null){
+	viewModel.reloadPages();	// Shown empty until loaded
+      }
+      view.setText((record != null) ? labels.getLabel(record) : "");
+      return view;
+    }
   }
 
   /*
@@ -154,16 +195,21 @@ class LogLister
   }
 
   /*
-   * Pop up a dialog and start editing a time record located at a
-   * position in a list.
+   * Pop up a dialog and start editing a time record specified by its
+   * ID.  The record is looked up by its primary key so that it does
+   * not depend on how the list is filtered or paged.
    *
-   * @param list_position a position in a list from the top
+   * @param record_id the ID of a work record
    */
-  private void editTimeRecord(int list_position)
+  private void editTimeRecord(long record_id)
   {
+    final WorkRecord record = recordManager.getWorkRecordById(record_id);
+    if(record == null){
+      Log.d(LOGTAG, "editTimeRecord: No record: " + record_id);
+      return;
+    }
     final View editTimeView =
       activity.getLayoutInflater().inflate(R.layout.time_editor, null, false);
-    final WorkRecord record = recordManager.getWorkRecordAt(list_position);
     final String message =
       String.format(activity.getResources()
 		    .getString(R.string.time_editor_edit_message_format),
@@ -190,7 +236,6 @@ class LogLister
 	   Time endTime = getTimeOfButton(endButton);
 
 	   updateTimeRecord(record, startTime, endTime);
-	   updateListView();
 	 }
        });
     builder.setNeutralButton
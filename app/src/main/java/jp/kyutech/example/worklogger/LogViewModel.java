@@ -0,0 +1,324 @@
+// LogViewModel for holding the history of work records shown
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LogViewModel class holds the pager and labels of work records shown
+ * by a LogLister, and loads pages in the background.  A view model
+ * survives the recreation of an activity, so that records are not
+ * queried again and a page being loaded is not lost.  Results of
+ * loads are delivered through LiveData to the current activity only
+ * while it is started.
+ *
+ * Changes published by the WorkRecordManager are applied to the pager
+ * record by record, so neither writers nor readers query records
+ * again after a change.  Changes of the records of other users than
+ * that of the manager are ignored since they are never paged.
+ *
+ * NOTE: Methods must be called from the UI thread.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class LogViewModel extends AndroidViewModel
+{
+  private final WorkRecordManager	recordManager;
+  private final WorkRecordPager	pager;
+  private final RecordLabelCache labels;
+  private final ExecutorService	loader = Executors.newSingleThreadExecutor();
+  private final Handler		handler = new Handler(Looper.getMainLooper());
+  // Incremented whenever the records in the pager are changed
+  private final MutableLiveData<Integer> records_changed =
+    new MutableLiveData<>();
+  private final MutableLiveData<Integer> session_state =
+    new MutableLiveData<>();
+  private int			generation = 0;
+  private boolean		warming_up_p = false;
+  private boolean		warmed_up_p = false;
+  // Incremented by writers so that a warm-up can detect changes made
+  // while loading records.
+  private final AtomicInteger	nchanges = new AtomicInteger();
+  private final WorkRecordListener listener = new WorkRecordListener()
+    {
+      @Override
+      public void onWorkRecordChanged(final int change,
+				      final WorkRecord record)
+      {
+	// Only the records of the user are paged, e.g. not those
+	// punched at a kiosk.
+	if(!Objects.equals(record.getUser(), recordManager.getUser())){
+	  return;
+	}
+	nchanges.incrementAndGet();
+	handler.post(new Runnable()
+	  {
+	    @Override
+	    public void run()
+	    {
+	      applyChange(change, record);
+	    }
+	  });
+      }
+
+      @Override
+      public void onWorkSessionChanged(final int state)
+      {
+	handler.post(new Runnable()
+	  {
+	    @Override
+	    public void run()
+	    {
+	      session_state.setValue(state);
+	    }
+	  });
+      }
+    };
+
+  public LogViewModel(Application application)
+  {
+    super(application);
+    recordManager =
+      WorkLoggerApplication.from(application).getRecordManager();
+    pager = new WorkRecordPager(new WorkRecordPager.PageLoader()
+      {
+	@Override
+	public List<WorkRecord> loadPage(long beforeId, int count)
+	{
+	  return recordManager.getWorkRecordsBefore(beforeId, count);
+	}
+      });
+    labels =
+      new RecordLabelCache(WorkRecordPager.PAGE_SIZE *
+			   WorkRecordPager.MAX_RESIDENT_PAGES);
+    recordManager.addWorkRecordListener(listener);
+  }
+
+  WorkRecordManager getRecordManager()
+  {
+    return recordManager;
+  }
+
+  WorkRecordPager getPager()
+  {
+    return pager;
+  }
+
+  RecordLabelCache getLabels()
+  {
+    return labels;
+  }
+
+  /*
+   * Return LiveData notified when records in the pager are changed.
+   *
+   * @return a LiveData of a generation number
+   */
+  LiveData<Integer> getRecordsChanged()
+  {
+    return records_changed;
+  }
+
+  /*
+   * Return LiveData of the state of the work session, which is set
+   * when warmed up or updated.
+   *
+   * @return a LiveData of one of WorkSession.STATE_*
+   */
+  LiveData<Integer> getSessionState()
+  {
+    return session_state;
+  }
+
+  boolean isWarmedUp()
+  {
+    return warmed_up_p;
+  }
+
+  /*
+   * Open the database, restore the work session and load the newest
+   * page in the background unless done or being done.
+   */
+  void warmUp()
+  {
+    if(warmed_up_p || warming_up_p){
+      return;
+    }
+    warming_up_p = true;
+    loadNewestPage(true);
+  }
+
+  /*
+   * Load the newest page in the background, and reload the pager with
+   * it on the UI thread.  The page is loaded again in the background
+   * if records are changed while loading it.
+   *
+   * @param first_p true at the first load of a warm-up
+   */
+  private void loadNewestPage(final boolean first_p)
+  {
+    loader.execute(new Runnable()
+      {
+	@Override
+	public void run()
+	{
+	  final int before = nchanges.get();
+	  // The first access opens the database and restores the session.
+	  final int state = recordManager.getWorkSessionState();
+	  final List<WorkRecord> records =
+	    recordManager.getWorkRecordsBefore(Long.MAX_VALUE,
+					       WorkRecordPager.PAGE_SIZE);
+	  if(first_p){
+	    StartupTracer.mark("databaseWarm");
+	  }
+	  handler.post(new Runnable()
+	    {
+	      @Override
+	      public void run()
+	      {
+		if(nchanges.get() != before){
+		  // Records changed while loading may not be loaded.
+		  loadNewestPage(false);
+		  return;
+		}
+		warming_up_p = false;
+		warmed_up_p = true;
+		pager.reload(records);
+		records_changed.setValue(++generation);
+		session_state.setValue(state);
+	      }
+	    });
+	}
+      });
+  }
+
+  /*
+   * Apply a change of a work record to the pager.
+   *
+   * @param change one of WorkRecordListener.CHANGE_*
+   * @param record a work record changed
+   */
+  private void applyChange(int change, WorkRecord record)
+  {
+    boolean changed_p = false;
+    switch(change){
+    case WorkRecordListener.CHANGE_INSERTED:
+      changed_p = pager.insert(record);
+      break;
+    case WorkRecordListener.CHANGE_UPDATED:
+      changed_p = pager.update(record);
+      break;
+    case WorkRecordListener.CHANGE_DELETED:
+      labels.invalidate(record.getId());
+      changed_p = pager.remove(record.getId());
+      break;
+    default:
+      break;
+    }
+    if(changed_p){
+      records_changed.setValue(++generation);
+    }
+  }
+
+  /*
+   * Update the state of the work session.  No database is accessed
+   * once warmed up.
+   */
+  void updateSessionState()
+  {
+    session_state.setValue(recordManager.getWorkSessionState());
+  }
+
+  /*
+   * Load the next page in the background if a given position is close
+   * to the end of loaded records.
+   *
+   * @param lastVisible the position of the last visible row
+   */
+  void prefetch(int lastVisible)
+  {
+    if(!pager.needsPrefetch(lastVisible)){
+      return;
+    }
+    final long key = pager.beginPrefetch();
+    loader.execute(new Runnable()
+      {
+	@Override
+	public void run()
+	{
+	  final List<WorkRecord> records =
+	    recordManager.getWorkRecordsBefore(key,
+					       WorkRecordPager.PAGE_SIZE);
+	  handler.post(new Runnable()
+	    {
+	      @Override
+	      public void run()
+	      {
+		if(pager.finishPrefetch(key, records)){
+		  records_changed.setValue(++generation);
+		}
+	      }
+	    });
+	}
+      });
+  }
+
+  /*
+   * Load the pages evicted but requested by the pager again in the
+   * background.  Records in them are shown when loaded.
+   */
+  void reloadPages()
+  {
+    long key;
+    while((key = pager.beginReload()) >= 0){
+      final long page_key = key;
+      final int size = pager.getPageSize(key);
+      loader.execute(new Runnable()
+	{
+	  @Override
+	  public void run()
+	  {
+	    final List<WorkRecord> records =
+	      recordManager.getWorkRecordsBefore(page_key, size);
+	    handler.post(new Runnable()
+	      {
+		@Override
+		public void run()
+		{
+		  if(pager.finishReload(page_key, records)){
+		    records_changed.setValue(++generation);
+		  } else {
+		    reloadPages();	// Load a changed page again.
+		  }
+		}
+	      });
+	  }
+	});
+    }
+  }
+
+  @Override
+  protected void onCleared()
+  {
+    recordManager.removeWorkRecordListener(listener);
+    loader.shutdownNow();
+    handler.removeCallbacksAndMessages(null);
+  }
+}
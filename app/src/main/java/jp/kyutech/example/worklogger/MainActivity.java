@@ -8,14 +8,25 @@ package jp.kyutech.example.worklogger;
 
 import android.app.AlertDialog;
 import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.graphics.Typeface;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.HorizontalScrollView;
 import android.widget.ListView;
+import android.widget.ScrollView;
+import android.widget.TextView;
 import android.widget.ToggleButton;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.Observer;
+import androidx.lifecycle.ViewModelProvider;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
 /**
  * MainActivity class defines the main activity of this application.  An
@@ -29,11 +40,16 @@ import androidx.appcompat.app.AppCompatActivity;
 public class MainActivity extends AppCompatActivity
 {
   private static final String LOGTAG = "MainActivity";
+  private static final String DUMP_VERIFY_SUMMARIES = "--verify-summaries";
+  private static final String DUMP_REBUILD_SUMMARIES = "--rebuild-summaries";
+  private static final int    REQUEST_BEACON_PERMISSION = 1;
   private WorkRecordManager     recordManager = null;
   private StarterSwitch         starterSwitch = null;
-  private WorkStarterSwitch     workStarterSwitch = null;
+  private StarterSwitch         workStarterSwitch = null;
   private LogLister             logLister = null;
   private Notifier              notifier = null;
+  private LogViewModel		viewModel = null;
+  private TodaySnapshot		snapshot = null;
   // NOTE: Remember a current application state because Dialogs cannot
   // be created after stopped.
   private boolean               is_started_p = false;
@@ -43,28 +59,92 @@ public class MainActivity extends AppCompatActivity
   {
     super.onCreate(savedInstanceState);
     Log.d(LOGTAG, "onCreate()");
+    StartupTracer.mark("onCreate");
 
     setContentView(R.layout.activity_main);
+    StartupTracer.mark("contentView");
 
     notifier = new Notifier(this);
-    recordManager = new WorkRecordManager(this);
+    WorkLoggerApplication application = WorkLoggerApplication.from(this);
+    recordManager = application.getRecordManager();
+    snapshot = application.getTodaySnapshot();
+    viewModel = new ViewModelProvider(this).get(LogViewModel.class);
 
     ListView logList = (ListView)findViewById(R.id.logList);
-    logLister = new LogLister(this, logList, recordManager);
+    logLister = new LogLister(this, logList, viewModel);
     logList.setOnItemLongClickListener(logLister);
 
     ToggleButton starterButton = (ToggleButton)findViewById(R.id.starterButton);
     ToggleButton workStarterButton = (ToggleButton)findViewById(R.id.workStarterButton);
     starterSwitch =
-      new StarterSwitch(this, starterButton, recordManager);
+      new StarterSwitch(this, starterButton, recordManager,
+			WorkInterval.KIND_BREAK);
     starterButton.setOnCheckedChangeListener(starterSwitch);
 
     workStarterSwitch =
-            new WorkStarterSwitch(this, workStarterButton, recordManager);
-    workStarterButton.setOnCheckedChangeListener(starterSwitch);
+      new StarterSwitch(this, workStarterButton, recordManager,
+			WorkInterval.KIND_WORK);
+    workStarterButton.setOnCheckedChangeListener(workStarterSwitch);
+
+    // Render the first frame from the snapshot of today until the
+    // state of the work session is known.
+    int state = snapshot.getState();
+    starterSwitch.updateStarterView(state);
+    workStarterSwitch.updateStarterView(state);
+    traceFirstFrame();
+    viewModel.getSessionState().observe(this, new Observer<Integer>()
+      {
+	@Override
+	public void onChanged(Integer state)
+	{
+	  starterSwitch.updateStarterView(state);
+	  workStarterSwitch.updateStarterView(state);
+	  WorkLoggerApplication.from(MainActivity.this).publishTodayState(state);
+	  if(!StartupTracer.isFinished()){
+	    StartupTracer.finish("fullyDrawn");
+	    reportFullyDrawn();
+	  }
+	}
+      });
 
     if(savedInstanceState != null){
       onRestoreInstanceState(savedInstanceState);
+    } else {
+      // NOTE: Not requested again by a recreation such as a rotation.
+      requestBeaconPermission();
+    }
+  }
+
+  /*
+   * Request the permission to scan a beacon if a beacon is configured
+   * but the permission is not granted yet.  The beacon ingestor is
+   * started when it is granted.
+   */
+  private void requestBeaconPermission()
+  {
+    WorkLoggerApplication application = WorkLoggerApplication.from(this);
+    if(!application.isBeaconConfigured() ||
+       BleBeaconSource.hasPermission(this)){
+      return;
+    }
+    requestPermissions(new String[]{ BleBeaconSource.PERMISSION },
+		       REQUEST_BEACON_PERMISSION);
+  }
+
+  @Override
+  public void onRequestPermissionsResult(int requestCode,
+					 String[] permissions,
+					 int[] grantResults)
+  {
+    super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+    if(requestCode != REQUEST_BEACON_PERMISSION){
+      return;
+    }
+    if(grantResults.length > 0 &&
+       grantResults[0] == PackageManager.PERMISSION_GRANTED){
+      WorkLoggerApplication.from(this).startBeaconIngestor();
+    } else {
+      Log.w(LOGTAG, "Work hours are not recorded by a beacon without the permission");
     }
   }
 
@@ -89,7 +169,14 @@ public class MainActivity extends AppCompatActivity
   {
     super.onResume();
     Log.d(LOGTAG, "onResume()");
-    updateView();
+    // NOTE: Records are not loaded again after warmed up since changes
+    // are applied incrementally by the view model.  The state of the
+    // work session may be changed by midnight.
+    if(!viewModel.isWarmedUp()){
+      viewModel.warmUp();
+    } else {
+      viewModel.updateSessionState();
+    }
   }
 
   @Override
@@ -132,6 +219,7 @@ public class MainActivity extends AppCompatActivity
   public boolean onCreateOptionsMenu(Menu menu)
   {
     getMenuInflater().inflate(R.menu.option_menu, menu);
+    menu.findItem(R.id.option_menu_metrics).setVisible(BuildConfig.DEBUG);
     return true;
   }
 
@@ -144,6 +232,12 @@ public class MainActivity extends AppCompatActivity
     case R.id.option_menu_about:
       showAbout();
       break;
+    case R.id.option_menu_kiosk:
+      startActivity(new Intent(this, KioskActivity.class));
+      break;
+    case R.id.option_menu_metrics:
+      showMetrics();
+      break;
     default:
       break;
     }
@@ -158,12 +252,22 @@ public class MainActivity extends AppCompatActivity
   }
 
   /*
-   * Update the sub-views in this main view.
+   * Record the phase of the first frame of a startup.
    */
-  public void updateView()
+  private void traceFirstFrame()
   {
-    logLister.updateListView();
-    starterSwitch.updateStarterView();
+    final View decor = getWindow().getDecorView();
+    decor.getViewTreeObserver().addOnPreDrawListener
+      (new ViewTreeObserver.OnPreDrawListener()
+	{
+	  @Override
+	  public boolean onPreDraw()
+	  {
+	    decor.getViewTreeObserver().removeOnPreDrawListener(this);
+	    StartupTracer.mark("firstFrame");
+	    return true;
+	  }
+	});
   }
 
   /*
@@ -242,4 +346,84 @@ public class MainActivity extends AppCompatActivity
     builder.create();
     builder.show();
   }
+
+  /*
+   * Show a dialog of the metrics of operations for debugging.
+   */
+  private void showMetrics()
+  {
+    TextView textView = new TextView(this);
+    textView.setTypeface(Typeface.MONOSPACE);
+    textView.setTextSize(10);
+    textView.setText(Metrics.dump());
+    HorizontalScrollView hscroll = new HorizontalScrollView(this);
+    hscroll.addView(textView);
+    ScrollView scroll = new ScrollView(this);
+    scroll.addView(hscroll);
+
+    AlertDialog.Builder builder = new AlertDialog.Builder(this);
+    builder.setTitle(R.string.menu_app_metrics);
+    builder.setView(scroll);
+    builder.setPositiveButton(R.string.dialog_alert_accept, null);
+    builder.setNeutralButton(R.string.metrics_reset,
+			     new DialogInterface.OnClickListener()
+			     {
+			       @Override
+			       public void onClick(DialogInterface dialogInterface,
+						   int i)
+			       {
+				 Metrics.reset();
+			       }
+			     });
+    builder.show();
+  }
+
+  /*
+   * Dump metrics as well by "adb shell dumpsys activity
+   * jp.kyutech.example.worklogger".  The summary tables of a database
+   * are verified by an argument "--verify-summaries", and rebuilt by
+   * "--rebuild-summaries".
+   */
+  @Override
+  public void dump(String prefix, FileDescriptor fd, PrintWriter writer,
+		   String[] args)
+  {
+    if(args != null && args.length > 0 &&
+       (args[0].equals(DUMP_VERIFY_SUMMARIES) ||
+	args[0].equals(DUMP_REBUILD_SUMMARIES))){
+      dumpSummaries(prefix, writer, args[0].equals(DUMP_REBUILD_SUMMARIES));
+      return;
+    }
+    super.dump(prefix, fd, writer, args);
+    writer.print(prefix);
+    writer.println("Metrics" + (Metrics.isEnabled() ? ":" : " (disabled):"));
+    Metrics.dump(writer);
+    writer.print(prefix);
+    writer.println("Startup:");
+    StartupTracer.dump(writer);
+  }
+
+  /*
+   * Verify the summary tables of the database owned by the manager of
+   * the application, and rebuild them if requested.
+   */
+  private void dumpSummaries(String prefix, PrintWriter writer,
+			     boolean rebuild_p)
+  {
+    WorkRecordDatabase database =
+      WorkLoggerApplication.from(this).getRecordManager().getDatabase();
+    writer.print(prefix);
+    if(database == null){
+      writer.println("Summaries: not kept by the store");
+      return;
+    }
+    long nrows = database.verifySummaries();
+    writer.println("Summaries: " + nrows + " rows differ from records");
+    if(rebuild_p){
+      database.rebuildSummaries();
+      writer.print(prefix);
+      writer.println("Summaries: rebuilt, " +
+		     database.verifySummaries() + " rows differ");
+    }
+  }
 }
@@ -0,0 +1,173 @@
+// StallWatchdog for detecting stalls of the main thread
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * StallWatchdog class is a thread watching the main thread for
+ * debugging.  The watchdog posts a tick to the main thread, and if
+ * the tick does not run within a threshold, it reports the stack of
+ * the main thread and the operations of WorkRecordManager and a
+ * WorkRecordStore in flight, which are kept by Metrics.  Reports are
+ * appended to a file in the files directory of an application:
+ *
+ *   adb shell run-as jp.kyutech.example.worklogger cat files/stalls.txt
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class StallWatchdog extends Thread
+{
+  private static final String	LOGTAG = "StallWatchdog";
+  public static final String	REPORT_FILE = "stalls.txt";
+  public static final long	DEFAULT_THRESHOLD_MILLIS = 200;
+  private static final long	MAX_REPORT_SIZE = 256 * 1024;
+  private static final String	DATE_FORMAT = "yyyy/MM/dd HH:mm:ss.SSS";
+
+  private final Handler		handler = new Handler(Looper.getMainLooper());
+  private final Thread		main_thread = Looper.getMainLooper().getThread();
+  private final File		report_file;
+  private final long		threshold_millis;
+  private volatile boolean	running_p = true;
+  private volatile boolean	ticked_p = false;
+  private final Runnable	tick = new Runnable()
+    {
+      @Override
+      public void run()
+      {
+	ticked_p = true;
+      }
+    };
+
+  public StallWatchdog(Context context)
+  {
+    this(context, DEFAULT_THRESHOLD_MILLIS);
+  }
+
+  /*
+   * Create a watchdog of the main thread.
+   *
+   * @param context a context to locate the report file
+   * @param threshold_millis the minimum duration of a stall in msec.
+   */
+  public StallWatchdog(Context context, long threshold_millis)
+  {
+    super(LOGTAG);
+    setDaemon(true);
+    this.report_file = new File(context.getFilesDir(), REPORT_FILE);
+    this.threshold_millis = threshold_millis;
+  }
+
+  /*
+   * Stop watching the main thread.
+   */
+  public void shutdown()
+  {
+    running_p = false;
+    interrupt();
+  }
+
+  @Override
+  public void run()
+  {
+    Metrics.setWatchedThread(main_thread);
+    try {
+      while(running_p){
+	ticked_p = false;
+	long posted = SystemClock.uptimeMillis();
+	handler.post(tick);
+	Thread.sleep(threshold_millis);
+	if(ticked_p){
+	  continue;
+	}
+	// Capture the main thread while it is still stalled.
+	String operations = Metrics.getWatchedOperations();
+	StackTraceElement[] stack = main_thread.getStackTrace();
+	report(operations, stack, SystemClock.uptimeMillis() - posted);
+	while(!ticked_p && running_p){
+	  Thread.sleep(threshold_millis / 4 + 1);
+	}
+	reportRecovery(SystemClock.uptimeMillis() - posted);
+      }
+    } catch(InterruptedException ex){
+      // Shut down.
+    } finally {
+      Metrics.setWatchedThread(null);
+    }
+  }
+
+  /*
+   * Report a stall of the main thread.
+   *
+   * @param operations operations in flight, or null if unknown
+   * @param stack the stack of the main thread
+   * @param millis the duration of the stall so far
+   */
+  private void report(String operations,
+		      StackTraceElement[] stack,
+		      long millis)
+  {
+    StringWriter buffer = new StringWriter();
+    PrintWriter writer = new PrintWriter(buffer);
+    writer.println("--- Stall at " +
+		   new SimpleDateFormat(DATE_FORMAT).format(new Date()) +
+		   " ---");
+    writer.println("Main thread blocked for " + millis + " ms in " +
+		   (operations != null ? operations : "no record operation"));
+    for(StackTraceElement element : stack){
+      writer.println("\tat " + element);
+    }
+    writer.flush();
+    String text = buffer.toString();
+    Log.w(LOGTAG, text);
+    append(text);
+  }
+
+  private void reportRecovery(long millis)
+  {
+    String text = "Main thread recovered after " + millis + " ms\n";
+    Log.w(LOGTAG, text);
+    append(text);
+  }
+
+  /*
+   * Append a text to the report file.  An old file is rotated when it
+   * gets too large.
+   */
+  private void append(String text)
+  {
+    if(report_file.length() > MAX_REPORT_SIZE){
+      File old = new File(report_file.getPath() + ".old");
+      old.delete();
+      report_file.renameTo(old);
+    }
+    try {
+      FileWriter writer = new FileWriter(report_file, true);
+      try {
+	writer.write(text);
+      } finally {
+	writer.close();
+      }
+    } catch(IOException ex){
+      Log.e(LOGTAG, "Cannot write " + report_file, ex);
+    }
+  }
+}
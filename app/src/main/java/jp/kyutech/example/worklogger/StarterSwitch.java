@@ -6,17 +6,14 @@
 
 package jp.kyutech.example.worklogger;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
-import android.os.Bundle;
 import android.util.Log;
 import android.widget.CompoundButton;
 import android.widget.ToggleButton;
 
 /**
  * Starter switch class which implements ToggleButton.OnCheckedChangeListener.
+ * A starter switch drives the work session of a WorkRecordManager
+ * either for working or for breaks, and shows its current state.
  *
  * @author Masanobu UMEDA
  * @version $Revision$
@@ -30,48 +27,19 @@ class StarterSwitch
   private MainActivity		activity = null;
   private WorkRecordManager	recordManager = null;
   private ToggleButton button = null;
-  private Drawable drawable_starter_stop = null;
-  private Drawable drawable_starter_start = null;
-  private Drawable drawable_starter_disabled = null;
+  private int			kind = WorkInterval.KIND_WORK;
 
   StarterSwitch(MainActivity activity,
                 ToggleButton button,
-                WorkRecordManager recordManager)
+		WorkRecordManager recordManager,
+		int kind)	// WorkInterval.KIND_WORK or KIND_BREAK
   {
     this.activity = activity;
     this.button = button;
     this.recordManager = recordManager;
-
-    Bitmap bitmap_starter_stop =
-      BitmapFactory.decodeResource(activity.getResources(),
-				   R.drawable.starter_stop);
-    drawable_starter_stop =
-      new BitmapDrawable(activity.getResources(), bitmap_starter_stop);
-
-    Bitmap bitmap_starter_start =
-      BitmapFactory.decodeResource(activity.getResources(),
-				   R.drawable.starter_start);
-    drawable_starter_start =
-      new BitmapDrawable(activity.getResources(), bitmap_starter_start);
-
-    Bitmap bitmap_starter_disabled =
-      BitmapFactory.decodeResource(activity.getResources(),
-				   R.drawable.starter_disabled);
-    drawable_starter_disabled =
-      new BitmapDrawable(activity.getResources(), bitmap_starter_disabled);
-
-    updateStarterView();
-  }
-
-  void saveInstanceState(Bundle outState)
-  {
-    outState.putBoolean("starterButton.isChecked", button.isChecked());
-  }
-
-  void restoreInstanceState(Bundle savedState)
-  {
-    button.setChecked(savedState.getBoolean("starterButton.isChecked", false));
-    onCheckedChanged(button, button.isChecked());
+    this.kind = kind;
+    // NOTE: The view is not updated here since the work session may
+    // not be restored from a database yet at startup.
   }
 
   /*
@@ -88,15 +56,29 @@ class StarterSwitch
     Log.d(LOGTAG, "onCheckedChanged():" + isChecked);
     String error_message = null;
     try {
-      recordManager.updateWorkRecordBy(isChecked);
+      if(kind == WorkInterval.KIND_WORK){
+	if(isChecked){
+	  recordManager.startWork();
+	} else {
+	  recordManager.stopWork();
+	}
+      } else {
+	if(isChecked){
+	  recordManager.startBreak();
+	} else {
+	  recordManager.stopBreak();
+	}
+      }
     } catch(Exception ex){
       Log.e(LOGTAG, ex.getMessage(), ex);
       String title =
 	activity.getResources().getString(R.string.dialog_alert_title);
       String message = MessageFormatter.getErrorReason(ex);
       ErrorFragment.showErrorDialog(activity, title, message);
+      // Turn back the button.  Otherwise, starter switches are updated
+      // by a change of the work session published by the manager.
+      updateStarterView(recordManager.getWorkSessionState());
     }
-    activity.updateView();
   }
 
   /*
@@ -111,24 +93,39 @@ class StarterSwitch
   }
 
   /*
-   * Update the view of a starter button according to its internal
-   * state.
+   * Update the view of a starter button according to a state of the
+   * work session, e.g. a state cached by a TodaySnapshot.
+   *
+   * @param state one of WorkSession.STATE_*
    */
-  void updateStarterView() {
-    Log.d(LOGTAG, "updateStarterView(): ");
+  void updateStarterView(int state) {
+    Log.d(LOGTAG, "updateStarterView(): " + state);
+
+    boolean checked = (kind == WorkInterval.KIND_WORK) ?
+      (state == WorkSession.STATE_WORKING ||
+       state == WorkSession.STATE_ON_BREAK) :
+      (state == WorkSession.STATE_ON_BREAK);
+    if(button.isChecked() != checked){
+      // Change the button without firing onCheckedChanged().
+      button.setOnCheckedChangeListener(null);
+      button.setChecked(checked);
+      button.setOnCheckedChangeListener(this);
+    }
 
     // NOTE: The icons of the starter button are specified for each
     // button state (on and off) in res/drawable/starter_button.xml
     // while the texts of the starter button in
     // res/layout/activity_main.xml.  The following codes are examples
     // to change the icons and texts of a toggle button according to
-    // its state by codes instead of resource files.
+    // its state by codes instead of resource files.  A drawable
+    // obtained by getDrawable() shares its bitmap with the other
+    // drawables of the same resource, and is decoded only once.
     /*
     if (button.isChecked()) {
-      button.setBackground(drawable_starter_stop);
+      button.setBackground(activity.getDrawable(R.drawable.starter_stop));
       button.setText(R.string.stop_working);
     } else {
-      button.setBackground(drawable_starter_start);
+      button.setBackground(activity.getDrawable(R.drawable.starter_start));
       button.setText(R.string.start_working);
     }
     */
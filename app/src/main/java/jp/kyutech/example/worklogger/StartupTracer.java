@@ -0,0 +1,108 @@
+// StartupTracer for measuring the phases of a cold start
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * StartupTracer class records the time of each phase of a startup
+ * since the process was started, e.g.:
+ *
+ *   onCreate                     95 ms
+ *   contentView                 180 ms (+85)
+ *   firstFrame                  240 ms (+60)
+ *   databaseWarm                310 ms (+70)
+ *   fullyDrawn                  330 ms (+20)
+ *
+ * Phases are logged when a startup is finished, and are also shown by
+ * "adb shell dumpsys activity jp.kyutech.example.worklogger".
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class StartupTracer
+{
+  private static final String	LOGTAG = "StartupTracer";
+  private static final int	MAX_PHASES = 16;
+
+  private static final String[]	phases = new String[MAX_PHASES];
+  private static final long[]	millis = new long[MAX_PHASES];
+  private static int		nphases = 0;
+  private static boolean	finished_p = false;
+
+  /*
+   * Record the end of a phase.  Nothing is recorded after a startup
+   * is finished.
+   *
+   * @param phase the name of a phase
+   */
+  public static synchronized void mark(String phase)
+  {
+    if(finished_p || nphases >= MAX_PHASES){
+      return;
+    }
+    phases[nphases] = phase;
+    millis[nphases] = SystemClock.uptimeMillis() - Process.getStartUptimeMillis();
+    nphases++;
+  }
+
+  /*
+   * Record the last phase of a startup and log all phases.
+   *
+   * @param phase the name of the last phase
+   */
+  public static synchronized void finish(String phase)
+  {
+    if(finished_p){
+      return;
+    }
+    mark(phase);
+    finished_p = true;
+    Log.i(LOGTAG, dump());
+  }
+
+  public static synchronized boolean isFinished()
+  {
+    return finished_p;
+  }
+
+  /*
+   * Write the phases recorded so far.
+   *
+   * @param writer a writer
+   */
+  public static synchronized void dump(PrintWriter writer)
+  {
+    for(int i = 0; i < nphases; i++){
+      if(i == 0){
+	writer.printf("%-24s %6d ms\n", phases[i], millis[i]);
+      } else {
+	writer.printf("%-24s %6d ms (+%d)\n", phases[i], millis[i],
+		      millis[i] - millis[i - 1]);
+      }
+    }
+    writer.flush();
+  }
+
+  /*
+   * Return the text written by dump().
+   *
+   * @return a String
+   */
+  public static String dump()
+  {
+    StringWriter buffer = new StringWriter();
+    dump(new PrintWriter(buffer));
+    return buffer.toString();
+  }
+}
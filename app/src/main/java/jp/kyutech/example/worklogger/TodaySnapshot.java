@@ -0,0 +1,86 @@
+// TodaySnapshot for caching the state of today's work session
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * TodaySnapshot class caches the state of the work session of today
+ * in SharedPreferences so that the first frame of an application is
+ * rendered before the database is opened.  A snapshot is only a hint
+ * and is replaced by the state restored from the database soon.  The
+ * check-in widget and tile are also rendered from a snapshot so that
+ * they never open the database just to be drawn.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+class TodaySnapshot
+{
+  private static final String	PREFS_NAME = "today_snapshot";
+  private static final String	KEY_DATE = "date";
+  private static final String	KEY_STATE = "state";
+  private SharedPreferences	prefs = null;
+
+  TodaySnapshot(Context context)
+  {
+    prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+  }
+
+  /*
+   * Return the state of the work session cached for today.  A session
+   * working over midnight remains working as WorkSession.rollOver()
+   * does.
+   *
+   * @return one of WorkSession.STATE_*
+   */
+  int getState()
+  {
+    int state = prefs.getInt(KEY_STATE, WorkSession.STATE_IDLE);
+    String date = prefs.getString(KEY_DATE, null);
+    if(!DateTimeUtils.getToday().toString().equals(date) &&
+       (state == WorkSession.STATE_IDLE || state == WorkSession.STATE_DONE)){
+      return WorkSession.STATE_IDLE;
+    }
+    return state;
+  }
+
+  /*
+   * Return true if working or on a break, i.e. checked in, in a state.
+   *
+   * @param state one of WorkSession.STATE_*
+   * @return a boolean
+   */
+  static boolean isCheckedIn(int state)
+  {
+    return (state == WorkSession.STATE_WORKING ||
+	    state == WorkSession.STATE_ON_BREAK);
+  }
+
+  /*
+   * Save the state of the work session of today.  The state is written
+   * asynchronously.
+   *
+   * @param state one of WorkSession.STATE_*
+   * @return a boolean true if the state is changed
+   */
+  synchronized boolean save(int state)
+  {
+    String today = DateTimeUtils.getToday().toString();
+    if(state == prefs.getInt(KEY_STATE, -1) &&
+       today.equals(prefs.getString(KEY_DATE, null))){
+      return false;
+    }
+    prefs.edit()
+      .putString(KEY_DATE, today)
+      .putInt(KEY_STATE, state)
+      .apply();
+    return true;
+  }
+}
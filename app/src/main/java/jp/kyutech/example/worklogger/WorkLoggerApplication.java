@@ -0,0 +1,252 @@
+// WorkLoggerApplication for holding states shared by activities
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import android.app.Application;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * WorkLoggerApplication class holds the WorkRecordManager and other
+ * states of this application for the lifetime of a process.  They
+ * survive the recreation of activities such as a rotation, so that
+ * caches and an open database are not thrown away, and they never
+ * refer to an activity.
+ *
+ * Changes of the work session are saved in the TodaySnapshot and
+ * pushed to the check-in widgets and tile, so that they are drawn
+ * without starting an activity nor opening the database.  Changes of
+ * work records are notified to observers of the WorkRecordProvider.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class WorkLoggerApplication extends Application
+{
+  private static final String	LOGTAG = "WorkLoggerApplication";
+  private static final String	KIOSK_ROSTER = "kiosk_roster.csv";
+  private WorkRecordManager	recordManager = null;
+  private TodaySnapshot		snapshot = null;
+  private StallWatchdog		watchdog = null;
+  private BeaconIngestor	beaconIngestor = null;
+  private KioskRecorder		kioskRecorder = null;
+  private final ExecutorService	toggler = Executors.newSingleThreadExecutor();
+
+  @Override
+  public void onCreate()
+  {
+    super.onCreate();
+    StartupTracer.mark("application");
+
+    // Metrics are measured only in a debug build.
+    Metrics.setEnabled(BuildConfig.DEBUG);
+    if(BuildConfig.DEBUG){
+      watchdog = new StallWatchdog(this);
+      watchdog.start();
+    }
+    // NOTE: The database is not opened until the first operation.
+    recordManager = new WorkRecordManager(this);
+    snapshot = new TodaySnapshot(this);
+    recordManager.addWorkRecordListener(new WorkRecordListener()
+      {
+	@Override
+	public void onWorkRecordChanged(int change, WorkRecord record)
+	{
+	  getContentResolver().notifyChange
+	    (WorkRecordContract.WorkRecords.buildUri(record.getId()), null);
+	}
+
+	@Override
+	public void onWorkSessionChanged(int state)
+	{
+	  publishTodayState(state);
+	}
+      });
+    startBeaconIngestor();
+  }
+
+  /*
+   * Save the state of the work session of today, and update the
+   * check-in widgets and tile if it is changed.
+   *
+   * @param state one of WorkSession.STATE_*
+   */
+  void publishTodayState(int state)
+  {
+    if(snapshot.save(state)){
+      CheckinWidgetProvider.updateAll(this);
+      CheckinTileService.requestUpdate(this);
+    }
+  }
+
+  /*
+   * Check in if not checked in today, or check out otherwise.  This is
+   * the fast path of the check-in widget and tile, which writes a work
+   * record without starting an activity.  It must be called on a
+   * background thread since the database may be opened.
+   *
+   * @return the new state of the work session
+   */
+  int toggleCheckin()
+  {
+    boolean checked_in_p =
+      TodaySnapshot.isCheckedIn(recordManager.getWorkSessionState());
+    try {
+      recordManager.updateWorkRecordBy(!checked_in_p);
+    } catch(RuntimeException ex){
+      Log.e(LOGTAG, ex.getMessage(), ex);
+    }
+    int state = recordManager.getWorkSessionState();
+    // Correct a stale snapshot even if nothing is changed.
+    publishTodayState(state);
+    return state;
+  }
+
+  /*
+   * Check if the address of a beacon is configured.
+   *
+   * @return true if work hours are recorded by a beacon
+   */
+  boolean isBeaconConfigured()
+  {
+    return getString(R.string.beacon_address).length() > 0;
+  }
+
+  /*
+   * Toggle the check-in on a thread of this application, which
+   * outlives a tile unbound or a receiver returned.  Toggles are run
+   * one by one so that quick taps never race to read the same state.
+   *
+   * @param done a Runnable run after toggled, or null
+   */
+  void toggleCheckinInBackground(final Runnable done)
+  {
+    toggler.execute(new Runnable()
+      {
+	@Override
+	public void run()
+	{
+	  try {
+	    toggleCheckin();
+	  } finally {
+	    if(done != null){
+	      done.run();
+	    }
+	  }
+	}
+      });
+  }
+
+  /*
+   * Start recording work hours by the presence near a beacon if the
+   * address of a beacon is configured and scans are permitted.  It is
+   * called again by an activity when the permission is granted.
+   */
+  synchronized void startBeaconIngestor()
+  {
+    if(beaconIngestor != null || !isBeaconConfigured()){
+      return;
+    }
+    if(!BleBeaconSource.hasPermission(this)){
+      Log.i(LOGTAG, "Beacon ingestor waits for the location permission");
+      return;
+    }
+    String address = getString(R.string.beacon_address);
+    final ScanScheduler scheduler = new ScanScheduler();
+    // Learned on the thread of toggles rather than a thread of its
+    // own, since it reads the records only once.
+    toggler.execute(new Runnable()
+      {
+	@Override
+	public void run()
+	{
+	  scheduler.learn
+	    (recordManager.getWorkRecords(ScanScheduler.HISTORY_SIZE));
+	}
+      });
+    // A beacon is not lost while scans are backed off.
+    BeaconPresenceDetector detector = new BeaconPresenceDetector()
+      {
+	@Override
+	protected long getLostMillis(long time)
+	{
+	  return scheduler.getLostMillis(time);
+	}
+      };
+    beaconIngestor =
+      new BeaconIngestor(new BleBeaconSource(this, address, scheduler),
+			 address,
+			 detector,
+			 new BeaconIngestor.Listener()
+			 {
+			   @Override
+			   public void onPresenceChanged(boolean present_p)
+			   {
+			     Log.i(LOGTAG, "Presence changed: " + present_p);
+			     try {
+			       recordManager.updateWorkRecordBy(present_p);
+			     } catch(RuntimeException ex){
+			       Log.e(LOGTAG, ex.getMessage(), ex);
+			     }
+			   }
+			 });
+    beaconIngestor.start();
+  }
+
+  /*
+   * Return the recorder of a kiosk, reading the roster of users at the
+   * first call.  It must be called on a background thread.
+   *
+   * @return a KioskRecorder, or null if there is no roster
+   */
+  synchronized KioskRecorder getKioskRecorder()
+  {
+    if(kioskRecorder != null){
+      return kioskRecorder;
+    }
+    File roster = new File(getFilesDir(), KIOSK_ROSTER);
+    try(Reader reader =
+	new InputStreamReader(new FileInputStream(roster), "UTF-8")){
+      kioskRecorder = new KioskRecorder(recordManager, BadgeIndex.read(reader));
+    } catch(IOException | IllegalArgumentException ex){
+      Log.w(LOGTAG, "Cannot read a roster: " + roster, ex);
+      return null;
+    }
+    kioskRecorder.start();
+    return kioskRecorder;
+  }
+
+  /*
+   * Return the application of a context.
+   *
+   * @param context a context of this application
+   * @return a WorkLoggerApplication
+   */
+  public static WorkLoggerApplication from(Context context)
+  {
+    return (WorkLoggerApplication)context.getApplicationContext();
+  }
+
+  public WorkRecordManager getRecordManager()
+  {
+    return recordManager;
+  }
+
+  TodaySnapshot getTodaySnapshot()
+  {
+    return snapshot;
+  }
+}
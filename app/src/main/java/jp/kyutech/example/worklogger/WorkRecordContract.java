@@ -0,0 +1,90 @@
+// WorkRecordContract for the URIs and columns of the WorkRecordProvider
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import android.content.ContentUris;
+import android.net.Uri;
+
+/**
+ * WorkRecordContract class defines the URIs, MIME types and columns of
+ * work records served by the WorkRecordProvider.  Dates are strings
+ * such as "2021-04-05" and times are strings such as "09:00:00".
+ *
+ * The URIs are:
+ *
+ *   WorkRecords.CONTENT_URI          the newest records of the user
+ *                                    of the application, at most
+ *                                    PARAM_LIMIT, or the records of
+ *                                    the user between PARAM_FROM and
+ *                                    PARAM_TO.
+ *   WorkRecords.buildUri(id)         a record by its ID.
+ *
+ * Observers of CONTENT_URI with descendants are notified of the URI
+ * of a record whenever it is changed, either through the provider or
+ * by the application itself.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public final class WorkRecordContract
+{
+  public static final String	AUTHORITY =
+    "jp.kyutech.example.worklogger.records";
+  public static final Uri	AUTHORITY_URI =
+    Uri.parse("content://" + AUTHORITY);
+
+  private WorkRecordContract()
+  {
+  }
+
+  public static final class WorkRecords
+  {
+    public static final String	PATH = "workrecords";
+    public static final Uri	CONTENT_URI =
+      Uri.withAppendedPath(AUTHORITY_URI, PATH);
+    public static final String	CONTENT_TYPE =
+      "vnd.android.cursor.dir/vnd.jp.kyutech.worklogger.workrecord";
+    public static final String	CONTENT_ITEM_TYPE =
+      "vnd.android.cursor.item/vnd.jp.kyutech.worklogger.workrecord";
+
+    // Columns
+    public static final String	ID = "id";
+    public static final String	USER = "user";
+    public static final String	DATE = "date";
+    public static final String	CHECKIN = "checkin";
+    public static final String	CHECKOUT = "checkout";
+    // Incremented by each update.  An update with a version other than
+    // the current one is ignored.
+    public static final String	VERSION = "version";
+
+    // Query parameters of CONTENT_URI
+    public static final String	PARAM_FROM = "from";
+    public static final String	PARAM_TO = "to";
+    public static final String	PARAM_LIMIT = "limit";
+    public static final int	DEFAULT_LIMIT = 100;
+
+    static final String[]	ALL_COLUMNS = {
+      ID, USER, DATE, CHECKIN, CHECKOUT, VERSION
+    };
+
+    private WorkRecords()
+    {
+    }
+
+    /*
+     * Return the URI of a work record.
+     *
+     * @param id the ID of a work record
+     * @return a Uri
+     */
+    public static Uri buildUri(long id)
+    {
+      return ContentUris.withAppendedId(CONTENT_URI, id);
+    }
+  }
+}
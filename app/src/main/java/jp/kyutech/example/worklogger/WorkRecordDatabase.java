@@ -7,35 +7,65 @@ package jp.kyutech.example.worklogger;
 
 import java.sql.Date;
 import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 /**
  * WorkRecordDatabase class storing work hours in a SQLite database.
+ * The database is opened at the first operation and kept open until
+ * close() since opening it again for each operation is expensive.
  *
  * @author Masanobu UMEDA
  * @version $Revision$
  */
 
 public class WorkRecordDatabase extends SQLiteOpenHelper
+  implements WorkRecordStore
 {
   private static final String	LOGTAG = "WorkRecordDatabase";
-  private static final String	DB_NAME = "iworkedharder.sqlite";
-  private static final int	DB_VERSION = 1;
+  // NOTE: Messages are not even built unless enabled by
+  // "adb shell setprop log.tag.WorkRecordDatabase DEBUG".
+  private static final boolean	DEBUG_P = Log.isLoggable(LOGTAG, Log.DEBUG);
+  static final String		DB_NAME = "iworkedharder.sqlite";
+  private static final int	DB_VERSION = 6;
   private static final String	TABLE_WORKRECORDS = "workrecords";
+  private static final String	TABLE_INTERVALS = "intervals";
+  private static final String	TABLE_DAILY_SUMMARIES = "daily_summaries";
+  private static final String	TABLE_MONTHLY_SUMMARIES = "monthly_summaries";
   // Database fields
   private static final String	FIELD_ID = "id";
   private static final String	FIELD_USER = "user";
   private static final String	FIELD_DATE = "date";
   private static final String	FIELD_CHECKIN = "checkin";
   private static final String	FIELD_CHECKOUT = "checkout";
+  private static final String	FIELD_VERSION = "version";
+  private static final String	FIELD_KIND = "kind";
+  private static final String	FIELD_START = "start";
+  private static final String	FIELD_END = "end";
+  private static final String	FIELD_MONTH = "month";
+  private static final String	FIELD_WORK = "work";
+  private static final String	FIELD_OVERTIME = "overtime";
+  private static final String	FIELD_BREAKS = "breaks";
+  private static final String	FIELD_DAYS = "days";
+  private static final String	FIELD_INCOMPLETE = "incomplete";
+  // Totals of summary tables in the order of summaryTerms()
+  private static final String[]	SUMMARY_FIELDS = {
+    FIELD_WORK, FIELD_OVERTIME, FIELD_BREAKS, FIELD_DAYS, FIELD_INCOMPLETE
+  };
+  // The keys of summary tables computed from a row of work records
+  private static final String	DAILY_KEY = "%s." + FIELD_DATE;
+  private static final String	MONTHLY_KEY = "substr(%s." + FIELD_DATE + ", 1, 7)";
 
   public WorkRecordDatabase(Context context)
   {
@@ -67,13 +97,15 @@ public class WorkRecordDatabase extends SQLiteOpenHelper
 			     "date TEXT," +
 			     "checkin TEXT," +
 			     "checkout TEXT)", TABLE_WORKRECORDS));
+    onUpgrade(db, 1, DB_VERSION);
   }
 
   /*
    * Upgrade a table in a database.
    *
-   * NOTE: Current implementation drops an old database and create a
-   * new database if a new version is different from an old version.
+   * NOTE: Tables are upgraded step by step from an old version so that
+   * existing work records are preserved.  A database newer than this
+   * implementation is dropped and created again.
    *
    * @param db the database to be upgraded.
    * @param oldVersion
@@ -82,10 +114,322 @@ public class WorkRecordDatabase extends SQLiteOpenHelper
   @Override
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
   {
-    if(oldVersion != newVersion){
+    if(oldVersion > newVersion){
       db.execSQL(String.format("DROP TABLE IF EXISTS %s", TABLE_WORKRECORDS));
+      db.execSQL(String.format("DROP TABLE IF EXISTS %s", TABLE_INTERVALS));
+      db.execSQL(String.format("DROP TABLE IF EXISTS %s", TABLE_DAILY_SUMMARIES));
+      db.execSQL(String.format("DROP TABLE IF EXISTS %s", TABLE_MONTHLY_SUMMARIES));
       onCreate(db);
+      return;
     }
+    if(oldVersion < 2){
+      // Version 2: a modification version of each work record.
+      db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s " +
+			       "INTEGER NOT NULL DEFAULT 0",
+			       TABLE_WORKRECORDS, FIELD_VERSION));
+    }
+    if(oldVersion < 3){
+      // Version 3: any number of work and break intervals per day.
+      db.execSQL(String.format("CREATE TABLE %s (" +
+			       "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+			       "user TEXT," +
+			       "date TEXT," +
+			       "kind INTEGER," +
+			       "start INTEGER," +
+			       "end INTEGER)", TABLE_INTERVALS));
+      db.execSQL(String.format("CREATE INDEX %s_date ON %s (%s, %s)",
+			       TABLE_INTERVALS, TABLE_INTERVALS,
+			       FIELD_DATE, FIELD_START));
+    }
+    if(oldVersion < 4){
+      // Version 4: indexes for the queries of a user, so that they
+      // cost the same however many users share a database.
+      db.execSQL(String.format("CREATE INDEX %s_user_date ON %s (%s, %s)",
+			       TABLE_WORKRECORDS, TABLE_WORKRECORDS,
+			       FIELD_USER, FIELD_DATE));
+      db.execSQL(String.format("CREATE INDEX %s_user_id ON %s (%s, %s)",
+			       TABLE_WORKRECORDS, TABLE_WORKRECORDS,
+			       FIELD_USER, FIELD_ID));
+    }
+    if(oldVersion < 5){
+      // Version 5: totals of days and months of each user kept up to
+      // date by triggers, so that a report reads a row per period.
+      createSummaries(db, TABLE_DAILY_SUMMARIES, FIELD_DATE, DAILY_KEY);
+      createSummaries(db, TABLE_MONTHLY_SUMMARIES, FIELD_MONTH, MONTHLY_KEY);
+      rebuildSummaries(db);
+    }
+    if(oldVersion < 6){
+      // Version 6: indexes for the intervals of a user, so that a
+      // work session is restored from the intervals of its user.
+      db.execSQL(String.format("CREATE INDEX %s_user_date ON %s (%s, %s, %s)",
+			       TABLE_INTERVALS, TABLE_INTERVALS,
+			       FIELD_USER, FIELD_DATE, FIELD_START));
+      db.execSQL(String.format("CREATE INDEX %s_user_id ON %s (%s, %s)",
+			       TABLE_INTERVALS, TABLE_INTERVALS,
+			       FIELD_USER, FIELD_ID));
+    }
+  }
+
+  @Override
+  public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion)
+  {
+    onUpgrade(db, oldVersion, newVersion);
+  }
+
+  // ---------------------------------------------------------------
+  // Summaries
+  //
+  // A summary table has the totals of the work records of each user
+  // and each day or month, which are the same as ones aggregated by
+  // ReportEngine.  The totals are maintained by triggers on the table
+  // of work records: the totals of an old row are subtracted and those
+  // of a new row are added.  Only the records checked in are counted,
+  // and the rows of totals which become empty are deleted, so that the
+  // tables are always the same as ones rebuilt from scratch.
+
+  /*
+   * Return an SQL expression of the seconds from the checkin to the
+   * checkout of a row, or NULL unless checked out.  A checkout before
+   * a checkin is taken as an overnight shift.
+   */
+  private static String grossSeconds(String row)
+  {
+    return String.format("((strftime('%%s', %1$s.%2$s) - " +
+			 "strftime('%%s', %1$s.%3$s) + 86400) %% 86400)",
+			 row, FIELD_CHECKOUT, FIELD_CHECKIN);
+  }
+
+  private static String breakSeconds(String row)
+  {
+    return String.format("(CASE WHEN %1$s > %2$d THEN %3$d " +
+			 "WHEN %1$s > %4$d THEN %5$d ELSE 0 END)",
+			 grossSeconds(row),
+			 ReportEngine.BREAK_LONG_AFTER_MILLIS / 1000,
+			 ReportEngine.BREAK_LONG_MILLIS / 1000,
+			 ReportEngine.BREAK_SHORT_AFTER_MILLIS / 1000,
+			 ReportEngine.BREAK_SHORT_MILLIS / 1000);
+  }
+
+  /*
+   * Return SQL expressions of the totals of a row of work records in
+   * the order of SUMMARY_FIELDS.
+   *
+   * @param row the name of a row, e.g. NEW in a trigger
+   * @return a String[]
+   */
+  private static String[] summaryTerms(String row)
+  {
+    String net = String.format("(%s - %s)", grossSeconds(row), breakSeconds(row));
+    return new String[]{
+      String.format("IFNULL(%s * 1000, 0)", net),
+      String.format("IFNULL(MAX(%s - %d, 0) * 1000, 0)",
+		    net, ReportEngine.REGULAR_MILLIS / 1000),
+      String.format("IFNULL(%s * 1000, 0)", breakSeconds(row)),
+      String.format("(%s.%s IS NOT NULL)", row, FIELD_CHECKOUT),
+      String.format("(%s.%s IS NULL)", row, FIELD_CHECKOUT)
+    };
+  }
+
+  /*
+   * Return the SQL statements adding or subtracting the totals of a
+   * row of work records to or from a summary table.
+   *
+   * @param table a summary table
+   * @param key_field the key of the table
+   * @param key_format the format of the key computed from a row
+   * @param row the name of a row, i.e. NEW or OLD
+   * @param add_p true to add, or false to subtract
+   * @return a String
+   */
+  private static String applySummary(String table, String key_field,
+				     String key_format, String row,
+				     boolean add_p)
+  {
+    // NOTE: Users are never NULL in a primary key.
+    String user = String.format("IFNULL(%s.%s, '')", row, FIELD_USER);
+    String key = String.format(key_format, row);
+    String where = String.format("%s = %s AND %s = %s AND %s.%s IS NOT NULL",
+				 FIELD_USER, user, key_field, key,
+				 row, FIELD_CHECKIN);
+    String[] terms = summaryTerms(row);
+    StringBuilder sql = new StringBuilder();
+    if(add_p){
+      // No upsert before SQLite 3.24, i.e. Android 11.
+      sql.append(String.format("INSERT OR IGNORE INTO %s " +
+			       "SELECT %s, %s, 0, 0, 0, 0, 0 " +
+			       "WHERE %s.%s IS NOT NULL AND %s.%s IS NOT NULL; ",
+			       table, user, key,
+			       row, FIELD_DATE, row, FIELD_CHECKIN));
+    }
+    sql.append("UPDATE ").append(table).append(" SET ");
+    for(int i = 0; i < SUMMARY_FIELDS.length; i++){
+      if(i > 0){
+	sql.append(", ");
+      }
+      sql.append(SUMMARY_FIELDS[i]).append(" = ").append(SUMMARY_FIELDS[i])
+	.append(add_p ? " + " : " - ").append(terms[i]);
+    }
+    sql.append(" WHERE ").append(where).append("; ");
+    if(!add_p){
+      sql.append(String.format("DELETE FROM %s WHERE %s AND %s = 0 AND %s = 0; ",
+			       table, where, FIELD_DAYS, FIELD_INCOMPLETE));
+    }
+    return sql.toString();
+  }
+
+  /*
+   * Return a query of the totals of a summary table computed from all
+   * the work records, in the same order of the columns of the table.
+   */
+  private static String selectSummaries(String key_format)
+  {
+    String[] terms = summaryTerms(TABLE_WORKRECORDS);
+    StringBuilder sql = new StringBuilder();
+    sql.append(String.format("SELECT IFNULL(%s, ''), %s",
+			     FIELD_USER,
+			     String.format(key_format, TABLE_WORKRECORDS)));
+    for(String term : terms){
+      sql.append(", SUM(").append(term).append(")");
+    }
+    sql.append(String.format(" FROM %s WHERE %s IS NOT NULL AND %s IS NOT NULL " +
+			     "GROUP BY 1, 2",
+			     TABLE_WORKRECORDS, FIELD_DATE, FIELD_CHECKIN));
+    return sql.toString();
+  }
+
+  /*
+   * Create a summary table and its triggers.
+   */
+  private static void createSummaries(SQLiteDatabase db, String table,
+				      String key_field, String key_format)
+  {
+    db.execSQL(String.format("CREATE TABLE %s (" +
+			     "user TEXT NOT NULL," +
+			     "%s TEXT NOT NULL," +
+			     "work INTEGER NOT NULL," +
+			     "overtime INTEGER NOT NULL," +
+			     "breaks INTEGER NOT NULL," +
+			     "days INTEGER NOT NULL," +
+			     "incomplete INTEGER NOT NULL," +
+			     "PRIMARY KEY (user, %s))",
+			     table, key_field, key_field));
+    db.execSQL(String.format("CREATE TRIGGER %s_insert AFTER INSERT ON %s " +
+			     "BEGIN %s END",
+			     table, TABLE_WORKRECORDS,
+			     applySummary(table, key_field, key_format,
+					  "NEW", true)));
+    db.execSQL(String.format("CREATE TRIGGER %s_delete AFTER DELETE ON %s " +
+			     "BEGIN %s END",
+			     table, TABLE_WORKRECORDS,
+			     applySummary(table, key_field, key_format,
+					  "OLD", false)));
+    db.execSQL(String.format("CREATE TRIGGER %s_update AFTER UPDATE ON %s " +
+			     "BEGIN %s%s END",
+			     table, TABLE_WORKRECORDS,
+			     applySummary(table, key_field, key_format,
+					  "OLD", false),
+			     applySummary(table, key_field, key_format,
+					  "NEW", true)));
+  }
+
+  private static void rebuildSummaries(SQLiteDatabase db)
+  {
+    db.execSQL(String.format("DELETE FROM %s", TABLE_DAILY_SUMMARIES));
+    db.execSQL(String.format("DELETE FROM %s", TABLE_MONTHLY_SUMMARIES));
+    db.execSQL(String.format("INSERT INTO %s %s", TABLE_DAILY_SUMMARIES,
+			     selectSummaries(DAILY_KEY)));
+    db.execSQL(String.format("INSERT INTO %s %s", TABLE_MONTHLY_SUMMARIES,
+			     selectSummaries(MONTHLY_KEY)));
+  }
+
+  /*
+   * Rebuild the summary tables from all the work records, e.g. when
+   * verifySummaries() finds them broken.
+   */
+  public void rebuildSummaries()
+  {
+    SQLiteDatabase db = this.getWritableDatabase();
+    db.beginTransaction();
+    try {
+      rebuildSummaries(db);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /*
+   * Compare the summary tables with totals computed from all the work
+   * records.
+   *
+   * @return the number of rows which differ, or 0 if consistent
+   */
+  public long verifySummaries()
+  {
+    SQLiteDatabase db = this.getWritableDatabase();
+    long nrows = 0;
+    String[][] summaries = {
+      { TABLE_DAILY_SUMMARIES, DAILY_KEY },
+      { TABLE_MONTHLY_SUMMARIES, MONTHLY_KEY }
+    };
+    for(String[] summary : summaries){
+      String table = summary[0];
+      String computed = selectSummaries(summary[1]);
+      nrows += DatabaseUtils.longForQuery
+	(db, String.format("SELECT COUNT(*) FROM " +
+			   "(SELECT * FROM %s EXCEPT %s)", table, computed),
+	 null);
+      nrows += DatabaseUtils.longForQuery
+	(db, String.format("SELECT COUNT(*) FROM " +
+			   "(%s EXCEPT SELECT * FROM %s)", computed, table),
+	 null);
+    }
+    return nrows;
+  }
+
+  /*
+   * Return a report read from the summary tables: the totals of months
+   * for a report of whole months, or the totals of days otherwise.
+   */
+  public ReportEngine.Report getSummaryReport(ReportEngine engine,
+					      String user)
+  {
+    boolean monthly_p = (engine.getPeriod() == ReportEngine.PERIOD_MONTH &&
+			 engine.isWholeMonths());
+    String table = monthly_p ? TABLE_MONTHLY_SUMMARIES : TABLE_DAILY_SUMMARIES;
+    String key_field = monthly_p ? FIELD_MONTH : FIELD_DATE;
+    String from = engine.getFromDate().toString();
+    String to = engine.getToDate().toString();
+    if(monthly_p){
+      from = from.substring(0, 7);
+      to = to.substring(0, 7);
+    }
+    String query =
+      String.format("SELECT %s, %s, %s, %s, %s, %s FROM %s " +
+		    "WHERE %s = ? AND %s >= ? AND %s <= ?",
+		    key_field, FIELD_WORK, FIELD_OVERTIME, FIELD_BREAKS,
+		    FIELD_DAYS, FIELD_INCOMPLETE, table,
+		    FIELD_USER, key_field, key_field);
+    ReportEngine.Report report = engine.newReport();
+    SQLiteDatabase db = this.getWritableDatabase();
+    Cursor cursor =
+      db.rawQuery(query, new String[]{ (user != null) ? user : "", from, to });
+    int nrows;
+    try {
+      while(cursor.moveToNext()){
+	String key = cursor.getString(0);
+	engine.addTotals(report,
+			 Date.valueOf(monthly_p ? key + "-01" : key),
+			 cursor.getLong(1), cursor.getLong(2),
+			 cursor.getLong(3), cursor.getInt(4),
+			 cursor.getInt(5));
+      }
+      nrows = cursor.getCount();
+    } finally {
+      cursor.close();
+    }
+    Metrics.addRows(MeteredWorkRecordStore.OP_GET_SUMMARY_REPORT, nrows);
+    return report;
   }
 
   /*
@@ -122,9 +466,50 @@ public class WorkRecordDatabase extends SQLiteOpenHelper
     if(cursor.getString(4) != null){
       record.setCheckoutTime(Time.valueOf(cursor.getString(4)));
     }
+    record.setVersion(cursor.getInt(5));
     return record;
   }
 
+  /*
+   * Copy the contents of a WorkInterval to a new ContentValues for DB
+   * update.
+   *
+   * @param interval the WorkInterval to be copied.
+   */
+  private ContentValues toContentValues(WorkInterval interval)
+  {
+    ContentValues values = new ContentValues();
+    values.put(FIELD_USER, interval.getUser());
+    values.put(FIELD_DATE, interval.getDate().toString());
+    values.put(FIELD_KIND, interval.getKind());
+    values.put(FIELD_START, interval.getStart());
+    if(interval.isOpen()){
+      values.putNull(FIELD_END);
+    } else {
+      values.put(FIELD_END, interval.getEnd());
+    }
+    return values;
+  }
+
+  /*
+   * Copy a DB interval specified by a curosr to a new WorkInterval.
+   *
+   * @param cursor the cursor pointing an interval in a DB.
+   */
+  private WorkInterval toWorkInterval(Cursor cursor)
+  {
+    WorkInterval interval = new WorkInterval();
+    interval.setId(cursor.getLong(0));
+    interval.setUser(cursor.getString(1));
+    interval.setDate(Date.valueOf(cursor.getString(2)));
+    interval.setKind(cursor.getInt(3));
+    interval.setStart(cursor.getLong(4));
+    if(!cursor.isNull(5)){
+      interval.setEnd(cursor.getLong(5));
+    }
+    return interval;
+  }
+
   /*
    * Add a new work record to a database.
    *
@@ -134,29 +519,79 @@ public class WorkRecordDatabase extends SQLiteOpenHelper
    */
   public void addWorkRecord(WorkRecord record)
   {
-    Log.d(LOGTAG, "INSERT: " + record);
+    if(DEBUG_P){
+      Log.d(LOGTAG, "INSERT: " + record);
+    }
 
-    // Check if a record of the same date does not exist.
+    // Check if a record of the same user and date does not exist.
     Date date = record.getDate();
-    List<WorkRecord> list = getWorkRecordsBetween(date, date);
-    if(list.size() != 0){
+    SQLiteDatabase db = this.getWritableDatabase();
+    String user_clause = (record.getUser() != null) ?
+      FIELD_USER + " = ?" : FIELD_USER + " IS NULL";
+    String[] args = (record.getUser() != null) ?
+      new String[]{ record.getDateAsString(), record.getUser() } :
+      new String[]{ record.getDateAsString() };
+    long nrecords = (date == null) ? 0 :
+      DatabaseUtils.queryNumEntries(db, TABLE_WORKRECORDS,
+				    FIELD_DATE + " = ? AND " + user_clause,
+				    args);
+    if(nrecords != 0){
       throw new IllegalStateException
 	("addWorkRecord: duplicated records for " + date);
     }
 
+    ContentValues values = toContentValues(record);
+    long id = db.insert(TABLE_WORKRECORDS,
+			null, // nullColumnHack
+			values);
+    if(id == -1){
+      throw new IllegalArgumentException
+	("addWorkRecord: cannot be inserted: " + record);
+    }
+    record.setId(id);
+  }
+
+  /*
+   * Add new work records to a database in a single transaction, e.g.
+   * to load a history.  The dates of records are not checked.
+   *
+   * @param records the records to be added.
+   *
+   * @see WorkloadGenerator#writeTo
+   */
+  public void addWorkRecords(Collection<WorkRecord> records)
+  {
+    if(DEBUG_P){
+      Log.d(LOGTAG, "INSERT: " + records.size() + " records");
+    }
+
     SQLiteDatabase db = this.getWritableDatabase();
+    db.beginTransaction();
     try {
-      ContentValues values = toContentValues(record);
-      long id = db.insert(TABLE_WORKRECORDS,
-			  null,	// nullColumnHack
-			  values);
-      if(id == -1){
-	throw new IllegalArgumentException
-	  ("addWorkRecord: cannot be inserted: " + record);
+      SQLiteStatement insert =
+	db.compileStatement(String.format("INSERT INTO %s " +
+					  "(%s, %s, %s, %s, %s) " +
+					  "VALUES (?, ?, ?, ?, ?)",
+					  TABLE_WORKRECORDS,
+					  FIELD_USER, FIELD_DATE,
+					  FIELD_CHECKIN, FIELD_CHECKOUT,
+					  FIELD_VERSION));
+      try {
+	for(WorkRecord record : records){
+	  insert.clearBindings();
+	  bindStringOrNull(insert, 1, record.getUser());
+	  bindStringOrNull(insert, 2, record.getDateAsString());
+	  bindStringOrNull(insert, 3, record.getCheckinTimeAsString());
+	  bindStringOrNull(insert, 4, record.getCheckoutTimeAsString());
+	  insert.bindLong(5, record.getVersion());
+	  record.setId(insert.executeInsert());
+	}
+      } finally {
+	insert.close();
       }
-      record.setId(id);
+      db.setTransactionSuccessful();
     } finally {
-      db.close();
+      db.endTransaction();
     }
   }
 
@@ -169,18 +604,20 @@ public class WorkRecordDatabase extends SQLiteOpenHelper
    */
   public void updateWorkRecord(WorkRecord record)
   {
-    Log.d(LOGTAG, "UPDATE: " + record);
+    if(DEBUG_P){
+      Log.d(LOGTAG, "UPDATE: " + record);
+    }
 
     SQLiteDatabase db = this.getWritableDatabase();
-    try {
-      ContentValues values = toContentValues(record);
-      int nrows =
-	db.update(TABLE_WORKRECORDS,
-		  values,
-		  FIELD_ID + " = ?",
-		  new String[]{String.valueOf(record.getId())});
-    } finally {
-      db.close();
+    ContentValues values = toContentValues(record);
+    values.put(FIELD_VERSION, record.getVersion() + 1);
+    int nrows =
+      db.update(TABLE_WORKRECORDS,
+		values,
+		FIELD_ID + " = ?",
+		new String[]{String.valueOf(record.getId())});
+    if(nrows > 0){
+      record.setVersion(record.getVersion() + 1);
     }
   }
 
@@ -193,16 +630,31 @@ public class WorkRecordDatabase extends SQLiteOpenHelper
    */
   public void deleteWorkRecord(WorkRecord record)
   {
-    Log.d(LOGTAG, "DELETE: " + record);
+    if(DEBUG_P){
+      Log.d(LOGTAG, "DELETE: " + record);
+    }
 
     SQLiteDatabase db = this.getWritableDatabase();
+      ContentValues values = toContentValues(record);
+      db.delete(TABLE_WORKRECORDS,
+	      FIELD_ID + " = ?",
+	      new String[]{String.valueOf(record.getId())});
+  }
+
+  /*
+   * Run operations in a single SQLite transaction.
+   *
+   * @param body operations on this database
+   */
+  public void runInTransaction(Runnable body)
+  {
+    SQLiteDatabase db = this.getWritableDatabase();
+    db.beginTransaction();
     try {
-        ContentValues values = toContentValues(record);
-        db.delete(TABLE_WORKRECORDS,
-                FIELD_ID + " = ?",
-                new String[]{String.valueOf(record.getId())});
+      body.run();
+      db.setTransactionSuccessful();
     } finally {
-      db.close();
+      db.endTransaction();
     }
   }
 
@@ -222,6 +674,32 @@ public class WorkRecordDatabase extends SQLiteOpenHelper
     return null;
   }
 
+  /*
+   * Return a work record specified by its ID.
+   *
+   * @param id the ID of a work record
+   * @return a WorkRecord, or null if not found
+   *
+   * @see WorkRecord
+   */
+  public WorkRecord getWorkRecordById(long id)
+  {
+    String query =
+      String.format("SELECT * FROM %s WHERE %s = ?",
+		    TABLE_WORKRECORDS, FIELD_ID);
+
+    SQLiteDatabase db = this.getWritableDatabase();
+    Cursor cursor = db.rawQuery(query, new String[]{String.valueOf(id)});
+    try {
+      if(cursor.moveToFirst()){
+	return toWorkRecord(cursor);
+      }
+    } finally {
+      cursor.close();
+    }
+    return null;
+  }
+
   /*
    * Return a work record located at the given position.
    *
@@ -243,6 +721,10 @@ public class WorkRecordDatabase extends SQLiteOpenHelper
   /*
    * Return the list of the newest work records in a database.
    *
+   * NOTE: Rows are counted by Cursor.getCount(), which steps through
+   * all the rows of a query even if some of them are never read, so
+   * the metrics show the rows scanned rather than the rows returned.
+   *
    * @param count specifies the number of work records
    * @return a List<WorkRecord>
    *
@@ -253,29 +735,61 @@ public class WorkRecordDatabase extends SQLiteOpenHelper
     List<WorkRecord> records = new LinkedList<WorkRecord>();
 
     String query =
-      String.format("SELECT * FROM %s ORDER BY %s DESC",
+      String.format("SELECT * FROM %s ORDER BY %s DESC LIMIT ?",
 		    TABLE_WORKRECORDS, FIELD_ID);
 
     SQLiteDatabase db = this.getWritableDatabase();
+    Cursor cursor = db.rawQuery(query, new String[]{String.valueOf(count)});
+    int nrows;
     try {
-      Cursor cursor = db.rawQuery(query, null);
-      try {
-	if(cursor.moveToFirst()){
-	  do {
-	    if(count-- == 0){
-	      break;
-	    }
-	    WorkRecord record = toWorkRecord(cursor);
-	    records.add(record);
-	  } while (cursor.moveToNext());
-	}
-      } finally {
-	cursor.close();
+      while(cursor.moveToNext()){
+	WorkRecord record = toWorkRecord(cursor);
+	records.add(record);
       }
+      nrows = cursor.getCount();
     } finally {
-      db.close();
+      cursor.close();
     }
 
+    Metrics.addRows(MeteredWorkRecordStore.OP_GET_RECENT_WORK_RECORDS, nrows);
+    return records;
+  }
+
+  /*
+   * Return the list of the newest work records whose IDs are less
+   * than a given ID.  This is a keyset query on the primary key so
+   * that a page is fetched by an index range scan regardless of how
+   * deep it is in the history.
+   *
+   * @param beforeId specifies the exclusive upper bound of IDs
+   * @param count specifies the maximum number of work records
+   * @return a List<WorkRecord>
+   *
+   * @see WorkRecord
+   */
+  public List<WorkRecord> getWorkRecordsBefore(long beforeId, int count)
+  {
+    List<WorkRecord> records = new ArrayList<WorkRecord>(count);
+
+    String query =
+      String.format("SELECT * FROM %s WHERE %s < ? ORDER BY %s DESC LIMIT %d",
+		    TABLE_WORKRECORDS, FIELD_ID, FIELD_ID, count);
+
+    SQLiteDatabase db = this.getWritableDatabase();
+    Cursor cursor =
+      db.rawQuery(query, new String[]{String.valueOf(beforeId)});
+    int nrows;
+    try {
+      while(cursor.moveToNext()){
+	WorkRecord record = toWorkRecord(cursor);
+	records.add(record);
+      }
+      nrows = cursor.getCount();
+    } finally {
+      cursor.close();
+    }
+
+    Metrics.addRows(MeteredWorkRecordStore.OP_GET_WORK_RECORDS_BEFORE, nrows);
     return records;
   }
 
@@ -301,22 +815,21 @@ public class WorkRecordDatabase extends SQLiteOpenHelper
 		    FIELD_ID);
 
     SQLiteDatabase db = this.getWritableDatabase();
+    Cursor cursor = db.rawQuery(query, null);
+    int nrows;
     try {
-      Cursor cursor = db.rawQuery(query, null);
-      try {
-	if(cursor.moveToFirst()){
-	  do {
-	    WorkRecord record = toWorkRecord(cursor);
-	    records.add(record);
-	  } while(cursor.moveToNext());
-	}
-      } finally {
-	cursor.close();
+      if(cursor.moveToFirst()){
+	do {
+	  WorkRecord record = toWorkRecord(cursor);
+	  records.add(record);
+	} while(cursor.moveToNext());
       }
+      nrows = cursor.getCount();
     } finally {
-      db.close();
+      cursor.close();
     }
 
+    Metrics.addRows(MeteredWorkRecordStore.OP_GET_WORK_RECORDS_BETWEEN, nrows);
     return records;
   }
 
@@ -330,23 +843,422 @@ public class WorkRecordDatabase extends SQLiteOpenHelper
   public WorkRecord getLastAliveWorkRecord()
   {
     String query =
-      String.format("SELECT * FROM %s WHERE NOT(NULL(%s)) ORDER BY %s DESC",
+      String.format("SELECT * FROM %s WHERE %s IS NOT NULL ORDER BY %s DESC",
 		    TABLE_WORKRECORDS, FIELD_CHECKIN, FIELD_ID);
 
     SQLiteDatabase db = this.getWritableDatabase();
+    Cursor cursor = db.rawQuery(query, null);
     try {
-      Cursor cursor = db.rawQuery(query, null);
-      try {
-	if(cursor.moveToFirst()){
-	  WorkRecord record = toWorkRecord(cursor);
-	  return record;
-	}
-      } finally {
-	cursor.close();
+      if(cursor.moveToFirst()){
+	WorkRecord record = toWorkRecord(cursor);
+	return record;
+      }
+    } finally {
+      cursor.close();
+    }
+    return null;
+  }
+
+  /*
+   * Return the work records of a query.
+   *
+   * @param query a query selecting all the fields of work records
+   * @param args the arguments of the query
+   * @param op an operation of MeteredWorkRecordStore to add rows to
+   * @return a List<WorkRecord>
+   */
+  private List<WorkRecord> queryWorkRecords(String query, String[] args, int op)
+  {
+    List<WorkRecord> records = new ArrayList<WorkRecord>();
+    SQLiteDatabase db = this.getWritableDatabase();
+    Cursor cursor = db.rawQuery(query, args);
+    int nrows;
+    try {
+      while(cursor.moveToNext()){
+	records.add(toWorkRecord(cursor));
       }
+      nrows = cursor.getCount();
     } finally {
-      db.close();
+      cursor.close();
+    }
+    Metrics.addRows(op, nrows);
+    return records;
+  }
+
+  /*
+   * Return the newest work record of a user.  This is served by the
+   * index on (user, id) so that it visits only the rows of the user.
+   *
+   * @param user the user of records
+   * @return a WorkRecord, or null if the user has no record
+   *
+   * @see WorkRecord
+   */
+  public WorkRecord getLastWorkRecord(String user)
+  {
+    List<WorkRecord> records = getRecentWorkRecords(user, 1);
+    return (records.size() >= 1) ? records.get(0) : null;
+  }
+
+  /*
+   * Return the list of the newest work records of a user.
+   *
+   * @param user the user of records
+   * @param count specifies the number of work records
+   * @return a List<WorkRecord>
+   *
+   * @see WorkRecord
+   */
+  public List<WorkRecord> getRecentWorkRecords(String user, int count)
+  {
+    return getWorkRecordsBefore(user, Long.MAX_VALUE, count);
+  }
+
+  /*
+   * Return the list of the newest work records of a user whose IDs
+   * are less than a given ID.  This is a keyset query on the index on
+   * (user, id), so that a page costs the same however deep it is and
+   * however many users share a database.
+   *
+   * @param user the user of records
+   * @param beforeId specifies the exclusive upper bound of IDs
+   * @param count specifies the maximum number of work records
+   * @return a List<WorkRecord>
+   *
+   * @see WorkRecord
+   */
+  public List<WorkRecord> getWorkRecordsBefore(String user,
+					       long beforeId,
+					       int count)
+  {
+    String query =
+      String.format("SELECT * FROM %s WHERE %s = ? AND %s < ? " +
+		    "ORDER BY %s DESC LIMIT %d",
+		    TABLE_WORKRECORDS, FIELD_USER, FIELD_ID, FIELD_ID, count);
+    return queryWorkRecords(query,
+			    new String[]{ user, String.valueOf(beforeId) },
+			    MeteredWorkRecordStore.OP_GET_WORK_RECORDS_BEFORE);
+  }
+
+  /*
+   * Return the list of work records of a user between a duration in
+   * order of their IDs.  This is served by the index on (user, date).
+   *
+   * @param user the user of records
+   * @param fromDate specifies the beginning of the duration.
+   * @param toDate specifies the end of the duration.
+   * @return a List<WorkRecord>
+   *
+   * @see WorkRecord
+   */
+  public List<WorkRecord> getWorkRecordsBetween(String user,
+						Date fromDate,
+						Date toDate)
+  {
+    String query =
+      String.format("SELECT * FROM %s WHERE %s = ? AND %s >= ? AND %s <= ? " +
+		    "ORDER BY %s ASC",
+		    TABLE_WORKRECORDS, FIELD_USER, FIELD_DATE, FIELD_DATE,
+		    FIELD_ID);
+    return queryWorkRecords(query,
+			    new String[]{ user,
+					  fromDate.toString(),
+					  toDate.toString() },
+			    MeteredWorkRecordStore.OP_GET_WORK_RECORDS_BETWEEN);
+  }
+
+  /*
+   * Return a work record of a user which is the newest and not
+   * empty.  This walks the index on (user, id) backwards until a
+   * record checked in is found.
+   *
+   * @param user the user of records
+   * @return a WorkRecord, or null if not found
+   *
+   * @see WorkRecord
+   */
+  public WorkRecord getLastAliveWorkRecord(String user)
+  {
+    String query =
+      String.format("SELECT * FROM %s WHERE %s = ? AND %s IS NOT NULL " +
+		    "ORDER BY %s DESC LIMIT 1",
+		    TABLE_WORKRECORDS, FIELD_USER, FIELD_CHECKIN, FIELD_ID);
+    List<WorkRecord> records =
+      queryWorkRecords(query, new String[]{ user },
+		       MeteredWorkRecordStore.OP_GET_LAST_ALIVE_WORK_RECORD);
+    return (records.size() >= 1) ? records.get(0) : null;
+  }
+
+  /*
+   * Add a new work interval to a database.
+   *
+   * @param interval the interval to be added.
+   *
+   * @see WorkInterval
+   */
+  public void addWorkInterval(WorkInterval interval)
+  {
+    if(DEBUG_P){
+      Log.d(LOGTAG, "INSERT: " + interval);
+    }
+
+    SQLiteDatabase db = this.getWritableDatabase();
+    long id = db.insert(TABLE_INTERVALS,
+			null, // nullColumnHack
+			toContentValues(interval));
+    if(id == -1){
+      throw new IllegalArgumentException
+	("addWorkInterval: cannot be inserted: " + interval);
+    }
+    interval.setId(id);
+  }
+
+  /*
+   * Update a work interval in a database.
+   *
+   * @param interval the interval to be updated.
+   *
+   * @see WorkInterval
+   */
+  public void updateWorkInterval(WorkInterval interval)
+  {
+    if(DEBUG_P){
+      Log.d(LOGTAG, "UPDATE: " + interval);
+    }
+
+    SQLiteDatabase db = this.getWritableDatabase();
+    db.update(TABLE_INTERVALS,
+	      toContentValues(interval),
+	      FIELD_ID + " = ?",
+	      new String[]{String.valueOf(interval.getId())});
+  }
+
+  /*
+   * Delete a work interval in a database.
+   *
+   * @param interval the interval to be deleted.
+   *
+   * @see WorkInterval
+   */
+  public void deleteWorkInterval(WorkInterval interval)
+  {
+    if(DEBUG_P){
+      Log.d(LOGTAG, "DELETE: " + interval);
+    }
+
+    SQLiteDatabase db = this.getWritableDatabase();
+    db.delete(TABLE_INTERVALS,
+	      FIELD_ID + " = ?",
+	      new String[]{String.valueOf(interval.getId())});
+  }
+
+  /*
+   * Return the list of work intervals starting on a date in order of
+   * their start times.
+   *
+   * @param date specifies the date.
+   * @return a List<WorkInterval>
+   *
+   * @see WorkInterval
+   */
+  public List<WorkInterval> getWorkIntervalsOn(Date date)
+  {
+    List<WorkInterval> intervals = new ArrayList<WorkInterval>();
+
+    String query =
+      String.format("SELECT * FROM %s WHERE %s = ? ORDER BY %s ASC",
+		    TABLE_INTERVALS, FIELD_DATE, FIELD_START);
+
+    SQLiteDatabase db = this.getWritableDatabase();
+    Cursor cursor = db.rawQuery(query, new String[]{date.toString()});
+    int nrows;
+    try {
+      while(cursor.moveToNext()){
+	intervals.add(toWorkInterval(cursor));
+      }
+      nrows = cursor.getCount();
+    } finally {
+      cursor.close();
+    }
+
+    Metrics.addRows(MeteredWorkRecordStore.OP_GET_WORK_INTERVALS_ON, nrows);
+    return intervals;
+  }
+
+  /*
+   * Return the list of work intervals of a user starting on a date in
+   * order of their start times.  This is served by the index on
+   * (user, date, start).
+   *
+   * @param user the user of intervals
+   * @param date specifies the date.
+   * @return a List<WorkInterval>
+   *
+   * @see WorkInterval
+   */
+  public List<WorkInterval> getWorkIntervalsOn(String user, Date date)
+  {
+    String query =
+      String.format("SELECT * FROM %s WHERE %s = ? AND %s = ? " +
+		    "ORDER BY %s ASC",
+		    TABLE_INTERVALS, FIELD_USER, FIELD_DATE, FIELD_START);
+    return queryWorkIntervals(query, new String[]{ user, date.toString() },
+			      MeteredWorkRecordStore.OP_GET_WORK_INTERVALS_ON);
+  }
+
+  /*
+   * Return the newest work interval stored in a database.
+   *
+   * @return a WorkInterval
+   *
+   * @see WorkInterval
+   */
+  public WorkInterval getLastWorkInterval()
+  {
+    String query =
+      String.format("SELECT * FROM %s ORDER BY %s DESC LIMIT 1",
+		    TABLE_INTERVALS, FIELD_ID);
+
+    SQLiteDatabase db = this.getWritableDatabase();
+    Cursor cursor = db.rawQuery(query, null);
+    try {
+      if(cursor.moveToFirst()){
+	return toWorkInterval(cursor);
+      }
+    } finally {
+      cursor.close();
     }
     return null;
   }
+
+  /*
+   * Return the newest work interval of a user.  This is served by the
+   * index on (user, id).
+   *
+   * @param user the user of intervals
+   * @return a WorkInterval, or null if the user has no interval
+   *
+   * @see WorkInterval
+   */
+  public WorkInterval getLastWorkInterval(String user)
+  {
+    String query =
+      String.format("SELECT * FROM %s WHERE %s = ? ORDER BY %s DESC LIMIT 1",
+		    TABLE_INTERVALS, FIELD_USER, FIELD_ID);
+    List<WorkInterval> intervals =
+      queryWorkIntervals(query, new String[]{ user },
+			 MeteredWorkRecordStore.OP_GET_LAST_WORK_INTERVAL);
+    return (intervals.size() >= 1) ? intervals.get(0) : null;
+  }
+
+  /*
+   * Return the work intervals of a query.
+   *
+   * @param query a query selecting all the fields of work intervals
+   * @param args the arguments of the query
+   * @param op an operation of MeteredWorkRecordStore to add rows to
+   * @return a List<WorkInterval>
+   */
+  private List<WorkInterval> queryWorkIntervals(String query, String[] args,
+						int op)
+  {
+    List<WorkInterval> intervals = new ArrayList<WorkInterval>();
+    SQLiteDatabase db = this.getWritableDatabase();
+    Cursor cursor = db.rawQuery(query, args);
+    int nrows;
+    try {
+      while(cursor.moveToNext()){
+	intervals.add(toWorkInterval(cursor));
+      }
+      nrows = cursor.getCount();
+    } finally {
+      cursor.close();
+    }
+    Metrics.addRows(op, nrows);
+    return intervals;
+  }
+
+  /*
+   * Replace all the work records and intervals in a database by given
+   * ones keeping their IDs.  Rows are inserted by compiled statements
+   * in a single transaction so that a database is rebuilt quickly,
+   * e.g. by replaying an event log.
+   *
+   * @param records work records
+   * @param intervals work intervals
+   *
+   * @see EventLogWorkRecordStore#replayInto
+   */
+  public void replaceAll(Collection<WorkRecord> records,
+			 Collection<WorkInterval> intervals)
+  {
+    if(DEBUG_P){
+      Log.d(LOGTAG, "REPLACE: " + records.size() + " records, " +
+	    intervals.size() + " intervals");
+    }
+
+    SQLiteDatabase db = this.getWritableDatabase();
+    db.beginTransaction();
+    try {
+      db.delete(TABLE_WORKRECORDS, null, null);
+      db.delete(TABLE_INTERVALS, null, null);
+
+      SQLiteStatement insert_record =
+	db.compileStatement(String.format("INSERT INTO %s " +
+					  "(%s, %s, %s, %s, %s, %s) " +
+					  "VALUES (?, ?, ?, ?, ?, ?)",
+					  TABLE_WORKRECORDS,
+					  FIELD_ID, FIELD_USER, FIELD_DATE,
+					  FIELD_CHECKIN, FIELD_CHECKOUT,
+					  FIELD_VERSION));
+      for(WorkRecord record : records){
+	insert_record.clearBindings();
+	insert_record.bindLong(1, record.getId());
+	bindStringOrNull(insert_record, 2, record.getUser());
+	bindStringOrNull(insert_record, 3, record.getDateAsString());
+	bindStringOrNull(insert_record, 4, record.getCheckinTimeAsString());
+	bindStringOrNull(insert_record, 5, record.getCheckoutTimeAsString());
+	insert_record.bindLong(6, record.getVersion());
+	insert_record.executeInsert();
+      }
+      insert_record.close();
+
+      SQLiteStatement insert_interval =
+	db.compileStatement(String.format("INSERT INTO %s " +
+					  "(%s, %s, %s, %s, %s, %s) " +
+					  "VALUES (?, ?, ?, ?, ?, ?)",
+					  TABLE_INTERVALS,
+					  FIELD_ID, FIELD_USER, FIELD_DATE,
+					  FIELD_KIND, FIELD_START, FIELD_END));
+      for(WorkInterval interval : intervals){
+	insert_interval.clearBindings();
+	insert_interval.bindLong(1, interval.getId());
+	bindStringOrNull(insert_interval, 2, interval.getUser());
+	insert_interval.bindString(3, interval.getDate().toString());
+	insert_interval.bindLong(4, interval.getKind());
+	insert_interval.bindLong(5, interval.getStart());
+	if(interval.isOpen()){
+	  insert_interval.bindNull(6);
+	} else {
+	  insert_interval.bindLong(6, interval.getEnd());
+	}
+	insert_interval.executeInsert();
+      }
+      insert_interval.close();
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private static void bindStringOrNull(SQLiteStatement statement,
+				       int index, String value)
+  {
+    if(value == null){
+      statement.bindNull(index);
+    } else {
+      statement.bindString(index, value);
+    }
+  }
 }
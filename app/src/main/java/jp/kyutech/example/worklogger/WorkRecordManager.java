@@ -10,18 +10,22 @@
 package jp.kyutech.example.worklogger;
 
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.sql.Date;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.Context;
 
 /**
  * WorkRecordManager class manages work hours using a
- * WorkRecordDatabase.  Please make sure that work records will be
+ * WorkRecordStore.  Please make sure that work records will be
  * updated asynchronously by a user or events generated by Beacons or
- * some other devices.
+ * some other devices.  Changes of work records and of the work session
+ * are published to WorkRecordListeners so that views need not query
+ * them again.
  *
  * @author Masanobu UMEDA
  * @version $Revision$
@@ -29,30 +33,150 @@ import java.util.List;
 
 public class WorkRecordManager {
     private static final String LOGTAG = "WorkRecordManager";
-    private static final String TEXT_FORMAT = "%10s  %5s  %5s\n";
-    private static final String DATE_FORMAT = "yyyy/MM/dd";
-    private static final String TXT_TIME_FORMAT = "HH:mm"; // For java.text
-    private MainActivity context = null;
-    private WorkRecordDatabase recdb = null;
+    // Operations measured by Metrics in addition to those of a store
+    private static final int OP_FIRE_WORK_SESSION_EVENT =
+            Metrics.newOperation("manager.fireWorkSessionEvent");
+    private static final int OP_UPDATE_WORK_RECORD =
+            Metrics.newOperation("manager.updateWorkRecord");
+    private static final int OP_DELETE_WORK_RECORD =
+            Metrics.newOperation("manager.deleteWorkRecord");
+    private static final int OP_WRITE_TO_TEXT_STREAM =
+            Metrics.newOperation("manager.writeToTextStream");
+    private Context context = null;
+    private WorkRecordStore recdb = null;
+    // The user whose records are checked in and out by this manager
+    private String user = WorkRecord.DEFAULT_USER;
+    private IntervalIndex intervals = new IntervalIndex();
+    private WorkSession session = null;
+    private final List<WorkRecordListener> listeners =
+            new CopyOnWriteArrayList<>();
+    // Changes published after the transaction running, if any
+    private List<Runnable> deferred = null;
+
+    public WorkRecordManager(Context context) {
+        this(context, new WorkRecordDatabase(context));
+    }
 
-    public WorkRecordManager(MainActivity context) {
+    /*
+     * Create a manager of work records in a given store, e.g. an
+     * InMemoryWorkRecordStore to run the manager on a plain JVM.  The
+     * store is wrapped by a MeteredWorkRecordStore so that its
+     * operations are measured while Metrics is enabled.
+     *
+     * @param context a context, or null if not running on Android
+     * @param store a storage engine of work records
+     */
+    public WorkRecordManager(Context context, WorkRecordStore store) {
         this.context = context;
+        this.recdb = new MeteredWorkRecordStore(store);
+    }
+
+    /*
+     * Return the user whose records are checked in and out.
+     *
+     * @return a String
+     */
+    public synchronized String getUser() {
+        return user;
+    }
+
+    /*
+     * Return the SQLite database of this manager, e.g. to verify its
+     * summary tables, or null if records are kept by another store.
+     *
+     * @return a WorkRecordDatabase, or null
+     */
+    public WorkRecordDatabase getDatabase() {
+        WorkRecordStore store = ((MeteredWorkRecordStore)recdb).getStore();
+        return (store instanceof WorkRecordDatabase) ? (WorkRecordDatabase)store : null;
+    }
 
-        recdb = new WorkRecordDatabase(context);
+    /*
+     * Add a listener of changes of work records and the work session.
+     *
+     * @param listener a listener
+     * @see WorkRecordListener
+     */
+    public void addWorkRecordListener(WorkRecordListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeWorkRecordListener(WorkRecordListener listener) {
+        listeners.remove(listener);
+    }
+
+    /*
+     * Publish a change of a work record.  A copy is published so that
+     * listeners never see the record changed later.
+     *
+     * @param change one of WorkRecordListener.CHANGE_*
+     * @param record a work record changed
+     */
+    private void fireWorkRecordChanged(final int change, WorkRecord record) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        final WorkRecord copy = new WorkRecord(record);
+        if (deferred != null) {
+            deferred.add(new Runnable() {
+                @Override
+                public void run() {
+                    fireWorkRecordChanged(change, copy);
+                }
+            });
+            return;
+        }
+        for (WorkRecordListener listener : listeners) {
+            listener.onWorkRecordChanged(change, copy);
+        }
     }
 
-    private Date nextDate(Date date) {
-        Calendar cal = new GregorianCalendar();
-        cal.setTimeInMillis(date.getTime());
-        cal.add(Calendar.DATE, 1);
-        return new Date(cal.getTimeInMillis());
+    private void fireWorkSessionChanged(final int state) {
+        if (deferred != null) {
+            deferred.add(new Runnable() {
+                @Override
+                public void run() {
+                    fireWorkSessionChanged(state);
+                }
+            });
+            return;
+        }
+        for (WorkRecordListener listener : listeners) {
+            listener.onWorkSessionChanged(state);
+        }
     }
 
-    private Date prevDate(Date date) {
-        Calendar cal = new GregorianCalendar();
-        cal.setTimeInMillis(date.getTime());
-        cal.add(Calendar.DATE, -1);
-        return new Date(cal.getTimeInMillis());
+    /*
+     * Run operations of this manager in a transaction of the store, e.g.
+     * a batch of writes through a WorkRecordProvider.  Changes are
+     * published only after the transaction is committed.  If the body
+     * throws an exception, nothing is published and the work session
+     * is restored from the store again at the next operation.  A
+     * transaction in another one joins the outer one.
+     *
+     * @param body operations of this manager
+     */
+    public synchronized void runInTransaction(Runnable body) {
+        if (deferred != null) {
+            body.run();
+            return;
+        }
+        List<Runnable> changes = new ArrayList<>();
+        deferred = changes;
+        boolean committed = false;
+        try {
+            recdb.runInTransaction(body);
+            committed = true;
+        } finally {
+            deferred = null;
+            if (!committed) {
+                session = null;
+                intervals = new IntervalIndex();
+            }
+        }
+        for (Runnable change : changes) {
+            change.run();
+        }
     }
 
     /*
@@ -61,43 +185,191 @@ public class WorkRecordManager {
      * @return a WorkRecord
      */
     private WorkRecord prepareWorkRecord() {
-        WorkRecord record = recdb.getLastWorkRecord();
+        WorkRecord record = recdb.getLastWorkRecord(user);
         if (record == null) {
             // Initial use.
-            record = new WorkRecord();
+            record = new WorkRecord(user);
             recdb.addWorkRecord(record);
+            fireWorkRecordChanged(WorkRecordListener.CHANGE_INSERTED, record);
         } else if (record.isYesterday()) {
             // Starting a new day after yesterday.
             record.checkoutNow();
             recdb.updateWorkRecord(record);
-            record = new WorkRecord();
+            fireWorkRecordChanged(WorkRecordListener.CHANGE_UPDATED, record);
+            record = new WorkRecord(user);
             recdb.addWorkRecord(record);
+            fireWorkRecordChanged(WorkRecordListener.CHANGE_INSERTED, record);
         } else if (!record.isToday()) {
             // Starting a new day after a long sleep.
-            record = new WorkRecord();
+            record = new WorkRecord(user);
             recdb.addWorkRecord(record);
+            fireWorkRecordChanged(WorkRecordListener.CHANGE_INSERTED, record);
         }
         return record;
     }
 
     /*
-     * Update a work record according to a boolean state.
+     * Prepare the work session, restoring it from the newest work
+     * interval at the first call.  If there is no interval of today,
+     * the session is restored from the work record of today instead,
+     * so that a user checked in before intervals were kept can check
+     * out.
      *
-     * @param isWorking true if starting a work.  Otherwise, false.
+     * @return a WorkSession
      */
-    public synchronized void updateWorkRecordBy(boolean isWorking) {
-        WorkRecord record = prepareWorkRecord();
+    private WorkSession prepareWorkSession() {
+        Date today = DateTimeUtils.getDateOf(System.currentTimeMillis());
+        if (session == null) {
+            WorkInterval last = recdb.getLastWorkInterval(user);
+            WorkRecord record = null;
+            if (last != null && last.isOpen()) {
+                prepareWorkIntervals(last.getDate());
+            } else if (last == null || !last.getDate().equals(today)) {
+                record = recdb.getLastWorkRecord(user);
+            }
+            session = new WorkSession();
+            session.restore(last, record, today);
+        }
+        session.rollOver(today);
+        return session;
+    }
+
+    /*
+     * Prepare the work record of a work session.  The record is cached
+     * in the session so that it is looked up only once a day.
+     *
+     * @param session a work session
+     * @return a WorkRecord
+     */
+    private WorkRecord prepareWorkRecord(WorkSession session) {
+        WorkRecord record = session.getWorkRecord();
+        if (record == null) {
+            record = prepareWorkRecord();
+            session.setWorkRecord(record);
+        }
+        return record;
+    }
+
+    /*
+     * Move a work session to the next state by an event.  A transition
+     * closes the open interval, opens a new one, and records a checkin
+     * or checkout time in the work record of the session.
+     *
+     * @param event one of WorkSession.EVENT_*
+     * @return the new state
+     * @throws IllegalStateException if the event is not allowed
+     */
+    private int fireWorkSessionEvent(int event) {
+        long start = Metrics.begin(OP_FIRE_WORK_SESSION_EVENT);
+        try {
+            return doFireWorkSessionEvent(event);
+        } finally {
+            Metrics.end(OP_FIRE_WORK_SESSION_EVENT, start);
+        }
+    }
+
+    private int doFireWorkSessionEvent(int event) {
+        WorkSession session = prepareWorkSession();
+        int state = session.getState();
+        int next = WorkSession.getNextState(state, event);
+        if (next == state) {
+            return state;
+        }
 
-        // Update a work record according to isWorking flag.
-        if (isWorking) {
+        WorkInterval open = intervals.getOpenInterval();
+        if (open != null) {
+            stopWorkInterval(open);
+        }
+        if (next == WorkSession.STATE_WORKING) {
+            startWorkInterval(WorkInterval.KIND_WORK);
+        } else if (next == WorkSession.STATE_ON_BREAK) {
+            startWorkInterval(WorkInterval.KIND_BREAK);
+        }
+
+        if (!session.isWorking() && next == WorkSession.STATE_WORKING) {
+            WorkRecord record = prepareWorkRecord(session);
             if (record.checkinNow()) {
                 recdb.updateWorkRecord(record);
+                fireWorkRecordChanged(WorkRecordListener.CHANGE_UPDATED, record);
+            }
+        } else if (next == WorkSession.STATE_DONE) {
+            WorkRecord record = prepareWorkRecord(session);
+            boolean updated = record.checkoutNow();
+            if (!updated && record.getCheckinTime() != null) {
+                // Work resumed after a checkout extends the checkout so
+                // that the record and reports include the later work.
+                record.setCheckoutTime(new Time(System.currentTimeMillis()));
+                updated = true;
             }
-        } else {
-            if (record.checkoutNow()) {
+            if (updated) {
                 recdb.updateWorkRecord(record);
+                fireWorkRecordChanged(WorkRecordListener.CHANGE_UPDATED, record);
             }
         }
+
+        session.setState(next);
+        session.setDate(DateTimeUtils.getDateOf(System.currentTimeMillis()));
+        fireWorkSessionChanged(next);
+        return next;
+    }
+
+    /*
+     * Update a work record according to a boolean state.
+     *
+     * @param isWorking true if starting a work.  Otherwise, false.
+     */
+    public synchronized void updateWorkRecordBy(boolean isWorking) {
+        fireWorkSessionEvent(isWorking ?
+                             WorkSession.EVENT_START_WORK :
+                             WorkSession.EVENT_STOP_WORK);
+    }
+
+    /*
+     * Start working.  Nothing is done if already working.
+     *
+     * @return the new state of the work session
+     */
+    public synchronized int startWork() {
+        return fireWorkSessionEvent(WorkSession.EVENT_START_WORK);
+    }
+
+    /*
+     * Stop working.  Nothing is done unless working.
+     *
+     * @return the new state of the work session
+     */
+    public synchronized int stopWork() {
+        return fireWorkSessionEvent(WorkSession.EVENT_STOP_WORK);
+    }
+
+    /*
+     * Start a break while working.
+     *
+     * @return the new state of the work session
+     * @throws IllegalStateException if not working
+     */
+    public synchronized int startBreak() {
+        return fireWorkSessionEvent(WorkSession.EVENT_START_BREAK);
+    }
+
+    /*
+     * Stop a break and resume working.
+     *
+     * @return the new state of the work session
+     * @throws IllegalStateException if not working
+     */
+    public synchronized int stopBreak() {
+        return fireWorkSessionEvent(WorkSession.EVENT_STOP_BREAK);
+    }
+
+    /*
+     * Return the current state of the work session.  No database is
+     * accessed except at the first call.
+     *
+     * @return one of WorkSession.STATE_*
+     */
+    public synchronized int getWorkSessionState() {
+        return prepareWorkSession().getState();
     }
 
     /*
@@ -106,19 +378,19 @@ public class WorkRecordManager {
      * @return a WorkRecord
      */
     public synchronized WorkRecord getCurrentWorkRecord() {
-        return recdb.getLastWorkRecord();
+        return recdb.getLastWorkRecord(user);
     }
 
     /*
-     * Return a work record located at the given position.
+     * Return a work record specified by its ID.
      *
-     * @param position
-     * @return a WorkRecord
+     * @param id the ID of a work record
+     * @return a WorkRecord, or null if not found
      *
      * @see WorkRecord
      */
-    public synchronized WorkRecord getWorkRecordAt(int position) {
-        return recdb.getWorkRecordAt(position);
+    public synchronized WorkRecord getWorkRecordById(long id) {
+        return recdb.getWorkRecordById(id);
     }
 
     /*
@@ -130,7 +402,107 @@ public class WorkRecordManager {
      * @see WorkRecord
      */
     public synchronized List<WorkRecord> getWorkRecords(int count) {
-        return recdb.getRecentWorkRecords(count);
+        return recdb.getRecentWorkRecords(user, count);
+    }
+
+    /*
+     * Return a page of the newest work records whose IDs are less than
+     * a given ID.
+     *
+     * @param beforeId specifies the exclusive upper bound of IDs
+     * @param count specifies the maximum number of work records
+     * @return a List<WorkRecord>
+     *
+     * @see WorkRecord
+     */
+    public synchronized List<WorkRecord> getWorkRecordsBefore(long beforeId,
+                                                              int count) {
+        return recdb.getWorkRecordsBefore(user, beforeId, count);
+    }
+
+    /*
+     * Return the work records of the user of this manager between two
+     * dates inclusive.
+     *
+     * @param fromDate the first date
+     * @param toDate the last date
+     * @return a List<WorkRecord>
+     *
+     * @see WorkRecord
+     */
+    public synchronized List<WorkRecord> getUserWorkRecordsBetween(Date fromDate,
+                                                                   Date toDate) {
+        return recdb.getWorkRecordsBetween(user, fromDate, toDate);
+    }
+
+    /*
+     * Return a report of the work records of the user of this manager
+     * between two dates inclusive, e.g. of the last month.  A store
+     * keeping totals of days and months, i.e. WorkRecordDatabase, reads
+     * a row per period instead of the records of the period.
+     *
+     * @param fromDate the first date
+     * @param toDate the last date
+     * @param period one of ReportEngine.PERIOD_*
+     * @return a ReportEngine.Report
+     *
+     * @see ReportEngine
+     */
+    public ReportEngine.Report getReport(Date fromDate, Date toDate, int period) {
+        ReportEngine engine = new ReportEngine(fromDate, toDate, period);
+        List<WorkRecord> records;
+        synchronized (this) {
+            // Totals kept by a store are read instead of records.
+            ReportEngine.Report report = recdb.getSummaryReport(engine, user);
+            if (report != null) {
+                return report;
+            }
+            records = recdb.getWorkRecordsBetween(user, fromDate, toDate);
+        }
+        // Records are aggregated without the lock like an export.
+        return engine.aggregate(records);
+    }
+
+    /*
+     * Return the work records of all users between two dates inclusive.
+     *
+     * @param fromDate the first date
+     * @param toDate the last date
+     * @return a List<WorkRecord>
+     *
+     * @see WorkRecord
+     */
+    public synchronized List<WorkRecord> getWorkRecordsBetween(Date fromDate,
+                                                               Date toDate) {
+        return recdb.getWorkRecordsBetween(fromDate, toDate);
+    }
+
+    /*
+     * Add a work record, e.g. of a day forgotten to check in.
+     *
+     * @param record the record to be added
+     * @throws IllegalStateException if a record of the date exists
+     *
+     * @see WorkRecord
+     */
+    public synchronized void addWorkRecord(WorkRecord record) {
+        recdb.addWorkRecord(record);
+        fireWorkRecordChanged(WorkRecordListener.CHANGE_INSERTED, record);
+    }
+
+    /*
+     * Add work records in a single transaction, e.g. to import a
+     * history.  The dates of records are not checked.
+     *
+     * @param records the records to be added
+     *
+     * @see WorkRecord
+     */
+    public synchronized void addWorkRecords(Collection<WorkRecord> records) {
+        recdb.addWorkRecords(records);
+        for (WorkRecord record : records) {
+            fireWorkRecordChanged(WorkRecordListener.CHANGE_INSERTED, record);
+        }
     }
 
     /*
@@ -141,7 +513,7 @@ public class WorkRecordManager {
      * @see WorkRecord
      */
     public synchronized WorkRecord getLastAliveWorkRecord() {
-        return recdb.getLastAliveWorkRecord();
+        return recdb.getLastAliveWorkRecord(user);
     }
 
     /*
@@ -156,7 +528,18 @@ public class WorkRecordManager {
         if (record == null) {
             return false;
         }
-        recdb.updateWorkRecord(record);
+        long start = Metrics.begin(OP_UPDATE_WORK_RECORD);
+        try {
+            recdb.updateWorkRecord(record);
+            fireWorkRecordChanged(WorkRecordListener.CHANGE_UPDATED, record);
+            if (session != null && session.getWorkRecord() != null &&
+                session.getWorkRecord().getId() == record.getId()) {
+                // The cached record of the session is replaced by an edited one.
+                session.setWorkRecord(record);
+            }
+        } finally {
+            Metrics.end(OP_UPDATE_WORK_RECORD, start);
+        }
         return true;
     }
 
@@ -164,10 +547,118 @@ public class WorkRecordManager {
         if (record == null) {
             return false;
         }
-        recdb.deleteWorkRecord(record);
+        long start = Metrics.begin(OP_DELETE_WORK_RECORD);
+        try {
+            recdb.deleteWorkRecord(record);
+            fireWorkRecordChanged(WorkRecordListener.CHANGE_DELETED, record);
+            if (session != null && session.getWorkRecord() != null &&
+                session.getWorkRecord().getId() == record.getId()) {
+                session.setWorkRecord(null);
+            }
+        } finally {
+            Metrics.end(OP_DELETE_WORK_RECORD, start);
+        }
         return true;
     }
 
+    /*
+     * Load the work intervals of a date into the interval index unless
+     * they have been loaded.
+     *
+     * @param date a date
+     */
+    private void prepareWorkIntervals(Date date) {
+        if (!intervals.isLoaded(date)) {
+            intervals.load(date, recdb.getWorkIntervalsOn(user, date));
+        }
+    }
+
+    /*
+     * Start a new work or break interval now.
+     *
+     * @param kind WorkInterval.KIND_WORK or WorkInterval.KIND_BREAK
+     * @return a WorkInterval started
+     * @throws IllegalStateException if another interval is open
+     */
+    private WorkInterval startWorkInterval(int kind) {
+        WorkInterval interval =
+                new WorkInterval(kind, System.currentTimeMillis());
+        interval.setUser(user);
+        prepareWorkIntervals(interval.getDate());
+        intervals.add(interval);
+        try {
+            recdb.addWorkInterval(interval);
+        } catch (RuntimeException ex) {
+            intervals.remove(interval);
+            throw ex;
+        }
+        return interval;
+    }
+
+    /*
+     * Stop an open interval now.  An interval stopped as soon as it
+     * started is deleted since it would collide with the next one.
+     *
+     * @param interval an open interval
+     */
+    private void stopWorkInterval(WorkInterval interval) {
+        long now = System.currentTimeMillis();
+        if (now == interval.getStart()) {
+            intervals.remove(interval);
+            try {
+                recdb.deleteWorkInterval(interval);
+            } catch (RuntimeException ex) {
+                intervals.add(interval);
+                throw ex;
+            }
+            return;
+        }
+        intervals.close(interval, now);
+        try {
+            recdb.updateWorkInterval(interval);
+        } catch (RuntimeException ex) {
+            intervals.reopen(interval);
+            throw ex;
+        }
+    }
+
+    /*
+     * Return the interval which has not been stopped yet.
+     *
+     * @return a WorkInterval or null
+     *
+     * @see WorkInterval
+     */
+    public synchronized WorkInterval getOpenWorkInterval() {
+        prepareWorkSession();
+        return intervals.getOpenInterval();
+    }
+
+    /*
+     * Return the work and break intervals starting on a date.
+     *
+     * @param date a date
+     * @return a List<WorkInterval>
+     *
+     * @see WorkInterval
+     */
+    public synchronized List<WorkInterval> getWorkIntervalsOn(Date date) {
+        prepareWorkIntervals(date);
+        return intervals.getIntervalsOn(date);
+    }
+
+    /*
+     * Return the total time of intervals of a kind on a date.
+     *
+     * @param date a date
+     * @param kind WorkInterval.KIND_WORK or WorkInterval.KIND_BREAK
+     * @return a long in msec.
+     */
+    public synchronized long getTotalTimeOn(Date date, int kind) {
+        prepareWorkIntervals(date);
+        return intervals.getTotalTime(date, kind, System.currentTimeMillis());
+    }
+
     /*
      * Write the work records between a duration in a databse to
      * a given stream as text.
@@ -176,44 +667,23 @@ public class WorkRecordManager {
      * @param fromDate the start of a duration
      * @param toDate the end of a duration
      *
-     * @see WorkRecord
+     * @see WorkRecordTextCodec#write
      */
-    public synchronized void writeToTextStream(OutputStream ostream,
-                                               Date fromDate,
-                                               Date toDate
+    public void writeToTextStream(OutputStream ostream,
+                                  Date fromDate,
+                                  Date toDate
     ) {
-        SimpleDateFormat date_format = new SimpleDateFormat(DATE_FORMAT);
-        SimpleDateFormat time_format = new SimpleDateFormat(TXT_TIME_FORMAT);
-
-        List<WorkRecord> records =
-                recdb.getWorkRecordsBetween(fromDate, toDate);
-
-        PrintWriter writer = new PrintWriter(ostream);
+        long start = Metrics.begin(OP_WRITE_TO_TEXT_STREAM);
         try {
-            writer.printf(TEXT_FORMAT, "Date", "Start", "End");
-
-            Date last_date = fromDate;
-            for (WorkRecord record : records) {
-                // Insert missing data before a current record.
-                while (last_date.compareTo(record.getDate()) < 0) {
-                    writer.printf(TEXT_FORMAT, date_format.format(last_date), "", "");
-                    last_date = nextDate(last_date);
-                }
-                writer.printf(TEXT_FORMAT,
-                        date_format.format(record.getDate()),
-                        (record.getCheckinTime() != null) ?
-                                time_format.format(record.getCheckinTime()) : "",
-                        (record.getCheckoutTime() != null) ?
-                                time_format.format(record.getCheckoutTime()) : "");
-                last_date = nextDate(record.getDate());
-            }
-            // Insert missing data after the last record.
-            while (last_date.compareTo(toDate) <= 0) {
-                writer.printf(TEXT_FORMAT, time_format.format(last_date), "", "");
-                last_date = nextDate(last_date);
+            List<WorkRecord> records;
+            synchronized (this) {
+                records = recdb.getWorkRecordsBetween(user, fromDate, toDate);
             }
+            // Records are formatted without the lock so that an export
+            // does not block check-ins.
+            WorkRecordTextCodec.write(ostream, records, fromDate, toDate);
         } finally {
-            writer.close();
+            Metrics.end(OP_WRITE_TO_TEXT_STREAM, start);
         }
     }
 }
\ No newline at end of file
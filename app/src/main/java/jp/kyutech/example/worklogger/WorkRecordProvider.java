@@ -0,0 +1,331 @@
+// WorkRecordProvider for sharing work records with other processes
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jp.kyutech.example.worklogger.WorkRecordContract.WorkRecords;
+
+/**
+ * WorkRecordProvider class serves work records to other processes by
+ * the URIs of the WorkRecordContract.  All the operations go through
+ * the WorkRecordManager of the application, which is the only owner of
+ * the database in a process.  Therefore, writes through the provider
+ * are serialized with check-ins by the UI, a widget and a beacon, and
+ * are published to their views as well.
+ *
+ * applyBatch() and bulkInsert() write all the records in a single
+ * transaction.  Changes are notified to observers once the transaction
+ * is committed.
+ *
+ * Selections and sort orders are not supported since records are not
+ * queried by SQL but by the manager; use the query parameters of
+ * CONTENT_URI instead.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class WorkRecordProvider extends ContentProvider
+{
+  private static final int	MATCH_RECORDS = 1;
+  private static final int	MATCH_RECORD = 2;
+  private static final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+  static {
+    matcher.addURI(WorkRecordContract.AUTHORITY,
+		   WorkRecords.PATH, MATCH_RECORDS);
+    matcher.addURI(WorkRecordContract.AUTHORITY,
+		   WorkRecords.PATH + "/#", MATCH_RECORD);
+  }
+
+  /*
+   * Wrapper to throw an OperationApplicationException out of a
+   * transaction.
+   */
+  private static class BatchException extends RuntimeException
+  {
+    private static final long serialVersionUID = 1L;
+
+    BatchException(OperationApplicationException cause)
+    {
+      super(cause);
+    }
+  }
+
+  @Override
+  public boolean onCreate()
+  {
+    // NOTE: The manager is not looked up here since a provider is
+    // created before the application.
+    return true;
+  }
+
+  private WorkRecordManager getRecordManager()
+  {
+    return WorkLoggerApplication.from(getContext()).getRecordManager();
+  }
+
+  @Override
+  public String getType(Uri uri)
+  {
+    switch(matcher.match(uri)){
+    case MATCH_RECORDS:
+      return WorkRecords.CONTENT_TYPE;
+    case MATCH_RECORD:
+      return WorkRecords.CONTENT_ITEM_TYPE;
+    default:
+      return null;
+    }
+  }
+
+  @Override
+  public Cursor query(Uri uri,
+		      String[] projection,
+		      String selection,
+		      String[] selectionArgs,
+		      String sortOrder)
+  {
+    if(selection != null || sortOrder != null){
+      throw new IllegalArgumentException
+	("query: selection and sortOrder are not supported: " + uri);
+    }
+    List<WorkRecord> records;
+    switch(matcher.match(uri)){
+    case MATCH_RECORDS:
+      records = queryRecords(uri);
+      break;
+    case MATCH_RECORD:
+      WorkRecord record = getUserWorkRecord(getRecordManager(), uri);
+      records = (record != null) ?
+	Collections.singletonList(record) :
+	Collections.<WorkRecord>emptyList();
+      break;
+    default:
+      throw new IllegalArgumentException("query: unknown URI: " + uri);
+    }
+    MatrixCursor cursor =
+      toCursor(records, (projection != null) ? projection : WorkRecords.ALL_COLUMNS);
+    cursor.setNotificationUri(getContext().getContentResolver(),
+			      WorkRecords.CONTENT_URI);
+    return cursor;
+  }
+
+  /*
+   * Get the record of a URI if it belongs to the user of the manager.
+   * Records of other users are treated as not found.
+   *
+   * @param manager a work record manager
+   * @param uri a URI of a record
+   * @return the work record, or null if not found
+   */
+  private static WorkRecord getUserWorkRecord(WorkRecordManager manager,
+					      Uri uri)
+  {
+    WorkRecord record = manager.getWorkRecordById(ContentUris.parseId(uri));
+    if(record == null || !manager.getUser().equals(record.getUser())){
+      return null;
+    }
+    return record;
+  }
+
+  /*
+   * Query the records of the user of the manager specified by the
+   * query parameters of a URI.
+   */
+  private List<WorkRecord> queryRecords(Uri uri)
+  {
+    String from = uri.getQueryParameter(WorkRecords.PARAM_FROM);
+    String to = uri.getQueryParameter(WorkRecords.PARAM_TO);
+    if(from != null || to != null){
+      if(from == null || to == null){
+	throw new IllegalArgumentException
+	  ("query: both from and to are required: " + uri);
+      }
+      return getRecordManager().getUserWorkRecordsBetween(Date.valueOf(from),
+							  Date.valueOf(to));
+    }
+    String limit = uri.getQueryParameter(WorkRecords.PARAM_LIMIT);
+    return getRecordManager().getWorkRecords((limit != null) ?
+					     Integer.parseInt(limit) :
+					     WorkRecords.DEFAULT_LIMIT);
+  }
+
+  private static MatrixCursor toCursor(List<WorkRecord> records,
+				       String[] projection)
+  {
+    MatrixCursor cursor = new MatrixCursor(projection, records.size());
+    for(WorkRecord record : records){
+      MatrixCursor.RowBuilder row = cursor.newRow();
+      for(String column : projection){
+	row.add(getColumn(record, column));
+      }
+    }
+    return cursor;
+  }
+
+  private static Object getColumn(WorkRecord record, String column)
+  {
+    switch(column){
+    case WorkRecords.ID:
+      return record.getId();
+    case WorkRecords.USER:
+      return record.getUser();
+    case WorkRecords.DATE:
+      return record.getDateAsString();
+    case WorkRecords.CHECKIN:
+      return record.getCheckinTimeAsString();
+    case WorkRecords.CHECKOUT:
+      return record.getCheckoutTimeAsString();
+    case WorkRecords.VERSION:
+      return record.getVersion();
+    default:
+      throw new IllegalArgumentException("Unknown column: " + column);
+    }
+  }
+
+  /*
+   * Copy values to a work record.  Columns not in values are kept.
+   *
+   * @param values values of columns
+   * @param record a work record to be changed
+   * @return the work record
+   */
+  private static WorkRecord toWorkRecord(ContentValues values,
+					 WorkRecord record)
+  {
+    if(values.containsKey(WorkRecords.USER)){
+      record.setUser(values.getAsString(WorkRecords.USER));
+    }
+    if(values.containsKey(WorkRecords.DATE)){
+      String date = values.getAsString(WorkRecords.DATE);
+      record.setDate((date != null) ? Date.valueOf(date) : null);
+    }
+    if(values.containsKey(WorkRecords.CHECKIN)){
+      String time = values.getAsString(WorkRecords.CHECKIN);
+      record.setCheckinTime((time != null) ? Time.valueOf(time) : null);
+    }
+    if(values.containsKey(WorkRecords.CHECKOUT)){
+      String time = values.getAsString(WorkRecords.CHECKOUT);
+      record.setCheckoutTime((time != null) ? Time.valueOf(time) : null);
+    }
+    return record;
+  }
+
+  @Override
+  public Uri insert(Uri uri, ContentValues values)
+  {
+    if(matcher.match(uri) != MATCH_RECORDS){
+      throw new IllegalArgumentException("insert: unknown URI: " + uri);
+    }
+    WorkRecord record = toWorkRecord(values, new WorkRecord());
+    getRecordManager().addWorkRecord(record);
+    return WorkRecords.buildUri(record.getId());
+  }
+
+  /*
+   * Insert records in a single transaction.  Unlike insert(), the
+   * dates of records are not checked.
+   */
+  @Override
+  public int bulkInsert(Uri uri, ContentValues[] values)
+  {
+    if(matcher.match(uri) != MATCH_RECORDS){
+      throw new IllegalArgumentException("bulkInsert: unknown URI: " + uri);
+    }
+    List<WorkRecord> records = new ArrayList<>(values.length);
+    for(ContentValues value : values){
+      records.add(toWorkRecord(value, new WorkRecord()));
+    }
+    getRecordManager().addWorkRecords(records);
+    return records.size();
+  }
+
+  @Override
+  public int update(Uri uri,
+		    ContentValues values,
+		    String selection,
+		    String[] selectionArgs)
+  {
+    if(matcher.match(uri) != MATCH_RECORD || selection != null){
+      throw new IllegalArgumentException("update: unknown URI: " + uri);
+    }
+    WorkRecordManager manager = getRecordManager();
+    synchronized(manager){
+      WorkRecord record = getUserWorkRecord(manager, uri);
+      if(record == null){
+	return 0;
+      }
+      Integer version = values.getAsInteger(WorkRecords.VERSION);
+      if(version != null && version != record.getVersion()){
+	return 0;		// Updated by another writer
+      }
+      manager.updateWorkRecord(toWorkRecord(values, record));
+      return 1;
+    }
+  }
+
+  @Override
+  public int delete(Uri uri, String selection, String[] selectionArgs)
+  {
+    if(matcher.match(uri) != MATCH_RECORD || selection != null){
+      throw new IllegalArgumentException("delete: unknown URI: " + uri);
+    }
+    WorkRecordManager manager = getRecordManager();
+    synchronized(manager){
+      WorkRecord record = getUserWorkRecord(manager, uri);
+      if(record == null){
+	return 0;
+      }
+      manager.deleteWorkRecord(record);
+      return 1;
+    }
+  }
+
+  /*
+   * Apply operations in a single transaction.  If an operation fails,
+   * none of them is applied.
+   */
+  @Override
+  public ContentProviderResult[] applyBatch(final ArrayList<ContentProviderOperation> operations)
+    throws OperationApplicationException
+  {
+    final ContentProviderResult[][] results = new ContentProviderResult[1][];
+    try {
+      getRecordManager().runInTransaction(new Runnable()
+	{
+	  @Override
+	  public void run()
+	  {
+	    try {
+	      results[0] = WorkRecordProvider.super.applyBatch(operations);
+	    } catch(OperationApplicationException ex){
+	      throw new BatchException(ex);
+	    }
+	  }
+	});
+    } catch(BatchException ex){
+      throw (OperationApplicationException)ex.getCause();
+    }
+    return results[0];
+  }
+}
@@ -0,0 +1,292 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Test;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * InMemoryWorkRecordStoreTest class to run unit tests on the
+ * development machine (host).
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class InMemoryWorkRecordStoreTest {
+    private static final long DAY0 = DateTimeUtils.toEpochDay(Date.valueOf("2000-01-01"));
+
+    private static WorkRecord record(long day) {
+        WorkRecord record = new WorkRecord();
+        record.setDate(DateTimeUtils.fromEpochDay(day));
+        return record;
+    }
+
+    @Test
+    public void indexesByIdAndDay() {
+        InMemoryWorkRecordStore store = new InMemoryWorkRecordStore();
+        for (int i = 0; i < 100; i++) {
+            store.addWorkRecord(record(DAY0 + i));
+        }
+        assertEquals(100, store.size());
+        assertEquals(100, store.getLastWorkRecord().getId());
+
+        List<WorkRecord> page = store.getWorkRecordsBefore(51, 10);
+        assertEquals(10, page.size());
+        assertEquals(50, page.get(0).getId());
+        assertEquals(41, page.get(9).getId());
+
+        List<WorkRecord> week = store.getWorkRecordsBetween(
+                DateTimeUtils.fromEpochDay(DAY0 + 10),
+                DateTimeUtils.fromEpochDay(DAY0 + 16));
+        assertEquals(7, week.size());
+        assertEquals(11, week.get(0).getId());
+
+        try {
+            store.addWorkRecord(record(DAY0 + 5));
+            fail("A duplicated record must be rejected");
+        } catch (IllegalStateException ex) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void partitionsByUser() {
+        InMemoryWorkRecordStore store = new InMemoryWorkRecordStore();
+        for (int i = 0; i < 10; i++) {
+            store.addWorkRecord(record(DAY0 + i));
+            WorkRecord other = record(DAY0 + i);
+            other.setUser("user0001");
+            store.addWorkRecord(other);
+        }
+        assertEquals(20, store.size());
+        assertEquals(20, store.getLastWorkRecord().getId());
+        assertEquals(19, store.getLastWorkRecord(WorkRecord.DEFAULT_USER).getId());
+        assertNull(store.getLastWorkRecord("nobody"));
+
+        List<WorkRecord> page = store.getWorkRecordsBefore("user0001", 11, 3);
+        assertEquals(Arrays.asList(10L, 8L, 6L), ids(page));
+        assertEquals(5, store.getRecentWorkRecords(WorkRecord.DEFAULT_USER, 5).size());
+
+        List<WorkRecord> week = store.getWorkRecordsBetween(
+                WorkRecord.DEFAULT_USER,
+                DateTimeUtils.fromEpochDay(DAY0 + 2),
+                DateTimeUtils.fromEpochDay(DAY0 + 8));
+        assertEquals(7, week.size());
+        assertEquals(5, week.get(0).getId());
+        assertEquals(14, store.getWorkRecordsBetween(
+                DateTimeUtils.fromEpochDay(DAY0 + 2),
+                DateTimeUtils.fromEpochDay(DAY0 + 8)).size());
+
+        // Deleted records are removed from the partition of the user.
+        store.deleteWorkRecord(store.getLastWorkRecord("user0001"));
+        assertEquals(18, store.getLastWorkRecord("user0001").getId());
+    }
+
+    private static List<Long> ids(List<WorkRecord> records) {
+        List<Long> ids = new ArrayList<>();
+        for (WorkRecord record : records) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void copiesRecords() {
+        InMemoryWorkRecordStore store = new InMemoryWorkRecordStore();
+        WorkRecord record = record(DAY0);
+        store.addWorkRecord(record);
+        record.checkinNow();
+        assertNull(store.getWorkRecordById(record.getId()).getCheckinTime());
+
+        store.updateWorkRecord(record);
+        assertEquals(1, record.getVersion());
+        assertNotNull(store.getWorkRecordById(record.getId()).getCheckinTime());
+        assertEquals(record.getId(), store.getLastAliveWorkRecord().getId());
+
+        store.deleteWorkRecord(record);
+        assertNull(store.getWorkRecordById(record.getId()));
+        assertEquals(0, store.getWorkRecordsBetween(
+                DateTimeUtils.fromEpochDay(DAY0), DateTimeUtils.fromEpochDay(DAY0)).size());
+    }
+
+    @Test
+    public void movesUpdatedRecords() {
+        InMemoryWorkRecordStore store = new InMemoryWorkRecordStore();
+        WorkRecord record = record(DAY0);
+        store.addWorkRecord(record);
+        record.checkinNow();
+        store.updateWorkRecord(record);
+        assertEquals(1, store.getWorkRecordsBetween(WorkRecord.DEFAULT_USER,
+                DateTimeUtils.fromEpochDay(DAY0), DateTimeUtils.fromEpochDay(DAY0)).size());
+
+        // A record moved to another day and user is found only there.
+        record.setDate(DateTimeUtils.fromEpochDay(DAY0 + 1));
+        record.setUser("user0001");
+        store.updateWorkRecord(record);
+        assertEquals(0, store.getWorkRecordsBetween(
+                DateTimeUtils.fromEpochDay(DAY0), DateTimeUtils.fromEpochDay(DAY0)).size());
+        assertNull(store.getLastWorkRecord(WorkRecord.DEFAULT_USER));
+        assertEquals(record.getId(), store.getWorkRecordsBetween("user0001",
+                DateTimeUtils.fromEpochDay(DAY0 + 1),
+                DateTimeUtils.fromEpochDay(DAY0 + 1)).get(0).getId());
+        assertEquals(2, store.getWorkRecordById(record.getId()).getVersion());
+    }
+
+    @Test
+    public void keepsIntervalsStartingTogether() {
+        InMemoryWorkRecordStore store = new InMemoryWorkRecordStore();
+        long start = DateTimeUtils.fromEpochDay(DAY0).getTime() + 1000;
+        WorkInterval work = new WorkInterval(WorkInterval.KIND_WORK, start);
+        store.addWorkInterval(work);
+        store.addWorkInterval(new WorkInterval(WorkInterval.KIND_WORK, start));
+        assertEquals(2, store.getWorkIntervalsOn(DateTimeUtils.fromEpochDay(DAY0)).size());
+
+        work.setStart(start + 1000);
+        store.updateWorkInterval(work);
+        List<WorkInterval> intervals = store.getWorkIntervalsOn(DateTimeUtils.fromEpochDay(DAY0));
+        assertEquals(2, intervals.size());
+        assertEquals(start + 1000, intervals.get(1).getStart());
+
+        store.deleteWorkInterval(work);
+        assertEquals(1, store.getWorkIntervalsOn(DateTimeUtils.fromEpochDay(DAY0)).size());
+    }
+
+    @Test
+    public void partitionsIntervalsByUser() {
+        InMemoryWorkRecordStore store = new InMemoryWorkRecordStore();
+        Date day = DateTimeUtils.fromEpochDay(DAY0);
+        long start = day.getTime() + 1000;
+        WorkInterval mine = new WorkInterval(WorkInterval.KIND_WORK, start);
+        store.addWorkInterval(mine);
+        WorkInterval other = new WorkInterval(WorkInterval.KIND_BREAK, start + 1000);
+        other.setUser("user0001");
+        store.addWorkInterval(other);
+
+        assertEquals(other.getId(), store.getLastWorkInterval().getId());
+        assertEquals(mine.getId(),
+                     store.getLastWorkInterval(WorkRecord.DEFAULT_USER).getId());
+        assertNull(store.getLastWorkInterval("nobody"));
+        assertEquals(1, store.getWorkIntervalsOn(WorkRecord.DEFAULT_USER, day).size());
+
+        // Moved to another user.
+        other.setUser(WorkRecord.DEFAULT_USER);
+        store.updateWorkInterval(other);
+        assertNull(store.getLastWorkInterval("user0001"));
+        assertEquals(2, store.getWorkIntervalsOn(WorkRecord.DEFAULT_USER, day).size());
+
+        store.deleteWorkInterval(other);
+        assertEquals(mine.getId(),
+                     store.getLastWorkInterval(WorkRecord.DEFAULT_USER).getId());
+    }
+
+    @Test
+    public void runsManagerWithoutAndroid() {
+        InMemoryWorkRecordStore store = new InMemoryWorkRecordStore();
+        WorkRecordManager manager = new WorkRecordManager(null, store);
+
+        assertEquals(WorkSession.STATE_WORKING, manager.startWork());
+        assertEquals(WorkSession.STATE_ON_BREAK, manager.startBreak());
+        assertEquals(WorkSession.STATE_WORKING, manager.stopBreak());
+        assertEquals(WorkSession.STATE_DONE, manager.stopWork());
+
+        WorkRecord today = store.getLastWorkRecord();
+        assertNotNull(today.getCheckinTime());
+        assertNotNull(today.getCheckoutTime());
+        // Intervals shorter than a msec. may have been dropped.
+        long end = 0;
+        for (WorkInterval interval : store.getWorkIntervalsOn(today.getDate())) {
+            assertEquals(false, interval.isOpen());
+            assertEquals(true, end <= interval.getStart());
+            end = interval.getEnd();
+        }
+    }
+
+    @Test
+    public void publishesChanges() {
+        InMemoryWorkRecordStore store = new InMemoryWorkRecordStore();
+        WorkRecordManager manager = new WorkRecordManager(null, store);
+        final List<String> changes = new ArrayList<>();
+        manager.addWorkRecordListener(new WorkRecordListener() {
+            @Override
+            public void onWorkRecordChanged(int change, WorkRecord record) {
+                changes.add(change + ":" + record.getId());
+            }
+
+            @Override
+            public void onWorkSessionChanged(int state) {
+                changes.add("state:" + state);
+            }
+        });
+
+        manager.startWork();
+        long id = store.getLastWorkRecord().getId();
+        assertEquals(Arrays.asList(WorkRecordListener.CHANGE_INSERTED + ":" + id,
+                                   WorkRecordListener.CHANGE_UPDATED + ":" + id,
+                                   "state:" + WorkSession.STATE_WORKING),
+                     changes);
+
+        changes.clear();
+        manager.startWork();    // No transition
+        manager.deleteWorkRecord(store.getLastWorkRecord());
+        assertEquals(Arrays.asList(WorkRecordListener.CHANGE_DELETED + ":" + id),
+                     changes);
+    }
+
+    @Test
+    public void publishesChangesAfterTransaction() {
+        InMemoryWorkRecordStore store = new InMemoryWorkRecordStore();
+        final WorkRecordManager manager = new WorkRecordManager(null, store);
+        final List<Integer> changes = new ArrayList<>();
+        manager.addWorkRecordListener(new WorkRecordListener() {
+            @Override
+            public void onWorkRecordChanged(int change, WorkRecord record) {
+                changes.add(change);
+            }
+
+            @Override
+            public void onWorkSessionChanged(int state) {
+            }
+        });
+
+        manager.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                WorkRecord record = new WorkRecord();
+                record.setDate(Date.valueOf("2021-04-05"));
+                manager.addWorkRecord(record);
+                assertEquals(0, changes.size());
+                record.checkinNow();
+                manager.updateWorkRecord(record);
+            }
+        });
+        assertEquals(Arrays.asList(WorkRecordListener.CHANGE_INSERTED,
+                                   WorkRecordListener.CHANGE_UPDATED),
+                     changes);
+
+        changes.clear();
+        try {
+            manager.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    WorkRecord record = new WorkRecord();
+                    record.setDate(Date.valueOf("2021-04-06"));
+                    manager.addWorkRecord(record);
+                    throw new IllegalStateException("failed");
+                }
+            });
+            fail();
+        } catch (IllegalStateException ex) {
+            // Expected.
+        }
+        // Nothing is published for a failed transaction.
+        assertEquals(0, changes.size());
+    }
+}
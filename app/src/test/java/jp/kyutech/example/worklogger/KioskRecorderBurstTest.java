@@ -0,0 +1,248 @@
+package jp.kyutech.example.worklogger;
+
+import android.app.Application;
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.io.StringReader;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * KioskRecorderBurstTest class replays the start of a shift at a kiosk,
+ * NUSERS users punching their badges within five minutes, on a
+ * WorkRecordManager over the SQLite database of the app.  Arrivals
+ * are replayed SPEEDUP times faster than real time by several badge
+ * readers, and every badge is handed to the recorder by a single
+ * thread which never waits for commits, as KioskActivity does.
+ *
+ * The latency of each punch from its arrival to its commit is checked
+ * against a bound loose enough for a busy CI host, and against the
+ * target of 50 msec. only if enabled by a Gradle property, since it
+ * depends on the host:
+ *
+ *   ./gradlew :app:testDebugUnitTest --tests '*KioskRecorderBurstTest' \
+ *       -Pworklogger.bench=true
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 30, application = Application.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class KioskRecorderBurstTest {
+    private static final int NUSERS = 250;
+    private static final long SHIFT_START_MILLIS = 5 * 60 * 1000;
+    private static final int SPEEDUP = 100;
+    private static final int NREADERS = 4;
+    private static final long MAX_LATENCY_MILLIS = 50;
+    private static final long CI_MAX_LATENCY_MILLIS = 1000;
+
+    private WorkRecordDatabase recdb;
+    private WorkRecordManager manager;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        recdb = new WorkRecordDatabase(context);
+        manager = new WorkRecordManager(context, recdb);
+    }
+
+    @After
+    public void tearDown() {
+        recdb.close();
+    }
+
+    private static BadgeIndex createRoster() throws Exception {
+        StringBuilder roster = new StringBuilder("# badge,user\n");
+        for (int i = 0; i < NUSERS; i++) {
+            roster.append(String.format("b%04d,user%04d\n", i, i));
+        }
+        return BadgeIndex.read(new StringReader(roster.toString()));
+    }
+
+    @Test
+    public void looksUpBadges() throws Exception {
+        BadgeIndex badges = createRoster();
+        assertEquals(NUSERS, badges.size());
+        assertEquals("user0012", badges.getUser(" B0012 "));
+        assertNull(badges.getUser("x0012"));
+    }
+
+    /*
+     * Punch the badges of all the users at given offsets from now, and
+     * return the sorted latencies of the punches from their arrivals.
+     */
+    private static long[] replay(final KioskRecorder recorder, final long[] offsets,
+                                 Random random) throws Exception {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < NUSERS; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, random);
+
+        final ExecutorService puncher = Executors.newSingleThreadExecutor();
+        ExecutorService readers = Executors.newFixedThreadPool(NREADERS);
+        final CountDownLatch done = new CountDownLatch(NUSERS);
+        final long[] latencies = new long[NUSERS];
+        final AtomicInteger nerrors = new AtomicInteger();
+        final long start = System.currentTimeMillis();
+        for (final int user : order) {
+            readers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long delay = start + offsets[user] - System.currentTimeMillis();
+                        if (delay > 0) {
+                            Thread.sleep(delay);
+                        }
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    final long arrival = System.currentTimeMillis();
+                    puncher.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            KioskRecorder.Punch punch =
+                                    recorder.punch(String.format("b%04d", user));
+                            punch.addListener(new KioskRecorder.PunchListener() {
+                                @Override
+                                public void onPunchDone(KioskRecorder.Punch punch,
+                                                        RuntimeException error) {
+                                    if (error != null ||
+                                            punch.getKind() != KioskRecorder.PUNCH_IN) {
+                                        nerrors.incrementAndGet();
+                                    }
+                                    latencies[user] = System.currentTimeMillis() - arrival;
+                                    done.countDown();
+                                }
+                            });
+                        }
+                    });
+                }
+            });
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertEquals(0, nerrors.get());
+        readers.shutdown();
+        puncher.shutdown();
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private void runBurst(long[] offsets, Random random) throws Exception {
+        KioskRecorder recorder = new KioskRecorder(manager, createRoster());
+        recorder.start();
+        long[] latencies = replay(recorder, offsets, random);
+        recorder.stop();
+
+        // Punches are written by fewer transactions than users.
+        assertTrue(recorder.getBatches() + " transactions",
+                   recorder.getBatches() < NUSERS);
+
+        // Every user has exactly one record checked in today.
+        java.sql.Date today = DateTimeUtils.getDateOf(System.currentTimeMillis());
+        List<WorkRecord> records = manager.getWorkRecordsBetween(today, today);
+        assertEquals(NUSERS, records.size());
+        for (WorkRecord record : records) {
+            assertNotNull(record.getCheckinTime());
+        }
+
+        long p99 = latencies[NUSERS * 99 / 100];
+        long bound = Boolean.getBoolean("worklogger.bench") ?
+                MAX_LATENCY_MILLIS : CI_MAX_LATENCY_MILLIS;
+        assertTrue("p99 " + p99 + " ms", p99 < bound);
+    }
+
+    @Test
+    public void replaysShiftStart() throws Exception {
+        // Arrivals are crowded around the middle of the five minutes.
+        Random random = new Random(47);
+        long[] offsets = new long[NUSERS];
+        for (int i = 0; i < NUSERS; i++) {
+            double t = (random.nextGaussian() / 6 + 0.5) * SHIFT_START_MILLIS;
+            offsets[i] = Math.max(0, Math.min(SHIFT_START_MILLIS, (long)t)) / SPEEDUP;
+        }
+        runBurst(offsets, random);
+    }
+
+    @Test
+    public void reportsUsersCheckedOutAlready() throws Exception {
+        WorkRecord done = new WorkRecord("user0000");
+        done.setCheckinTime(Time.valueOf("09:00:00"));
+        done.setCheckoutTime(Time.valueOf("10:00:00"));
+        manager.addWorkRecord(done);
+        WorkRecord working = new WorkRecord("user0001");
+        working.setCheckinTime(Time.valueOf("09:00:00"));
+        manager.addWorkRecord(working);
+
+        int version = manager.getWorkRecordById(done.getId()).getVersion();
+
+        KioskRecorder recorder = new KioskRecorder(manager, createRoster());
+        recorder.start();
+        KioskRecorder.Punch punch = recorder.punch("b0000");
+        assertEquals(KioskRecorder.PUNCH_DONE, punch.getKind());
+        assertTrue(punch.await(0));
+        punch = recorder.punch("b0001");
+        assertEquals(KioskRecorder.PUNCH_OUT, punch.getKind());
+        // Stopping writes the punches queued.
+        recorder.stop();
+        assertTrue(punch.await(0));
+
+        // Only the checkout is written.
+        assertEquals(1, recorder.getBatches());
+        WorkRecord record = manager.getWorkRecordById(done.getId());
+        assertEquals(Time.valueOf("10:00:00"), record.getCheckoutTime());
+        assertEquals(version, record.getVersion());
+        assertNotNull(manager.getWorkRecordById(working.getId()).getCheckoutTime());
+    }
+
+    @Test
+    public void checksOutRecordOfYesterday() throws Exception {
+        java.sql.Date today = DateTimeUtils.getDateOf(System.currentTimeMillis());
+        WorkRecord night = new WorkRecord("user0000");
+        night.setDate(DateTimeUtils.fromEpochDay(DateTimeUtils.toEpochDay(today) - 1));
+        night.setCheckinTime(Time.valueOf("22:00:00"));
+        manager.addWorkRecord(night);
+
+        KioskRecorder recorder = new KioskRecorder(manager, createRoster());
+        recorder.start();
+        KioskRecorder.Punch punch = recorder.punch("b0000");
+        assertEquals(KioskRecorder.PUNCH_OUT, punch.getKind());
+        assertTrue(punch.await(10 * 1000));
+        recorder.stop();
+
+        // Worked over midnight without a new record of today.
+        assertNotNull(manager.getWorkRecordById(night.getId()).getCheckoutTime());
+        assertEquals(0, manager.getWorkRecordsBetween(today, today).size());
+    }
+
+    @Test
+    public void absorbsSimultaneousPunches() throws Exception {
+        // Worst case: all the badges at once, batched by group commit.
+        runBurst(new long[NUSERS], new Random(47));
+    }
+}
@@ -0,0 +1,234 @@
+package jp.kyutech.example.worklogger;
+
+import android.app.Application;
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Date;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * WorkRecordDatabaseBenchmark class measures WorkRecordDatabase on the
+ * native SQLite of Robolectric as the history grows.  It is skipped
+ * unless enabled by a Gradle property:
+ *
+ *   ./gradlew :app:testDebugUnitTest --tests '*WorkRecordDatabaseBenchmark' \
+ *       -Pworklogger.bench=true [-Pworklogger.bench.sizes=10000,100000]
+ *
+ * Results are written to app/build/reports/benchmarks/sqlite.json.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 30, application = Application.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class WorkRecordDatabaseBenchmark {
+    private static final String DEFAULT_SIZES = "10000,100000,1000000";
+    private static final int MAX_REPEATS = 200;
+    private static final long MAX_NANOS_PER_OP = 2000L * 1000 * 1000;
+    private static final int EMPTY_TAIL = 31; // Newest records without checkin
+    private static final long DAY0 = DateTimeUtils.toEpochDay(Date.valueOf("1900-01-01"));
+
+    private WorkRecordDatabase recdb;
+    private JSONArray results;
+
+    /*
+     * An operation to be measured.  A repetition number is given so
+     * that each call may work on different data.
+     */
+    private interface Operation {
+        void run(int repetition);
+    }
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("worklogger.bench"));
+        Context context = RuntimeEnvironment.getApplication();
+        recdb = new WorkRecordDatabase(context);
+        results = new JSONArray();
+    }
+
+    @After
+    public void tearDown() {
+        if (recdb != null) {
+            recdb.close();
+        }
+    }
+
+    private static List<Integer> getSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        String property = System.getProperty("worklogger.bench.sizes", DEFAULT_SIZES);
+        for (String size : property.split(",")) {
+            sizes.add(Integer.parseInt(size.trim()));
+        }
+        return sizes;
+    }
+
+    /*
+     * Replace the database by a given number of daily records.
+     */
+    private void seed(int size) {
+        List<WorkRecord> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            WorkRecord record = new WorkRecord();
+            record.setId(i + 1);
+            record.setDate(DateTimeUtils.fromEpochDay(DAY0 + i));
+            if (i < size - EMPTY_TAIL) {
+                record.setCheckinTime(Time.valueOf("09:00:00"));
+                record.setCheckoutTime(Time.valueOf("18:00:00"));
+            }
+            records.add(record);
+        }
+        recdb.replaceAll(records, Collections.<WorkInterval>emptyList());
+    }
+
+    /*
+     * Run an operation repeatedly and record its latency percentiles.
+     */
+    private void measure(String name, int size, Operation op) throws JSONException {
+        op.run(0);  // Warm up caches and compiled statements.
+        long[] nanos = new long[MAX_REPEATS];
+        int n = 0;
+        long total = 0;
+        while (n < MAX_REPEATS && total < MAX_NANOS_PER_OP) {
+            long start = System.nanoTime();
+            op.run(n + 1);
+            nanos[n] = System.nanoTime() - start;
+            total += nanos[n++];
+        }
+        long[] sorted = Arrays.copyOf(nanos, n);
+        Arrays.sort(sorted);
+
+        JSONObject result = new JSONObject();
+        result.put("operation", name);
+        result.put("rows", size);
+        result.put("repetitions", n);
+        result.put("median_us", sorted[n / 2] / 1000.0);
+        result.put("p90_us", sorted[(int)(n * 0.9)] / 1000.0);
+        result.put("max_us", sorted[n - 1] / 1000.0);
+        results.put(result);
+        System.out.println(result);
+    }
+
+    @Test
+    public void scaling() throws Exception {
+        for (final int size : getSizes()) {
+            seed(size);
+            assertNotNull(recdb.getLastWorkRecord());
+
+            final Date last = DateTimeUtils.fromEpochDay(DAY0 + size - 1);
+            measure("getRecentWorkRecords(31)", size, new Operation() {
+                @Override
+                public void run(int repetition) {
+                    assertEquals(31, recdb.getRecentWorkRecords(31).size());
+                }
+            });
+            for (final int position : new int[]{ 31, size / 2 }) {
+                measure("getWorkRecordAt(" + position + ")", size, new Operation() {
+                    @Override
+                    public void run(int repetition) {
+                        assertNotNull(recdb.getWorkRecordAt(position));
+                    }
+                });
+            }
+            measure("getWorkRecordsBetween(month)", size, new Operation() {
+                @Override
+                public void run(int repetition) {
+                    recdb.getWorkRecordsBetween(
+                            DateTimeUtils.fromEpochDay(DAY0 + size - 31), last);
+                }
+            });
+            measure("getWorkRecordsBetween(year)", size, new Operation() {
+                @Override
+                public void run(int repetition) {
+                    recdb.getWorkRecordsBetween(
+                            DateTimeUtils.fromEpochDay(DAY0 + size - 365), last);
+                }
+            });
+            // A yearly report of whole months reads the monthly summaries
+            // kept by triggers instead of the records of the year.
+            assertEquals(0, recdb.verifySummaries());
+            final ReportEngine engine = new ReportEngine(
+                    DateTimeUtils.getFirstDayOf(
+                            DateTimeUtils.fromEpochDay(DAY0 + size - 365).getTime()),
+                    DateTimeUtils.getLastDayOf(
+                            DateTimeUtils.fromEpochDay(DAY0 + size - 31).getTime()),
+                    ReportEngine.PERIOD_MONTH);
+            assertEquals(engine.aggregate(recdb.getWorkRecordsBetween(
+                                 WorkRecord.DEFAULT_USER, engine.getFromDate(),
+                                 engine.getToDate())).getTotalWorkMillis(),
+                         recdb.getSummaryReport(engine, WorkRecord.DEFAULT_USER)
+                                 .getTotalWorkMillis());
+            measure("aggregate(year)", size, new Operation() {
+                @Override
+                public void run(int repetition) {
+                    engine.aggregate(recdb.getWorkRecordsBetween(
+                            WorkRecord.DEFAULT_USER, engine.getFromDate(), engine.getToDate()));
+                }
+            });
+            measure("getSummaryReport(year)", size, new Operation() {
+                @Override
+                public void run(int repetition) {
+                    recdb.getSummaryReport(engine, WorkRecord.DEFAULT_USER);
+                }
+            });
+            measure("getLastAliveWorkRecord", size, new Operation() {
+                @Override
+                public void run(int repetition) {
+                    assertNotNull(recdb.getLastAliveWorkRecord());
+                }
+            });
+            measure("addWorkRecord", size, new Operation() {
+                @Override
+                public void run(int repetition) {
+                    WorkRecord record = new WorkRecord();
+                    record.setDate(DateTimeUtils.fromEpochDay(DAY0 + size + repetition));
+                    recdb.addWorkRecord(record);
+                }
+            });
+        }
+        writeResults();
+    }
+
+    private void writeResults() throws IOException, JSONException {
+        File dir = new File(System.getProperty("worklogger.bench.dir", "build/reports/benchmarks"));
+        dir.mkdirs();
+        JSONObject report = new JSONObject();
+        report.put("benchmark", "WorkRecordDatabase");
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("results", results);
+        Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(dir, "sqlite.json")), "UTF-8");
+        try {
+            writer.write(report.toString(2));
+        } finally {
+            writer.close();
+        }
+    }
+}
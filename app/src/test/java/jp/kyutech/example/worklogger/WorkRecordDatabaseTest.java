@@ -0,0 +1,264 @@
+package jp.kyutech.example.worklogger;
+
+import android.app.Application;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.io.File;
+import java.sql.Date;
+import java.sql.Time;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WorkRecordDatabaseTest class runs unit tests of WorkRecordDatabase on
+ * the native SQLite of Robolectric, including upgrades of databases
+ * created by older versions.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 30, application = Application.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class WorkRecordDatabaseTest {
+    private static final String ALICE = "alice";
+    private static final String BOB = "bob";
+
+    private Context context;
+    private WorkRecordDatabase recdb;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+    }
+
+    @After
+    public void tearDown() {
+        if (recdb != null) {
+            recdb.close();
+        }
+    }
+
+    private static WorkRecord record(String user, String date,
+                                     String checkin, String checkout) {
+        WorkRecord record = new WorkRecord(user);
+        record.setDate(Date.valueOf(date));
+        record.setCheckinTime((checkin != null) ? Time.valueOf(checkin) : null);
+        record.setCheckoutTime((checkout != null) ? Time.valueOf(checkout) : null);
+        return record;
+    }
+
+    /*
+     * Create a database of version 3, i.e. with intervals but without
+     * the indexes of users, or of version 4 with the indexes of records
+     * but without summaries, holding a record of each user.
+     */
+    private void createDatabase(int version) {
+        File file = context.getDatabasePath(WorkRecordDatabase.DB_NAME);
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            db.execSQL("CREATE TABLE workrecords (" +
+                       "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                       "user TEXT, date TEXT, checkin TEXT, checkout TEXT," +
+                       "version INTEGER NOT NULL DEFAULT 0)");
+            db.execSQL("CREATE TABLE intervals (" +
+                       "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                       "user TEXT, date TEXT, kind INTEGER, start INTEGER, end INTEGER)");
+            db.execSQL("CREATE INDEX intervals_date ON intervals (date, start)");
+            if (version >= 4) {
+                db.execSQL("CREATE INDEX workrecords_user_date ON workrecords (user, date)");
+                db.execSQL("CREATE INDEX workrecords_user_id ON workrecords (user, id)");
+            }
+            db.execSQL("INSERT INTO workrecords (user, date, checkin, checkout) " +
+                       "VALUES ('alice', '2021-04-01', '09:00:00', '18:00:00')");
+            db.execSQL("INSERT INTO workrecords (user, date, checkin, checkout) " +
+                       "VALUES ('bob', '2021-04-01', '10:00:00', NULL)");
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    /*
+     * Return the query plan of a query.
+     */
+    private String explain(String query, String... args) {
+        SQLiteDatabase db = recdb.getReadableDatabase();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, args);
+        StringBuilder plan = new StringBuilder();
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+    @Test
+    public void queriesRecordsOfUser() {
+        recdb = new WorkRecordDatabase(context);
+        for (int day = 1; day <= 9; day++) {
+            String date = "2021-04-0" + day;
+            recdb.addWorkRecord(record(ALICE, date, "09:00:00", "18:00:00"));
+            recdb.addWorkRecord(record(BOB, date, "10:00:00", (day < 9) ? "19:00:00" : null));
+        }
+        recdb.addWorkRecord(record(ALICE, "2021-04-10", null, null));
+
+        assertEquals(ALICE, recdb.getLastWorkRecord(ALICE).getUser());
+        assertNull(recdb.getLastWorkRecord("nobody"));
+        List<WorkRecord> page = recdb.getRecentWorkRecords(BOB, 3);
+        assertEquals(3, page.size());
+        assertEquals(Date.valueOf("2021-04-09"), page.get(0).getDate());
+        for (WorkRecord record : recdb.getWorkRecordsBefore(BOB, page.get(2).getId(), 100)) {
+            assertEquals(BOB, record.getUser());
+        }
+        assertEquals(6, recdb.getWorkRecordsBefore(BOB, page.get(2).getId(), 100).size());
+
+        List<WorkRecord> week = recdb.getWorkRecordsBetween(
+                ALICE, Date.valueOf("2021-04-03"), Date.valueOf("2021-04-09"));
+        assertEquals(7, week.size());
+        assertEquals(Date.valueOf("2021-04-03"), week.get(0).getDate());
+        assertEquals(14, recdb.getWorkRecordsBetween(
+                Date.valueOf("2021-04-03"), Date.valueOf("2021-04-09")).size());
+
+        // The newest record of alice is not checked in.
+        assertEquals(Date.valueOf("2021-04-09"), recdb.getLastAliveWorkRecord(ALICE).getDate());
+        assertEquals(BOB, recdb.getLastAliveWorkRecord(BOB).getUser());
+    }
+
+    @Test
+    public void countsRowsScannedByRecentRecords() {
+        recdb = new WorkRecordDatabase(context);
+        for (int day = 1; day <= 9; day++) {
+            recdb.addWorkRecord(record(ALICE, "2021-04-0" + day, "09:00:00", null));
+        }
+        Metrics.setEnabled(true);
+        try {
+            Metrics.reset();
+            List<WorkRecord> records = recdb.getRecentWorkRecords(3);
+            assertEquals(3, records.size());
+            assertEquals(Date.valueOf("2021-04-09"), records.get(0).getDate());
+            assertEquals(3, Metrics.getRows(MeteredWorkRecordStore.OP_GET_RECENT_WORK_RECORDS));
+            assertEquals(9, recdb.getRecentWorkRecords(100).size());
+        } finally {
+            Metrics.setEnabled(false);
+            Metrics.reset();
+        }
+    }
+
+    @Test
+    public void upgradesIndexesOfUsers() {
+        createDatabase(3);
+        recdb = new WorkRecordDatabase(context);
+        assertEquals(1, recdb.getRecentWorkRecords(ALICE, 10).size());
+        assertEquals(0, recdb.getWorkRecordById(1).getVersion());
+
+        assertTrue(explain("SELECT * FROM workrecords WHERE user = ? AND id < ? " +
+                           "ORDER BY id DESC LIMIT 31", ALICE, "100")
+                   .contains("workrecords_user_id"));
+        assertTrue(explain("SELECT * FROM workrecords WHERE user = ? " +
+                           "AND date >= ? AND date <= ? ORDER BY id ASC",
+                           ALICE, "2021-04-01", "2021-04-30")
+                   .contains("workrecords_user_date"));
+        assertTrue(explain("SELECT * FROM workrecords WHERE user = ? " +
+                           "AND checkin IS NOT NULL ORDER BY id DESC LIMIT 1", ALICE)
+                   .contains("workrecords_user_id"));
+        assertTrue(explain("SELECT * FROM intervals WHERE user = ? AND date = ? " +
+                           "ORDER BY start ASC", ALICE, "2021-04-01")
+                   .contains("intervals_user_date"));
+        assertTrue(explain("SELECT * FROM intervals WHERE user = ? " +
+                           "ORDER BY id DESC LIMIT 1", ALICE)
+                   .contains("intervals_user_id"));
+    }
+
+    /*
+     * Assert that the summaries are consistent with the records, and
+     * that reports read from them are the same as aggregated ones.
+     */
+    private void assertSummaries(String user) {
+        assertEquals(0, recdb.verifySummaries());
+        ReportEngine[] engines = {
+            new ReportEngine(Date.valueOf("2021-03-01"), Date.valueOf("2021-05-31"),
+                             ReportEngine.PERIOD_MONTH),
+            new ReportEngine(Date.valueOf("2021-03-30"), Date.valueOf("2021-05-02"),
+                             ReportEngine.PERIOD_DAY)
+        };
+        for (ReportEngine engine : engines) {
+            ReportEngine.Report expected = engine.aggregate(
+                    recdb.getWorkRecordsBetween(user, engine.getFromDate(), engine.getToDate()));
+            ReportEngine.Report actual = recdb.getSummaryReport(engine, user);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                String period = user + " " + expected.getStartDate(i);
+                assertEquals(period, expected.getWorkMillis(i), actual.getWorkMillis(i));
+                assertEquals(period, expected.getOvertimeMillis(i), actual.getOvertimeMillis(i));
+                assertEquals(period, expected.getBreakMillis(i), actual.getBreakMillis(i));
+                assertEquals(period, expected.getDays(i), actual.getDays(i));
+                assertEquals(period, expected.getIncompleteDays(i), actual.getIncompleteDays(i));
+            }
+        }
+    }
+
+    /*
+     * Insert, update and delete records, asserting the summaries of
+     * the users after each change.
+     */
+    private void editRecords() {
+        assertSummaries(ALICE);
+        assertSummaries(BOB);
+
+        WorkRecord record = record(ALICE, "2021-04-02", "09:00:00", null);
+        recdb.addWorkRecord(record);
+        assertSummaries(ALICE);
+        record.setCheckoutTime(Time.valueOf("20:30:00"));
+        recdb.updateWorkRecord(record);
+        assertSummaries(ALICE);
+        recdb.addWorkRecord(record(BOB, "2021-04-30", "22:00:00", "07:00:00"));
+        assertSummaries(BOB);
+
+        // Moved to another day, month and user.
+        record.setDate(Date.valueOf("2021-05-01"));
+        record.setUser(BOB);
+        recdb.updateWorkRecord(record);
+        assertSummaries(ALICE);
+        assertSummaries(BOB);
+
+        recdb.deleteWorkRecord(record);
+        assertSummaries(BOB);
+        recdb.deleteWorkRecord(recdb.getLastWorkRecord(ALICE));
+        assertSummaries(ALICE);
+    }
+
+    @Test
+    public void keepsSummariesUpgradedFromVersion3() {
+        createDatabase(3);
+        recdb = new WorkRecordDatabase(context);
+        editRecords();
+    }
+
+    @Test
+    public void keepsSummariesUpgradedFromVersion4() {
+        createDatabase(4);
+        recdb = new WorkRecordDatabase(context);
+        editRecords();
+    }
+}
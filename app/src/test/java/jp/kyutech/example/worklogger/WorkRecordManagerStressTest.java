@@ -0,0 +1,251 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Date;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * WorkRecordManagerStressTest class drives WorkRecordManager from many
+ * threads at once, as a user and beacons do, and checks that work
+ * records stay consistent.  The manager runs on an in-memory store so
+ * that the test runs on a plain JVM.  The duration of a run is given
+ * by -Dworklogger.stress.millis (2 seconds by default).  Throughput
+ * and latency percentiles of each operation are printed.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class WorkRecordManagerStressTest {
+    private static final int OP_TOGGLE = 0;
+    private static final int OP_EDIT = 1;
+    private static final int OP_DELETE = 2;
+    private static final int OP_EXPORT = 3;
+    private static final String[] OP_NAMES = {
+        "updateWorkRecordBy", "updateWorkRecord", "deleteWorkRecord", "writeToTextStream"
+    };
+    // Threads per operation
+    private static final int[] OP_THREADS = { 4, 2, 1, 1 };
+    private static final int HISTORY_DAYS = 10 * 365;
+    // A deleter pauses between deletes so that a history remains.
+    private static final long DELETE_PAUSE_MILLIS = 2;
+
+    private WorkRecordManager manager;
+    private Date from_date;
+    private Date to_date;
+
+    /*
+     * Latencies of an operation recorded by one thread.
+     */
+    private static class Latencies {
+        final int op;
+        long[] nanos = new long[1024];
+        int count = 0;
+
+        Latencies(int op) {
+            this.op = op;
+        }
+
+        void add(long nano) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = nano;
+        }
+    }
+
+    private Latencies runOperation(int op, long seed, long deadline) {
+        Random random = new Random(seed);
+        Latencies latencies = new Latencies(op);
+        while (System.currentTimeMillis() < deadline) {
+            long start = System.nanoTime();
+            switch (op) {
+            case OP_TOGGLE:
+                manager.updateWorkRecordBy(random.nextBoolean());
+                break;
+            case OP_EDIT:
+                editRecord(random);
+                break;
+            case OP_DELETE:
+                pause(DELETE_PAUSE_MILLIS);
+                start = System.nanoTime();
+                List<WorkRecord> records = manager.getWorkRecords(31);
+                if (records.size() > 1) {
+                    manager.deleteWorkRecord(records.get(1 + random.nextInt(records.size() - 1)));
+                }
+                break;
+            case OP_EXPORT:
+                exportRecords();
+                break;
+            default:
+                throw new IllegalArgumentException("op " + op);
+            }
+            latencies.add(System.nanoTime() - start);
+        }
+        return latencies;
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void editRecord(Random random) {
+        // Today's record is not edited since a checkin time edited
+        // after now would precede a checkout time recorded now.
+        List<WorkRecord> recent = manager.getWorkRecords(31);
+        if (recent.size() < 2) {
+            return;
+        }
+        WorkRecord record = recent.get(1 + random.nextInt(recent.size() - 1));
+        // A valid edit of a time range as TimePickerFragment makes.
+        int checkin = (7 + random.nextInt(4)) * 3600 + random.nextInt(60) * 60;
+        record.setCheckinTime(DateTimeUtils.getTimeOfSeconds(checkin));
+        if (record.getCheckoutTime() != null) {
+            int checkout = checkin + (6 + random.nextInt(6)) * 3600;
+            record.setCheckoutTime(DateTimeUtils.getTimeOfSeconds(checkout));
+        }
+        manager.updateWorkRecord(record);
+    }
+
+    private void exportRecords() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        manager.writeToTextStream(out, from_date, to_date);
+        try {
+            List<WorkRecord> records =
+                    WorkRecordTextCodec.read(new ByteArrayInputStream(out.toByteArray()));
+            checkRecords(records);
+        } catch (java.io.IOException ex) {
+            throw new AssertionError("Broken export", ex);
+        }
+    }
+
+    /*
+     * Check the invariants of work records: one record per day, and
+     * a checkout time not before a checkin time.
+     */
+    private static void checkRecords(List<WorkRecord> records) {
+        Set<Date> dates = new HashSet<>();
+        for (WorkRecord record : records) {
+            if (!dates.add(record.getDate())) {
+                fail("Two records on " + record.getDate());
+            }
+            Time checkin = record.getCheckinTime();
+            Time checkout = record.getCheckoutTime();
+            if (checkout != null && !DateTimeUtils.isValidTimeRange(checkin, checkout)) {
+                fail("Checked out before checkin: " + record);
+            }
+        }
+    }
+
+    private static String summarize(String name, List<Latencies> list, long millis) {
+        int count = 0;
+        for (Latencies latencies : list) {
+            count += latencies.count;
+        }
+        long[] all = new long[count];
+        int n = 0;
+        for (Latencies latencies : list) {
+            System.arraycopy(latencies.nanos, 0, all, n, latencies.count);
+            n += latencies.count;
+        }
+        Arrays.sort(all);
+        if (count == 0) {
+            return String.format("%-20s %8d ops", name, 0);
+        }
+        return String.format("%-20s %8d ops %10.0f ops/s  p50 %8.1f us  p99 %8.1f us  max %8.1f us",
+                name, count, count * 1000.0 / millis,
+                all[count / 2] / 1000.0,
+                all[Math.min(count - 1, (int)(count * 0.99))] / 1000.0,
+                all[count - 1] / 1000.0);
+    }
+
+    @Test
+    public void concurrentOperations() throws Exception {
+        // A single user history up to yesterday.
+        WorkloadGenerator generator = new WorkloadGenerator();
+        generator.setSeed(37);
+        generator.setOvernightRate(0);
+        from_date = DateTimeUtils.fromEpochDay(
+                DateTimeUtils.toEpochDay(DateTimeUtils.getToday()) - HISTORY_DAYS);
+        to_date = DateTimeUtils.getToday();
+        generator.setStartDate(from_date);
+        generator.setDays(HISTORY_DAYS);
+        InMemoryWorkRecordStore store = new InMemoryWorkRecordStore();
+        generator.writeTo(store, WorkloadGenerator.DEFAULT_BATCH_SIZE);
+        manager = new WorkRecordManager(null, store);
+
+        final long millis = Long.getLong("worklogger.stress.millis", 2000);
+        int nthreads = 0;
+        for (int threads : OP_THREADS) {
+            nthreads += threads;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(nthreads);
+        final CountDownLatch ready = new CountDownLatch(nthreads);
+        final long[] deadline = new long[1];
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Future<Latencies>> futures = new ArrayList<>();
+        try {
+            long seed = 0;
+            for (int op = 0; op < OP_THREADS.length; op++) {
+                for (int i = 0; i < OP_THREADS[op]; i++) {
+                    final int the_op = op;
+                    final long the_seed = seed++;
+                    futures.add(executor.submit(new Callable<Latencies>() {
+                        @Override
+                        public Latencies call() throws Exception {
+                            ready.countDown();
+                            go.await();
+                            return runOperation(the_op, the_seed, deadline[0]);
+                        }
+                    }));
+                }
+            }
+            ready.await();
+            deadline[0] = System.currentTimeMillis() + millis;
+            go.countDown();
+
+            List<List<Latencies>> by_op = new ArrayList<>();
+            for (int op = 0; op < OP_THREADS.length; op++) {
+                by_op.add(new ArrayList<Latencies>());
+            }
+            for (Future<Latencies> future : futures) {
+                Latencies latencies = future.get(millis + 60000, TimeUnit.MILLISECONDS);
+                by_op.get(latencies.op).add(latencies);
+            }
+            for (int op = 0; op < OP_THREADS.length; op++) {
+                assertTrue("No progress: " + summarize(OP_NAMES[op], by_op.get(op), millis),
+                        by_op.get(op).get(0).count > 0);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<WorkRecord> records = store.getWorkRecordsBetween(from_date, to_date);
+        checkRecords(records);
+        WorkRecord today = manager.getCurrentWorkRecord();
+        assertEquals(DateTimeUtils.getToday().toString(), today.getDateAsString());
+    }
+}
@@ -0,0 +1,74 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WorkRecordManagerTest class runs unit tests of the work session of
+ * WorkRecordManager on an InMemoryWorkRecordStore on the development
+ * machine (host).
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class WorkRecordManagerTest {
+    private InMemoryWorkRecordStore store;
+    private WorkRecordManager manager;
+
+    @Before
+    public void setUp() {
+        store = new InMemoryWorkRecordStore();
+        manager = new WorkRecordManager(null, store);
+    }
+
+    @Test
+    public void checksOutRecordWithoutIntervals() {
+        // Checked in before the database was upgraded to keep intervals.
+        WorkRecord record = new WorkRecord(manager.getUser());
+        record.setCheckinTime(new Time(System.currentTimeMillis()));
+        store.addWorkRecord(record);
+
+        assertEquals(WorkSession.STATE_WORKING, manager.getWorkSessionState());
+        assertEquals(WorkSession.STATE_DONE, manager.stopWork());
+        assertNotNull(manager.getCurrentWorkRecord().getCheckoutTime());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void ignoresIntervalsOfOtherUsers() {
+        WorkInterval other = new WorkInterval(WorkInterval.KIND_BREAK,
+                                              System.currentTimeMillis());
+        other.setUser("user0001");
+        store.addWorkInterval(other);
+
+        assertEquals(WorkSession.STATE_IDLE, manager.getWorkSessionState());
+        assertEquals(WorkSession.STATE_WORKING, manager.startWork());
+        assertEquals(manager.getUser(), manager.getOpenWorkInterval().getUser());
+        assertTrue(store.getLastWorkInterval("user0001").isOpen());
+    }
+
+    @Test
+    public void extendsCheckoutWhenResumed() {
+        assertEquals(WorkSession.STATE_WORKING, manager.startWork());
+        assertEquals(WorkSession.STATE_DONE, manager.stopWork());
+
+        // Checked out an hour ago, and resumed.
+        WorkRecord record = manager.getCurrentWorkRecord();
+        Time checkout = new Time(record.getCheckoutTime().getTime() - 60 * 60 * 1000);
+        record.setCheckoutTime(checkout);
+        manager.updateWorkRecord(record);
+        assertEquals(WorkSession.STATE_WORKING, manager.startWork());
+        assertEquals(WorkSession.STATE_DONE, manager.stopWork());
+
+        record = manager.getCurrentWorkRecord();
+        assertEquals(1, store.size());
+        assertTrue(record.getCheckoutTime().after(checkout));
+    }
+}
@@ -0,0 +1,80 @@
+package jp.kyutech.example.worklogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.sql.Date;
+import java.sql.Time;
+
+/**
+ * DateTimeUtilsBenchmark class measures the date math used by records,
+ * exports and reports.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+@State(Scope.Thread)
+public class DateTimeUtilsBenchmark {
+    private Time checkin;
+    private Time checkout;
+    private Date date;
+    private long epoch_day;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        checkin = Time.valueOf("09:12:34");
+        checkout = Time.valueOf("18:45:06");
+        date = Date.valueOf("2021-04-01");
+        epoch_day = DateTimeUtils.toEpochDay(date);
+        now = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public Time getTimeWithTimeZoneOffset() {
+        return DateTimeUtils.getTimeWithTimeZoneOffset(checkin);
+    }
+
+    @Benchmark
+    public boolean isValidTimeRange() {
+        return DateTimeUtils.isValidTimeRange(checkin, checkout);
+    }
+
+    @Benchmark
+    public boolean isTimeBeforeTime() {
+        return DateTimeUtils.isTimeBeforeTime(checkin, checkout);
+    }
+
+    @Benchmark
+    public Date getDateOf() {
+        return DateTimeUtils.getDateOf(now);
+    }
+
+    @Benchmark
+    public Date getNextDay() {
+        return DateTimeUtils.getNextDay(date);
+    }
+
+    @Benchmark
+    public Date getFirstDayOfLastMonth() {
+        return DateTimeUtils.getFirstDayOfLastMonth();
+    }
+
+    @Benchmark
+    public Date getLastDayOfLastMonth() {
+        return DateTimeUtils.getLastDayOfLastMonth();
+    }
+
+    @Benchmark
+    public long toEpochDay() {
+        return DateTimeUtils.toEpochDay(date);
+    }
+
+    @Benchmark
+    public Date fromEpochDay() {
+        return DateTimeUtils.fromEpochDay(epoch_day);
+    }
+}
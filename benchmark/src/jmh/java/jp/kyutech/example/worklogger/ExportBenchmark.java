@@ -0,0 +1,78 @@
+package jp.kyutech.example.worklogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Date;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * ExportBenchmark class measures a full export and import of the work
+ * records of 1, 12 and 120 months.  Weekdays have records and weekends
+ * are written as empty days.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+@State(Scope.Thread)
+public class ExportBenchmark {
+    @Param({"1", "12", "120"})
+    public int months;
+
+    private List<WorkRecord> records;
+    private Date from_date;
+    private Date to_date;
+    private ByteArrayOutputStream out;
+    private byte[] text;
+
+    @Setup
+    public void setUp() {
+        Calendar cal = new GregorianCalendar(2011, Calendar.APRIL, 1);
+        from_date = new Date(cal.getTimeInMillis());
+        cal.add(Calendar.MONTH, months);
+        cal.add(Calendar.DATE, -1);
+        to_date = new Date(cal.getTimeInMillis());
+
+        records = new ArrayList<>();
+        for (Date date = from_date; date.compareTo(to_date) <= 0;
+             date = DateTimeUtils.getNextDay(date)) {
+            cal.setTimeInMillis(date.getTime());
+            int day_of_week = cal.get(Calendar.DAY_OF_WEEK);
+            if (day_of_week == Calendar.SATURDAY || day_of_week == Calendar.SUNDAY) {
+                continue;
+            }
+            WorkRecord record = new WorkRecord();
+            record.setDate(date);
+            record.setCheckinTime(Time.valueOf("09:00:00"));
+            record.setCheckoutTime(Time.valueOf("18:00:00"));
+            records.add(record);
+        }
+
+        out = new ByteArrayOutputStream(64 * 1024);
+        WorkRecordTextCodec.write(out, records, from_date, to_date);
+        text = out.toByteArray();
+    }
+
+    @Benchmark
+    public int export() {
+        out.reset();
+        WorkRecordTextCodec.write(out, records, from_date, to_date);
+        return out.size();
+    }
+
+    @Benchmark
+    public List<WorkRecord> importText() throws IOException {
+        return WorkRecordTextCodec.read(new ByteArrayInputStream(text));
+    }
+}
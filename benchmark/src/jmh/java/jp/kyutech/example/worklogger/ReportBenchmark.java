@@ -0,0 +1,54 @@
+package jp.kyutech.example.worklogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ReportBenchmark class measures monthly reports of a year of work
+ * records of 1, 20 and 200 users, in total and per user.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+@State(Scope.Thread)
+public class ReportBenchmark {
+    @Param({"1", "20", "200"})
+    public int users;
+
+    private List<WorkRecord> records;
+    private ReportEngine engine;
+
+    @Setup
+    public void setUp() {
+        WorkloadGenerator generator = new WorkloadGenerator();
+        generator.setUsers(users);
+        generator.setStartDate(Date.valueOf("2020-04-01"));
+        generator.setDays(365);
+        records = new ArrayList<>();
+        for (WorkRecord record : generator) {
+            records.add(record);
+        }
+        engine = new ReportEngine(Date.valueOf("2020-04-01"),
+                                  Date.valueOf("2021-03-31"),
+                                  ReportEngine.PERIOD_MONTH);
+    }
+
+    @Benchmark
+    public ReportEngine.Report aggregate() {
+        return engine.aggregate(records);
+    }
+
+    @Benchmark
+    public Map<String, ReportEngine.Report> aggregateByUser() {
+        return engine.aggregateByUser(records);
+    }
+}
@@ -0,0 +1,63 @@
+package jp.kyutech.example.worklogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.sql.Date;
+import java.sql.Time;
+
+/**
+ * WorkRecordBenchmark class measures the record model which is used
+ * for every row of the history list.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+@State(Scope.Thread)
+public class WorkRecordBenchmark {
+    private WorkRecord record;
+    private StringBuilder builder;
+
+    @Setup
+    public void setUp() {
+        record = new WorkRecord();
+        record.setDate(Date.valueOf("2021-04-01"));
+        record.setCheckinTime(Time.valueOf("09:12:34"));
+        record.setCheckoutTime(Time.valueOf("18:45:06"));
+        builder = new StringBuilder(16);
+    }
+
+    @Benchmark
+    public WorkRecord newWorkRecord() {
+        return new WorkRecord();
+    }
+
+    @Benchmark
+    public boolean isToday() {
+        return record.isToday();
+    }
+
+    @Benchmark
+    public boolean isYesterday() {
+        return record.isYesterday();
+    }
+
+    @Benchmark
+    public String getCheckinTimeAsHHMMString() {
+        return record.getCheckinTimeAsHHMMString();
+    }
+
+    @Benchmark
+    public String getProgressTime() {
+        return record.getProgressTime();
+    }
+
+    @Benchmark
+    public StringBuilder appendProgressTime() {
+        builder.setLength(0);
+        return record.appendProgressTime(builder);
+    }
+}
@@ -0,0 +1,94 @@
+// BadgeIndex for looking up users by their badges
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BadgeIndex class maps the IDs of badges, e.g. read by an NFC or a
+ * barcode reader at a kiosk, to the names of users.  The whole roster
+ * is kept in memory so that a check-in never waits for a database to
+ * find a user.  Badge IDs are compared ignoring cases and surrounding
+ * spaces.
+ *
+ * A roster is a text of lines of a badge ID and a user name separated
+ * by a comma or a tab.  Empty lines and lines starting with '#' are
+ * ignored.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class BadgeIndex
+{
+  private final ConcurrentHashMap<String,String> users =
+    new ConcurrentHashMap<>();
+
+  /*
+   * Read a roster.
+   *
+   * @param reader a reader of a roster
+   * @return a BadgeIndex
+   * @throws IOException if a roster cannot be read
+   * @throws IllegalArgumentException if a line is malformed
+   */
+  public static BadgeIndex read(Reader reader)
+    throws IOException
+  {
+    BadgeIndex index = new BadgeIndex();
+    BufferedReader in = new BufferedReader(reader);
+    String line;
+    int nline = 0;
+    while((line = in.readLine()) != null){
+      nline++;
+      line = line.trim();
+      if(line.length() == 0 || line.startsWith("#")){
+	continue;
+      }
+      int sep = line.indexOf(',');
+      if(sep < 0){
+	sep = line.indexOf('\t');
+      }
+      if(sep <= 0 || sep == line.length() - 1){
+	throw new IllegalArgumentException
+	  ("Malformed roster at line " + nline + ": " + line);
+      }
+      index.put(line.substring(0, sep), line.substring(sep + 1).trim());
+    }
+    return index;
+  }
+
+  private static String normalize(String badge)
+  {
+    return badge.trim().toUpperCase(Locale.ROOT);
+  }
+
+  public void put(String badge, String user)
+  {
+    users.put(normalize(badge), user);
+  }
+
+  /*
+   * Return the user of a badge.
+   *
+   * @param badge the ID of a badge
+   * @return the name of a user, or null if not registered
+   */
+  public String getUser(String badge)
+  {
+    return users.get(normalize(badge));
+  }
+
+  public int size()
+  {
+    return users.size();
+  }
+}
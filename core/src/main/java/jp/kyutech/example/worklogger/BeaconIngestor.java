@@ -0,0 +1,250 @@
+// BeaconIngestor for turning beacon advertisements into work records
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BeaconIngestor class receives advertisements of a beacon from a
+ * BeaconSource and reports changes of presence detected by a
+ * BeaconPresenceDetector, typically to
+ * WorkRecordManager.updateWorkRecordBy().  The pipeline is:
+ *
+ *   source --(offer)--> bounded queue --(drain)--> detector --> listener
+ *
+ * A source never blocks: advertisements are dropped when the queue is
+ * full, which is harmless since the detector needs only a few of them.
+ * A worker thread drains the queue in batches, and a listener is
+ * called at most once per batch and only when the presence differs
+ * from the one reported last.  Therefore, a burst of hundreds of
+ * advertisements per second causes at most one write per real
+ * transition.  A listener is called without the lock of the ingestor,
+ * so that its write never blocks the statistics or stop().
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class BeaconIngestor
+  implements BeaconSource.Listener
+{
+  public static final int	DEFAULT_CAPACITY = 1024;
+  private static final long	TICK_MILLIS = 1000;
+
+  /*
+   * Listener of changes of presence.
+   */
+  public interface Listener
+  {
+    /*
+     * Called on the worker thread when presence is changed.
+     *
+     * @param present_p true if a user is present near the beacon
+     */
+    void onPresenceChanged(boolean present_p);
+  }
+
+  /*
+   * An advertisement in the queue.
+   */
+  private static class Advertisement
+  {
+    final int		rssi;
+    final long		time;
+
+    Advertisement(int rssi, long time)
+    {
+      this.rssi = rssi;
+      this.time = time;
+    }
+  }
+
+  private final BeaconSource	source;
+  private final String		address; // null for any beacon
+  private final BeaconPresenceDetector detector;
+  private final Listener	listener;
+  private final ArrayBlockingQueue<Advertisement> queue;
+  private final List<Advertisement> batch = new ArrayList<>();
+  private final AtomicLong	nreceived = new AtomicLong();
+  private final AtomicLong	ndropped = new AtomicLong();
+  private final Object		report_lock = new Object();
+  private boolean		reported_p = false;
+  private long			nreports = 0;
+  private Thread		worker = null;
+
+  public BeaconIngestor(BeaconSource source,
+			String address,
+			BeaconPresenceDetector detector,
+			Listener listener)
+  {
+    this(source, address, detector, listener, DEFAULT_CAPACITY);
+  }
+
+  /*
+   * Create an ingestor of advertisements of a beacon.
+   *
+   * @param source a source of advertisements
+   * @param address the address of a beacon, or null for any beacon
+   * @param detector a detector of presence
+   * @param listener a listener of changes of presence
+   * @param capacity the capacity of the queue
+   */
+  public BeaconIngestor(BeaconSource source,
+			String address,
+			BeaconPresenceDetector detector,
+			Listener listener,
+			int capacity)
+  {
+    this.source = source;
+    this.address = address;
+    this.detector = detector;
+    this.listener = listener;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+  }
+
+  /*
+   * Start the source and a worker thread.
+   */
+  public synchronized void start()
+  {
+    if(worker != null){
+      return;
+    }
+    worker = new Thread(new Runnable()
+      {
+	@Override
+	public void run()
+	{
+	  try {
+	    while(!Thread.currentThread().isInterrupted()){
+	      Advertisement first = queue.poll(TICK_MILLIS,
+					       TimeUnit.MILLISECONDS);
+	      processAndReport(first, currentTimeMillis());
+	    }
+	  } catch(InterruptedException ex){
+	    // Stopped.
+	  }
+	}
+      }, "BeaconIngestor");
+    worker.setDaemon(true);
+    worker.start();
+    source.start(this);
+  }
+
+  /*
+   * Stop the source and the worker thread.
+   */
+  public synchronized void stop()
+  {
+    source.stop();
+    if(worker != null){
+      worker.interrupt();
+      worker = null;
+    }
+  }
+
+  @Override
+  public void onAdvertisement(String address, int rssi, long time)
+  {
+    if(this.address != null && !this.address.equals(address)){
+      return;
+    }
+    nreceived.incrementAndGet();
+    if(!queue.offer(new Advertisement(rssi, time))){
+      ndropped.incrementAndGet();
+    }
+  }
+
+  /*
+   * Process advertisements in the queue on the caller thread, e.g. in
+   * tests without a worker thread.
+   *
+   * @param time the current time in msec.
+   */
+  public void processPending(long time)
+  {
+    processAndReport(null, time);
+  }
+
+  /*
+   * Process a batch of advertisements under the lock, and report the
+   * presence to the listener after releasing it if changed.  Reports
+   * are serialized by report_lock so that they are never reordered.
+   *
+   * @param first an advertisement already taken from the queue, or null
+   * @param time the current time in msec.
+   */
+  private void processAndReport(Advertisement first, long time)
+  {
+    synchronized(report_lock){
+      boolean changed_p;
+      boolean present_p;
+      synchronized(this){
+	if(first != null){
+	  batch.add(first);
+	}
+	changed_p = process(time);
+	present_p = reported_p;
+      }
+      if(changed_p){
+	listener.onPresenceChanged(present_p);
+      }
+    }
+  }
+
+  /*
+   * Feed the detector with a batch of advertisements and record the
+   * presence to be reported if changed.
+   *
+   * @return true if the presence is changed.
+   */
+  private boolean process(long time)
+  {
+    queue.drainTo(batch);
+    for(Advertisement advertisement : batch){
+      detector.addAdvertisement(advertisement.rssi, advertisement.time);
+    }
+    batch.clear();
+    detector.tick(time);
+    if(detector.isPresent() == reported_p){
+      return false;
+    }
+    reported_p = detector.isPresent();
+    nreports++;
+    return true;
+  }
+
+  /*
+   * Return the current time for timeouts.  This is overridden by
+   * simulations.
+   *
+   * @return a long in msec.
+   */
+  protected long currentTimeMillis()
+  {
+    return System.currentTimeMillis();
+  }
+
+  public long getReceived()
+  {
+    return nreceived.get();
+  }
+
+  public long getDropped()
+  {
+    return ndropped.get();
+  }
+
+  public synchronized long getReports()
+  {
+    return nreports;
+  }
+}
@@ -0,0 +1,177 @@
+// BeaconPresenceDetector for detecting presence from beacon signals
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+/**
+ * BeaconPresenceDetector class decides whether a user is present near
+ * a beacon from the signal strengths (RSSI) of its advertisements.
+ * Noisy RSSI values are smoothed by an exponentially weighted moving
+ * average, and presence is changed as follows:
+ *
+ *   enter: the smoothed RSSI stays at ENTER_RSSI or more for
+ *          ENTER_HOLD_MILLIS.
+ *   exit:  the smoothed RSSI stays below EXIT_RSSI for
+ *          EXIT_HOLD_MILLIS, or no advertisement is received for
+ *          LOST_MILLIS.
+ *
+ * A gap between ENTER_RSSI and EXIT_RSSI (hysteresis) and the hold
+ * times (debouncing) keep a user near the edge of the range from
+ * flapping in and out.  The time to lose a beacon may be changed by
+ * overriding getLostMillis(), e.g. to follow the intervals of scans.
+ *
+ * NOTE: This class is not thread-safe.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class BeaconPresenceDetector
+{
+  public static final int	ENTER_RSSI = -75;	// dBm
+  public static final int	EXIT_RSSI = -85;	// dBm
+  public static final long	ENTER_HOLD_MILLIS = 5 * 1000;
+  public static final long	EXIT_HOLD_MILLIS = 30 * 1000;
+  public static final long	LOST_MILLIS = 60 * 1000;
+  public static final double	SMOOTHING = 0.3;	// Weight of a new RSSI
+
+  private int			enter_rssi = ENTER_RSSI;
+  private int			exit_rssi = EXIT_RSSI;
+  private long			enter_hold_millis = ENTER_HOLD_MILLIS;
+  private long			exit_hold_millis = EXIT_HOLD_MILLIS;
+  private long			lost_millis = LOST_MILLIS;
+  private double		smoothing = SMOOTHING;
+
+  private boolean		present_p = false;
+  private double		rssi = Double.NaN; // Smoothed
+  private long			last_seen = Long.MIN_VALUE;
+  private long			pending_since = -1; // Of a change
+  private long			ntransitions = 0;
+
+  /*
+   * Set the thresholds of RSSI.
+   *
+   * @param enter_rssi the RSSI to enter in dBm
+   * @param exit_rssi the RSSI to exit in dBm, less than enter_rssi
+   */
+  public void setThresholds(int enter_rssi, int exit_rssi)
+  {
+    if(exit_rssi > enter_rssi){
+      throw new IllegalArgumentException
+	("exit_rssi is greater than enter_rssi: " + exit_rssi);
+    }
+    this.enter_rssi = enter_rssi;
+    this.exit_rssi = exit_rssi;
+  }
+
+  /*
+   * Set the times to hold a change before it is committed.
+   *
+   * @param enter_hold_millis the time to enter in msec.
+   * @param exit_hold_millis the time to exit in msec.
+   * @param lost_millis the time without advertisements to exit
+   */
+  public void setHoldTimes(long enter_hold_millis,
+			   long exit_hold_millis,
+			   long lost_millis)
+  {
+    this.enter_hold_millis = enter_hold_millis;
+    this.exit_hold_millis = exit_hold_millis;
+    this.lost_millis = lost_millis;
+  }
+
+  /*
+   * Return the time without advertisements to exit at a time.  This is
+   * overridden when scans are duty-cycled.
+   *
+   * @param time the current time in msec.
+   * @return a long in msec.
+   */
+  protected long getLostMillis(long time)
+  {
+    return lost_millis;
+  }
+
+  public void setSmoothing(double smoothing)
+  {
+    this.smoothing = smoothing;
+  }
+
+  public boolean isPresent()
+  {
+    return present_p;
+  }
+
+  /*
+   * Return the smoothed RSSI.
+   *
+   * @return a double in dBm, or NaN if no advertisement is received
+   */
+  public double getRssi()
+  {
+    return rssi;
+  }
+
+  public long getTransitions()
+  {
+    return ntransitions;
+  }
+
+  /*
+   * Add an advertisement.
+   *
+   * @param rssi the received signal strength in dBm
+   * @param time the time received in msec.
+   * @return a boolean true if presence is changed
+   */
+  public boolean addAdvertisement(int rssi, long time)
+  {
+    if(Double.isNaN(this.rssi) ||
+       time - last_seen >= getLostMillis(time)){
+      this.rssi = rssi;		// Start again after lost
+    } else {
+      this.rssi += smoothing * (rssi - this.rssi);
+    }
+    last_seen = Math.max(last_seen, time);
+    return update(time);
+  }
+
+  /*
+   * Check timeouts without an advertisement.
+   *
+   * @param time the current time in msec.
+   * @return a boolean true if presence is changed
+   */
+  public boolean tick(long time)
+  {
+    return update(time);
+  }
+
+  private boolean update(long time)
+  {
+    boolean lost_p =
+      Double.isNaN(rssi) || time - last_seen >= getLostMillis(time);
+    boolean present_now_p = present_p ?
+      !(lost_p || rssi < exit_rssi) :
+      (!lost_p && rssi >= enter_rssi);
+    if(present_now_p == present_p){
+      pending_since = -1;
+      return false;
+    }
+    if(pending_since < 0){
+      pending_since = time;
+    }
+    long hold = !present_p ? enter_hold_millis :
+      lost_p ? 0 : exit_hold_millis;
+    if(time - pending_since < hold){
+      return false;
+    }
+    present_p = present_now_p;
+    pending_since = -1;
+    ntransitions++;
+    return true;
+  }
+}
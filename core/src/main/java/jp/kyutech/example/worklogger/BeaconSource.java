@@ -0,0 +1,47 @@
+// BeaconSource for receiving advertisements of beacons
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+/**
+ * BeaconSource interface is a source of advertisements of beacons
+ * such as a BLE scanner.  A source calls its listener on any thread
+ * as soon as an advertisement is received, so a listener must not
+ * block.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public interface BeaconSource
+{
+  /*
+   * Listener of advertisements.
+   */
+  public interface Listener
+  {
+    /*
+     * Called when an advertisement of a beacon is received.
+     *
+     * @param address the address of a beacon
+     * @param rssi the received signal strength in dBm
+     * @param time the time received in msec.
+     */
+    void onAdvertisement(String address, int rssi, long time);
+  }
+
+  /*
+   * Start receiving advertisements.
+   *
+   * @param listener a listener of advertisements
+   */
+  void start(Listener listener);
+
+  /*
+   * Stop receiving advertisements.
+   */
+  void stop();
+}
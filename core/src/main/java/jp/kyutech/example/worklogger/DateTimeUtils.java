@@ -14,6 +14,9 @@ import java.util.TimeZone;
 
 public class DateTimeUtils
 {
+  public static final long	MSEC_PER_DAY = 24 * 60 * 60 * 1000L;
+  private static final TimeZone	UTC = TimeZone.getTimeZone("UTC");
+
   /*
    * Returns a time plus a offset time from GMT time zone.
    * For example, 9 hours are added to a check-in time in JST.  This
@@ -116,6 +119,111 @@ public class DateTimeUtils
     return new Date(cal.getTimeInMillis());
   }
 
+  /*
+   * Returns the Date of a given time, i.e. 00:00 AM of the day.
+   *
+   * @return a java.sql.Date
+   */
+  public static Date getDateOf(long time)
+  {
+    Calendar cal = new GregorianCalendar();
+    cal.setTimeInMillis(time);
+    cal.set(Calendar.HOUR_OF_DAY, 0); // 00:00 AM of the day
+    cal.set(Calendar.MINUTE, 0);
+    cal.set(Calendar.SECOND, 0);
+    cal.set(Calendar.MILLISECOND, 0);
+    return new Date(cal.getTimeInMillis());
+  }
+
+  /*
+   * Returns the number of days of a date since 1970-01-01.
+   *
+   * @return a long
+   * @see fromEpochDay
+   */
+  public static long toEpochDay(Date date)
+  {
+    // NOTE: No Calendar is created since this is called for every
+    // record to be indexed.
+    long time = date.getTime();
+    return Math.floorDiv(time + TimeZone.getDefault().getOffset(time),
+			 MSEC_PER_DAY);
+  }
+
+  /*
+   * Returns a Date of the number of days since 1970-01-01.
+   *
+   * @return a java.sql.Date
+   * @see toEpochDay
+   */
+  public static Date fromEpochDay(long day)
+  {
+    Calendar utc_cal = new GregorianCalendar(UTC);
+    utc_cal.setTimeInMillis(day * MSEC_PER_DAY);
+    Calendar cal = new GregorianCalendar();
+    cal.clear();
+    cal.set(utc_cal.get(Calendar.YEAR),
+	    utc_cal.get(Calendar.MONTH),
+	    utc_cal.get(Calendar.DAY_OF_MONTH));
+    return new Date(cal.getTimeInMillis());
+  }
+
+  /*
+   * Returns the seconds of a time since 00:00:00.
+   *
+   * @return an int
+   * @see getTimeOfSeconds
+   */
+  public static int getSecondsOfDay(Time time)
+  {
+    Calendar cal = new GregorianCalendar();
+    cal.setTimeInMillis(time.getTime());
+    return cal.get(Calendar.HOUR_OF_DAY) * 3600 +
+      cal.get(Calendar.MINUTE) * 60 +
+      cal.get(Calendar.SECOND);
+  }
+
+  /*
+   * Returns the seconds of a time in msec. since 00:00:00 of its day
+   * in the default time zone.
+   *
+   * @return an int
+   */
+  public static int getSecondsOfDay(long time)
+  {
+    long offset = TimeZone.getDefault().getOffset(time);
+    return (int)(Math.floorMod(time + offset, MSEC_PER_DAY) / 1000);
+  }
+
+  /*
+   * Returns a Time of the seconds since 00:00:00 which is the same as
+   * one returned by Time.valueOf().
+   *
+   * @return a java.sql.Time
+   * @see getSecondsOfDay
+   */
+  public static Time getTimeOfSeconds(int seconds)
+  {
+    Calendar cal = new GregorianCalendar(1970, Calendar.JANUARY, 1,
+					 seconds / 3600,
+					 (seconds / 60) % 60,
+					 seconds % 60);
+    return new Time(cal.getTimeInMillis());
+  }
+
+  /*
+   * Returns the next day of a given date.
+   *
+   * @return a java.sql.Date
+   */
+  public static Date getNextDay(Date date)
+  {
+    Calendar cal = new GregorianCalendar();
+    cal.setTimeInMillis(date.getTime());
+    cal.add(Calendar.DATE, 1);
+    return new Date(cal.getTimeInMillis());
+  }
+
   /*
    * Returns the first day of the last month.
    *
@@ -0,0 +1,1226 @@
+// EventLogWorkRecordStore for persisting work records in an event log
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * EventLogWorkRecordStore class is a storage engine appending every
+ * change of work records and intervals to a memory-mapped log file as
+ * a fixed-size binary event.  Work records are materialized in memory
+ * from the latest snapshot plus the events after it, so every write
+ * is a sequential append and every read is served from memory.
+ *
+ * Writers append events under the lock of this store and then wait
+ * for them to be forced to a disk outside the lock.  One writer
+ * forces the log for all the events appended so far while others are
+ * waiting, i.e. group commit.
+ *
+ * Every SNAPSHOT_INTERVAL events the materialized state is copied
+ * under the lock, and the copy is written to a snapshot by the writer
+ * after it has left the lock, so that other writers and readers are
+ * not blocked meanwhile.
+ *
+ * The log is rolled to a file of the next generation whenever the
+ * state is copied, so that a snapshot is taken at the beginning of a
+ * generation.  Once a snapshot is durable, the previous one is kept
+ * as a fallback and the generations older than it are deleted.
+ *
+ * An event is EVENT_SIZE bytes:
+ *
+ *   0     type
+ *   1     kind of an interval, or length of a user name
+ *   2-3   user index
+ *   4-7   epoch day
+ *   8-15  record or interval ID
+ *   16-35 payload
+ *   36-39 CRC32 of bytes 0-35
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class EventLogWorkRecordStore implements WorkRecordStore
+{
+  static final int		EVENT_SIZE = 40;
+  static final byte		EVENT_USER = 1;
+  static final byte		EVENT_CREATE = 2;
+  static final byte		EVENT_CHECKIN = 3;
+  static final byte		EVENT_CHECKOUT = 4;
+  static final byte		EVENT_EDIT = 5;
+  static final byte		EVENT_DELETE = 6;
+  static final byte		EVENT_INTERVAL = 7;
+  static final byte		EVENT_INTERVAL_DELETE = 8;
+
+  private static final String	LOG_FILE = "events.log";
+  private static final String	SNAPSHOT_FILE = "snapshot.bin";
+  private static final String	OLD_SNAPSHOT_FILE = "snapshot.bin.old";
+  private static final int	SNAPSHOT_MAGIC = 0x574c4f47; // "WLOG"
+  private static final int	CHUNK_SIZE = EVENT_SIZE * 32768;
+  private static final int	SNAPSHOT_INTERVAL = 8192; // Events
+  private static final int	MAX_USER_LENGTH = 32;	  // Bytes
+  private static final int	NO_TIME = -1;
+  private static final Charset	UTF8 = Charset.forName("UTF-8");
+
+  private final File		dir;
+  private FileChannel		channel;
+  private long			generation = 0;	// Of the log file
+  private MappedByteBuffer	chunk = null;
+  private long			chunk_base = 0;
+  private long			position = 0;	// End of the log
+  private final ByteBuffer	event = ByteBuffer.allocate(EVENT_SIZE);
+  private final CRC32		crc = new CRC32();
+  private int			nevents_since_snapshot = 0;
+
+  // Group commit
+  private final Object		flush_lock = new Object();
+  private long			written_seq = 0;
+  private long			flushed_seq = 0;
+
+  // Snapshots
+  private Snapshot		pending_snapshot = null;
+  private final Object		snapshot_lock = new Object();
+  private long			snapshot_generation = 0;
+
+  // Materialized state
+  private final RecordIndex	records = new RecordIndex();
+  // Records of each user.  Records without a user are not indexed.
+  private final HashMap<String,RecordIndex> records_by_user = new HashMap<>();
+  private final IntervalDayIndex	intervals = new IntervalDayIndex();
+  // Intervals of each user.  Intervals without a user are not indexed.
+  private final HashMap<String,IntervalDayIndex> intervals_by_user =
+    new HashMap<>();
+  private final HashMap<String,Integer> user_indexes = new HashMap<>();
+  private final ArrayList<String> users = new ArrayList<>();
+  private long			next_record_id = 1;
+  private long			next_interval_id = 1;
+
+  /*
+   * Work records indexed by their IDs and by the epoch days of their
+   * dates, either of all the users or of a user.  A record in an index
+   * is replaced rather than modified.
+   */
+  private static class RecordIndex
+  {
+    final TreeMap<Long,WorkRecord> by_id = new TreeMap<>();
+    final TreeMap<Long,TreeMap<Long,WorkRecord>> by_day = new TreeMap<>();
+
+    void put(WorkRecord record)
+    {
+      by_id.put(record.getId(), record);
+      if(record.getDate() != null){
+	long day = DateTimeUtils.toEpochDay(record.getDate());
+	TreeMap<Long,WorkRecord> records = by_day.get(day);
+	if(records == null){
+	  records = new TreeMap<>();
+	  by_day.put(day, records);
+	}
+	records.put(record.getId(), record);
+      }
+    }
+
+    void remove(WorkRecord record)
+    {
+      by_id.remove(record.getId());
+      if(record.getDate() != null){
+	long day = DateTimeUtils.toEpochDay(record.getDate());
+	Map<Long,WorkRecord> records = by_day.get(day);
+	if(records != null){
+	  records.remove(record.getId());
+	  if(records.isEmpty()){
+	    by_day.remove(day);
+	  }
+	}
+      }
+    }
+
+    void clear()
+    {
+      by_id.clear();
+      by_day.clear();
+    }
+
+    WorkRecord getLast()
+    {
+      Map.Entry<Long,WorkRecord> last = by_id.lastEntry();
+      return (last != null) ? new WorkRecord(last.getValue()) : null;
+    }
+
+    List<WorkRecord> getBefore(long beforeId, int count)
+    {
+      List<WorkRecord> list = new ArrayList<>();
+      for(WorkRecord record :
+	    by_id.headMap(beforeId, false).descendingMap().values()){
+	if(list.size() >= count){
+	  break;
+	}
+	list.add(new WorkRecord(record));
+      }
+      return list;
+    }
+
+    List<WorkRecord> getBetween(Date fromDate, Date toDate)
+    {
+      long from = DateTimeUtils.toEpochDay(fromDate);
+      long to = DateTimeUtils.toEpochDay(toDate);
+      List<WorkRecord> list = new ArrayList<>();
+      if(from > to){
+	return list;
+      }
+      for(Map<Long,WorkRecord> day : by_day.subMap(from, true, to, true).values()){
+	for(WorkRecord record : day.values()){
+	  list.add(new WorkRecord(record));
+	}
+      }
+      Collections.sort(list, BY_ID);
+      return list;
+    }
+
+    WorkRecord getLastAlive()
+    {
+      for(WorkRecord record : by_id.descendingMap().values()){
+	if(record.getCheckinTime() != null){
+	  return new WorkRecord(record);
+	}
+      }
+      return null;
+    }
+  }
+
+  private static final RecordIndex EMPTY = new RecordIndex();
+
+  /*
+   * Work intervals indexed by their IDs and by the epoch days of their
+   * dates, either of all the users or of a user.  An interval in an
+   * index is replaced rather than modified.
+   */
+  private static class IntervalDayIndex
+  {
+    final TreeMap<Long,WorkInterval> by_id = new TreeMap<>();
+    final TreeMap<Long,TreeMap<Long,WorkInterval>> by_day = new TreeMap<>();
+
+    void put(WorkInterval interval)
+    {
+      by_id.put(interval.getId(), interval);
+      long day = DateTimeUtils.toEpochDay(interval.getDate());
+      TreeMap<Long,WorkInterval> intervals = by_day.get(day);
+      if(intervals == null){
+	intervals = new TreeMap<>();
+	by_day.put(day, intervals);
+      }
+      intervals.put(interval.getId(), interval);
+    }
+
+    void remove(WorkInterval interval)
+    {
+      by_id.remove(interval.getId());
+      long day = DateTimeUtils.toEpochDay(interval.getDate());
+      Map<Long,WorkInterval> intervals = by_day.get(day);
+      if(intervals != null){
+	intervals.remove(interval.getId());
+	if(intervals.isEmpty()){
+	  by_day.remove(day);
+	}
+      }
+    }
+
+    void clear()
+    {
+      by_id.clear();
+      by_day.clear();
+    }
+
+    WorkInterval getLast()
+    {
+      Map.Entry<Long,WorkInterval> last = by_id.lastEntry();
+      return (last != null) ? new WorkInterval(last.getValue()) : null;
+    }
+
+    List<WorkInterval> getOn(Date date)
+    {
+      List<WorkInterval> list = new ArrayList<>();
+      Map<Long,WorkInterval> day = by_day.get(DateTimeUtils.toEpochDay(date));
+      if(day != null){
+	for(WorkInterval interval : day.values()){
+	  list.add(new WorkInterval(interval));
+	}
+      }
+      Collections.sort(list, BY_START);
+      return list;
+    }
+  }
+
+  private static final IntervalDayIndex NO_INTERVALS = new IntervalDayIndex();
+
+  private static final Comparator<WorkInterval> BY_START =
+    new Comparator<WorkInterval>(){
+      @Override
+      public int compare(WorkInterval i1, WorkInterval i2)
+      {
+	return Long.compare(i1.getStart(), i2.getStart());
+      }
+    };
+
+  private static final Comparator<WorkRecord> BY_ID =
+    new Comparator<WorkRecord>(){
+      @Override
+      public int compare(WorkRecord r1, WorkRecord r2)
+      {
+	return Long.compare(r1.getId(), r2.getId());
+      }
+    };
+
+  /*
+   * The materialized state copied at the beginning of a generation of
+   * the log.  Lists are copied shallowly since records and intervals
+   * in this store are never modified.
+   */
+  private static class Snapshot
+  {
+    final long			generation;
+    final List<String>		users;
+    final List<WorkRecord>	records;
+    final List<WorkInterval>	intervals;
+
+    Snapshot(long generation, List<String> users,
+	     Collection<WorkRecord> records,
+	     Collection<WorkInterval> intervals)
+    {
+      this.generation = generation;
+      this.users = new ArrayList<>(users);
+      this.records = new ArrayList<>(records);
+      this.intervals = new ArrayList<>(intervals);
+    }
+  }
+
+  /*
+   * Open an event log in a directory, restoring work records from the
+   * snapshot and the log in it.
+   *
+   * @param dir a directory to keep a log and a snapshot
+   * @throws IOException if the log cannot be opened
+   */
+  public EventLogWorkRecordStore(File dir)
+    throws IOException
+  {
+    this.dir = dir;
+    if(!dir.isDirectory() && !dir.mkdirs()){
+      throw new IOException("Cannot create directory: " + dir);
+    }
+    long start = 0;
+    try {
+      start = loadSnapshot(new File(dir, SNAPSHOT_FILE));
+    } catch(IOException ex){
+      // Replay the log from the previous snapshot instead of a broken
+      // or missing one.  A broken one is deleted so as not to replace
+      // the previous one.  Without snapshots, the whole log is replayed.
+      clearState();
+      new File(dir, SNAPSHOT_FILE).delete();
+      try {
+	start = loadSnapshot(new File(dir, OLD_SNAPSHOT_FILE));
+      } catch(IOException ex2){
+	clearState();
+	start = 0;
+      }
+    }
+    snapshot_generation = generation;
+    channel = openLog(generation);
+    replayLog(start);
+    // Generations left by snapshots which were not written.
+    while(getLogFile(generation + 1).exists()){
+      channel.close();
+      channel = openLog(++generation);
+      chunk = null;
+      replayLog(0);
+    }
+  }
+
+  /*
+   * Rebuild another store, e.g. SQLite tables, from the materialized
+   * work records and intervals in this store.
+   *
+   * @param target a store to be rebuilt
+   */
+  public synchronized void replayInto(WorkRecordStore target)
+  {
+    target.replaceAll(records.by_id.values(), intervals.by_id.values());
+  }
+
+  /*
+   * Return the number of bytes in the current generation of the log.
+   *
+   * @return a long
+   */
+  public synchronized long getLogSize()
+  {
+    return position;
+  }
+
+  // ---------------------------------------------------------------
+  // Work records
+
+  @Override
+  public void addWorkRecord(WorkRecord record)
+  {
+    long seq;
+    synchronized(this){
+      Date date = record.getDate();
+      if(date != null){
+	Map<Long,WorkRecord> day = (record.getUser() != null) ?
+	  getRecordsOf(record.getUser()).by_day.get(DateTimeUtils.toEpochDay(date)) :
+	  records.by_day.get(DateTimeUtils.toEpochDay(date));
+	if(day != null){
+	  for(WorkRecord other : day.values()){
+	    if(other.getUser() == null ?
+	       record.getUser() == null : other.getUser().equals(record.getUser())){
+	      throw new IllegalStateException
+		("addWorkRecord: duplicated records for " + date);
+	    }
+	  }
+	}
+      }
+      record.setId(next_record_id++);
+      putRecord(new WorkRecord(record));
+      seq = appendRecord(EVENT_CREATE, record);
+    }
+    commit(seq);
+  }
+
+  @Override
+  public void addWorkRecords(Collection<WorkRecord> new_records)
+  {
+    long seq = 0;
+    synchronized(this){
+      for(WorkRecord record : new_records){
+	record.setId(next_record_id++);
+	putRecord(new WorkRecord(record));
+	seq = appendRecord(EVENT_CREATE, record);
+      }
+    }
+    commit(seq);	// Forced once for all the records
+  }
+
+  @Override
+  public void updateWorkRecord(WorkRecord record)
+  {
+    long seq;
+    synchronized(this){
+      WorkRecord old = records.by_id.get(record.getId());
+      if(old == null){
+	return;
+      }
+      byte type = EVENT_EDIT;
+      if(old.getCheckinTime() == null && record.getCheckinTime() != null){
+	type = EVENT_CHECKIN;
+      } else if(old.getCheckoutTime() == null &&
+		record.getCheckoutTime() != null){
+	type = EVENT_CHECKOUT;
+      }
+      record.setVersion(record.getVersion() + 1);
+      removeRecord(old.getId());
+      putRecord(new WorkRecord(record));
+      seq = appendRecord(type, record);
+    }
+    commit(seq);
+  }
+
+  @Override
+  public void deleteWorkRecord(WorkRecord record)
+  {
+    long seq;
+    synchronized(this){
+      if(removeRecord(record.getId()) == null){
+	return;
+      }
+      seq = appendRecord(EVENT_DELETE, record);
+    }
+    commit(seq);
+  }
+
+  @Override
+  public synchronized WorkRecord getLastWorkRecord()
+  {
+    return records.getLast();
+  }
+
+  @Override
+  public synchronized WorkRecord getWorkRecordById(long id)
+  {
+    WorkRecord record = records.by_id.get(id);
+    return (record != null) ? new WorkRecord(record) : null;
+  }
+
+  @Override
+  public synchronized WorkRecord getWorkRecordAt(int position)
+  {
+    Iterator<WorkRecord> it = records.by_id.descendingMap().values().iterator();
+    while(it.hasNext()){
+      WorkRecord record = it.next();
+      if(position-- == 0){
+	return new WorkRecord(record);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized List<WorkRecord> getRecentWorkRecords(int count)
+  {
+    return getWorkRecordsBefore(Long.MAX_VALUE, count);
+  }
+
+  @Override
+  public synchronized List<WorkRecord> getWorkRecordsBefore(long beforeId,
+							    int count)
+  {
+    return records.getBefore(beforeId, count);
+  }
+
+  @Override
+  public synchronized List<WorkRecord> getWorkRecordsBetween(Date fromDate,
+							     Date toDate)
+  {
+    return records.getBetween(fromDate, toDate);
+  }
+
+  @Override
+  public synchronized WorkRecord getLastAliveWorkRecord()
+  {
+    return records.getLastAlive();
+  }
+
+  @Override
+  public synchronized WorkRecord getLastWorkRecord(String user)
+  {
+    return getRecordsOf(user).getLast();
+  }
+
+  @Override
+  public synchronized List<WorkRecord> getRecentWorkRecords(String user,
+							    int count)
+  {
+    return getWorkRecordsBefore(user, Long.MAX_VALUE, count);
+  }
+
+  @Override
+  public synchronized List<WorkRecord> getWorkRecordsBefore(String user,
+							    long beforeId,
+							    int count)
+  {
+    return getRecordsOf(user).getBefore(beforeId, count);
+  }
+
+  @Override
+  public synchronized List<WorkRecord> getWorkRecordsBetween(String user,
+							     Date fromDate,
+							     Date toDate)
+  {
+    return getRecordsOf(user).getBetween(fromDate, toDate);
+  }
+
+  @Override
+  public synchronized WorkRecord getLastAliveWorkRecord(String user)
+  {
+    return getRecordsOf(user).getLastAlive();
+  }
+
+  /*
+   * No totals are logged; a report aggregates the records replayed
+   * into memory instead.
+   */
+  @Override
+  public ReportEngine.Report getSummaryReport(ReportEngine engine,
+					      String user)
+  {
+    return null;
+  }
+
+  private RecordIndex getRecordsOf(String user)
+  {
+    RecordIndex index = records_by_user.get(user);
+    return (index != null) ? index : EMPTY;
+  }
+
+  private void putRecord(WorkRecord record)
+  {
+    records.put(record);
+    if(record.getUser() != null){
+      RecordIndex index = records_by_user.get(record.getUser());
+      if(index == null){
+	index = new RecordIndex();
+	records_by_user.put(record.getUser(), index);
+      }
+      index.put(record);
+    }
+  }
+
+  /*
+   * Remove a work record from the indexes.
+   *
+   * @return the removed record, or null if not found
+   */
+  private WorkRecord removeRecord(long id)
+  {
+    WorkRecord old = records.by_id.get(id);
+    if(old != null){
+      records.remove(old);
+      if(old.getUser() != null){
+	getRecordsOf(old.getUser()).remove(old);
+      }
+    }
+    return old;
+  }
+
+  // ---------------------------------------------------------------
+  // Work intervals
+
+  @Override
+  public void addWorkInterval(WorkInterval interval)
+  {
+    long seq;
+    synchronized(this){
+      interval.setId(next_interval_id++);
+      putInterval(new WorkInterval(interval));
+      seq = appendInterval(EVENT_INTERVAL, interval);
+    }
+    commit(seq);
+  }
+
+  @Override
+  public void updateWorkInterval(WorkInterval interval)
+  {
+    long seq;
+    synchronized(this){
+      if(removeInterval(interval.getId()) == null){
+	return;
+      }
+      putInterval(new WorkInterval(interval));
+      seq = appendInterval(EVENT_INTERVAL, interval);
+    }
+    commit(seq);
+  }
+
+  @Override
+  public void deleteWorkInterval(WorkInterval interval)
+  {
+    long seq;
+    synchronized(this){
+      if(removeInterval(interval.getId()) == null){
+	return;
+      }
+      seq = appendInterval(EVENT_INTERVAL_DELETE, interval);
+    }
+    commit(seq);
+  }
+
+  @Override
+  public synchronized List<WorkInterval> getWorkIntervalsOn(Date date)
+  {
+    return intervals.getOn(date);
+  }
+
+  @Override
+  public synchronized List<WorkInterval> getWorkIntervalsOn(String user,
+							    Date date)
+  {
+    return getIntervalsOf(user).getOn(date);
+  }
+
+  @Override
+  public synchronized WorkInterval getLastWorkInterval()
+  {
+    return intervals.getLast();
+  }
+
+  @Override
+  public synchronized WorkInterval getLastWorkInterval(String user)
+  {
+    return getIntervalsOf(user).getLast();
+  }
+
+  private IntervalDayIndex getIntervalsOf(String user)
+  {
+    IntervalDayIndex index = intervals_by_user.get(user);
+    return (index != null) ? index : NO_INTERVALS;
+  }
+
+  private void putInterval(WorkInterval interval)
+  {
+    intervals.put(interval);
+    if(interval.getUser() != null){
+      IntervalDayIndex index = intervals_by_user.get(interval.getUser());
+      if(index == null){
+	index = new IntervalDayIndex();
+	intervals_by_user.put(interval.getUser(), index);
+      }
+      index.put(interval);
+    }
+  }
+
+  /*
+   * Remove a work interval from the indexes.
+   *
+   * @return the removed interval, or null if not found
+   */
+  private WorkInterval removeInterval(long id)
+  {
+    WorkInterval old = intervals.by_id.get(id);
+    if(old != null){
+      intervals.remove(old);
+      if(old.getUser() != null){
+	getIntervalsOf(old.getUser()).remove(old);
+      }
+    }
+    return old;
+  }
+
+  @Override
+  public void replaceAll(Collection<WorkRecord> new_records,
+			 Collection<WorkInterval> new_intervals)
+  {
+    long seq;
+    synchronized(this){
+      // The state is changed along with the log so that a snapshot
+      // taken meanwhile is consistent with the position in the log.
+      for(WorkRecord record : new ArrayList<>(records.by_id.values())){
+	removeRecord(record.getId());
+	appendRecord(EVENT_DELETE, record);
+      }
+      for(WorkInterval interval : new ArrayList<>(intervals.by_id.values())){
+	removeInterval(interval.getId());
+	appendInterval(EVENT_INTERVAL_DELETE, interval);
+      }
+      for(WorkRecord record : new_records){
+	putRecord(new WorkRecord(record));
+	next_record_id = Math.max(next_record_id, record.getId() + 1);
+	appendRecord(EVENT_EDIT, record);
+      }
+      for(WorkInterval interval : new_intervals){
+	putInterval(new WorkInterval(interval));
+	next_interval_id = Math.max(next_interval_id, interval.getId() + 1);
+	appendInterval(EVENT_INTERVAL, interval);
+      }
+      seq = written_seq;
+    }
+    commit(seq);
+  }
+
+  /*
+   * Run operations holding both locks in the order of commit() so that
+   * no other writer interleaves.  Events are not rolled back.
+   */
+  @Override
+  public void runInTransaction(Runnable body)
+  {
+    synchronized(flush_lock){
+      synchronized(this){
+	body.run();
+      }
+    }
+    writePendingSnapshot();
+  }
+
+  @Override
+  public void close()
+  {
+    writePendingSnapshot();
+    synchronized(flush_lock){
+      synchronized(this){
+	try {
+	  if(chunk != null){
+	    chunk.force();
+	  }
+	  flushed_seq = written_seq;
+	  channel.close();
+	} catch(IOException ex){
+	  throw new IllegalStateException("close: " + ex.getMessage(), ex);
+	}
+      }
+    }
+  }
+
+  // ---------------------------------------------------------------
+  // Log
+
+  /*
+   * Wait until the events up to a sequence number are forced to a
+   * disk.  Events appended by other writers meanwhile are forced
+   * together.  A snapshot due meanwhile is written afterwards unless
+   * the caller is in a transaction.
+   *
+   * NOTE: flush_lock must be acquired before the lock of this store.
+   */
+  private void commit(long seq)
+  {
+    synchronized(flush_lock){
+      if(flushed_seq < seq){	// Unless forced by another writer.
+	long target;
+	MappedByteBuffer buffer;
+	synchronized(this){
+	  target = written_seq;
+	  buffer = chunk;
+	}
+	buffer.force();
+	flushed_seq = target;
+      }
+    }
+    if(!Thread.holdsLock(this)){
+      writePendingSnapshot();
+    }
+  }
+
+  private File getLogFile(long generation)
+  {
+    return new File(dir, (generation == 0) ?
+		    LOG_FILE : "events." + generation + ".log");
+  }
+
+  private FileChannel openLog(long generation)
+    throws IOException
+  {
+    return new RandomAccessFile(getLogFile(generation), "rw").getChannel();
+  }
+
+  /*
+   * Roll the log to the next generation after forcing the current one
+   * to a disk.  The log is kept unchanged if it cannot be rolled.
+   */
+  private void rollLog()
+    throws IOException
+  {
+    FileChannel next = openLog(generation + 1);
+    MappedByteBuffer next_chunk;
+    try {
+      next.truncate(0);		// Left by a broken snapshot if any.
+      chunk.force();
+      next_chunk = next.map(FileChannel.MapMode.READ_WRITE, 0, CHUNK_SIZE);
+    } catch(IOException ex){
+      next.close();
+      throw ex;
+    }
+    FileChannel old = channel;
+    channel = next;
+    chunk = next_chunk;
+    chunk_base = 0;
+    position = 0;
+    generation++;
+    old.close();
+  }
+
+  /*
+   * Map the chunk of the log containing a position.
+   */
+  private void mapChunk(long pos)
+    throws IOException
+  {
+    if(chunk != null){
+      chunk.force();
+    }
+    chunk_base = (pos / CHUNK_SIZE) * CHUNK_SIZE;
+    chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunk_base, CHUNK_SIZE);
+  }
+
+  /*
+   * Append an event in the scratch buffer to the log.
+   *
+   * @return the sequence number of the event
+   */
+  private long appendEvent()
+  {
+    try {
+      if(chunk == null || position - chunk_base >= CHUNK_SIZE){
+	mapChunk(position);
+      }
+    } catch(IOException ex){
+      throw new IllegalStateException("appendEvent: " + ex.getMessage(), ex);
+    }
+    sealEvent(event, crc);
+    chunk.position((int)(position - chunk_base));
+    chunk.put(event.array(), 0, EVENT_SIZE);
+    position += EVENT_SIZE;
+    if(++nevents_since_snapshot >= SNAPSHOT_INTERVAL){
+      try {
+	rollLog();
+	pending_snapshot = new Snapshot(generation, users,
+					records.by_id.values(),
+					intervals.by_id.values());
+      } catch(IOException ex){
+	// Rolled at the next snapshot instead.
+      }
+      nevents_since_snapshot = 0;
+    }
+    return ++written_seq;
+  }
+
+  /*
+   * Replay the events in the log from a position.
+   */
+  private void replayLog(long start)
+    throws IOException
+  {
+    position = start;
+    while(true){
+      if(chunk == null || position - chunk_base >= CHUNK_SIZE){
+	mapChunk(position);
+      }
+      chunk.position((int)(position - chunk_base));
+      chunk.get(event.array(), 0, EVENT_SIZE);
+      if(event.get(0) == 0 || !isValidEvent()){
+	break;		// The end of the log or a torn event.
+      }
+      applyEvent();
+      position += EVENT_SIZE;
+    }
+  }
+
+  private static void sealEvent(ByteBuffer event, CRC32 crc)
+  {
+    crc.reset();
+    crc.update(event.array(), 0, EVENT_SIZE - 4);
+    event.putInt(EVENT_SIZE - 4, (int)crc.getValue());
+  }
+
+  private boolean isValidEvent()
+  {
+    crc.reset();
+    crc.update(event.array(), 0, EVENT_SIZE - 4);
+    return event.getInt(EVENT_SIZE - 4) == (int)crc.getValue();
+  }
+
+  // ---------------------------------------------------------------
+  // Encoding events
+
+  private int getUserIndex(String user)
+  {
+    if(user == null){
+      return 0xffff;
+    }
+    Integer index = user_indexes.get(user);
+    if(index != null){
+      return index;
+    }
+    byte[] name = user.getBytes(UTF8);
+    if(name.length > MAX_USER_LENGTH || users.size() >= 0xffff){
+      throw new IllegalArgumentException("Cannot record user: " + user);
+    }
+    index = users.size();
+    users.add(user);
+    user_indexes.put(user, index);
+
+    encodeUser(event, index, name);
+    appendEvent();
+    return index;
+  }
+
+  private static void clearEvent(ByteBuffer event, byte type)
+  {
+    byte[] bytes = event.array();
+    for(int i = 0; i < EVENT_SIZE; i++){
+      bytes[i] = 0;
+    }
+    event.put(0, type);
+  }
+
+  private static void encodeUser(ByteBuffer event, int index, byte[] name)
+  {
+    clearEvent(event, EVENT_USER);
+    event.put(1, (byte)name.length);
+    event.putShort(2, (short)index);
+    for(int i = 0; i < name.length; i++){
+      event.put(4 + i, name[i]);
+    }
+  }
+
+  private long appendRecord(byte type, WorkRecord record)
+  {
+    int user = getUserIndex(record.getUser());
+    encodeRecord(event, type, user, record);
+    return appendEvent();
+  }
+
+  private static void encodeRecord(ByteBuffer event, byte type, int user,
+				   WorkRecord record)
+  {
+    clearEvent(event, type);
+    event.putShort(2, (short)user);
+    event.putInt(4, (record.getDate() != null) ?
+		 (int)DateTimeUtils.toEpochDay(record.getDate()) :
+		 Integer.MIN_VALUE);
+    event.putLong(8, record.getId());
+    event.putInt(16, (record.getCheckinTime() != null) ?
+		 DateTimeUtils.getSecondsOfDay(record.getCheckinTime()) :
+		 NO_TIME);
+    event.putInt(20, (record.getCheckoutTime() != null) ?
+		 DateTimeUtils.getSecondsOfDay(record.getCheckoutTime()) :
+		 NO_TIME);
+    event.putInt(24, record.getVersion());
+  }
+
+  private long appendInterval(byte type, WorkInterval interval)
+  {
+    int user = getUserIndex(interval.getUser());
+    encodeInterval(event, type, user, interval);
+    return appendEvent();
+  }
+
+  private static void encodeInterval(ByteBuffer event, byte type, int user,
+				     WorkInterval interval)
+  {
+    clearEvent(event, type);
+    event.put(1, (byte)interval.getKind());
+    event.putShort(2, (short)user);
+    event.putInt(4, (int)DateTimeUtils.toEpochDay(interval.getDate()));
+    event.putLong(8, interval.getId());
+    event.putLong(16, interval.getStart());
+    event.putLong(24, interval.getEnd());
+  }
+
+  /*
+   * Apply an event in the scratch buffer to the materialized state.
+   */
+  private void applyEvent()
+  {
+    byte type = event.get(0);
+    int user_index = event.getShort(2) & 0xffff;
+    String user = (user_index < users.size()) ? users.get(user_index) : null;
+    long id = event.getLong(8);
+
+    switch(type){
+    case EVENT_USER:
+      byte[] name = new byte[event.get(1)];
+      for(int i = 0; i < name.length; i++){
+	name[i] = event.get(4 + i);
+      }
+      String new_user = new String(name, UTF8);
+      while(users.size() <= user_index){
+	users.add(null);
+      }
+      users.set(user_index, new_user);
+      user_indexes.put(new_user, user_index);
+      break;
+    case EVENT_CREATE:
+    case EVENT_CHECKIN:
+    case EVENT_CHECKOUT:
+    case EVENT_EDIT:
+      WorkRecord record = new WorkRecord(user);
+      record.setId(id);
+      int day = event.getInt(4);
+      record.setDate((day != Integer.MIN_VALUE) ?
+		     DateTimeUtils.fromEpochDay(day) : null);
+      int checkin = event.getInt(16);
+      int checkout = event.getInt(20);
+      if(checkin != NO_TIME){
+	record.setCheckinTime(DateTimeUtils.getTimeOfSeconds(checkin));
+      }
+      if(checkout != NO_TIME){
+	record.setCheckoutTime(DateTimeUtils.getTimeOfSeconds(checkout));
+      }
+      record.setVersion(event.getInt(24));
+      removeRecord(id);
+      putRecord(record);
+      next_record_id = Math.max(next_record_id, id + 1);
+      break;
+    case EVENT_DELETE:
+      removeRecord(id);
+      break;
+    case EVENT_INTERVAL:
+      WorkInterval interval = new WorkInterval();
+      interval.setId(id);
+      interval.setUser(user);
+      interval.setKind(event.get(1));
+      interval.setDate(DateTimeUtils.fromEpochDay(event.getInt(4)));
+      interval.setStart(event.getLong(16));
+      interval.setEnd(event.getLong(24));
+      removeInterval(id);
+      putInterval(interval);
+      next_interval_id = Math.max(next_interval_id, id + 1);
+      break;
+    case EVENT_INTERVAL_DELETE:
+      removeInterval(id);
+      break;
+    default:
+      break;
+    }
+  }
+
+  // ---------------------------------------------------------------
+  // Snapshots
+
+  /*
+   * Write a snapshot copied by appendEvent() if any.  The caller must
+   * not hold the lock of this store.
+   */
+  private void writePendingSnapshot()
+  {
+    Snapshot snapshot;
+    synchronized(this){
+      snapshot = pending_snapshot;
+      pending_snapshot = null;
+    }
+    if(snapshot == null){
+      return;
+    }
+    synchronized(snapshot_lock){
+      if(snapshot.generation <= snapshot_generation){
+	return;			// A newer one was written by another writer.
+      }
+      try {
+	writeSnapshot(snapshot);
+      } catch(IOException ex){
+	// The log is still complete, so a snapshot will be retried later.
+	return;
+      }
+      // The previous snapshot is kept with the log after it.
+      for(long g = snapshot_generation - 1; g >= 0; g--){
+	if(!getLogFile(g).delete()){
+	  break;		// Deleted by an earlier snapshot.
+	}
+      }
+      snapshot_generation = snapshot.generation;
+    }
+  }
+
+  /*
+   * Write a snapshot which is a compacted sequence of events followed
+   * by a header.  A snapshot is written to a temporary file and then
+   * renamed so that a broken snapshot never replaces a good one.  The
+   * previous snapshot is renamed to OLD_SNAPSHOT_FILE.
+   */
+  private void writeSnapshot(Snapshot snapshot)
+    throws IOException
+  {
+    ByteBuffer event = ByteBuffer.allocate(EVENT_SIZE);
+    CRC32 crc = new CRC32();
+    HashMap<String,Integer> indexes = new HashMap<>();
+    for(int i = 0; i < snapshot.users.size(); i++){
+      if(snapshot.users.get(i) != null){	// Skip gaps left by a torn log.
+	indexes.put(snapshot.users.get(i), i);
+      }
+    }
+
+    File tmp = new File(dir, SNAPSHOT_FILE + ".tmp");
+    FileOutputStream fout = new FileOutputStream(tmp);
+    try {
+      BufferedOutputStream out = new BufferedOutputStream(fout, 64 * 1024);
+      ByteBuffer header = ByteBuffer.allocate(EVENT_SIZE);
+      header.putInt(0, SNAPSHOT_MAGIC);
+      header.putLong(8, 0);	// Position in the generation
+      header.putInt(16, indexes.size() + snapshot.records.size() +
+		    snapshot.intervals.size());
+      header.putLong(24, snapshot.generation);
+      out.write(header.array());
+
+      for(int i = 0; i < snapshot.users.size(); i++){
+	String user = snapshot.users.get(i);
+	if(user == null){
+	  continue;
+	}
+	encodeUser(event, i, user.getBytes(UTF8));
+	sealEvent(event, crc);
+	out.write(event.array());
+      }
+      for(WorkRecord record : snapshot.records){
+	encodeRecord(event, EVENT_EDIT,
+		     getUserIndex(indexes, record.getUser()), record);
+	sealEvent(event, crc);
+	out.write(event.array());
+      }
+      for(WorkInterval interval : snapshot.intervals){
+	encodeInterval(event, EVENT_INTERVAL,
+		       getUserIndex(indexes, interval.getUser()), interval);
+	sealEvent(event, crc);
+	out.write(event.array());
+      }
+      out.flush();
+      fout.getFD().sync();
+    } finally {
+      fout.close();
+    }
+    File file = new File(dir, SNAPSHOT_FILE);
+    if(file.exists() && !file.renameTo(new File(dir, OLD_SNAPSHOT_FILE))){
+      throw new IOException("Cannot rename snapshot: " + file);
+    }
+    if(!tmp.renameTo(file)){
+      throw new IOException("Cannot rename snapshot: " + tmp);
+    }
+  }
+
+  private static int getUserIndex(Map<String,Integer> indexes, String user)
+  {
+    Integer index = (user != null) ? indexes.get(user) : null;
+    return (index != null) ? index : 0xffff;
+  }
+
+  /*
+   * Load a snapshot, setting the generation of the log where the
+   * snapshot was taken.
+   *
+   * @param file a snapshot file
+   * @return the position in the generation where the snapshot was taken
+   * @throws IOException if the snapshot is missing or broken
+   */
+  private long loadSnapshot(File file)
+    throws IOException
+  {
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      byte[] header = new byte[EVENT_SIZE];
+      in.readFully(header);
+      ByteBuffer buffer = ByteBuffer.wrap(header);
+      if(buffer.getInt(0) != SNAPSHOT_MAGIC){
+	throw new IOException("Not a snapshot: " + file);
+      }
+      long log_position = buffer.getLong(8);
+      int nevents = buffer.getInt(16);
+      generation = buffer.getLong(24);
+      for(int i = 0; i < nevents; i++){
+	in.readFully(event.array());
+	if(!isValidEvent()){
+	  throw new IOException("Broken snapshot: " + file);
+	}
+	applyEvent();
+      }
+      return log_position;
+    } finally {
+      in.close();
+    }
+  }
+
+  private void clearState()
+  {
+    records.clear();
+    records_by_user.clear();
+    intervals.clear();
+    intervals_by_user.clear();
+    users.clear();
+    user_indexes.clear();
+    next_record_id = 1;
+    next_interval_id = 1;
+    generation = 0;
+  }
+}
@@ -0,0 +1,52 @@
+// FakeBeaconSource for emitting advertisements by hand
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+/**
+ * FakeBeaconSource class is a BeaconSource emitting advertisements
+ * given by a caller, e.g. by tests and simulations.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class FakeBeaconSource implements BeaconSource
+{
+  private volatile Listener	listener = null;
+
+  @Override
+  public void start(Listener listener)
+  {
+    this.listener = listener;
+  }
+
+  @Override
+  public void stop()
+  {
+    this.listener = null;
+  }
+
+  public boolean isStarted()
+  {
+    return listener != null;
+  }
+
+  /*
+   * Emit an advertisement.  Nothing is done unless started.
+   *
+   * @param address the address of a beacon
+   * @param rssi the received signal strength in dBm
+   * @param time the time received in msec.
+   */
+  public void emit(String address, int rssi, long time)
+  {
+    Listener listener = this.listener;
+    if(listener != null){
+      listener.onAdvertisement(address, rssi, time);
+    }
+  }
+}
@@ -0,0 +1,544 @@
+// InMemoryWorkRecordStore for keeping work records in memory
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * InMemoryWorkRecordStore class is a storage engine keeping work
+ * records and intervals in memory, e.g. to run WorkRecordManager in
+ * unit tests and benchmarks on a plain JVM.  Work records are indexed
+ * by their IDs and by the epoch days of their dates, both of all the
+ * users and of each user, so that a lookup by a date or a duration
+ * costs logarithmic time however many records are stored, and a query
+ * of a user never visits the records of other users.
+ *
+ * Updates are serialized by the lock of this store while queries run
+ * without any lock on the concurrent maps.  An update overwrites the
+ * entries of a record or an interval in place, so a query never misses
+ * it.  Records and intervals are copied in and out so that a caller
+ * never shares them with the store.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class InMemoryWorkRecordStore implements WorkRecordStore
+{
+  /*
+   * Work records indexed by their IDs and by the epoch days of their
+   * dates, either of all the users or of a user.
+   */
+  private static class RecordIndex
+  {
+    final ConcurrentSkipListMap<Long,WorkRecord> by_id =
+      new ConcurrentSkipListMap<>();
+    // Records of each day by their IDs.  A day may have more than one
+    // record of different users, or if loaded by addWorkRecords().
+    final ConcurrentSkipListMap<Long,ConcurrentSkipListMap<Long,WorkRecord>>
+      by_day = new ConcurrentSkipListMap<>();
+
+    void put(WorkRecord record)
+    {
+      by_id.put(record.getId(), record);
+      if(record.getDate() != null){
+	long day = DateTimeUtils.toEpochDay(record.getDate());
+	ConcurrentSkipListMap<Long,WorkRecord> records = by_day.get(day);
+	if(records == null){
+	  records = new ConcurrentSkipListMap<>();
+	  by_day.put(day, records);
+	}
+	records.put(record.getId(), record);
+      }
+    }
+
+    /*
+     * Replace a record by its new version.  The entries of the old one
+     * are overwritten, and removed only from a day it has left after
+     * the new one is put, so a query of the days may see both for a
+     * moment but never neither.
+     */
+    void replace(WorkRecord old, WorkRecord record)
+    {
+      put(record);
+      if(old.getDate() != null &&
+	 (record.getDate() == null ||
+	  DateTimeUtils.toEpochDay(old.getDate()) !=
+	  DateTimeUtils.toEpochDay(record.getDate()))){
+	removeFromDay(old);
+      }
+    }
+
+    void remove(WorkRecord record)
+    {
+      by_id.remove(record.getId());
+      removeFromDay(record);
+    }
+
+    private void removeFromDay(WorkRecord record)
+    {
+      if(record.getDate() != null){
+	long day = DateTimeUtils.toEpochDay(record.getDate());
+	Map<Long,WorkRecord> records = by_day.get(day);
+	if(records != null){
+	  records.remove(record.getId());
+	  if(records.isEmpty()){
+	    by_day.remove(day);
+	  }
+	}
+      }
+    }
+
+    WorkRecord getLast()
+    {
+      Map.Entry<Long,WorkRecord> last = by_id.lastEntry();
+      return (last != null) ? new WorkRecord(last.getValue()) : null;
+    }
+
+    List<WorkRecord> getBefore(long beforeId, int count)
+    {
+      List<WorkRecord> list = new ArrayList<>(Math.min(count, 1024));
+      for(WorkRecord record :
+	    by_id.headMap(beforeId, false).descendingMap().values()){
+	if(list.size() >= count){
+	  break;
+	}
+	list.add(new WorkRecord(record));
+      }
+      return list;
+    }
+
+    List<WorkRecord> getBetween(Date fromDate, Date toDate)
+    {
+      long from = DateTimeUtils.toEpochDay(fromDate);
+      long to = DateTimeUtils.toEpochDay(toDate);
+      List<WorkRecord> list = new ArrayList<>();
+      if(from > to){
+	return list;
+      }
+      for(Map<Long,WorkRecord> day : by_day.subMap(from, true, to, true).values()){
+	for(WorkRecord record : day.values()){
+	  list.add(new WorkRecord(record));
+	}
+      }
+      Collections.sort(list, BY_ID);
+      return list;
+    }
+
+    WorkRecord getLastAlive()
+    {
+      for(WorkRecord record : by_id.descendingMap().values()){
+	if(record.getCheckinTime() != null){
+	  return new WorkRecord(record);
+	}
+      }
+      return null;
+    }
+  }
+
+  private static final RecordIndex EMPTY = new RecordIndex();
+
+  private final RecordIndex	records = new RecordIndex();
+  // Records of each user.  Records without a user are not indexed.
+  private final ConcurrentHashMap<String,RecordIndex> records_by_user =
+    new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<Long,WorkInterval> intervals_by_id =
+    new ConcurrentSkipListMap<>();
+  // Intervals by their start times and IDs since intervals may start
+  // at the same time.
+  private final ConcurrentSkipListMap<Long,ConcurrentSkipListMap<Long,WorkInterval>>
+    intervals_by_start = new ConcurrentSkipListMap<>();
+  // Intervals of each user by their IDs.  Intervals without a user are
+  // not indexed.
+  private final ConcurrentHashMap<String,ConcurrentSkipListMap<Long,WorkInterval>>
+    intervals_by_user = new ConcurrentHashMap<>();
+  private long			next_record_id = 1;
+  private long			next_interval_id = 1;
+
+  private static final Comparator<WorkRecord> BY_ID =
+    new Comparator<WorkRecord>(){
+      @Override
+      public int compare(WorkRecord r1, WorkRecord r2)
+      {
+	return Long.compare(r1.getId(), r2.getId());
+      }
+    };
+
+  /*
+   * Return the number of work records in this store.
+   *
+   * @return an int
+   */
+  public int size()
+  {
+    return records.by_id.size();
+  }
+
+  private RecordIndex getRecordsOf(String user)
+  {
+    RecordIndex index = records_by_user.get(user);
+    return (index != null) ? index : EMPTY;
+  }
+
+  // ---------------------------------------------------------------
+  // Work records
+
+  @Override
+  public synchronized void addWorkRecord(WorkRecord record)
+  {
+    Date date = record.getDate();
+    if(date != null){
+      Map<Long,WorkRecord> day = (record.getUser() != null) ?
+	getRecordsOf(record.getUser()).by_day.get(DateTimeUtils.toEpochDay(date)) :
+	records.by_day.get(DateTimeUtils.toEpochDay(date));
+      if(day != null){
+	for(WorkRecord other : day.values()){
+	  if(other.getUser() == null ?
+	     record.getUser() == null : other.getUser().equals(record.getUser())){
+	    throw new IllegalStateException
+	      ("addWorkRecord: duplicated records for " + date);
+	  }
+	}
+      }
+    }
+    record.setId(next_record_id++);
+    putWorkRecord(new WorkRecord(record));
+  }
+
+  @Override
+  public synchronized void addWorkRecords(Collection<WorkRecord> records)
+  {
+    for(WorkRecord record : records){
+      record.setId(next_record_id++);
+      putWorkRecord(new WorkRecord(record));
+    }
+  }
+
+  @Override
+  public synchronized void updateWorkRecord(WorkRecord record)
+  {
+    WorkRecord old = records.by_id.get(record.getId());
+    if(old == null){
+      return;
+    }
+    record.setVersion(record.getVersion() + 1);
+    WorkRecord copy = new WorkRecord(record);
+    records.replace(old, copy);
+    if(Objects.equals(old.getUser(), copy.getUser())){
+      if(copy.getUser() != null){
+	getRecordsOf(copy.getUser()).replace(old, copy);
+      }
+    } else {
+      putUserRecord(copy);
+      if(old.getUser() != null){
+	getRecordsOf(old.getUser()).remove(old);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void deleteWorkRecord(WorkRecord record)
+  {
+    WorkRecord old = records.by_id.get(record.getId());
+    if(old != null){
+      removeWorkRecord(old);
+    }
+  }
+
+  @Override
+  public WorkRecord getLastWorkRecord()
+  {
+    return records.getLast();
+  }
+
+  @Override
+  public WorkRecord getLastWorkRecord(String user)
+  {
+    return getRecordsOf(user).getLast();
+  }
+
+  @Override
+  public WorkRecord getWorkRecordById(long id)
+  {
+    WorkRecord record = records.by_id.get(id);
+    return (record != null) ? new WorkRecord(record) : null;
+  }
+
+  @Override
+  public WorkRecord getWorkRecordAt(int position)
+  {
+    for(WorkRecord record : records.by_id.descendingMap().values()){
+      if(position-- == 0){
+	return new WorkRecord(record);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public List<WorkRecord> getRecentWorkRecords(int count)
+  {
+    return records.getBefore(Long.MAX_VALUE, count);
+  }
+
+  @Override
+  public List<WorkRecord> getRecentWorkRecords(String user, int count)
+  {
+    return getRecordsOf(user).getBefore(Long.MAX_VALUE, count);
+  }
+
+  @Override
+  public List<WorkRecord> getWorkRecordsBefore(long beforeId, int count)
+  {
+    return records.getBefore(beforeId, count);
+  }
+
+  @Override
+  public List<WorkRecord> getWorkRecordsBefore(String user,
+					       long beforeId,
+					       int count)
+  {
+    return getRecordsOf(user).getBefore(beforeId, count);
+  }
+
+  @Override
+  public List<WorkRecord> getWorkRecordsBetween(Date fromDate, Date toDate)
+  {
+    return records.getBetween(fromDate, toDate);
+  }
+
+  @Override
+  public List<WorkRecord> getWorkRecordsBetween(String user,
+						Date fromDate,
+						Date toDate)
+  {
+    return getRecordsOf(user).getBetween(fromDate, toDate);
+  }
+
+  @Override
+  public WorkRecord getLastAliveWorkRecord()
+  {
+    return records.getLastAlive();
+  }
+
+  @Override
+  public WorkRecord getLastAliveWorkRecord(String user)
+  {
+    return getRecordsOf(user).getLastAlive();
+  }
+
+  /*
+   * Return null since no totals are kept; records in memory are
+   * aggregated as fast as totals would be read.
+   */
+  @Override
+  public ReportEngine.Report getSummaryReport(ReportEngine engine,
+					      String user)
+  {
+    return null;
+  }
+
+  private void putWorkRecord(WorkRecord record)
+  {
+    records.put(record);
+    putUserRecord(record);
+  }
+
+  private void putUserRecord(WorkRecord record)
+  {
+    if(record.getUser() != null){
+      RecordIndex index = records_by_user.get(record.getUser());
+      if(index == null){
+	index = new RecordIndex();
+	records_by_user.put(record.getUser(), index);
+      }
+      index.put(record);
+    }
+  }
+
+  private void removeWorkRecord(WorkRecord record)
+  {
+    records.remove(record);
+    if(record.getUser() != null){
+      getRecordsOf(record.getUser()).remove(record);
+    }
+  }
+
+  // ---------------------------------------------------------------
+  // Work intervals
+
+  @Override
+  public synchronized void addWorkInterval(WorkInterval interval)
+  {
+    interval.setId(next_interval_id++);
+    putWorkInterval(new WorkInterval(interval));
+  }
+
+  @Override
+  public synchronized void updateWorkInterval(WorkInterval interval)
+  {
+    WorkInterval old = intervals_by_id.get(interval.getId());
+    if(old == null){
+      return;
+    }
+    putWorkInterval(new WorkInterval(interval));
+    if(old.getStart() != interval.getStart()){
+      removeStartOf(old);
+    }
+    if(!Objects.equals(old.getUser(), interval.getUser())){
+      removeUserOf(old);
+    }
+  }
+
+  @Override
+  public synchronized void deleteWorkInterval(WorkInterval interval)
+  {
+    WorkInterval old = intervals_by_id.get(interval.getId());
+    if(old != null){
+      removeWorkInterval(old);
+    }
+  }
+
+  @Override
+  public List<WorkInterval> getWorkIntervalsOn(Date date)
+  {
+    long from = date.getTime();
+    long to = DateTimeUtils.getNextDay(date).getTime();
+    List<WorkInterval> list = new ArrayList<>();
+    for(Map<Long,WorkInterval> start :
+	  intervals_by_start.subMap(from, to).values()){
+      for(WorkInterval interval : start.values()){
+	list.add(new WorkInterval(interval));
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public List<WorkInterval> getWorkIntervalsOn(String user, Date date)
+  {
+    List<WorkInterval> list = new ArrayList<>();
+    for(WorkInterval interval : getWorkIntervalsOn(date)){
+      if(user.equals(interval.getUser())){
+	list.add(interval);
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public WorkInterval getLastWorkInterval()
+  {
+    Map.Entry<Long,WorkInterval> last = intervals_by_id.lastEntry();
+    return (last != null) ? new WorkInterval(last.getValue()) : null;
+  }
+
+  @Override
+  public WorkInterval getLastWorkInterval(String user)
+  {
+    ConcurrentSkipListMap<Long,WorkInterval> intervals =
+      intervals_by_user.get(user);
+    Map.Entry<Long,WorkInterval> last =
+      (intervals != null) ? intervals.lastEntry() : null;
+    return (last != null) ? new WorkInterval(last.getValue()) : null;
+  }
+
+  private void putWorkInterval(WorkInterval interval)
+  {
+    intervals_by_id.put(interval.getId(), interval);
+    ConcurrentSkipListMap<Long,WorkInterval> intervals =
+      intervals_by_start.get(interval.getStart());
+    if(intervals == null){
+      intervals = new ConcurrentSkipListMap<>();
+      intervals_by_start.put(interval.getStart(), intervals);
+    }
+    intervals.put(interval.getId(), interval);
+    if(interval.getUser() != null){
+      ConcurrentSkipListMap<Long,WorkInterval> user_intervals =
+	intervals_by_user.get(interval.getUser());
+      if(user_intervals == null){
+	user_intervals = new ConcurrentSkipListMap<>();
+	intervals_by_user.put(interval.getUser(), user_intervals);
+      }
+      user_intervals.put(interval.getId(), interval);
+    }
+  }
+
+  private void removeWorkInterval(WorkInterval interval)
+  {
+    intervals_by_id.remove(interval.getId());
+    removeStartOf(interval);
+    removeUserOf(interval);
+  }
+
+  private void removeUserOf(WorkInterval interval)
+  {
+    if(interval.getUser() == null){
+      return;
+    }
+    Map<Long,WorkInterval> intervals = intervals_by_user.get(interval.getUser());
+    if(intervals != null){
+      intervals.remove(interval.getId());
+    }
+  }
+
+  private void removeStartOf(WorkInterval interval)
+  {
+    Map<Long,WorkInterval> intervals = intervals_by_start.get(interval.getStart());
+    if(intervals != null){
+      intervals.remove(interval.getId());
+      if(intervals.isEmpty()){
+	intervals_by_start.remove(interval.getStart());
+      }
+    }
+  }
+
+  @Override
+  public synchronized void replaceAll(Collection<WorkRecord> records,
+				      Collection<WorkInterval> intervals)
+  {
+    this.records.by_id.clear();
+    this.records.by_day.clear();
+    records_by_user.clear();
+    intervals_by_id.clear();
+    intervals_by_start.clear();
+    intervals_by_user.clear();
+    for(WorkRecord record : records){
+      putWorkRecord(new WorkRecord(record));
+      next_record_id = Math.max(next_record_id, record.getId() + 1);
+    }
+    for(WorkInterval interval : intervals){
+      putWorkInterval(new WorkInterval(interval));
+      next_interval_id = Math.max(next_interval_id, interval.getId() + 1);
+    }
+  }
+
+  /*
+   * Run operations under the lock of this store.  Operations are not
+   * rolled back.
+   */
+  @Override
+  public synchronized void runInTransaction(Runnable body)
+  {
+    body.run();
+  }
+
+  @Override
+  public void close()
+  {
+    // Nothing to release.
+  }
+}
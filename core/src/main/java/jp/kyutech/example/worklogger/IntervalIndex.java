@@ -0,0 +1,233 @@
+// IntervalIndex for looking up work intervals in memory
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * IntervalIndex class keeps work intervals sorted by their start
+ * times.  Since intervals never overlap each other, an overlap check
+ * needs only the neighbours of a new interval, which are found in
+ * logarithmic time.  The total time of each kind is accumulated per
+ * day, so a total of a day costs the same however many breaks the day
+ * has.
+ *
+ * NOTE: This class is not thread-safe.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+class IntervalIndex
+{
+  private final TreeMap<Long,WorkInterval> by_start = new TreeMap<>();
+  private final HashMap<Long,long[]> totals = new HashMap<>(); // Closed only
+  private final HashSet<Long>	loaded_days = new HashSet<>();
+  private WorkInterval		open_interval = null;
+
+  /*
+   * Return true if the intervals of a day have been loaded.
+   *
+   * @param date a date
+   * @return a boolean
+   */
+  boolean isLoaded(Date date)
+  {
+    return loaded_days.contains(date.getTime());
+  }
+
+  /*
+   * Add the intervals of a day loaded from a database.
+   *
+   * @param date a date
+   * @param intervals the intervals starting on the date
+   */
+  void load(Date date, Collection<WorkInterval> intervals)
+  {
+    if(!loaded_days.add(date.getTime())){
+      return;
+    }
+    for(WorkInterval interval : intervals){
+      if(!by_start.containsKey(interval.getStart())){
+	add(interval);
+      }
+    }
+  }
+
+  /*
+   * Return true if a time range overlaps any interval except a given
+   * one.  An open range is regarded as endless.
+   *
+   * @param start the start time in msec.
+   * @param end the end time in msec. or WorkInterval.OPEN
+   * @param except an interval to be ignored or null
+   * @return a boolean
+   */
+  boolean overlaps(long start, long end, WorkInterval except)
+  {
+    Map.Entry<Long,WorkInterval> prev = by_start.floorEntry(start);
+    if(prev != null && prev.getValue() != except){
+      WorkInterval interval = prev.getValue();
+      if(interval.isOpen() || interval.getEnd() > start ||
+	 interval.getStart() == start){
+	return true;
+      }
+    }
+    Map.Entry<Long,WorkInterval> next = by_start.higherEntry(start);
+    if(next != null && next.getValue() == except){
+      next = by_start.higherEntry(next.getKey());
+    }
+    if(next != null){
+      if(end == WorkInterval.OPEN || next.getKey() < end){
+	return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Add an interval.
+   *
+   * @param interval an interval to be added
+   * @throws IllegalStateException if the interval overlaps another
+   */
+  void add(WorkInterval interval)
+  {
+    if(overlaps(interval.getStart(), interval.getEnd(), null)){
+      throw new IllegalStateException
+	("IntervalIndex: overlapped interval: " + interval);
+    }
+    by_start.put(interval.getStart(), interval);
+    if(interval.isOpen()){
+      open_interval = interval;
+    } else {
+      accumulate(interval, interval.getDuration(0));
+    }
+  }
+
+  /*
+   * Close an open interval at a given time.
+   *
+   * @param interval an open interval
+   * @param end the end time in msec.
+   * @throws IllegalStateException if the interval cannot be closed
+   */
+  void close(WorkInterval interval, long end)
+  {
+    if(!interval.isOpen() || end < interval.getStart() ||
+       overlaps(interval.getStart(), end, interval)){
+      throw new IllegalStateException
+	("IntervalIndex: cannot close interval at " + end + ": " + interval);
+    }
+    interval.setEnd(end);
+    if(open_interval == interval){
+      open_interval = null;
+    }
+    accumulate(interval, interval.getDuration(0));
+  }
+
+  /*
+   * Open a closed interval again, e.g. to undo close().
+   *
+   * @param interval a closed interval
+   * @throws IllegalStateException if the interval cannot be opened
+   */
+  void reopen(WorkInterval interval)
+  {
+    if(interval.isOpen()){
+      return;
+    }
+    if(open_interval != null ||
+       overlaps(interval.getStart(), WorkInterval.OPEN, interval)){
+      throw new IllegalStateException
+	("IntervalIndex: cannot reopen interval: " + interval);
+    }
+    accumulate(interval, -interval.getDuration(0));
+    interval.setEnd(WorkInterval.OPEN);
+    open_interval = interval;
+  }
+
+  /*
+   * Remove an interval.
+   *
+   * @param interval an interval to be removed
+   */
+  void remove(WorkInterval interval)
+  {
+    if(by_start.get(interval.getStart()) != interval){
+      return;
+    }
+    by_start.remove(interval.getStart());
+    if(interval.isOpen()){
+      open_interval = null;
+    } else {
+      accumulate(interval, -interval.getDuration(0));
+    }
+  }
+
+  /*
+   * Return the interval which has not been closed yet.
+   *
+   * @return a WorkInterval or null
+   */
+  WorkInterval getOpenInterval()
+  {
+    return open_interval;
+  }
+
+  /*
+   * Return the intervals starting on a date in order of start times.
+   *
+   * @param date a date
+   * @return a List<WorkInterval>
+   */
+  List<WorkInterval> getIntervalsOn(Date date)
+  {
+    long from = date.getTime();
+    long to = DateTimeUtils.getNextDay(date).getTime();
+    return new ArrayList<>(by_start.subMap(from, to).values());
+  }
+
+  /*
+   * Return the total time of intervals of a kind on a date.  An open
+   * interval is counted until a given time.
+   *
+   * @param date a date
+   * @param kind WorkInterval.KIND_WORK or WorkInterval.KIND_BREAK
+   * @param now the current time in msec.
+   * @return a long in msec.
+   */
+  long getTotalTime(Date date, int kind, long now)
+  {
+    long[] total = totals.get(date.getTime());
+    long time = (total != null) ? total[kind] : 0;
+    if(open_interval != null &&
+       open_interval.getKind() == kind &&
+       open_interval.getDate().equals(date)){
+      time += open_interval.getDuration(now);
+    }
+    return time;
+  }
+
+  private void accumulate(WorkInterval interval, long duration)
+  {
+    long day = interval.getDate().getTime();
+    long[] total = totals.get(day);
+    if(total == null){
+      total = new long[2];
+      totals.put(day, total);
+    }
+    total[interval.getKind()] += duration;
+  }
+}
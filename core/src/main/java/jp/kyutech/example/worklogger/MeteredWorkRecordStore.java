@@ -0,0 +1,383 @@
+// MeteredWorkRecordStore for measuring operations of a storage engine
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.sql.Date;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * MeteredWorkRecordStore class records the metrics of every operation
+ * of a storage engine wrapped by it.  An engine may add the number of
+ * rows it scans to the same operations, e.g.
+ *
+ *   Metrics.addRows(MeteredWorkRecordStore.OP_GET_RECENT_WORK_RECORDS, n);
+ *
+ * The queries of a user are measured as the same operations as those
+ * of all the users.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ * @see Metrics
+ */
+
+public class MeteredWorkRecordStore implements WorkRecordStore
+{
+  static final int	OP_ADD_WORK_RECORD =
+    Metrics.newOperation("store.addWorkRecord");
+  static final int	OP_ADD_WORK_RECORDS =
+    Metrics.newOperation("store.addWorkRecords");
+  static final int	OP_UPDATE_WORK_RECORD =
+    Metrics.newOperation("store.updateWorkRecord");
+  static final int	OP_DELETE_WORK_RECORD =
+    Metrics.newOperation("store.deleteWorkRecord");
+  static final int	OP_GET_LAST_WORK_RECORD =
+    Metrics.newOperation("store.getLastWorkRecord");
+  static final int	OP_GET_WORK_RECORD_BY_ID =
+    Metrics.newOperation("store.getWorkRecordById");
+  static final int	OP_GET_WORK_RECORD_AT =
+    Metrics.newOperation("store.getWorkRecordAt");
+  static final int	OP_GET_RECENT_WORK_RECORDS =
+    Metrics.newOperation("store.getRecentWorkRecords");
+  static final int	OP_GET_WORK_RECORDS_BEFORE =
+    Metrics.newOperation("store.getWorkRecordsBefore");
+  static final int	OP_GET_WORK_RECORDS_BETWEEN =
+    Metrics.newOperation("store.getWorkRecordsBetween");
+  static final int	OP_GET_LAST_ALIVE_WORK_RECORD =
+    Metrics.newOperation("store.getLastAliveWorkRecord");
+  static final int	OP_ADD_WORK_INTERVAL =
+    Metrics.newOperation("store.addWorkInterval");
+  static final int	OP_UPDATE_WORK_INTERVAL =
+    Metrics.newOperation("store.updateWorkInterval");
+  static final int	OP_DELETE_WORK_INTERVAL =
+    Metrics.newOperation("store.deleteWorkInterval");
+  static final int	OP_GET_WORK_INTERVALS_ON =
+    Metrics.newOperation("store.getWorkIntervalsOn");
+  static final int	OP_GET_LAST_WORK_INTERVAL =
+    Metrics.newOperation("store.getLastWorkInterval");
+  static final int	OP_REPLACE_ALL =
+    Metrics.newOperation("store.replaceAll");
+  static final int	OP_RUN_IN_TRANSACTION =
+    Metrics.newOperation("store.runInTransaction");
+  static final int	OP_GET_SUMMARY_REPORT =
+    Metrics.newOperation("store.getSummaryReport");
+
+  private final WorkRecordStore	store;
+
+  public MeteredWorkRecordStore(WorkRecordStore store)
+  {
+    this.store = store;
+  }
+
+  /*
+   * Return the storage engine wrapped by this store.
+   *
+   * @return a WorkRecordStore
+   */
+  public WorkRecordStore getStore()
+  {
+    return store;
+  }
+
+  @Override
+  public void addWorkRecord(WorkRecord record)
+  {
+    long start = Metrics.begin(OP_ADD_WORK_RECORD);
+    try {
+      store.addWorkRecord(record);
+    } finally {
+      Metrics.end(OP_ADD_WORK_RECORD, start);
+    }
+  }
+
+  @Override
+  public void addWorkRecords(Collection<WorkRecord> records)
+  {
+    long start = Metrics.begin(OP_ADD_WORK_RECORDS);
+    try {
+      store.addWorkRecords(records);
+    } finally {
+      Metrics.end(OP_ADD_WORK_RECORDS, start);
+    }
+  }
+
+  @Override
+  public void updateWorkRecord(WorkRecord record)
+  {
+    long start = Metrics.begin(OP_UPDATE_WORK_RECORD);
+    try {
+      store.updateWorkRecord(record);
+    } finally {
+      Metrics.end(OP_UPDATE_WORK_RECORD, start);
+    }
+  }
+
+  @Override
+  public void deleteWorkRecord(WorkRecord record)
+  {
+    long start = Metrics.begin(OP_DELETE_WORK_RECORD);
+    try {
+      store.deleteWorkRecord(record);
+    } finally {
+      Metrics.end(OP_DELETE_WORK_RECORD, start);
+    }
+  }
+
+  @Override
+  public WorkRecord getLastWorkRecord()
+  {
+    long start = Metrics.begin(OP_GET_LAST_WORK_RECORD);
+    try {
+      return store.getLastWorkRecord();
+    } finally {
+      Metrics.end(OP_GET_LAST_WORK_RECORD, start);
+    }
+  }
+
+  @Override
+  public WorkRecord getLastWorkRecord(String user)
+  {
+    long start = Metrics.begin(OP_GET_LAST_WORK_RECORD);
+    try {
+      return store.getLastWorkRecord(user);
+    } finally {
+      Metrics.end(OP_GET_LAST_WORK_RECORD, start);
+    }
+  }
+
+  @Override
+  public WorkRecord getWorkRecordById(long id)
+  {
+    long start = Metrics.begin(OP_GET_WORK_RECORD_BY_ID);
+    try {
+      return store.getWorkRecordById(id);
+    } finally {
+      Metrics.end(OP_GET_WORK_RECORD_BY_ID, start);
+    }
+  }
+
+  @Override
+  public WorkRecord getWorkRecordAt(int position)
+  {
+    long start = Metrics.begin(OP_GET_WORK_RECORD_AT);
+    try {
+      return store.getWorkRecordAt(position);
+    } finally {
+      Metrics.end(OP_GET_WORK_RECORD_AT, start);
+    }
+  }
+
+  @Override
+  public List<WorkRecord> getRecentWorkRecords(int count)
+  {
+    long start = Metrics.begin(OP_GET_RECENT_WORK_RECORDS);
+    try {
+      return store.getRecentWorkRecords(count);
+    } finally {
+      Metrics.end(OP_GET_RECENT_WORK_RECORDS, start);
+    }
+  }
+
+  @Override
+  public List<WorkRecord> getRecentWorkRecords(String user, int count)
+  {
+    long start = Metrics.begin(OP_GET_RECENT_WORK_RECORDS);
+    try {
+      return store.getRecentWorkRecords(user, count);
+    } finally {
+      Metrics.end(OP_GET_RECENT_WORK_RECORDS, start);
+    }
+  }
+
+  @Override
+  public List<WorkRecord> getWorkRecordsBefore(long beforeId, int count)
+  {
+    long start = Metrics.begin(OP_GET_WORK_RECORDS_BEFORE);
+    try {
+      return store.getWorkRecordsBefore(beforeId, count);
+    } finally {
+      Metrics.end(OP_GET_WORK_RECORDS_BEFORE, start);
+    }
+  }
+
+  @Override
+  public List<WorkRecord> getWorkRecordsBefore(String user,
+					       long beforeId,
+					       int count)
+  {
+    long start = Metrics.begin(OP_GET_WORK_RECORDS_BEFORE);
+    try {
+      return store.getWorkRecordsBefore(user, beforeId, count);
+    } finally {
+      Metrics.end(OP_GET_WORK_RECORDS_BEFORE, start);
+    }
+  }
+
+  @Override
+  public List<WorkRecord> getWorkRecordsBetween(Date fromDate, Date toDate)
+  {
+    long start = Metrics.begin(OP_GET_WORK_RECORDS_BETWEEN);
+    try {
+      return store.getWorkRecordsBetween(fromDate, toDate);
+    } finally {
+      Metrics.end(OP_GET_WORK_RECORDS_BETWEEN, start);
+    }
+  }
+
+  @Override
+  public List<WorkRecord> getWorkRecordsBetween(String user,
+						Date fromDate,
+						Date toDate)
+  {
+    long start = Metrics.begin(OP_GET_WORK_RECORDS_BETWEEN);
+    try {
+      return store.getWorkRecordsBetween(user, fromDate, toDate);
+    } finally {
+      Metrics.end(OP_GET_WORK_RECORDS_BETWEEN, start);
+    }
+  }
+
+  @Override
+  public WorkRecord getLastAliveWorkRecord()
+  {
+    long start = Metrics.begin(OP_GET_LAST_ALIVE_WORK_RECORD);
+    try {
+      return store.getLastAliveWorkRecord();
+    } finally {
+      Metrics.end(OP_GET_LAST_ALIVE_WORK_RECORD, start);
+    }
+  }
+
+  @Override
+  public WorkRecord getLastAliveWorkRecord(String user)
+  {
+    long start = Metrics.begin(OP_GET_LAST_ALIVE_WORK_RECORD);
+    try {
+      return store.getLastAliveWorkRecord(user);
+    } finally {
+      Metrics.end(OP_GET_LAST_ALIVE_WORK_RECORD, start);
+    }
+  }
+
+  @Override
+  public void addWorkInterval(WorkInterval interval)
+  {
+    long start = Metrics.begin(OP_ADD_WORK_INTERVAL);
+    try {
+      store.addWorkInterval(interval);
+    } finally {
+      Metrics.end(OP_ADD_WORK_INTERVAL, start);
+    }
+  }
+
+  @Override
+  public void updateWorkInterval(WorkInterval interval)
+  {
+    long start = Metrics.begin(OP_UPDATE_WORK_INTERVAL);
+    try {
+      store.updateWorkInterval(interval);
+    } finally {
+      Metrics.end(OP_UPDATE_WORK_INTERVAL, start);
+    }
+  }
+
+  @Override
+  public void deleteWorkInterval(WorkInterval interval)
+  {
+    long start = Metrics.begin(OP_DELETE_WORK_INTERVAL);
+    try {
+      store.deleteWorkInterval(interval);
+    } finally {
+      Metrics.end(OP_DELETE_WORK_INTERVAL, start);
+    }
+  }
+
+  @Override
+  public List<WorkInterval> getWorkIntervalsOn(Date date)
+  {
+    long start = Metrics.begin(OP_GET_WORK_INTERVALS_ON);
+    try {
+      return store.getWorkIntervalsOn(date);
+    } finally {
+      Metrics.end(OP_GET_WORK_INTERVALS_ON, start);
+    }
+  }
+
+  @Override
+  public List<WorkInterval> getWorkIntervalsOn(String user, Date date)
+  {
+    long start = Metrics.begin(OP_GET_WORK_INTERVALS_ON);
+    try {
+      return store.getWorkIntervalsOn(user, date);
+    } finally {
+      Metrics.end(OP_GET_WORK_INTERVALS_ON, start);
+    }
+  }
+
+  @Override
+  public WorkInterval getLastWorkInterval()
+  {
+    long start = Metrics.begin(OP_GET_LAST_WORK_INTERVAL);
+    try {
+      return store.getLastWorkInterval();
+    } finally {
+      Metrics.end(OP_GET_LAST_WORK_INTERVAL, start);
+    }
+  }
+
+  @Override
+  public WorkInterval getLastWorkInterval(String user)
+  {
+    long start = Metrics.begin(OP_GET_LAST_WORK_INTERVAL);
+    try {
+      return store.getLastWorkInterval(user);
+    } finally {
+      Metrics.end(OP_GET_LAST_WORK_INTERVAL, start);
+    }
+  }
+
+  @Override
+  public void replaceAll(Collection<WorkRecord> records,
+			 Collection<WorkInterval> intervals)
+  {
+    long start = Metrics.begin(OP_REPLACE_ALL);
+    try {
+      store.replaceAll(records, intervals);
+    } finally {
+      Metrics.end(OP_REPLACE_ALL, start);
+    }
+  }
+
+  @Override
+  public ReportEngine.Report getSummaryReport(ReportEngine engine,
+					      String user)
+  {
+    long start = Metrics.begin(OP_GET_SUMMARY_REPORT);
+    try {
+      return store.getSummaryReport(engine, user);
+    } finally {
+      Metrics.end(OP_GET_SUMMARY_REPORT, start);
+    }
+  }
+
+  @Override
+  public void runInTransaction(Runnable body)
+  {
+    long start = Metrics.begin(OP_RUN_IN_TRANSACTION);
+    try {
+      store.runInTransaction(body);
+    } finally {
+      Metrics.end(OP_RUN_IN_TRANSACTION, start);
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    store.close();
+  }
+}
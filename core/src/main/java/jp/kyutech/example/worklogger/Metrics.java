@@ -0,0 +1,315 @@
+// Metrics for counting operations and their latencies
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics class records the number of calls, a latency histogram and
+ * the number of rows scanned of each operation such as a query on a
+ * database.  An operation is measured as follows:
+ *
+ *   long start = Metrics.begin(OP_QUERY);
+ *   try {
+ *     ...
+ *     Metrics.addRows(OP_QUERY, nrows);
+ *   } finally {
+ *     Metrics.end(OP_QUERY, start);
+ *   }
+ *
+ * Metrics are disabled by default, and then begin() costs only a read
+ * of a volatile flag and nothing is allocated.  When enabled, values
+ * are added to atomic counters without any lock.  A histogram has a
+ * bucket for each power of two microseconds.
+ *
+ * Operations in flight on one watched thread, e.g. the main thread of
+ * an application, are also kept so that a watchdog on another thread
+ * can tell what the watched thread is doing.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class Metrics
+{
+  private static final int	MAX_OPERATIONS = 64;
+  private static final int	NBUCKETS = 32;	// Up to 2^31 usec.
+  // Counters of an operation
+  private static final int	COUNT = 0;
+  private static final int	TOTAL_NANOS = 1;
+  private static final int	MAX_NANOS = 2;
+  private static final int	ROWS = 3;
+  private static final int	NCOUNTERS = 4;
+  private static final int	MAX_DEPTH = 16;	// Of nested operations
+
+  private static volatile boolean enabled_p = false;
+  private static final String[]	names = new String[MAX_OPERATIONS];
+  private static int		noperations = 0;
+  private static final AtomicLongArray counters =
+    new AtomicLongArray(MAX_OPERATIONS * NCOUNTERS);
+  private static final AtomicLongArray buckets =
+    new AtomicLongArray(MAX_OPERATIONS * NBUCKETS);
+  // Operations in flight on a watched thread, written only by the thread
+  private static volatile Thread watched_thread = null;
+  private static final AtomicIntegerArray in_flight =
+    new AtomicIntegerArray(MAX_DEPTH);
+  private static volatile int	depth = 0;
+
+  /*
+   * Define a new operation.  This is called to initialize a constant
+   * of a class.
+   *
+   * @param name the name of an operation, e.g. "db.addWorkRecord"
+   * @return the ID of the operation
+   */
+  public static synchronized int newOperation(String name)
+  {
+    for(int op = 0; op < noperations; op++){
+      if(names[op].equals(name)){
+	return op;
+      }
+    }
+    if(noperations >= MAX_OPERATIONS){
+      throw new IllegalStateException("Metrics: too many operations: " + name);
+    }
+    names[noperations] = name;
+    return noperations++;
+  }
+
+  public static void setEnabled(boolean enabled_p)
+  {
+    Metrics.enabled_p = enabled_p;
+  }
+
+  public static boolean isEnabled()
+  {
+    return enabled_p;
+  }
+
+  /*
+   * Begin an operation.
+   *
+   * @param op the ID of an operation
+   * @return a start time to be passed to end(), or 0 if disabled
+   */
+  public static long begin(int op)
+  {
+    if(!enabled_p){
+      return 0;
+    }
+    if(Thread.currentThread() == watched_thread){
+      int d = depth;
+      if(d < MAX_DEPTH){
+	in_flight.set(d, op);
+      }
+      depth = d + 1;
+    }
+    return System.nanoTime() | 1;	// Never 0
+  }
+
+  /*
+   * End an operation begun by begin().
+   *
+   * @param op the ID of an operation
+   * @param start the value returned by begin()
+   */
+  public static void end(int op, long start)
+  {
+    if(start == 0){
+      return;
+    }
+    if(Thread.currentThread() == watched_thread && depth > 0){
+      depth = depth - 1;
+    }
+    long nanos = Math.max(0, System.nanoTime() - start);
+    int base = op * NCOUNTERS;
+    counters.incrementAndGet(base + COUNT);
+    counters.addAndGet(base + TOTAL_NANOS, nanos);
+    long max;
+    while((max = counters.get(base + MAX_NANOS)) < nanos){
+      if(counters.compareAndSet(base + MAX_NANOS, max, nanos)){
+	break;
+      }
+    }
+    buckets.incrementAndGet(op * NBUCKETS + getBucket(nanos));
+  }
+
+  /*
+   * Watch operations in flight on a thread.  Only one thread is
+   * watched at a time.
+   *
+   * @param thread a thread to be watched, or null to stop watching
+   */
+  public static void setWatchedThread(Thread thread)
+  {
+    depth = 0;
+    watched_thread = thread;
+  }
+
+  /*
+   * Return the operations in flight on the watched thread from the
+   * outermost one, e.g. "manager.fireWorkSessionEvent >
+   * store.getLastWorkRecord".  The result may be slightly stale since
+   * the watched thread is not stopped.
+   *
+   * @return a String, or null if no operation is in flight
+   */
+  public static String getWatchedOperations()
+  {
+    int d = Math.min(depth, MAX_DEPTH);
+    if(d == 0){
+      return null;
+    }
+    StringBuilder buffer = new StringBuilder();
+    for(int i = 0; i < d; i++){
+      if(i > 0){
+	buffer.append(" > ");
+      }
+      buffer.append(getName(in_flight.get(i)));
+    }
+    return buffer.toString();
+  }
+
+  /*
+   * Return the name of an operation.
+   *
+   * @param op the ID of an operation
+   * @return a String
+   */
+  public static synchronized String getName(int op)
+  {
+    return names[op];
+  }
+
+  /*
+   * Add the number of rows scanned by an operation.
+   *
+   * @param op the ID of an operation
+   * @param nrows the number of rows
+   */
+  public static void addRows(int op, long nrows)
+  {
+    if(enabled_p){
+      counters.addAndGet(op * NCOUNTERS + ROWS, nrows);
+    }
+  }
+
+  /*
+   * Return the number of calls of an operation.
+   *
+   * @param op the ID of an operation
+   * @return a long
+   */
+  public static long getCount(int op)
+  {
+    return counters.get(op * NCOUNTERS + COUNT);
+  }
+
+  /*
+   * Return the number of rows scanned by an operation.
+   *
+   * @param op the ID of an operation
+   * @return a long
+   */
+  public static long getRows(int op)
+  {
+    return counters.get(op * NCOUNTERS + ROWS);
+  }
+
+  /*
+   * Return an upper bound of a percentile of the latencies of an
+   * operation.
+   *
+   * @param op the ID of an operation
+   * @param percentile a percentile between 0 and 100
+   * @return a long in usec., or 0 if never called
+   */
+  public static long getPercentile(int op, double percentile)
+  {
+    long count = 0;
+    long[] histogram = new long[NBUCKETS];
+    for(int i = 0; i < NBUCKETS; i++){
+      histogram[i] = buckets.get(op * NBUCKETS + i);
+      count += histogram[i];
+    }
+    long rank = (long)Math.ceil(count * percentile / 100.0);
+    long sum = 0;
+    for(int i = 0; i < NBUCKETS; i++){
+      sum += histogram[i];
+      if(sum >= rank && sum > 0){
+	return 1L << i;
+      }
+    }
+    return 0;
+  }
+
+  public static void reset()
+  {
+    for(int i = 0; i < counters.length(); i++){
+      counters.set(i, 0);
+    }
+    for(int i = 0; i < buckets.length(); i++){
+      buckets.set(i, 0);
+    }
+  }
+
+  /*
+   * Write the metrics of operations called so far as a text table.
+   * Latencies are in microseconds, and percentiles are upper bounds
+   * of histogram buckets.
+   *
+   * @param writer a writer
+   */
+  public static void dump(PrintWriter writer)
+  {
+    writer.printf("%-32s %8s %9s %8s %8s %8s %9s %9s\n",
+		  "Operation", "Count", "Mean", "P50", "P90", "P99",
+		  "Max", "Rows/op");
+    int n;
+    synchronized(Metrics.class){
+      n = noperations;
+    }
+    for(int op = 0; op < n; op++){
+      int base = op * NCOUNTERS;
+      long count = counters.get(base + COUNT);
+      if(count == 0){
+	continue;
+      }
+      writer.printf("%-32s %8d %9.1f %8d %8d %8d %9.1f %9.1f\n",
+		    names[op], count,
+		    counters.get(base + TOTAL_NANOS) / 1000.0 / count,
+		    getPercentile(op, 50),
+		    getPercentile(op, 90),
+		    getPercentile(op, 99),
+		    counters.get(base + MAX_NANOS) / 1000.0,
+		    (double)counters.get(base + ROWS) / count);
+    }
+    writer.flush();
+  }
+
+  /*
+   * Return the text written by dump().
+   *
+   * @return a String
+   */
+  public static String dump()
+  {
+    StringWriter buffer = new StringWriter();
+    dump(new PrintWriter(buffer));
+    return buffer.toString();
+  }
+
+  private static int getBucket(long nanos)
+  {
+    long usec = nanos / 1000;
+    int bucket = 64 - Long.numberOfLeadingZeros(usec); // ceil(log2(usec+1))
+    return Math.min(bucket, NBUCKETS - 1);
+  }
+}
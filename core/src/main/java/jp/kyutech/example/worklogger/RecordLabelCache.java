@@ -0,0 +1,110 @@
+// RecordLabelCache for caching labels of work records shown in a list
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * RecordLabelCache class keeps the labels of work records keyed by
+ * their IDs.  A label is built again only when the modification
+ * version of its record is changed, so refreshing a list of unchanged
+ * records does no string formatting at all.  The least recently used
+ * labels are discarded beyond a capacity.
+ *
+ * NOTE: This class is not thread-safe.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+class RecordLabelCache
+{
+  private static final String	NO_TIME = "        ";
+
+  private static class Label
+  {
+    int		version = 0;
+    String	label = null;
+  }
+
+  private final LinkedHashMap<Long,Label> entries;
+  private final StringBuilder	builder = new StringBuilder(128);
+  private int			nbuilds = 0;
+
+  RecordLabelCache(final int capacity)
+  {
+    entries = new LinkedHashMap<Long,Label>(capacity, 0.75f, true)
+      {
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<Long,Label> eldest)
+	{
+	  return size() > capacity;
+	}
+      };
+  }
+
+  /*
+   * Return a label of a work record, building it if the record is
+   * new or updated since the label was cached.
+   *
+   * @param record a work record
+   * @return a String
+   */
+  String getLabel(WorkRecord record)
+  {
+    Label entry = entries.get(record.getId());
+    if(entry != null && entry.version == record.getVersion()){
+      return entry.label;
+    }
+    if(entry == null){
+      entry = new Label();
+      entries.put(record.getId(), entry);
+    }
+    entry.version = record.getVersion();
+    entry.label = buildLabel(record);
+    return entry.label;
+  }
+
+  /*
+   * Forget the label of a work record.
+   *
+   * @param id the ID of a work record
+   */
+  void invalidate(long id)
+  {
+    entries.remove(id);
+  }
+
+  /*
+   * Return the number of labels built so far.
+   *
+   * @return an int
+   */
+  int getBuildCount()
+  {
+    return nbuilds;
+  }
+
+  private String buildLabel(WorkRecord record)
+  {
+    nbuilds++;
+    builder.setLength(0);
+    builder.append(record.getDateAsString());
+    builder.append("\n 休憩開始時間：");
+    builder.append(record.getCheckinTimeAsString(NO_TIME));
+    if(record.getCheckoutTime() != null){
+      builder.append("\n 休憩終了時間：");
+      builder.append(record.getCheckoutTimeAsString());
+      if(record.getCheckinTime() != null){
+	builder.append("\n 休憩時間：");
+	record.appendProgressTime(builder);
+      }
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,493 @@
+// ReportEngine for aggregating work records into reports
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ReportEngine class aggregates work records between two dates into
+ * periods of a day, a week or a month: the work time, the overtime
+ * over REGULAR_MILLIS a day, the break time, and the number of days
+ * worked of each period.  Records are aggregated in a single pass into
+ * arrays of primitive totals indexed by period, looked up by the epoch
+ * day of a record in a table built once for the dates of a report, so
+ * that no Calendar nor object is created per record.
+ *
+ * The break time of a day is the statutory one deducted from the time
+ * between checkin and checkout: BREAK_LONG_MILLIS after
+ * BREAK_LONG_AFTER_MILLIS, or BREAK_SHORT_MILLIS after
+ * BREAK_SHORT_AFTER_MILLIS.  A record checked out before its checkin
+ * is taken as an overnight shift, and a record without a checkout is
+ * counted as an incomplete day without time.
+ *
+ * Lists of more than PARALLEL_THRESHOLD records, e.g. over years or
+ * over many users, are split and aggregated in parallel by fork/join
+ * and the partial totals are summed up.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class ReportEngine
+{
+  public static final int	PERIOD_DAY = 0;
+  public static final int	PERIOD_WEEK = 1;
+  public static final int	PERIOD_MONTH = 2;
+  public static final long	REGULAR_MILLIS = 8 * 60 * 60 * 1000L;
+  public static final long	BREAK_SHORT_AFTER_MILLIS = 6 * 60 * 60 * 1000L;
+  public static final long	BREAK_SHORT_MILLIS = 45 * 60 * 1000L;
+  public static final long	BREAK_LONG_AFTER_MILLIS = 8 * 60 * 60 * 1000L;
+  public static final long	BREAK_LONG_MILLIS = 60 * 60 * 1000L;
+  public static final int	PARALLEL_THRESHOLD = 4096;
+  private static final int	OP_AGGREGATE =
+    Metrics.newOperation("report.aggregate");
+
+  private final Date		from_date;
+  private final Date		to_date;
+  private final int		period;		// PERIOD_*
+  private final long		first_day;	// Epoch day of the first date
+  private final int[]		buckets;	// Period of each day
+  private final Date[]		starts;		// First date of each period
+
+  /*
+   * Report class holds the totals of the periods of a report.  All
+   * times are in msec.
+   */
+  public static class Report
+  {
+    private final Date[]	starts;
+    private final long[]	work;
+    private final long[]	overtime;
+    private final long[]	breaks;
+    private final int[]		ndays;
+    private final int[]		nincomplete;
+
+    Report(Date[] starts)
+    {
+      int nperiods = starts.length;
+      this.starts = starts;
+      this.work = new long[nperiods];
+      this.overtime = new long[nperiods];
+      this.breaks = new long[nperiods];
+      this.ndays = new int[nperiods];
+      this.nincomplete = new int[nperiods];
+    }
+
+    /*
+     * Add the time worked in a day of a period.
+     *
+     * @param index the index of a period
+     * @param gross the time between checkin and checkout
+     */
+    void add(int index, long gross)
+    {
+      long rest = ReportEngine.getBreakMillis(gross);
+      long net = gross - rest;
+      work[index] += net;
+      breaks[index] += rest;
+      if(net > REGULAR_MILLIS){
+	overtime[index] += net - REGULAR_MILLIS;
+      }
+      ndays[index]++;
+    }
+
+    void addIncomplete(int index)
+    {
+      nincomplete[index]++;
+    }
+
+    /*
+     * Add the totals of days already aggregated, e.g. by a summary
+     * table of a database.
+     */
+    void addTotals(int index, long work, long overtime, long breaks,
+		   int ndays, int nincomplete)
+    {
+      this.work[index] += work;
+      this.overtime[index] += overtime;
+      this.breaks[index] += breaks;
+      this.ndays[index] += ndays;
+      this.nincomplete[index] += nincomplete;
+    }
+
+    /*
+     * Add the totals of another report of the same periods.
+     */
+    void merge(Report other)
+    {
+      for(int i = 0; i < starts.length; i++){
+	work[i] += other.work[i];
+	overtime[i] += other.overtime[i];
+	breaks[i] += other.breaks[i];
+	ndays[i] += other.ndays[i];
+	nincomplete[i] += other.nincomplete[i];
+      }
+    }
+
+    /*
+     * Return the number of periods.
+     *
+     * @return an int
+     */
+    public int size()
+    {
+      return starts.length;
+    }
+
+    /*
+     * Return the first date of a period.  The first period starts at
+     * the first date of a report even if it is in the middle of a week
+     * or a month.
+     *
+     * @param index the index of a period
+     * @return a java.sql.Date
+     */
+    public Date getStartDate(int index)
+    {
+      return starts[index];
+    }
+
+    public long getWorkMillis(int index)
+    {
+      return work[index];
+    }
+
+    public long getOvertimeMillis(int index)
+    {
+      return overtime[index];
+    }
+
+    public long getBreakMillis(int index)
+    {
+      return breaks[index];
+    }
+
+    public int getDays(int index)
+    {
+      return ndays[index];
+    }
+
+    public int getIncompleteDays(int index)
+    {
+      return nincomplete[index];
+    }
+
+    /*
+     * Return the average work time of the days worked in a period.
+     *
+     * @param index the index of a period
+     * @return a long, or 0 if no day is worked
+     */
+    public long getAverageMillis(int index)
+    {
+      return (ndays[index] == 0) ? 0 : work[index] / ndays[index];
+    }
+
+    public long getTotalWorkMillis()
+    {
+      return sum(work);
+    }
+
+    public long getTotalOvertimeMillis()
+    {
+      return sum(overtime);
+    }
+
+    public long getTotalBreakMillis()
+    {
+      return sum(breaks);
+    }
+
+    public int getTotalDays()
+    {
+      int total = 0;
+      for(int n : ndays){
+	total += n;
+      }
+      return total;
+    }
+
+    public long getTotalAverageMillis()
+    {
+      int total_days = getTotalDays();
+      return (total_days == 0) ? 0 : getTotalWorkMillis() / total_days;
+    }
+
+    private static long sum(long[] values)
+    {
+      long total = 0;
+      for(long value : values){
+	total += value;
+      }
+      return total;
+    }
+  }
+
+  /*
+   * Create an engine of reports between two dates inclusive.
+   *
+   * @param fromDate the first date
+   * @param toDate the last date
+   * @param period one of PERIOD_*
+   */
+  public ReportEngine(Date fromDate, Date toDate, int period)
+  {
+    this.from_date = fromDate;
+    this.to_date = toDate;
+    this.period = period;
+    this.first_day = DateTimeUtils.toEpochDay(fromDate);
+    int ndays = (int)Math.max(0, DateTimeUtils.toEpochDay(toDate) - first_day + 1);
+    this.buckets = new int[ndays];
+
+    // Walk the dates once so that a record is bucketed by an index.
+    List<Date> period_starts = new ArrayList<>();
+    Calendar cal = new GregorianCalendar();
+    cal.setTimeInMillis(fromDate.getTime());
+    for(int i = 0; i < ndays; i++){
+      if(i == 0 || isPeriodStart(cal)){
+	period_starts.add(new Date(cal.getTimeInMillis()));
+      }
+      buckets[i] = period_starts.size() - 1;
+      cal.add(Calendar.DATE, 1);
+    }
+    this.starts = period_starts.toArray(new Date[period_starts.size()]);
+  }
+
+  public Date getFromDate()
+  {
+    return from_date;
+  }
+
+  public Date getToDate()
+  {
+    return to_date;
+  }
+
+  public int getPeriod()
+  {
+    return period;
+  }
+
+  /*
+   * Return true if the dates of this engine are whole months, so that
+   * totals of months may be added instead of totals of days.
+   *
+   * @return a boolean
+   */
+  public boolean isWholeMonths()
+  {
+    if(buckets.length == 0){
+      return false;
+    }
+    Calendar cal = new GregorianCalendar();
+    cal.setTimeInMillis(from_date.getTime());
+    if(cal.get(Calendar.DAY_OF_MONTH) != 1){
+      return false;
+    }
+    cal.setTimeInMillis(to_date.getTime());
+    cal.add(Calendar.DATE, 1);
+    return cal.get(Calendar.DAY_OF_MONTH) == 1;
+  }
+
+  /*
+   * Return a new report of the periods of this engine without totals.
+   *
+   * @return a Report
+   */
+  public Report newReport()
+  {
+    return new Report(starts);
+  }
+
+  /*
+   * Add the totals of a day, or of a month starting at a date, to the
+   * period of the date in a report.  Dates out of this engine are
+   * ignored.
+   *
+   * @param report a report of this engine
+   * @param date the date of totals
+   * @return a boolean true if added
+   */
+  boolean addTotals(Report report, Date date, long work, long overtime,
+		    long breaks, int ndays, int nincomplete)
+  {
+    long day = DateTimeUtils.toEpochDay(date) - first_day;
+    if(day < 0 || day >= buckets.length){
+      return false;
+    }
+    report.addTotals(buckets[(int)day], work, overtime, breaks,
+		     ndays, nincomplete);
+    return true;
+  }
+
+  private boolean isPeriodStart(Calendar cal)
+  {
+    switch(period){
+    case PERIOD_WEEK:
+      return cal.get(Calendar.DAY_OF_WEEK) == cal.getFirstDayOfWeek();
+    case PERIOD_MONTH:
+      return cal.get(Calendar.DAY_OF_MONTH) == 1;
+    default:
+      return true;
+    }
+  }
+
+  /*
+   * Return the statutory break time deducted from a time worked.
+   *
+   * @param gross the time between checkin and checkout in msec.
+   * @return a long in msec.
+   */
+  public static long getBreakMillis(long gross)
+  {
+    if(gross > BREAK_LONG_AFTER_MILLIS){
+      return BREAK_LONG_MILLIS;
+    }
+    if(gross > BREAK_SHORT_AFTER_MILLIS){
+      return BREAK_SHORT_MILLIS;
+    }
+    return 0;
+  }
+
+  /*
+   * Aggregate work records into a report.  Records out of the dates
+   * of this engine are ignored.
+   *
+   * @param records work records, e.g. by getWorkRecordsBetween()
+   * @return a Report
+   */
+  public Report aggregate(List<WorkRecord> records)
+  {
+    Map<String,Report> reports = run(records, false);
+    Report report = reports.get(null);
+    return (report != null) ? report : newReport();
+  }
+
+  /*
+   * Aggregate work records into a report of each user.
+   *
+   * @param records work records of any users
+   * @return a Map from users to Reports
+   */
+  public Map<String,Report> aggregateByUser(List<WorkRecord> records)
+  {
+    return run(records, true);
+  }
+
+  private Map<String,Report> run(List<WorkRecord> records, boolean by_user_p)
+  {
+    long start = Metrics.begin(OP_AGGREGATE);
+    try {
+      if(!(records instanceof RandomAccess)){
+	records = new ArrayList<>(records);
+      }
+      Metrics.addRows(OP_AGGREGATE, records.size());
+      AggregateTask task =
+	new AggregateTask(records, 0, records.size(), by_user_p);
+      if(records.size() <= PARALLEL_THRESHOLD){
+	return task.compute();
+      }
+      return ForkJoinPool.commonPool().invoke(task);
+    } finally {
+      Metrics.end(OP_AGGREGATE, start);
+    }
+  }
+
+  /*
+   * A task aggregating a range of records, split in halves while the
+   * range is larger than PARALLEL_THRESHOLD.  Reports are keyed by
+   * users, or by null for all users.
+   */
+  private class AggregateTask extends RecursiveTask<Map<String,Report>>
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final List<WorkRecord>	records;
+    private final int			from;
+    private final int			to;
+    private final boolean		by_user_p;
+
+    AggregateTask(List<WorkRecord> records, int from, int to,
+		  boolean by_user_p)
+    {
+      this.records = records;
+      this.from = from;
+      this.to = to;
+      this.by_user_p = by_user_p;
+    }
+
+    @Override
+    protected Map<String,Report> compute()
+    {
+      if(to - from > PARALLEL_THRESHOLD){
+	int middle = (from + to) >>> 1;
+	AggregateTask left =
+	  new AggregateTask(records, from, middle, by_user_p);
+	AggregateTask right =
+	  new AggregateTask(records, middle, to, by_user_p);
+	left.fork();
+	Map<String,Report> reports = right.compute();
+	for(Map.Entry<String,Report> entry : left.join().entrySet()){
+	  Report report = reports.get(entry.getKey());
+	  if(report == null){
+	    reports.put(entry.getKey(), entry.getValue());
+	  } else {
+	    report.merge(entry.getValue());
+	  }
+	}
+	return reports;
+      }
+
+      Map<String,Report> reports = new HashMap<>();
+      Report report = null;
+      String user = null;
+      for(int i = from; i < to; i++){
+	WorkRecord record = records.get(i);
+	long day = DateTimeUtils.toEpochDay(record.getDate()) - first_day;
+	if(day < 0 || day >= buckets.length){
+	  continue;
+	}
+	// Records of a user are often adjacent, e.g. in a partition.
+	if(report == null || (by_user_p && !Objects.equals(record.getUser(), user))){
+	  user = by_user_p ? record.getUser() : null;
+	  report = reports.get(user);
+	  if(report == null){
+	    report = new Report(starts);
+	    reports.put(user, report);
+	  }
+	}
+	Time checkin = record.getCheckinTime();
+	Time checkout = record.getCheckoutTime();
+	int index = buckets[(int)day];
+	if(checkin == null){
+	  continue;			// Not worked
+	}
+	if(checkout == null){
+	  report.addIncomplete(index);
+	  continue;
+	}
+	long gross = checkout.getTime() - checkin.getTime();
+	if(gross < 0){
+	  gross += DateTimeUtils.MSEC_PER_DAY; // Overnight
+	}
+	report.add(index, gross);
+      }
+      return reports;
+    }
+  }
+}
@@ -0,0 +1,231 @@
+// ScanScheduler for duty-cycling scans of beacons
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ScanScheduler class decides how often beacons are scanned so that a
+ * check-in or check-out is detected soon without scanning all day.  A
+ * scan runs for a window of WINDOW_MILLIS once in an interval which
+ * depends on a context:
+ *
+ *   FAST_INTERVAL_MILLIS      for SCREEN_ON_MILLIS after the screen is
+ *                             turned on, when a user is likely to look
+ *                             at the state.
+ *   EXPECTED_INTERVAL_MILLIS  within EXPECTED_MARGIN_MILLIS of the
+ *                             usual checkin and checkout times learned
+ *                             from the history of work records.
+ *   NORMAL_INTERVAL_MILLIS    otherwise.
+ *
+ * A device without motion for STATIONARY_MILLIS cannot be entering nor
+ * leaving a workplace, so the normal interval is doubled for each
+ * cycle while stationary up to MAX_INTERVAL_MILLIS.  Detections are
+ * batched by a scanner up to getReportDelayMillis() before they are
+ * delivered to an application.
+ *
+ * A beacon cannot be observed between scans, so the time to take it
+ * as lost depends on the mode as well.  getLostMillis() returns the
+ * longer of the current and the last intervals plus LOST_MARGIN_MILLIS
+ * for a delayed delivery, so that a beacon is lost within a minute or
+ * so of a departure while the screen is on, but not while scans are
+ * backed off.
+ *
+ * All times are in msec. since the epoch so that the scheduler runs on
+ * a simulated clock as well.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class ScanScheduler
+{
+  public static final long	WINDOW_MILLIS = 2 * 1000;
+  public static final long	FAST_INTERVAL_MILLIS = 5 * 1000;
+  public static final long	EXPECTED_INTERVAL_MILLIS = 10 * 1000;
+  public static final long	NORMAL_INTERVAL_MILLIS = 60 * 1000;
+  public static final long	MAX_INTERVAL_MILLIS = 10 * 60 * 1000;
+  public static final long	SCREEN_ON_MILLIS = 60 * 1000;
+  public static final long	STATIONARY_MILLIS = 5 * 60 * 1000;
+  public static final long	EXPECTED_MARGIN_MILLIS = 30 * 60 * 1000;
+  public static final long	MAX_REPORT_DELAY_MILLIS = 30 * 1000;
+  public static final long	LOST_MARGIN_MILLIS =
+    BeaconPresenceDetector.LOST_MILLIS;
+  public static final int	HISTORY_SIZE = 20;	// Records to learn
+  private static final int	MIN_HISTORY_SIZE = 3;
+  private static final int	MAX_BACKOFF = 4;	// 2^4 * 60 sec.
+
+  private int			expected_checkin = -1;	// Seconds of a day
+  private int			expected_checkout = -1;
+  private long			screen_on_time = Long.MIN_VALUE / 2;
+  private long			motion_time = Long.MIN_VALUE / 2;
+  private int			nstationary_cycles = 0;
+  private long			last_interval = NORMAL_INTERVAL_MILLIS;
+
+  /*
+   * Learn the usual checkin and checkout times from the medians of
+   * those of recent work records.
+   *
+   * @param records work records, e.g. of the last month
+   */
+  public synchronized void learn(List<WorkRecord> records)
+  {
+    List<Integer> checkins = new ArrayList<>();
+    List<Integer> checkouts = new ArrayList<>();
+    for(WorkRecord record : records){
+      if(checkins.size() >= HISTORY_SIZE){
+	break;
+      }
+      Time checkin = record.getCheckinTime();
+      Time checkout = record.getCheckoutTime();
+      if(checkin != null){
+	checkins.add(DateTimeUtils.getSecondsOfDay(checkin));
+      }
+      if(checkout != null){
+	checkouts.add(DateTimeUtils.getSecondsOfDay(checkout));
+      }
+    }
+    expected_checkin = median(checkins);
+    expected_checkout = median(checkouts);
+  }
+
+  private static int median(List<Integer> values)
+  {
+    if(values.size() < MIN_HISTORY_SIZE){
+      return -1;
+    }
+    Collections.sort(values);
+    return values.get(values.size() / 2);
+  }
+
+  /*
+   * Return the usual checkin time learned.
+   *
+   * @return seconds of a day, or -1 if not learned
+   */
+  public synchronized int getExpectedCheckin()
+  {
+    return expected_checkin;
+  }
+
+  public synchronized int getExpectedCheckout()
+  {
+    return expected_checkout;
+  }
+
+  /*
+   * Called when the screen is turned on.
+   *
+   * @param time the current time
+   */
+  public synchronized void onScreenOn(long time)
+  {
+    screen_on_time = time;
+    nstationary_cycles = 0;
+  }
+
+  /*
+   * Called when a device is moved.
+   *
+   * @param time the current time
+   */
+  public synchronized void onMotion(long time)
+  {
+    motion_time = time;
+    nstationary_cycles = 0;
+  }
+
+  /*
+   * Called at the end of a scan cycle to back off while stationary.
+   *
+   * @param time the current time
+   */
+  public synchronized void onCycle(long time)
+  {
+    if(isStationary(time) && nstationary_cycles < MAX_BACKOFF){
+      nstationary_cycles++;
+    }
+    last_interval = getIntervalMillis(time);
+  }
+
+  public synchronized boolean isStationary(long time)
+  {
+    return time - motion_time >= STATIONARY_MILLIS;
+  }
+
+  public long getWindowMillis()
+  {
+    return WINDOW_MILLIS;
+  }
+
+  /*
+   * Return the interval between the starts of scans at a time.
+   *
+   * @param time the current time
+   * @return a long in msec.
+   */
+  public synchronized long getIntervalMillis(long time)
+  {
+    if(time - screen_on_time < SCREEN_ON_MILLIS){
+      return FAST_INTERVAL_MILLIS;
+    }
+    if(isExpected(time, expected_checkin) ||
+       isExpected(time, expected_checkout)){
+      return EXPECTED_INTERVAL_MILLIS;
+    }
+    if(isStationary(time)){
+      return Math.min(NORMAL_INTERVAL_MILLIS << nstationary_cycles,
+		      MAX_INTERVAL_MILLIS);
+    }
+    return NORMAL_INTERVAL_MILLIS;
+  }
+
+  /*
+   * Return the time without advertisements to take a beacon as lost at
+   * a time.  The last interval is included since a beacon is not
+   * observed again until the next scan even if the mode is changed,
+   * e.g. by turning the screen on after scans are backed off.
+   *
+   * @param time the current time
+   * @return a long in msec.
+   */
+  public synchronized long getLostMillis(long time)
+  {
+    return Math.max(getIntervalMillis(time), last_interval) +
+      LOST_MARGIN_MILLIS;
+  }
+
+  /*
+   * Return how long detections may be held by a scanner before they
+   * are delivered.  Detections are delivered at once while the screen
+   * is on.
+   *
+   * @param time the current time
+   * @return a long in msec.
+   */
+  public synchronized long getReportDelayMillis(long time)
+  {
+    long interval = getIntervalMillis(time);
+    if(interval <= FAST_INTERVAL_MILLIS){
+      return 0;
+    }
+    return Math.min(interval / 2, MAX_REPORT_DELAY_MILLIS);
+  }
+
+  private static boolean isExpected(long time, int expected)
+  {
+    if(expected < 0){
+      return false;
+    }
+    long diff = Math.abs(DateTimeUtils.getSecondsOfDay(time) - expected) * 1000L;
+    diff = Math.min(diff, DateTimeUtils.MSEC_PER_DAY - diff); // Over midnight
+    return diff <= EXPECTED_MARGIN_MILLIS;
+  }
+}
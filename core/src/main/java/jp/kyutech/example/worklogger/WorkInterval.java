@@ -0,0 +1,164 @@
+// WorkInterval for representing an interval of work or a break
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.sql.Date;
+
+/**
+ * WorkInterval class representing an interval of work or a break in a
+ * day.  A day may have any number of intervals.  The start and end of
+ * an interval are kept in milliseconds so that an interval may run
+ * over midnight, and the end is OPEN until the interval is closed.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class WorkInterval
+{
+  public static final int	KIND_WORK = 0;
+  public static final int	KIND_BREAK = 1;
+  public static final long	OPEN = 0;
+
+  private long		id = 0;		 // Interval ID
+  private String	user = null;
+  private Date		date = null;	 // Date when an interval starts
+  private int		kind = KIND_WORK;
+  private long		start = 0;	 // Start time in msec.
+  private long		end = OPEN;	 // End time in msec.
+
+  public WorkInterval()
+  {
+    this.user = "worker";
+  }
+
+  /*
+   * Create an open interval starting at a given time.
+   *
+   * @param kind KIND_WORK or KIND_BREAK
+   * @param start the start time in msec.
+   */
+  public WorkInterval(int kind, long start)
+  {
+    this();
+    this.date = DateTimeUtils.getDateOf(start);
+    this.kind = kind;
+    this.start = start;
+  }
+
+  /*
+   * Create a copy of a work interval.
+   *
+   * @param other the interval to be copied
+   */
+  public WorkInterval(WorkInterval other)
+  {
+    this.id = other.id;
+    this.user = other.user;
+    this.date = other.date;
+    this.kind = other.kind;
+    this.start = other.start;
+    this.end = other.end;
+  }
+
+  public void setId(long id)
+  {
+    this.id = id;
+  }
+
+  public long getId()
+  {
+    return id;
+  }
+
+  public void setUser(String user)
+  {
+    this.user = user;
+  }
+
+  public String getUser()
+  {
+    return user;
+  }
+
+  public void setDate(Date date)
+  {
+    this.date = date;
+  }
+
+  public Date getDate()
+  {
+    return date;
+  }
+
+  public void setKind(int kind)
+  {
+    this.kind = kind;
+  }
+
+  public int getKind()
+  {
+    return kind;
+  }
+
+  public boolean isBreak()
+  {
+    return kind == KIND_BREAK;
+  }
+
+  public void setStart(long start)
+  {
+    this.start = start;
+  }
+
+  public long getStart()
+  {
+    return start;
+  }
+
+  public void setEnd(long end)
+  {
+    this.end = end;
+  }
+
+  public long getEnd()
+  {
+    return end;
+  }
+
+  /*
+   * Return true if this interval has not been closed yet.
+   *
+   * @return a boolean
+   */
+  public boolean isOpen()
+  {
+    return end == OPEN;
+  }
+
+  /*
+   * Return the length of this interval in msec.  The length of an
+   * open interval is measured until a given time.
+   *
+   * @param now the current time in msec.
+   * @return a long
+   */
+  public long getDuration(long now)
+  {
+    return (isOpen() ? now : end) - start;
+  }
+
+  public String toString()
+  {
+    return String.format("[%d] %s %s %d=>%d (%s)",
+			 id,
+			 (date==null)?"":date.toString(),
+			 isBreak()?"break":"work",
+			 start, end,
+			 user);
+  }
+}
@@ -21,12 +21,15 @@ import java.util.GregorianCalendar;
 
 public class WorkRecord
 {
+  // The user of records of a personal device.
+  public static final String	DEFAULT_USER = "worker";
   private static final SimpleDateFormat time_format = new SimpleDateFormat("HH:mm");
   private long		id = 0;		 // Record ID
-  private String user = null;	 // UNUSED
+  private String user = null;	 // Owner, e.g. a user of a kiosk
   private Date date = null;	 // Date of a record
   private Time checkin = null;	 // Checkin time
   private Time checkout = null; // Checkout time
+  private int		version = 0;	 // Incremented on every update
 
   public WorkRecord()
   {
@@ -37,7 +40,7 @@ public class WorkRecord
     cal.set(Calendar.SECOND, 0);
     cal.set(Calendar.MILLISECOND, 0);
     this.date = new Date(cal.getTimeInMillis());
-    this.user = "worker";
+    this.user = DEFAULT_USER;
   }
 
   public WorkRecord(String user)
@@ -46,6 +49,21 @@ public class WorkRecord
     this.user = user;
   }
 
+  /*
+   * Create a copy of a work record.
+   *
+   * @param other the record to be copied
+   */
+  public WorkRecord(WorkRecord other)
+  {
+    this.id = other.id;
+    this.user = other.user;
+    this.date = other.date;
+    this.checkin = other.checkin;
+    this.checkout = other.checkout;
+    this.version = other.version;
+  }
+
   /*
    * Return true if the date of this record is today.
    */
@@ -85,6 +103,22 @@ public class WorkRecord
     return id;
   }
 
+  public void setVersion(int version)
+  {
+    this.version = version;
+  }
+
+  /*
+   * Return the modification version of this record which is
+   * incremented whenever this record is updated in a database.
+   *
+   * @return an int
+   */
+  public int getVersion()
+  {
+    return version;
+  }
+
   public void setUser(String user)
   {
     this.user = user;
@@ -200,14 +234,35 @@ public class WorkRecord
   }
 
   public  String getProgressTime(){
+    return appendProgressTime(new StringBuilder(16)).toString();
+  }
+
+  /*
+   * Append a time between checkin and checkout in the form of
+   * "HH時間MM分SS秒" to a builder.
+   *
+   * @param builder a StringBuilder
+   * @return the builder
+   */
+  public StringBuilder appendProgressTime(StringBuilder builder)
+  {
     long mills = this.checkout.getTime()-this.checkin.getTime();
     long second = (mills / 1000) % 60;
     long minute = (mills / (1000 * 60)) % 60;
     long hour = (mills / (1000 * 60 * 60)) % 24;
-    String time = String.format("%02d時間%02d分%02d秒",
-            hour, minute, second);
-    System.out.println(time);
-    return time;
+    appendTwoDigits(builder, hour).append("時間");
+    appendTwoDigits(builder, minute).append("分");
+    appendTwoDigits(builder, second).append("秒");
+    return builder;
+  }
+
+  private static StringBuilder appendTwoDigits(StringBuilder builder,
+					       long value)
+  {
+    if(value >= 0 && value < 10){
+      builder.append('0');
+    }
+    return builder.append(value);
   }
 
   public String getCheckoutTimeAsHHMMString()
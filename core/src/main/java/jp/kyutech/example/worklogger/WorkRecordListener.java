@@ -0,0 +1,42 @@
+// WorkRecordListener for listening to changes of work records
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+/**
+ * WorkRecordListener interface receives changes of work records and
+ * of the work session published by a WorkRecordManager, so that a view
+ * updates only what is changed without querying a store again.
+ *
+ * NOTE: A listener is called on the thread of a writer while the
+ * manager is locked.  It must not block nor call the manager, and
+ * usually posts a change to the UI thread.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public interface WorkRecordListener
+{
+  public static final int	CHANGE_INSERTED = 0;
+  public static final int	CHANGE_UPDATED = 1;
+  public static final int	CHANGE_DELETED = 2;
+
+  /*
+   * Called when a work record is inserted, updated or deleted.
+   *
+   * @param change one of CHANGE_*
+   * @param record a copy of the work record changed
+   */
+  void onWorkRecordChanged(int change, WorkRecord record);
+
+  /*
+   * Called when the state of the work session is changed.
+   *
+   * @param state one of WorkSession.STATE_*
+   */
+  void onWorkSessionChanged(int state);
+}
@@ -0,0 +1,473 @@
+// WorkRecordPager for paging through the history of work records
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * WorkRecordPager class holds a window of pages of work records
+ * ordered from the newest to the oldest.  Pages are loaded by keyset
+ * queries on record IDs, and pages far from the position being viewed
+ * are evicted so that the number of resident records is bounded by
+ * PAGE_SIZE * MAX_RESIDENT_PAGES however long the history is.  An
+ * evicted page remembers its key.  When a record in it is requested,
+ * null is returned as a placeholder and the page is loaded again in
+ * the background by beginReload() and finishReload().
+ *
+ * Records inserted, updated or deleted in a store are applied to the
+ * pages incrementally by insert(), update() and remove().  A page
+ * covers the IDs from its oldest record up to its key, so a change
+ * to a record outside loaded pages is ignored until it is loaded.
+ *
+ * NOTE: This class is not thread-safe.  It must be accessed from the
+ * UI thread only while pages may be loaded in the background.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+class WorkRecordPager
+{
+  static final int	PAGE_SIZE = 31;		// One month of records
+  static final int	MAX_RESIDENT_PAGES = 4;
+  static final int	PREFETCH_DISTANCE = 10;	// Rows before the end
+
+  /*
+   * Loader of a page of work records whose IDs are less than a key.
+   */
+  interface PageLoader
+  {
+    List<WorkRecord> loadPage(long beforeId, int count);
+  }
+
+  /*
+   * A page of work records.  The records are null if evicted.
+   */
+  private static class Page
+  {
+    long		key = Long.MAX_VALUE; // Exclusive upper bound of IDs
+    long		last_id = 0;	      // ID of the oldest record
+    int			start = 0;	      // Position of the first record
+    int			size = 0;
+    List<WorkRecord>	records = null;
+    boolean		requested_p = false; // Requested while evicted
+    boolean		loading_p = false;
+    boolean		stale_p = false;     // Changed while loading
+  }
+
+  private final PageLoader	loader;
+  private final ArrayList<Page> pages = new ArrayList<>();
+  private int			count = 0;
+  private int			resident = 0;
+  private int			current_page = 0;
+  private boolean		exhausted_p = false;
+  private boolean		loading_p = false;
+
+  WorkRecordPager(PageLoader loader)
+  {
+    this.loader = loader;
+  }
+
+  /*
+   * Discard all pages and load the newest page synchronously.
+   */
+  void reload()
+  {
+    reload(loader.loadPage(Long.MAX_VALUE, PAGE_SIZE));
+  }
+
+  /*
+   * Discard all pages and start with the newest page loaded in the
+   * background.
+   *
+   * @param records the newest PAGE_SIZE records at most
+   */
+  void reload(List<WorkRecord> records)
+  {
+    pages.clear();
+    count = 0;
+    resident = 0;
+    current_page = 0;
+    exhausted_p = false;
+    loading_p = false;
+    appendPage(Long.MAX_VALUE, records);
+  }
+
+  /*
+   * Return the number of records loaded so far.
+   *
+   * @return an int
+   */
+  int getCount()
+  {
+    return count;
+  }
+
+  /*
+   * Return the number of records resident in memory.
+   *
+   * @return an int
+   */
+  int getResidentCount()
+  {
+    int n = 0;
+    for(Page page : pages){
+      if(page.records != null){
+	n += page.records.size();
+      }
+    }
+    return n;
+  }
+
+  /*
+   * Return true if the oldest record has been loaded.
+   *
+   * @return a boolean
+   */
+  boolean isExhausted()
+  {
+    return exhausted_p;
+  }
+
+  /*
+   * Return a work record at a position.  If its page has been evicted,
+   * the page is requested to be loaded again and null is returned.
+   *
+   * @param position a position from the top
+   * @return a WorkRecord, or null if not resident
+   */
+  WorkRecord getRecordAt(int position)
+  {
+    if(position < 0 || position >= count){
+      return null;
+    }
+    int index = findPage(position);
+    Page page = pages.get(index);
+    current_page = index;
+    if(page.records == null){
+      page.requested_p = true;
+      return null;
+    }
+
+    int offset = position - page.start;
+    if(offset >= page.records.size()){
+      // Records were deleted since the page was evicted.
+      return null;
+    }
+    return page.records.get(offset);
+  }
+
+  /*
+   * Return true if the next page should be loaded because a given
+   * position is close to the end of loaded records.
+   *
+   * @param lastVisible the position of the last visible row
+   * @return a boolean
+   */
+  boolean needsPrefetch(int lastVisible)
+  {
+    return !exhausted_p && !loading_p &&
+      lastVisible + PREFETCH_DISTANCE >= count;
+  }
+
+  /*
+   * Mark the beginning of loading the next page and return its key.
+   *
+   * @return a long key to be passed to the PageLoader
+   */
+  long beginPrefetch()
+  {
+    loading_p = true;
+    return getNextKey();
+  }
+
+  /*
+   * Append a page loaded by a key returned by beginPrefetch().  A page
+   * is ignored if the pager was reloaded while loading it.
+   *
+   * @param key the key used to load the page
+   * @param records the records in the page
+   * @return a boolean true if the page is appended
+   */
+  boolean finishPrefetch(long key, List<WorkRecord> records)
+  {
+    if(!loading_p || key != getNextKey()){
+      return false;
+    }
+    loading_p = false;
+    appendPage(key, records);
+    return true;
+  }
+
+  /*
+   * Mark the beginning of loading a page requested by getRecordAt()
+   * and return its key.
+   *
+   * @return a long key to be passed to the PageLoader, or -1 if no
+   * page is requested
+   */
+  long beginReload()
+  {
+    for(Page page : pages){
+      if(page.requested_p && !page.loading_p && page.records == null){
+	page.loading_p = true;
+	page.stale_p = false;
+	return page.key;
+      }
+    }
+    return -1;
+  }
+
+  /*
+   * Return the number of records in a page to be loaded.
+   *
+   * @param key a key returned by beginReload()
+   * @return an int
+   */
+  int getPageSize(long key)
+  {
+    Page page = findPageByKey(key);
+    return (page != null) ? page.size : 0;
+  }
+
+  /*
+   * Restore a page loaded by a key returned by beginReload().  A page
+   * is ignored if the pager was reloaded, or the page was changed,
+   * while loading it.  A changed page is still requested.
+   *
+   * @param key the key used to load the page
+   * @param records the records in the page
+   * @return a boolean true if the page is restored
+   */
+  boolean finishReload(long key, List<WorkRecord> records)
+  {
+    Page page = findPageByKey(key);
+    if(page == null || !page.loading_p){
+      return false;
+    }
+    page.loading_p = false;
+    if(page.stale_p || page.records != null){
+      return false;
+    }
+    page.records = new ArrayList<>(records);
+    page.requested_p = false;
+    if(records.size() != page.size){
+      // Changed in a store but not yet applied to the page.
+      int delta = records.size() - page.size;
+      page.size = records.size();
+      shiftPages(pages.indexOf(page) + 1, delta);
+    }
+    resident++;
+    evictPages();
+    return true;
+  }
+
+  /*
+   * Apply a work record inserted into a store.
+   *
+   * @param record a work record inserted
+   * @return a boolean true if the record is in loaded pages
+   */
+  boolean insert(WorkRecord record)
+  {
+    if(pages.isEmpty()){
+      if(!exhausted_p){
+	return false;		// Not loaded yet
+      }
+      List<WorkRecord> records = new ArrayList<>();
+      records.add(record);
+      appendPage(Long.MAX_VALUE, records);
+      return true;
+    }
+    int index = findPageById(record.getId());
+    if(index < 0){
+      return false;
+    }
+    Page page = pages.get(index);
+    if(page.records != null){
+      int i = 0;
+      while(i < page.records.size() &&
+	    page.records.get(i).getId() > record.getId()){
+	i++;
+      }
+      if(i < page.records.size() &&
+	 page.records.get(i).getId() == record.getId()){
+	return false;		// Loaded along with the page
+      }
+      page.records.add(i, record);
+    } else {
+      page.stale_p = true;
+    }
+    page.last_id = Math.min(page.last_id, record.getId());
+    page.size++;
+    shiftPages(index + 1, 1);
+    return true;
+  }
+
+  /*
+   * Apply a work record updated in a store.  An evicted page is not
+   * changed since it is loaded again from a store.
+   *
+   * @param record a work record updated
+   * @return a boolean true if a resident record is replaced
+   */
+  boolean update(WorkRecord record)
+  {
+    int index = findPageById(record.getId());
+    if(index < 0){
+      return false;
+    }
+    if(pages.get(index).records == null){
+      pages.get(index).stale_p = true;
+      return false;
+    }
+    List<WorkRecord> records = pages.get(index).records;
+    for(int i = 0; i < records.size(); i++){
+      if(records.get(i).getId() == record.getId()){
+	records.set(i, record);
+	return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Apply a work record deleted from a store.
+   *
+   * @param id the ID of a work record deleted
+   * @return a boolean true if the record is removed from loaded pages
+   */
+  boolean remove(long id)
+  {
+    int index = findPageById(id);
+    if(index < 0){
+      return false;
+    }
+    Page page = pages.get(index);
+    if(page.records != null){
+      int i = 0;
+      while(i < page.records.size() && page.records.get(i).getId() != id){
+	i++;
+      }
+      if(i == page.records.size()){
+	return false;
+      }
+      page.records.remove(i);
+    } else {
+      page.stale_p = true;
+    }
+    page.size--;
+    shiftPages(index + 1, -1);
+    return true;
+  }
+
+  /*
+   * Return the index of the page covering an ID, or -1 if the ID is
+   * older than loaded pages.
+   */
+  private int findPageById(long id)
+  {
+    for(int i = 0; i < pages.size(); i++){
+      Page page = pages.get(i);
+      if(page.last_id <= id && id < page.key){
+	return i;
+      }
+    }
+    if(exhausted_p && !pages.isEmpty()){
+      return pages.size() - 1;	// The oldest page covers the rest.
+    }
+    return -1;
+  }
+
+  /*
+   * Shift the positions of pages from an index by a delta.
+   */
+  private void shiftPages(int index, int delta)
+  {
+    for(int i = index; i < pages.size(); i++){
+      pages.get(i).start += delta;
+    }
+    count += delta;
+  }
+
+  private Page findPageByKey(long key)
+  {
+    for(Page page : pages){
+      if(page.key == key){
+	return page;
+      }
+    }
+    return null;
+  }
+
+  private long getNextKey()
+  {
+    if(pages.isEmpty()){
+      return Long.MAX_VALUE;
+    }
+    return pages.get(pages.size() - 1).last_id;
+  }
+
+  private void appendPage(long key, List<WorkRecord> records)
+  {
+    if(records.size() < PAGE_SIZE){
+      exhausted_p = true;
+    }
+    if(records.isEmpty()){
+      return;
+    }
+    Page page = new Page();
+    page.key = key;
+    page.last_id = records.get(records.size() - 1).getId();
+    page.start = count;
+    page.size = records.size();
+    page.records = new ArrayList<>(records);
+    pages.add(page);
+    count += page.size;
+    resident++;
+    evictPages();
+  }
+
+  /*
+   * Return the index of the page containing a position.
+   */
+  private int findPage(int position)
+  {
+    int low = 0;
+    int high = pages.size() - 1;
+    while(low < high){
+      int mid = (low + high + 1) >>> 1;
+      if(pages.get(mid).start <= position){
+	low = mid;
+      } else {
+	high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /*
+   * Evict resident pages farthest from the current page.
+   */
+  private void evictPages()
+  {
+    while(resident > MAX_RESIDENT_PAGES){
+      int victim = -1;
+      int distance = -1;
+      for(int i = 0; i < pages.size(); i++){
+	int d = Math.abs(i - current_page);
+	if(pages.get(i).records != null && d > distance){
+	  victim = i;
+	  distance = d;
+	}
+      }
+      pages.get(victim).records = null;
+      resident--;
+    }
+  }
+}
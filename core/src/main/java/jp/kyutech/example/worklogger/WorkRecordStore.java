@@ -0,0 +1,186 @@
+// WorkRecordStore for abstracting storage engines of work records
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.sql.Date;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * WorkRecordStore interface defines the operations of a storage
+ * engine persisting work records and work intervals.  A record or an
+ * interval returned by a store is owned by a caller, and it is
+ * written back by an update method.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public interface WorkRecordStore
+{
+  /*
+   * Add a new work record.  An ID is assigned to the record.
+   *
+   * @param record the record to be added.
+   * @throws IllegalStateException if a record of the same user and date
+   * exists.
+   */
+  void addWorkRecord(WorkRecord record);
+
+  /*
+   * Add new work records at once, e.g. to load a history.  IDs are
+   * assigned in order of the records.  Unlike addWorkRecord(), the
+   * dates of records are not checked.
+   *
+   * @param records the records to be added.
+   */
+  void addWorkRecords(Collection<WorkRecord> records);
+
+  /*
+   * Update a work record and increment its version.
+   *
+   * @param record the record to be updated.
+   */
+  void updateWorkRecord(WorkRecord record);
+
+  /*
+   * Delete a work record.
+   *
+   * @param record the record to be deleted.
+   */
+  void deleteWorkRecord(WorkRecord record);
+
+  /*
+   * Return the newest work record, or null if there is no record.
+   */
+  WorkRecord getLastWorkRecord();
+
+  /*
+   * Return the newest work record of a user, or null if there is no
+   * record.  The methods taking a user visit only the records of the
+   * user, so that they cost the same however many users are stored.
+   *
+   * @param user the name of a user, not null
+   */
+  WorkRecord getLastWorkRecord(String user);
+
+  /*
+   * Return a work record specified by its ID, or null if not found.
+   */
+  WorkRecord getWorkRecordById(long id);
+
+  /*
+   * Return a work record located at a position from the newest one.
+   */
+  WorkRecord getWorkRecordAt(int position);
+
+  /*
+   * Return the list of the newest work records.
+   *
+   * @param count specifies the number of work records
+   */
+  List<WorkRecord> getRecentWorkRecords(int count);
+
+  List<WorkRecord> getRecentWorkRecords(String user, int count);
+
+  /*
+   * Return the list of the newest work records whose IDs are less
+   * than a given ID.
+   *
+   * @param beforeId specifies the exclusive upper bound of IDs
+   * @param count specifies the maximum number of work records
+   */
+  List<WorkRecord> getWorkRecordsBefore(long beforeId, int count);
+
+  List<WorkRecord> getWorkRecordsBefore(String user, long beforeId, int count);
+
+  /*
+   * Return the list of work records between a duration in order of
+   * their IDs.
+   *
+   * @param fromDate specifies the beginning of the duration.
+   * @param toDate specifies the end of the duration.
+   */
+  List<WorkRecord> getWorkRecordsBetween(Date fromDate, Date toDate);
+
+  List<WorkRecord> getWorkRecordsBetween(String user,
+                                         Date fromDate, Date toDate);
+
+  /*
+   * Return a work record which is the newest and not empty.
+   */
+  WorkRecord getLastAliveWorkRecord();
+
+  WorkRecord getLastAliveWorkRecord(String user);
+
+  /*
+   * Return a report of the work records of a user from totals of days
+   * or months kept up to date by this store, so that a report reads
+   * a row per period instead of the records of the period.
+   *
+   * @param engine an engine of the dates and periods of a report
+   * @param user the user of records
+   * @return a ReportEngine.Report, or null if no totals are kept
+   */
+  ReportEngine.Report getSummaryReport(ReportEngine engine, String user);
+
+  /*
+   * Add a new work interval.  An ID is assigned to the interval.
+   */
+  void addWorkInterval(WorkInterval interval);
+
+  /*
+   * Update a work interval.
+   */
+  void updateWorkInterval(WorkInterval interval);
+
+  /*
+   * Delete a work interval.
+   */
+  void deleteWorkInterval(WorkInterval interval);
+
+  /*
+   * Return the list of work intervals starting on a date in order of
+   * their start times.
+   */
+  List<WorkInterval> getWorkIntervalsOn(Date date);
+
+  List<WorkInterval> getWorkIntervalsOn(String user, Date date);
+
+  /*
+   * Return the newest work interval, or null if there is no interval.
+   */
+  WorkInterval getLastWorkInterval();
+
+  WorkInterval getLastWorkInterval(String user);
+
+  /*
+   * Replace all the work records and intervals by given ones keeping
+   * their IDs, e.g. to rebuild a store from another store.
+   *
+   * @param records work records
+   * @param intervals work intervals
+   */
+  void replaceAll(Collection<WorkRecord> records,
+                  Collection<WorkInterval> intervals);
+
+  /*
+   * Run operations on this store as a unit, e.g. a batch of writes
+   * through a WorkRecordProvider.  A store supporting transactions
+   * commits them at once and rolls all of them back if the body
+   * throws an exception.  Other stores only keep other writers from
+   * interleaving, and keep the operations done before an exception.
+   *
+   * @param body operations on this store
+   */
+  void runInTransaction(Runnable body);
+
+  /*
+   * Release the resources of this store.
+   */
+  void close();
+}
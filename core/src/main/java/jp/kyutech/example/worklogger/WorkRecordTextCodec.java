@@ -0,0 +1,150 @@
+// WorkRecordTextCodec for exporting and importing work records as text
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.sql.Date;
+import java.sql.Time;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * WorkRecordTextCodec class converts work records to and from a text
+ * table such as:
+ *
+ *         Date  Start    End
+ *   2021/04/01  09:00  18:00
+ *   2021/04/02
+ *
+ * A day without a record is written as an empty line of the date so
+ * that a table has a line for every day in a duration.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class WorkRecordTextCodec
+{
+  private static final String	TEXT_FORMAT = "%10s  %5s  %5s\n";
+  private static final String	DATE_FORMAT = "yyyy/MM/dd";
+  private static final String	TXT_TIME_FORMAT = "HH:mm"; // For java.text
+  // Columns of a line
+  private static final int	DATE_END = 10;
+  private static final int	START_BEGIN = 12;
+  private static final int	START_END = 17;
+  private static final int	END_BEGIN = 19;
+  private static final int	END_END = 24;
+
+  /*
+   * Write work records between a duration to a given stream as text.
+   *
+   * @param ostream the output stream to write
+   * @param records work records in order of their dates
+   * @param fromDate the start of a duration
+   * @param toDate the end of a duration
+   */
+  public static void write(OutputStream ostream,
+			   List<WorkRecord> records,
+			   Date fromDate,
+			   Date toDate)
+  {
+    SimpleDateFormat date_format = new SimpleDateFormat(DATE_FORMAT);
+    SimpleDateFormat time_format = new SimpleDateFormat(TXT_TIME_FORMAT);
+
+    PrintWriter writer = new PrintWriter(ostream);
+    try {
+      writer.printf(TEXT_FORMAT, "Date", "Start", "End");
+
+      Date last_date = fromDate;
+      for(WorkRecord record : records){
+	// Insert missing data before a current record.
+	while(last_date.compareTo(record.getDate()) < 0){
+	  writer.printf(TEXT_FORMAT, date_format.format(last_date), "", "");
+	  last_date = DateTimeUtils.getNextDay(last_date);
+	}
+	writer.printf(TEXT_FORMAT,
+		      date_format.format(record.getDate()),
+		      (record.getCheckinTime() != null) ?
+		      time_format.format(record.getCheckinTime()) : "",
+		      (record.getCheckoutTime() != null) ?
+		      time_format.format(record.getCheckoutTime()) : "");
+	last_date = DateTimeUtils.getNextDay(record.getDate());
+      }
+      // Insert missing data after the last record.
+      while(last_date.compareTo(toDate) <= 0){
+	writer.printf(TEXT_FORMAT, date_format.format(last_date), "", "");
+	last_date = DateTimeUtils.getNextDay(last_date);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /*
+   * Read work records from a text written by write().  Days without
+   * a checkin time are skipped.
+   *
+   * @param istream the input stream to read
+   * @return a List<WorkRecord> in order of lines
+   * @throws IOException if the text cannot be read or parsed
+   */
+  public static List<WorkRecord> read(InputStream istream)
+    throws IOException
+  {
+    SimpleDateFormat date_format = new SimpleDateFormat(DATE_FORMAT);
+    date_format.setLenient(false);
+    List<WorkRecord> records = new ArrayList<>();
+
+    BufferedReader reader =
+      new BufferedReader(new InputStreamReader(istream, "UTF-8"));
+    try {
+      String line = reader.readLine(); // Header
+      int lineno = 1;
+      while((line = reader.readLine()) != null){
+	lineno++;
+	if(line.trim().length() == 0){
+	  continue;
+	}
+	String start = column(line, START_BEGIN, START_END);
+	String end = column(line, END_BEGIN, END_END);
+	if(start.length() == 0){
+	  continue;		// A day without a record
+	}
+	try {
+	  WorkRecord record = new WorkRecord();
+	  record.setDate(new Date(date_format.parse(column(line, 0, DATE_END))
+				  .getTime()));
+	  record.setCheckinTime(Time.valueOf(start + ":00"));
+	  if(end.length() != 0){
+	    record.setCheckoutTime(Time.valueOf(end + ":00"));
+	  }
+	  records.add(record);
+	} catch(ParseException | IllegalArgumentException ex){
+	  throw new IOException("Illegal line " + lineno + ": " + line, ex);
+	}
+      }
+    } finally {
+      reader.close();
+    }
+    return records;
+  }
+
+  private static String column(String line, int begin, int end)
+  {
+    if(line.length() <= begin){
+      return "";
+    }
+    return line.substring(begin, Math.min(end, line.length())).trim();
+  }
+}
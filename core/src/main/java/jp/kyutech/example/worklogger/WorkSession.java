@@ -0,0 +1,192 @@
+// WorkSession for the state of working and breaks in a day
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.sql.Date;
+
+/**
+ * WorkSession class is a state machine of a work session in a day:
+ *
+ *   IDLE -> WORKING -> ON_BREAK -> WORKING -> DONE
+ *
+ * The current state is held in memory and is authoritative while the
+ * transitions are persisted as work intervals.  A session is restored
+ * from the newest work interval, or from the work record of today if
+ * there is no interval of today, e.g. in a database upgraded from a
+ * version without intervals.
+ *
+ * NOTE: This class is not thread-safe.  WorkRecordManager serializes
+ * the accesses.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class WorkSession
+{
+  public static final int	STATE_IDLE = 0;
+  public static final int	STATE_WORKING = 1;
+  public static final int	STATE_ON_BREAK = 2;
+  public static final int	STATE_DONE = 3;
+
+  public static final int	EVENT_START_WORK = 0;
+  public static final int	EVENT_STOP_WORK = 1;
+  public static final int	EVENT_START_BREAK = 2;
+  public static final int	EVENT_STOP_BREAK = 3;
+
+  private static final int	INVALID = -1;
+  // Next states indexed by [state][event].  A transition to the same
+  // state means that the event is ignored.
+  private static final int[][]	TRANSITIONS = {
+    // START_WORK     STOP_WORK    START_BREAK     STOP_BREAK
+    { STATE_WORKING, STATE_IDLE, INVALID,        INVALID },	  // IDLE
+    { STATE_WORKING, STATE_DONE, STATE_ON_BREAK, STATE_WORKING }, // WORKING
+    { STATE_ON_BREAK, STATE_DONE, STATE_ON_BREAK, STATE_WORKING }, // ON_BREAK
+    { STATE_WORKING, STATE_DONE, INVALID,        INVALID },	  // DONE
+  };
+  private static final String[]	STATE_NAMES = {
+    "IDLE", "WORKING", "ON_BREAK", "DONE"
+  };
+
+  private int		state = STATE_IDLE;
+  private Date		date = null;	// Date when a session started
+  private WorkRecord	record = null;	// Work record of the session
+
+  /*
+   * Return the next state of a state by an event.
+   *
+   * @param state a current state
+   * @param event an event
+   * @return an int
+   * @throws IllegalStateException if the event is not allowed
+   */
+  public static int getNextState(int state, int event)
+  {
+    int next = TRANSITIONS[state][event];
+    if(next == INVALID){
+      throw new IllegalStateException
+	("WorkSession: event " + event + " is not allowed in " +
+	 STATE_NAMES[state]);
+    }
+    return next;
+  }
+
+  /*
+   * Restore a session from the newest work interval.
+   *
+   * @param last the newest work interval or null
+   * @param today the date of today
+   */
+  void restore(WorkInterval last, Date today)
+  {
+    record = null;
+    if(last == null){
+      state = STATE_IDLE;
+      date = today;
+    } else if(last.isOpen()){
+      state = last.isBreak() ? STATE_ON_BREAK : STATE_WORKING;
+      date = last.getDate();
+    } else if(last.getDate().equals(today)){
+      state = STATE_DONE;
+      date = today;
+    } else {
+      state = STATE_IDLE;
+      date = today;
+    }
+  }
+
+  /*
+   * Restore a session from the newest work interval, or from the work
+   * record of today if the interval is not of today.  A record checked
+   * in but not out is taken as working, and a record checked out as
+   * done.
+   *
+   * @param last the newest work interval or null
+   * @param record the newest work record or null
+   * @param today the date of today
+   */
+  void restore(WorkInterval last, WorkRecord record, Date today)
+  {
+    restore(last, today);
+    if(state != STATE_IDLE || record == null || record.getDate() == null ||
+       DateTimeUtils.toEpochDay(record.getDate()) !=
+       DateTimeUtils.toEpochDay(today) ||
+       record.getCheckinTime() == null){
+      return;
+    }
+    state = (record.getCheckoutTime() == null) ? STATE_WORKING : STATE_DONE;
+    this.record = record;
+  }
+
+  /*
+   * Start a new day if a session of a previous day has been finished.
+   * A session in progress is continued over midnight.
+   *
+   * @param today the date of today
+   */
+  void rollOver(Date today)
+  {
+    if(today.equals(date)){
+      return;
+    }
+    if(state == STATE_IDLE || state == STATE_DONE){
+      state = STATE_IDLE;
+      date = today;
+      record = null;
+    }
+  }
+
+  public int getState()
+  {
+    return state;
+  }
+
+  void setState(int state)
+  {
+    this.state = state;
+  }
+
+  public boolean isWorking()
+  {
+    return state == STATE_WORKING || state == STATE_ON_BREAK;
+  }
+
+  public boolean isOnBreak()
+  {
+    return state == STATE_ON_BREAK;
+  }
+
+  public Date getDate()
+  {
+    return date;
+  }
+
+  void setDate(Date date)
+  {
+    this.date = date;
+  }
+
+  /*
+   * Return the work record of this session if it has been prepared.
+   *
+   * @return a WorkRecord or null
+   */
+  WorkRecord getWorkRecord()
+  {
+    return record;
+  }
+
+  void setWorkRecord(WorkRecord record)
+  {
+    this.record = record;
+  }
+
+  public String toString()
+  {
+    return STATE_NAMES[state] + " " + date;
+  }
+}
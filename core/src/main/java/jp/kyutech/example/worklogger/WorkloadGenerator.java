@@ -0,0 +1,255 @@
+// WorkloadGenerator for generating synthetic histories of work records
+//
+// Copyright (C) 2018-2021  Masanobu UMEDA (umerin@ci.kyutech.ac.jp)
+//
+// $Id$
+
+package jp.kyutech.example.worklogger;
+
+import java.io.OutputStream;
+import java.sql.Date;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * WorkloadGenerator class generates a deterministic history of work
+ * records shaped like real ones for benchmarks and tests: weekdays
+ * with jittered checkin and checkout times, weekends and holidays
+ * without records, missed checkouts, overnight shifts, and any number
+ * of users sharing one device.  The same seed and parameters always
+ * generate the same records in the same order, i.e. by date and then
+ * by user.
+ *
+ * A history is generated lazily, so a history of millions of records
+ * is written to a store in batches without being held in memory.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class WorkloadGenerator implements Iterable<WorkRecord>
+{
+  public static final int	DEFAULT_BATCH_SIZE = 1000;
+
+  private long			seed = 1;
+  private int			nusers = 1;
+  private Date			start_date = Date.valueOf("2015-04-01");
+  private int			ndays = 365;
+  private double		holiday_rate = 0.04;	// Of weekdays
+  private double		missed_checkout_rate = 0.03;
+  private double		overnight_rate = 0.02;
+  private int			checkin_minutes = 9 * 60;
+  private int			work_minutes = 9 * 60;
+  private int			jitter_minutes = 20;	// Standard deviation
+
+  public void setSeed(long seed)
+  {
+    this.seed = seed;
+  }
+
+  /*
+   * Set the number of users sharing a device.  Users are named
+   * "user0001", "user0002" and so on.
+   */
+  public void setUsers(int nusers)
+  {
+    this.nusers = nusers;
+  }
+
+  public void setStartDate(Date start_date)
+  {
+    this.start_date = start_date;
+  }
+
+  public void setDays(int ndays)
+  {
+    this.ndays = ndays;
+  }
+
+  public void setHolidayRate(double holiday_rate)
+  {
+    this.holiday_rate = holiday_rate;
+  }
+
+  public void setMissedCheckoutRate(double missed_checkout_rate)
+  {
+    this.missed_checkout_rate = missed_checkout_rate;
+  }
+
+  public void setOvernightRate(double overnight_rate)
+  {
+    this.overnight_rate = overnight_rate;
+  }
+
+  public void setJitterMinutes(int jitter_minutes)
+  {
+    this.jitter_minutes = jitter_minutes;
+  }
+
+  /*
+   * Set the number of days so that roughly a given number of records
+   * are generated by the current number of users.
+   *
+   * @param nrecords the number of records
+   */
+  public void setVolume(long nrecords)
+  {
+    double per_day = nusers * (5.0 / 7.0) * (1.0 - holiday_rate);
+    this.ndays = (int)Math.max(1, Math.ceil(nrecords / per_day));
+  }
+
+  /*
+   * Return the name of a user.
+   *
+   * @param index the index of a user from 0
+   * @return a String
+   */
+  public static String getUserName(int index)
+  {
+    return String.format("user%04d", index + 1);
+  }
+
+  @Override
+  public Iterator<WorkRecord> iterator()
+  {
+    return new RecordIterator();
+  }
+
+  /*
+   * Add the generated records to a store in batches.
+   *
+   * @param store a store to be written
+   * @param batch_size the number of records in a batch
+   * @return the number of records added
+   */
+  public long writeTo(WorkRecordStore store, int batch_size)
+  {
+    long count = 0;
+    List<WorkRecord> batch = new ArrayList<>(batch_size);
+    for(WorkRecord record : this){
+      batch.add(record);
+      if(batch.size() >= batch_size){
+	store.addWorkRecords(batch);
+	count += batch.size();
+	batch.clear();
+      }
+    }
+    if(!batch.isEmpty()){
+      store.addWorkRecords(batch);
+      count += batch.size();
+    }
+    return count;
+  }
+
+  /*
+   * Write the generated records of a user as a text table.
+   *
+   * @param ostream the output stream to write
+   * @param user the name of a user
+   * @see WorkRecordTextCodec#write
+   */
+  public void writeText(OutputStream ostream, String user)
+  {
+    List<WorkRecord> records = new ArrayList<>();
+    for(WorkRecord record : this){
+      if(user.equals(record.getUser())){
+	records.add(record);
+      }
+    }
+    Calendar cal = new GregorianCalendar();
+    cal.setTimeInMillis(start_date.getTime());
+    cal.add(Calendar.DATE, ndays - 1);
+    WorkRecordTextCodec.write(ostream, records, start_date,
+			      new Date(cal.getTimeInMillis()));
+  }
+
+  /*
+   * RecordIterator class generating records day by day.  A record is
+   * created only for a user working on a day.
+   */
+  private class RecordIterator implements Iterator<WorkRecord>
+  {
+    private final Random	random = new Random(seed);
+    private final Calendar	cal = new GregorianCalendar();
+    private int			day = 0;
+    private int			user = nusers; // Start a new day at first
+    private Date		date = null;
+    private boolean		workday_p = false;
+    private WorkRecord		next = null;
+
+    RecordIterator()
+    {
+      cal.setTimeInMillis(start_date.getTime());
+      cal.add(Calendar.DATE, -1);
+      advance();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return next != null;
+    }
+
+    @Override
+    public WorkRecord next()
+    {
+      if(next == null){
+	throw new NoSuchElementException();
+      }
+      WorkRecord record = next;
+      advance();
+      return record;
+    }
+
+    private void advance()
+    {
+      next = null;
+      while(next == null){
+	if(++user >= nusers){
+	  if(day++ >= ndays){
+	    return;
+	  }
+	  user = 0;
+	  cal.add(Calendar.DATE, 1);
+	  date = new Date(cal.getTimeInMillis());
+	  int day_of_week = cal.get(Calendar.DAY_OF_WEEK);
+	  workday_p = (day_of_week != Calendar.SATURDAY &&
+		       day_of_week != Calendar.SUNDAY &&
+		       random.nextDouble() >= holiday_rate);
+	}
+	if(workday_p && nusers > 0){
+	  next = generate(getUserName(user));
+	}
+      }
+    }
+
+    private WorkRecord generate(String user)
+    {
+      WorkRecord record = new WorkRecord(user);
+      record.setDate(date);
+      boolean overnight_p = random.nextDouble() < overnight_rate;
+      int checkin = overnight_p ? 22 * 60 : checkin_minutes;
+      checkin += (int)(random.nextGaussian() * jitter_minutes);
+      int checkout = checkin + work_minutes +
+	(int)(random.nextGaussian() * jitter_minutes);
+      record.setCheckinTime(toTime(checkin));
+      if(random.nextDouble() >= missed_checkout_rate){
+	// An overnight shift is checked out on the next day.
+	record.setCheckoutTime(toTime(checkout));
+      }
+      return record;
+    }
+
+    private Time toTime(int minutes)
+    {
+      minutes = Math.floorMod(minutes, 24 * 60);
+      return DateTimeUtils.getTimeOfSeconds(minutes * 60);
+    }
+  }
+}
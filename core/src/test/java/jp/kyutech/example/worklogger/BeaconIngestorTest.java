@@ -0,0 +1,126 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BeaconIngestorTest class to run unit tests on the development
+ * machine (host).
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class BeaconIngestorTest {
+    private static final String BEACON = "00:11:22:33:44:55";
+
+    private final FakeBeaconSource source = new FakeBeaconSource();
+    private final List<Boolean> reports = new ArrayList<>();
+
+    private BeaconIngestor newIngestor(int capacity) {
+        BeaconIngestor ingestor = new BeaconIngestor(
+                source, BEACON, new BeaconPresenceDetector(),
+                new BeaconIngestor.Listener() {
+                    @Override
+                    public void onPresenceChanged(boolean present_p) {
+                        reports.add(present_p);
+                    }
+                }, capacity);
+        // Started without a worker thread; processed by the test.
+        source.start(ingestor);
+        return ingestor;
+    }
+
+    @Test
+    public void hysteresisAndDebouncing() {
+        BeaconPresenceDetector detector = new BeaconPresenceDetector();
+        long time = 0;
+        // A short visit is debounced.
+        assertFalse(detector.addAdvertisement(-60, time));
+        assertFalse(detector.addAdvertisement(-60, time += 1000));
+        assertFalse(detector.tick(time += 100 * 1000));
+        assertFalse(detector.isPresent());
+
+        // Entering needs a strong signal held for a while.
+        for (int i = 0; i < 10; i++) {
+            detector.addAdvertisement(-60, time += 1000);
+        }
+        assertTrue(detector.isPresent());
+
+        // A signal between the thresholds keeps presence.
+        for (int i = 0; i < 120; i++) {
+            detector.addAdvertisement(-80, time += 1000);
+        }
+        assertTrue(detector.isPresent());
+
+        // Losing the beacon exits.
+        detector.tick(time + BeaconPresenceDetector.LOST_MILLIS);
+        assertFalse(detector.isPresent());
+        assertEquals(2, detector.getTransitions());
+    }
+
+    @Test
+    public void burstsAreCoalesced() {
+        BeaconIngestor ingestor = newIngestor(4096);
+        Random random = new Random(43);
+        long time = 0;
+        // 10 minutes near the beacon at 300 advertisements per second
+        // with noisy RSSI, and a processing batch every 100 msec.
+        for (int tick = 0; tick < 10 * 60 * 10; tick++) {
+            for (int i = 0; i < 30; i++) {
+                source.emit(BEACON, -65 + (int)(random.nextGaussian() * 6), time + i * 3);
+                source.emit("66:77:88:99:AA:BB", -40, time + i * 3);
+            }
+            time += 100;
+            ingestor.processPending(time);
+        }
+        ingestor.processPending(time + BeaconPresenceDetector.LOST_MILLIS);
+
+        assertEquals(10 * 60 * 300, ingestor.getReceived());
+        assertEquals(0, ingestor.getDropped());
+        assertEquals(2, reports.size());
+        assertEquals(true, reports.get(0));
+        assertEquals(false, reports.get(1));
+    }
+
+    @Test
+    public void reportsWithoutLock() {
+        final BeaconIngestor[] ingestor = new BeaconIngestor[1];
+        final List<Boolean> locked = new ArrayList<>();
+        ingestor[0] = new BeaconIngestor(
+                source, BEACON, new BeaconPresenceDetector(),
+                new BeaconIngestor.Listener() {
+                    @Override
+                    public void onPresenceChanged(boolean present_p) {
+                        locked.add(Thread.holdsLock(ingestor[0]));
+                    }
+                });
+        source.start(ingestor[0]);
+        for (int i = 0; i < 20; i++) {
+            source.emit(BEACON, -60, i * 1000);
+        }
+        ingestor[0].processPending(20 * 1000);
+        assertEquals(1, ingestor[0].getReports());
+        assertEquals(1, locked.size());
+        assertFalse(locked.get(0));
+    }
+
+    @Test
+    public void fullQueueDropsAdvertisements() {
+        BeaconIngestor ingestor = newIngestor(16);
+        for (int i = 0; i < 100; i++) {
+            source.emit(BEACON, -60, i);
+        }
+        assertEquals(100, ingestor.getReceived());
+        assertEquals(84, ingestor.getDropped());
+        ingestor.processPending(100);
+        assertEquals(0, reports.size());
+    }
+}
@@ -0,0 +1,235 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.sql.Date;
+import java.sql.Time;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * EventLogWorkRecordStoreTest class to run unit tests on the
+ * development machine (host).
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class EventLogWorkRecordStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static WorkRecord record(String date, String checkin) {
+        WorkRecord record = new WorkRecord();
+        record.setDate(Date.valueOf(date));
+        record.setCheckinTime(Time.valueOf(checkin));
+        return record;
+    }
+
+    @Test
+    public void replaysAfterReopen() throws Exception {
+        File dir = folder.newFolder();
+        EventLogWorkRecordStore store = new EventLogWorkRecordStore(dir);
+        WorkRecord first = record("2021-04-01", "09:00:00");
+        store.addWorkRecord(first);
+        WorkRecord second = record("2021-04-02", "09:30:00");
+        store.addWorkRecord(second);
+        second.setCheckoutTime(Time.valueOf("18:15:00"));
+        store.updateWorkRecord(second);
+        store.deleteWorkRecord(first);
+        store.addWorkInterval(new WorkInterval(WorkInterval.KIND_WORK,
+                Date.valueOf("2021-04-02").getTime() + 1000));
+        store.close();
+
+        store = new EventLogWorkRecordStore(dir);
+        assertNull(store.getWorkRecordById(first.getId()));
+        WorkRecord restored = store.getLastWorkRecord();
+        assertEquals(second.getId(), restored.getId());
+        assertEquals(Date.valueOf("2021-04-02"), restored.getDate());
+        assertEquals(Time.valueOf("18:15:00"), restored.getCheckoutTime());
+        assertEquals(1, restored.getVersion());
+        assertEquals(1, store.getWorkIntervalsOn(Date.valueOf("2021-04-02")).size());
+
+        WorkRecord third = record("2021-04-03", "10:00:00");
+        store.addWorkRecord(third);
+        assertEquals(second.getId() + 1, third.getId());
+        store.close();
+    }
+
+    @Test
+    public void rejectsDuplicatedDates() throws Exception {
+        EventLogWorkRecordStore store = new EventLogWorkRecordStore(folder.newFolder());
+        store.addWorkRecord(record("2021-04-01", "09:00:00"));
+        try {
+            store.addWorkRecord(record("2021-04-01", "10:00:00"));
+            fail("A duplicated record must be rejected");
+        } catch (IllegalStateException ex) {
+            // Expected.
+        }
+        store.close();
+    }
+
+    @Test
+    public void stopsAtTornEvent() throws Exception {
+        File dir = folder.newFolder();
+        EventLogWorkRecordStore store = new EventLogWorkRecordStore(dir);
+        store.addWorkRecord(record("2021-04-01", "09:00:00"));
+        store.addWorkRecord(record("2021-04-02", "09:00:00"));
+        long size = store.getLogSize();
+        store.close();
+
+        // Break the CRC of the last event.
+        RandomAccessFile file = new RandomAccessFile(new File(dir, "events.log"), "rw");
+        file.seek(size - 1);
+        int b = file.read();
+        file.seek(size - 1);
+        file.write(b ^ 0xff);
+        file.close();
+
+        store = new EventLogWorkRecordStore(dir);
+        assertEquals(1, store.getRecentWorkRecords(10).size());
+        assertEquals(size - EventLogWorkRecordStore.EVENT_SIZE, store.getLogSize());
+        store.close();
+    }
+
+    @Test
+    public void restoresFromSnapshot() throws Exception {
+        File dir = folder.newFolder();
+        EventLogWorkRecordStore store = new EventLogWorkRecordStore(dir);
+        long day = DateTimeUtils.toEpochDay(Date.valueOf("2000-01-01"));
+        for (int i = 0; i < 10000; i++) {
+            WorkRecord record = new WorkRecord();
+            record.setDate(DateTimeUtils.fromEpochDay(day + i));
+            store.addWorkRecord(record);
+        }
+        store.close();
+        assertEquals(true, new File(dir, "snapshot.bin").exists());
+
+        store = new EventLogWorkRecordStore(dir);
+        assertEquals(10000, store.getRecentWorkRecords(20000).size());
+        assertEquals(DateTimeUtils.fromEpochDay(day + 9999),
+                store.getLastWorkRecord().getDate());
+        store.close();
+    }
+
+    @Test
+    public void rollsLogAfterSnapshots() throws Exception {
+        File dir = folder.newFolder();
+        EventLogWorkRecordStore store = new EventLogWorkRecordStore(dir);
+        long day = DateTimeUtils.toEpochDay(Date.valueOf("2000-01-01"));
+        for (int i = 0; i < 30000; i++) {
+            WorkRecord record = new WorkRecord();
+            record.setDate(DateTimeUtils.fromEpochDay(day + i));
+            store.addWorkRecord(record);
+        }
+        store.close();
+
+        // Only the generations since the previous snapshot are kept.
+        assertEquals(false, new File(dir, "events.log").exists());
+        assertEquals(false, new File(dir, "events.1.log").exists());
+        assertEquals(true, new File(dir, "events.2.log").exists());
+        assertEquals(true, new File(dir, "events.3.log").exists());
+        assertEquals(true, new File(dir, "snapshot.bin.old").exists());
+
+        store = new EventLogWorkRecordStore(dir);
+        assertEquals(30000, store.getRecentWorkRecords(40000).size());
+        store.close();
+
+        // Restored from the previous snapshot instead of a broken one.
+        RandomAccessFile file = new RandomAccessFile(new File(dir, "snapshot.bin"), "rw");
+        file.seek(EventLogWorkRecordStore.EVENT_SIZE);
+        file.write(0xff);
+        file.close();
+        store = new EventLogWorkRecordStore(dir);
+        assertEquals(30000, store.getRecentWorkRecords(40000).size());
+        store.addWorkRecord(record("1999-12-31", "09:00:00"));
+        assertEquals(30001, store.getLastWorkRecord().getId());
+        store.close();
+    }
+
+    @Test
+    public void queriesIntervalsOfUsersByDays() throws Exception {
+        File dir = folder.newFolder();
+        EventLogWorkRecordStore store = new EventLogWorkRecordStore(dir);
+        long base = Date.valueOf("2021-04-01").getTime() + 9 * 60 * 60 * 1000;
+        for (int i = 0; i < 8; i++) {
+            // Added in the reverse order of their start times.
+            WorkInterval interval = new WorkInterval(WorkInterval.KIND_WORK,
+                    base + (i % 4) * 24 * 60 * 60 * 1000 + (8 - i) * 60 * 1000);
+            interval.setUser((i % 2 == 0) ? "alice" : "bob");
+            store.addWorkInterval(interval);
+        }
+        List<WorkInterval> day = store.getWorkIntervalsOn(Date.valueOf("2021-04-01"));
+        assertEquals(2, day.size());
+        assertEquals(true, day.get(0).getStart() < day.get(1).getStart());
+        assertEquals(2, store.getWorkIntervalsOn("alice", Date.valueOf("2021-04-01")).size());
+        assertEquals(0, store.getWorkIntervalsOn("bob", Date.valueOf("2021-04-01")).size());
+        assertEquals(8, store.getLastWorkInterval("bob").getId());
+
+        // An interval moved to another user is found only there.
+        WorkInterval moved = store.getLastWorkInterval("bob");
+        moved.setUser("carol");
+        store.updateWorkInterval(moved);
+        assertEquals(6, store.getLastWorkInterval("bob").getId());
+        store.close();
+
+        store = new EventLogWorkRecordStore(dir);
+        assertEquals(moved.getId(), store.getLastWorkInterval("carol").getId());
+        assertEquals(1, store.getWorkIntervalsOn("carol", moved.getDate()).size());
+        assertEquals(1, store.getWorkIntervalsOn("bob", moved.getDate()).size());
+        assertNull(store.getLastWorkInterval("dave"));
+        store.close();
+    }
+
+    @Test
+    public void queriesRecordsOfUsersByDays() throws Exception {
+        File dir = folder.newFolder();
+        EventLogWorkRecordStore store = new EventLogWorkRecordStore(dir);
+        long day = DateTimeUtils.toEpochDay(Date.valueOf("2021-04-01"));
+        for (int i = 0; i < 10000; i++) {
+            WorkRecord record = new WorkRecord((i % 2 == 0) ? "alice" : "bob");
+            record.setDate(DateTimeUtils.fromEpochDay(day + i / 2));
+            store.addWorkRecord(record);
+        }
+        assertEquals(4, store.getWorkRecordsBetween(Date.valueOf("2021-04-02"),
+                Date.valueOf("2021-04-03")).size());
+        assertEquals(2, store.getWorkRecordsBetween("bob", Date.valueOf("2021-04-02"),
+                Date.valueOf("2021-04-03")).size());
+
+        // A record moved to another day and user is found only there.
+        WorkRecord moved = store.getWorkRecordsBetween("alice", Date.valueOf("2021-04-01"),
+                Date.valueOf("2021-04-01")).get(0);
+        moved.setUser("carol");
+        moved.setDate(Date.valueOf("2000-01-01"));
+        store.updateWorkRecord(moved);
+        assertEquals(0, store.getWorkRecordsBetween("alice", Date.valueOf("2021-04-01"),
+                Date.valueOf("2021-04-01")).size());
+        assertEquals(moved.getId(), store.getLastWorkRecord("carol").getId());
+        store.addWorkRecord(record("2021-04-01", "09:00:00"));
+        store.close();
+
+        // The snapshot taken meanwhile keeps the users of the records.
+        assertEquals(true, new File(dir, "snapshot.bin").exists());
+        store = new EventLogWorkRecordStore(dir);
+        assertEquals(1, store.getWorkRecordsBetween("carol", Date.valueOf("2000-01-01"),
+                Date.valueOf("2000-01-01")).size());
+        assertEquals(4999, store.getRecentWorkRecords("alice", 10000).size());
+        assertEquals("bob", store.getLastWorkRecord("bob").getUser());
+        WorkRecord duplicated = new WorkRecord("bob");
+        duplicated.setDate(Date.valueOf("2021-04-01"));
+        try {
+            store.addWorkRecord(duplicated);
+            fail("A duplicated record must be rejected");
+        } catch (IllegalStateException ex) {
+            // Expected.
+        }
+        store.close();
+    }
+}
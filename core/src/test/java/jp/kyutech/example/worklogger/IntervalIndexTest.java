@@ -0,0 +1,79 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Test;
+
+import java.sql.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * IntervalIndexTest class to run unit tests on the development machine
+ * (host).
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class IntervalIndexTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY0 = Date.valueOf("2021-04-01").getTime();
+
+    private static WorkInterval interval(int kind, long start, long end) {
+        WorkInterval interval = new WorkInterval(kind, start);
+        interval.setEnd(end);
+        return interval;
+    }
+
+    @Test
+    public void rejectsOverlaps() {
+        IntervalIndex index = new IntervalIndex();
+        long t = DAY0 + 9 * 60 * MINUTE;
+        index.add(interval(WorkInterval.KIND_WORK, t, t + 60 * MINUTE));
+        index.add(interval(WorkInterval.KIND_BREAK, t + 60 * MINUTE, t + 70 * MINUTE));
+
+        assertEquals(true, index.overlaps(t + 30 * MINUTE, t + 40 * MINUTE, null));
+        assertEquals(true, index.overlaps(t - MINUTE, t + MINUTE, null));
+        assertEquals(true, index.overlaps(t + 65 * MINUTE, WorkInterval.OPEN, null));
+        assertEquals(false, index.overlaps(t + 70 * MINUTE, WorkInterval.OPEN, null));
+        try {
+            index.add(interval(WorkInterval.KIND_WORK, t, t + MINUTE));
+            fail("An overlapped interval must be rejected");
+        } catch (IllegalStateException ex) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void openAndClose() {
+        IntervalIndex index = new IntervalIndex();
+        long t = DAY0 + 9 * 60 * MINUTE;
+        WorkInterval work = new WorkInterval(WorkInterval.KIND_WORK, t);
+        index.add(work);
+        assertSame(work, index.getOpenInterval());
+        assertEquals(10 * MINUTE,
+                index.getTotalTime(work.getDate(), WorkInterval.KIND_WORK, t + 10 * MINUTE));
+
+        index.close(work, t + 30 * MINUTE);
+        assertNull(index.getOpenInterval());
+        assertEquals(30 * MINUTE,
+                index.getTotalTime(work.getDate(), WorkInterval.KIND_WORK, t + 60 * MINUTE));
+    }
+
+    @Test
+    public void totalsOfManyBreaks() {
+        IntervalIndex index = new IntervalIndex();
+        long t = DAY0 + 8 * 60 * MINUTE;
+        for (int i = 0; i < 48; i++) {
+            index.add(interval(WorkInterval.KIND_WORK, t, t + 10 * MINUTE));
+            index.add(interval(WorkInterval.KIND_BREAK, t + 10 * MINUTE, t + 15 * MINUTE));
+            t += 15 * MINUTE;
+        }
+        Date date = new Date(DAY0);
+        assertEquals(96, index.getIntervalsOn(date).size());
+        assertEquals(480 * MINUTE, index.getTotalTime(date, WorkInterval.KIND_WORK, t));
+        assertEquals(240 * MINUTE, index.getTotalTime(date, WorkInterval.KIND_BREAK, t));
+    }
+}
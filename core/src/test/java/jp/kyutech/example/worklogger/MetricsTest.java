@@ -0,0 +1,72 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MetricsTest class to run unit tests on the development machine
+ * (host).
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class MetricsTest {
+    private static final int OP = Metrics.newOperation("test.op");
+    private static final int INNER_OP = Metrics.newOperation("test.inner");
+
+    @After
+    public void tearDown() {
+        Metrics.setWatchedThread(null);
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void recordsNothingWhenDisabled() {
+        Metrics.setEnabled(false);
+        long start = Metrics.begin(OP);
+        assertEquals(0, start);
+        Metrics.addRows(OP, 10);
+        Metrics.end(OP, start);
+        assertEquals(0, Metrics.getCount(OP));
+        assertEquals(0, Metrics.getRows(OP));
+    }
+
+    @Test
+    public void recordsCountsRowsAndLatencies() {
+        Metrics.setEnabled(true);
+        for (int i = 0; i < 10; i++) {
+            long start = Metrics.begin(OP);
+            Metrics.addRows(OP, 3);
+            Metrics.end(OP, start);
+        }
+        assertEquals(10, Metrics.getCount(OP));
+        assertEquals(30, Metrics.getRows(OP));
+        assertTrue(Metrics.getPercentile(OP, 50) >= 1);
+        assertTrue(Metrics.getPercentile(OP, 50) <= Metrics.getPercentile(OP, 99));
+        assertTrue(Metrics.dump().contains("test.op"));
+    }
+
+    @Test
+    public void sameNameIsSameOperation() {
+        assertEquals(OP, Metrics.newOperation("test.op"));
+    }
+
+    @Test
+    public void tracksOperationsInFlightOnWatchedThread() {
+        Metrics.setEnabled(true);
+        Metrics.setWatchedThread(Thread.currentThread());
+        long outer = Metrics.begin(OP);
+        long inner = Metrics.begin(INNER_OP);
+        assertEquals("test.op > test.inner", Metrics.getWatchedOperations());
+        Metrics.end(INNER_OP, inner);
+        assertEquals("test.op", Metrics.getWatchedOperations());
+        Metrics.end(OP, outer);
+        assertNull(Metrics.getWatchedOperations());
+    }
+}
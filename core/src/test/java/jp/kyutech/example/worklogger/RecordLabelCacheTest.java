@@ -0,0 +1,62 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Test;
+
+import java.sql.Date;
+import java.sql.Time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * RecordLabelCacheTest class to run unit tests on the development
+ * machine (host).
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class RecordLabelCacheTest {
+    private static WorkRecord record(long id) {
+        WorkRecord record = new WorkRecord();
+        record.setId(id);
+        record.setDate(Date.valueOf("2021-04-01"));
+        record.setCheckinTime(Time.valueOf("12:00:00"));
+        return record;
+    }
+
+    @Test
+    public void buildsLabelsOnlyWhenChanged() {
+        RecordLabelCache labels = new RecordLabelCache(2);
+        WorkRecord record = record(1);
+        String label = labels.getLabel(record);
+        assertSame(label, labels.getLabel(record));
+        assertEquals(1, labels.getBuildCount());
+
+        // A new version of the record is built again.
+        record.setCheckoutTime(Time.valueOf("13:00:00"));
+        record.setVersion(record.getVersion() + 1);
+        labels.getLabel(record);
+        labels.getLabel(record);
+        assertEquals(2, labels.getBuildCount());
+
+        labels.invalidate(1);
+        labels.getLabel(record);
+        assertEquals(3, labels.getBuildCount());
+    }
+
+    @Test
+    public void discardsLeastRecentlyUsedLabels() {
+        RecordLabelCache labels = new RecordLabelCache(2);
+        labels.getLabel(record(1));
+        labels.getLabel(record(2));
+        labels.getLabel(record(1));
+        labels.getLabel(record(3));     // Discards the label of 2
+        assertEquals(3, labels.getBuildCount());
+
+        labels.getLabel(record(1));
+        assertEquals(3, labels.getBuildCount());
+        labels.getLabel(record(2));
+        assertEquals(4, labels.getBuildCount());
+    }
+}
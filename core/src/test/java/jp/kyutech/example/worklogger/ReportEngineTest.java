@@ -0,0 +1,147 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Test;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ReportEngineTest class to run unit tests on the development machine
+ * (host).
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class ReportEngineTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private static WorkRecord record(String date, String checkin, String checkout) {
+        WorkRecord record = new WorkRecord();
+        record.setDate(Date.valueOf(date));
+        record.setCheckinTime((checkin != null) ? Time.valueOf(checkin) : null);
+        record.setCheckoutTime((checkout != null) ? Time.valueOf(checkout) : null);
+        return record;
+    }
+
+    @Test
+    public void aggregatesByMonth() {
+        List<WorkRecord> records = new ArrayList<>();
+        records.add(record("2021-03-31", "09:00:00", "18:00:00")); // Out of range
+        records.add(record("2021-04-01", "09:00:00", "18:00:00")); // 8h + 1h break
+        records.add(record("2021-04-02", "09:00:00", "21:00:00")); // 11h, 3h over
+        records.add(record("2021-04-05", "09:00:00", "14:00:00")); // 5h, no break
+        records.add(record("2021-05-06", "22:00:00", "07:00:00")); // Overnight
+        records.add(record("2021-05-07", "09:00:00", null));       // Incomplete
+
+        ReportEngine engine = new ReportEngine(Date.valueOf("2021-04-01"),
+                                               Date.valueOf("2021-05-31"),
+                                               ReportEngine.PERIOD_MONTH);
+        ReportEngine.Report report = engine.aggregate(records);
+        assertEquals(2, report.size());
+        assertEquals(Date.valueOf("2021-05-01"), report.getStartDate(1));
+
+        assertEquals(3, report.getDays(0));
+        assertEquals(24 * HOUR, report.getWorkMillis(0));
+        assertEquals(3 * HOUR, report.getOvertimeMillis(0));
+        assertEquals(2 * HOUR, report.getBreakMillis(0));
+        assertEquals(8 * HOUR, report.getAverageMillis(0));
+
+        assertEquals(1, report.getDays(1));
+        assertEquals(1, report.getIncompleteDays(1));
+        assertEquals(8 * HOUR, report.getWorkMillis(1));
+        assertEquals(32 * HOUR, report.getTotalWorkMillis());
+        assertEquals(4, report.getTotalDays());
+    }
+
+    @Test
+    public void splitsWeeksAndDays() {
+        Date from = Date.valueOf("2021-04-01");
+        Date to = Date.valueOf("2021-04-30");
+        ReportEngine.Report days =
+            new ReportEngine(from, to, ReportEngine.PERIOD_DAY).aggregate(new ArrayList<WorkRecord>());
+        assertEquals(30, days.size());
+        assertEquals(Date.valueOf("2021-04-30"), days.getStartDate(29));
+
+        ReportEngine.Report weeks =
+            new ReportEngine(from, to, ReportEngine.PERIOD_WEEK).aggregate(new ArrayList<WorkRecord>());
+        Calendar cal = new GregorianCalendar();
+        for (int i = 1; i < weeks.size(); i++) {
+            cal.setTimeInMillis(weeks.getStartDate(i).getTime());
+            assertEquals(cal.getFirstDayOfWeek(), cal.get(Calendar.DAY_OF_WEEK));
+        }
+        assertEquals(5, weeks.size());
+    }
+
+    @Test
+    public void addsTotalsOfSummaries() {
+        ReportEngine engine = new ReportEngine(Date.valueOf("2021-04-01"),
+                                               Date.valueOf("2021-06-30"),
+                                               ReportEngine.PERIOD_MONTH);
+        assertEquals(true, engine.isWholeMonths());
+        assertEquals(false, new ReportEngine(Date.valueOf("2021-04-01"),
+                                             Date.valueOf("2021-06-29"),
+                                             ReportEngine.PERIOD_MONTH).isWholeMonths());
+
+        // Totals of months are added to the periods of their first days.
+        ReportEngine.Report report = engine.newReport();
+        assertEquals(true, engine.addTotals(report, Date.valueOf("2021-05-01"),
+                                            160 * HOUR, 4 * HOUR, 20 * HOUR, 20, 1));
+        assertEquals(false, engine.addTotals(report, Date.valueOf("2021-07-01"),
+                                             HOUR, 0, 0, 1, 0));
+        assertEquals(0, report.getDays(0));
+        assertEquals(20, report.getDays(1));
+        assertEquals(8 * HOUR, report.getAverageMillis(1));
+        assertEquals(1, report.getIncompleteDays(1));
+        assertEquals(160 * HOUR, report.getTotalWorkMillis());
+    }
+
+    @Test
+    public void aggregatesManyUsersInParallel() {
+        WorkloadGenerator generator = new WorkloadGenerator();
+        generator.setSeed(49);
+        generator.setUsers(200);
+        generator.setStartDate(Date.valueOf("2020-04-01"));
+        generator.setDays(365);
+        List<WorkRecord> records = new ArrayList<>();
+        for (WorkRecord record : generator) {
+            records.add(record);
+        }
+        ReportEngine engine = new ReportEngine(Date.valueOf("2020-04-01"),
+                                               Date.valueOf("2021-03-31"),
+                                               ReportEngine.PERIOD_MONTH);
+        ReportEngine.Report total = engine.aggregate(records);
+        Map<String, ReportEngine.Report> reports = engine.aggregateByUser(records);
+
+        // The parallel totals are the same as the sequential ones.
+        long work = 0;
+        int ndays = 0;
+        for (ReportEngine.Report report : reports.values()) {
+            work += report.getTotalWorkMillis();
+            ndays += report.getTotalDays();
+        }
+        assertEquals(200, reports.size());
+        assertEquals(total.getTotalWorkMillis(), work);
+        assertEquals(total.getTotalDays(), ndays);
+
+        ReportEngine.Report sequential = engine.aggregate(
+                records.subList(0, ReportEngine.PARALLEL_THRESHOLD));
+        for (int i = ReportEngine.PARALLEL_THRESHOLD; i < records.size();
+             i += ReportEngine.PARALLEL_THRESHOLD) {
+            sequential.merge(engine.aggregate(records.subList(
+                    i, Math.min(records.size(), i + ReportEngine.PARALLEL_THRESHOLD))));
+        }
+        for (int i = 0; i < total.size(); i++) {
+            assertEquals(sequential.getWorkMillis(i), total.getWorkMillis(i));
+            assertEquals(sequential.getOvertimeMillis(i), total.getOvertimeMillis(i));
+            assertEquals(sequential.getIncompleteDays(i), total.getIncompleteDays(i));
+        }
+    }
+}
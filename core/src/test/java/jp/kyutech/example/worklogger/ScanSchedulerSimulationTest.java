@@ -0,0 +1,251 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Test;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ScanSchedulerSimulationTest class runs scan schedulers on a simulated
+ * clock over weeks of a commuter's days, and measures the percentage
+ * of time scanning (duty) and the latency to observe an arrival at or
+ * a departure from a beacon.  The latency is from the arrival or the
+ * departure to the delivery of the first scan which observes it.
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class ScanSchedulerSimulationTest {
+    private static final long SEC = 1000;
+    private static final long MIN = 60 * SEC;
+    private static final long HOUR = 60 * MIN;
+    private static final int NDAYS = 8 * 7;
+    private static final long COMMUTE = 45 * MIN;
+    private static final int SCREEN_ONS_PER_DAY = 12;
+
+    /*
+     * A simulated day of a commuter.
+     */
+    private static class Day {
+        long arrival;
+        long departure;
+        List<long[]> motions = new ArrayList<>();  // {start, end}
+        long[] screen_ons;
+
+        boolean isPresent(long time) {
+            return arrival <= time && time < departure;
+        }
+
+        /*
+         * Return the start of the first motion after a time, or
+         * Long.MAX_VALUE.
+         */
+        long getNextMotion(long time) {
+            long next = Long.MAX_VALUE;
+            for (long[] motion : motions) {
+                if (time < motion[0]) {
+                    next = Math.min(next, motion[0]);
+                }
+            }
+            return next;
+        }
+
+        boolean isMoving(long time) {
+            for (long[] motion : motions) {
+                if (motion[0] <= time && time < motion[1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Result {
+        final String name;
+        long scanning = 0;
+        long total = 0;
+        long[] latencies = new long[0];
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        void addLatency(long latency) {
+            latencies = Arrays.copyOf(latencies, latencies.length + 1);
+            latencies[latencies.length - 1] = latency;
+        }
+
+        double getDuty() {
+            return 100.0 * scanning / total;
+        }
+
+        long getPercentile(double percentile) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            return sorted[Math.min(sorted.length - 1, (int)(sorted.length * percentile / 100))];
+        }
+
+        double getMean() {
+            long sum = 0;
+            for (long latency : latencies) {
+                sum += latency;
+            }
+            return (double)sum / latencies.length;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s duty %6.2f%%  latency mean %6.1f s  p95 %6.1f s  max %6.1f s",
+                    name, getDuty(), getMean() / SEC,
+                    getPercentile(95) / (double)SEC, getPercentile(100) / (double)SEC);
+        }
+    }
+
+    private static List<Day> generateDays(long start, Random random) {
+        List<Day> days = new ArrayList<>();
+        for (int i = 0; i < NDAYS; i++) {
+            long midnight = start + i * DateTimeUtils.MSEC_PER_DAY;
+            Day day = new Day();
+            day.arrival = midnight + 9 * HOUR + (long)(random.nextGaussian() * 15 * MIN);
+            day.departure = midnight + 18 * HOUR + (long)(random.nextGaussian() * 20 * MIN);
+            day.motions.add(new long[]{ day.arrival - COMMUTE, day.arrival + 2 * MIN });
+            day.motions.add(new long[]{ day.departure - 2 * MIN, day.departure + COMMUTE });
+            for (long t = day.arrival + HOUR; t < day.departure - HOUR; t += 90 * MIN) {
+                day.motions.add(new long[]{ t, t + 5 * MIN });
+            }
+            day.screen_ons = new long[SCREEN_ONS_PER_DAY];
+            for (int j = 0; j < SCREEN_ONS_PER_DAY; j++) {
+                day.screen_ons[j] = midnight + 7 * HOUR + (long)(random.nextDouble() * 15 * HOUR);
+            }
+            Arrays.sort(day.screen_ons);
+            days.add(day);
+        }
+        return days;
+    }
+
+    /*
+     * Work records of the days before a day, the newest first.
+     */
+    private static List<WorkRecord> getHistory(List<Day> days, int index) {
+        List<WorkRecord> records = new ArrayList<>();
+        for (int i = index - 1; i >= 0; i--) {
+            Day day = days.get(i);
+            WorkRecord record = new WorkRecord();
+            record.setDate(new Date(day.arrival));
+            record.setCheckinTime(DateTimeUtils.getTimeOfSeconds(
+                    DateTimeUtils.getSecondsOfDay(day.arrival)));
+            record.setCheckoutTime(DateTimeUtils.getTimeOfSeconds(
+                    DateTimeUtils.getSecondsOfDay(day.departure)));
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static Result simulate(String name, ScanScheduler scheduler,
+                                   List<Day> days, long start) {
+        Result result = new Result(name);
+        long time = start;
+        for (int i = 0; i < days.size(); i++) {
+            Day day = days.get(i);
+            long end = start + (i + 1) * DateTimeUtils.MSEC_PER_DAY;
+            scheduler.learn(getHistory(days, i));
+            int screen_on = 0;
+            long arrival_seen = -1;
+            long departure_seen = -1;
+            while (time < end) {
+                while (screen_on < day.screen_ons.length && day.screen_ons[screen_on] <= time) {
+                    scheduler.onScreenOn(day.screen_ons[screen_on++]);
+                }
+                if (day.isMoving(time)) {
+                    scheduler.onMotion(time);
+                }
+                long window = scheduler.getWindowMillis();
+                long delivery = Math.min(window, scheduler.getReportDelayMillis(time));
+                // A beacon advertising every second is observed if present
+                // at any time in a window.
+                boolean observed_p = day.isPresent(time + window - SEC) || day.isPresent(time);
+                if (observed_p && arrival_seen < 0) {
+                    arrival_seen = Math.max(time, day.arrival) + delivery;
+                }
+                if (!observed_p && arrival_seen >= 0 && departure_seen < 0 &&
+                    time >= day.departure) {
+                    departure_seen = time + window;
+                }
+                result.scanning += window;
+                scheduler.onCycle(time + window);
+                long next = time + scheduler.getIntervalMillis(time);
+                // Turning the screen on or starting to move starts a scan
+                // at once.
+                if (screen_on < day.screen_ons.length) {
+                    next = Math.min(next, day.screen_ons[screen_on]);
+                }
+                next = Math.min(next, day.getNextMotion(time));
+                time = Math.max(time + window, next);
+            }
+            result.addLatency(arrival_seen - day.arrival);
+            result.addLatency(departure_seen - day.departure);
+        }
+        result.total = time - start;
+        return result;
+    }
+
+    private static ScanScheduler fixed(final long interval) {
+        return new ScanScheduler() {
+            @Override
+            public synchronized long getIntervalMillis(long time) {
+                return interval;
+            }
+        };
+    }
+
+    @Test
+    public void lostTimeFollowsMode() {
+        ScanScheduler scheduler = new ScanScheduler();
+        long time = 0;
+        scheduler.onMotion(time);
+        scheduler.onCycle(time);
+        assertEquals(ScanScheduler.NORMAL_INTERVAL_MILLIS + ScanScheduler.LOST_MARGIN_MILLIS,
+                     scheduler.getLostMillis(time));
+
+        // Backed off while stationary.
+        for (time = ScanScheduler.STATIONARY_MILLIS; time < 2 * HOUR;
+             time += scheduler.getIntervalMillis(time)) {
+            scheduler.onCycle(time);
+        }
+        assertEquals(ScanScheduler.MAX_INTERVAL_MILLIS + ScanScheduler.LOST_MARGIN_MILLIS,
+                     scheduler.getLostMillis(time));
+
+        // Turning the screen on is not taken as a loss until a scan ends.
+        scheduler.onScreenOn(time);
+        assertEquals(ScanScheduler.MAX_INTERVAL_MILLIS + ScanScheduler.LOST_MARGIN_MILLIS,
+                     scheduler.getLostMillis(time));
+        scheduler.onCycle(time + ScanScheduler.WINDOW_MILLIS);
+        assertEquals(ScanScheduler.FAST_INTERVAL_MILLIS + ScanScheduler.LOST_MARGIN_MILLIS,
+                     scheduler.getLostMillis(time + ScanScheduler.WINDOW_MILLIS));
+    }
+
+    @Test
+    public void adaptiveSchedulingSavesScans() {
+        long start = DateTimeUtils.fromEpochDay(
+                DateTimeUtils.toEpochDay(Date.valueOf("2021-04-05"))).getTime();
+        List<Day> days = generateDays(start, new Random(44));
+
+        Result continuous = simulate("continuous", fixed(ScanScheduler.WINDOW_MILLIS), days, start);
+        Result fixed = simulate("fixed-60s", fixed(ScanScheduler.NORMAL_INTERVAL_MILLIS), days, start);
+        Result adaptive = simulate("adaptive", new ScanScheduler(), days, start);
+        assertEquals(continuous.toString(), 100.0, continuous.getDuty(), 0.1);
+        // Fewer scans than a fixed interval of a minute...
+        assertTrue(adaptive + " / " + fixed, adaptive.getDuty() < fixed.getDuty());
+        // ...and faster detections around usual checkin and checkout times.
+        assertTrue(adaptive + " / " + fixed, adaptive.getMean() < fixed.getMean());
+        assertTrue(adaptive.toString(),
+                adaptive.getPercentile(95) <= 2 * ScanScheduler.EXPECTED_INTERVAL_MILLIS);
+    }
+}
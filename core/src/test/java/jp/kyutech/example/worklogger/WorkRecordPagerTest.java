@@ -0,0 +1,172 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WorkRecordPagerTest class to run unit tests on the development
+ * machine (host).
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class WorkRecordPagerTest {
+    private static final int NRECORDS = 1000;
+
+    /*
+     * A loader serving records whose IDs are 1..NRECORDS.
+     */
+    private static class FakeLoader implements WorkRecordPager.PageLoader {
+        int nloads = 0;
+
+        public List<WorkRecord> loadPage(long beforeId, int count) {
+            nloads++;
+            List<WorkRecord> records = new ArrayList<>();
+            long id = Math.min(beforeId - 1, NRECORDS);
+            while (id >= 1 && records.size() < count) {
+                WorkRecord record = new WorkRecord();
+                record.setId(id--);
+                records.add(record);
+            }
+            return records;
+        }
+    }
+
+    private static void scrollToEnd(WorkRecordPager pager) {
+        while (pager.needsPrefetch(pager.getCount() - 1)) {
+            FakeLoader loader = new FakeLoader();
+            long key = pager.beginPrefetch();
+            pager.finishPrefetch(key,
+                    loader.loadPage(key, WorkRecordPager.PAGE_SIZE));
+            pager.getRecordAt(pager.getCount() - 1);
+        }
+    }
+
+    /*
+     * Return a record at a position, restoring its page if evicted.
+     */
+    private static WorkRecord getRecordAt(WorkRecordPager pager, int position) {
+        WorkRecord record = pager.getRecordAt(position);
+        if (record == null) {
+            long key = pager.beginReload();
+            pager.finishReload(key,
+                    new FakeLoader().loadPage(key, pager.getPageSize(key)));
+            record = pager.getRecordAt(position);
+        }
+        return record;
+    }
+
+    @Test
+    public void pagesInOrder() {
+        WorkRecordPager pager = new WorkRecordPager(new FakeLoader());
+        pager.reload();
+        assertEquals(WorkRecordPager.PAGE_SIZE, pager.getCount());
+        scrollToEnd(pager);
+
+        assertTrue(pager.isExhausted());
+        assertEquals(NRECORDS, pager.getCount());
+        for (int i = 0; i < NRECORDS; i++) {
+            assertEquals(NRECORDS - i, getRecordAt(pager, i).getId());
+        }
+    }
+
+    @Test
+    public void residentRecordsAreBounded() {
+        FakeLoader loader = new FakeLoader();
+        WorkRecordPager pager = new WorkRecordPager(loader);
+        pager.reload();
+        scrollToEnd(pager);
+
+        assertTrue(pager.getResidentCount() <=
+                WorkRecordPager.PAGE_SIZE * WorkRecordPager.MAX_RESIDENT_PAGES);
+
+        // An evicted page is requested and loaded again by its key.
+        int nloads = loader.nloads;
+        assertNull(pager.getRecordAt(0));
+        assertEquals(nloads, loader.nloads);
+        long key = pager.beginReload();
+        assertEquals(Long.MAX_VALUE, key);
+        assertEquals(-1, pager.beginReload());
+        assertTrue(pager.finishReload(key,
+                loader.loadPage(key, pager.getPageSize(key))));
+        assertEquals(NRECORDS, pager.getRecordAt(0).getId());
+        assertTrue(pager.getResidentCount() <=
+                WorkRecordPager.PAGE_SIZE * WorkRecordPager.MAX_RESIDENT_PAGES);
+    }
+
+    @Test
+    public void reloadsPageChangedWhileLoading() {
+        FakeLoader loader = new FakeLoader();
+        WorkRecordPager pager = new WorkRecordPager(loader);
+        pager.reload();
+        scrollToEnd(pager);
+        assertNull(pager.getRecordAt(0));
+        long key = pager.beginReload();
+        List<WorkRecord> records = loader.loadPage(key, pager.getPageSize(key));
+
+        // A record of the page deleted before the page is restored.
+        assertTrue(pager.remove(NRECORDS - 1));
+        assertEquals(false, pager.finishReload(key, records));
+        assertNull(pager.getRecordAt(0));
+
+        key = pager.beginReload();
+        records = loader.loadPage(key, pager.getPageSize(key) + 1);
+        records.remove(1);          // Deleted from the store
+        assertTrue(pager.finishReload(key, records));
+        assertEquals(NRECORDS - 2, pager.getRecordAt(1).getId());
+        assertEquals(NRECORDS - 1, pager.getCount());
+    }
+
+    @Test
+    public void stalePrefetchIsIgnored() {
+        WorkRecordPager pager = new WorkRecordPager(new FakeLoader());
+        pager.reload();
+        long key = pager.beginPrefetch();
+        pager.reload();
+        assertEquals(false,
+                pager.finishPrefetch(key, new FakeLoader().loadPage(key, 31)));
+        assertEquals(WorkRecordPager.PAGE_SIZE, pager.getCount());
+    }
+
+    @Test
+    public void appliesChangesIncrementally() {
+        FakeLoader loader = new FakeLoader();
+        WorkRecordPager pager = new WorkRecordPager(loader);
+        pager.reload();
+        pager.beginPrefetch();
+        long key = NRECORDS - WorkRecordPager.PAGE_SIZE + 1;
+        pager.finishPrefetch(key, loader.loadPage(key, WorkRecordPager.PAGE_SIZE));
+        int count = pager.getCount();
+        int nloads = loader.nloads;
+
+        WorkRecord inserted = new WorkRecord();
+        inserted.setId(NRECORDS + 1);
+        assertTrue(pager.insert(inserted));
+        assertEquals(count + 1, pager.getCount());
+        assertEquals(NRECORDS + 1, pager.getRecordAt(0).getId());
+
+        WorkRecord updated = new WorkRecord();
+        updated.setId(NRECORDS - WorkRecordPager.PAGE_SIZE);
+        updated.setVersion(7);
+        assertTrue(pager.update(updated));
+        assertEquals(7, pager.getRecordAt(WorkRecordPager.PAGE_SIZE + 1).getVersion());
+
+        // Positions of the following pages are shifted.
+        assertTrue(pager.remove(NRECORDS));
+        assertEquals(count, pager.getCount());
+        assertEquals(NRECORDS - 1, pager.getRecordAt(1).getId());
+        assertEquals(NRECORDS - WorkRecordPager.PAGE_SIZE,
+                pager.getRecordAt(WorkRecordPager.PAGE_SIZE).getId());
+
+        // Records older than loaded pages are ignored.
+        assertEquals(false, pager.remove(1));
+        assertEquals(nloads, loader.nloads);
+    }
+}
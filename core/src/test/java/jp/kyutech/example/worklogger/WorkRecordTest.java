@@ -56,4 +56,12 @@ public class WorkRecordTest {
         // The checkin time must be the same as a current time.
         assertEquals(new Time(System.currentTimeMillis()), record.getCheckinTime());
     }
+
+    @Test
+    public void progressTime() {
+        WorkRecord record = new WorkRecord();
+        record.setCheckinTime(Time.valueOf("09:05:00"));
+        record.setCheckoutTime(Time.valueOf("17:30:07"));
+        assertEquals("08時間25分07秒", record.getProgressTime());
+    }
 }
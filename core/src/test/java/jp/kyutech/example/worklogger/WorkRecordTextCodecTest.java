@@ -0,0 +1,54 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Date;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * WorkRecordTextCodecTest class to run unit tests on the development
+ * machine (host).
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class WorkRecordTextCodecTest {
+    @Test
+    public void writesAndReadsTable() throws Exception {
+        List<WorkRecord> records = new ArrayList<>();
+        WorkRecord record = new WorkRecord();
+        record.setDate(Date.valueOf("2021-04-02"));
+        record.setCheckinTime(Time.valueOf("09:00:00"));
+        record.setCheckoutTime(Time.valueOf("18:30:00"));
+        records.add(record);
+        record = new WorkRecord();
+        record.setDate(Date.valueOf("2021-04-03"));
+        record.setCheckinTime(Time.valueOf("10:15:00"));
+        records.add(record);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WorkRecordTextCodec.write(out, records,
+                Date.valueOf("2021-04-01"), Date.valueOf("2021-04-04"));
+        String[] lines = out.toString("UTF-8").split("\n");
+        assertEquals(5, lines.length);
+        assertEquals("2021/04/01", lines[1].trim());
+        assertEquals("2021/04/02  09:00  18:30", lines[2]);
+        assertEquals("2021/04/04", lines[4].trim());
+
+        List<WorkRecord> read = WorkRecordTextCodec.read(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(2, read.size());
+        assertEquals(Date.valueOf("2021-04-02"), read.get(0).getDate());
+        assertEquals(Time.valueOf("18:30:00"), read.get(0).getCheckoutTime());
+        assertEquals(Time.valueOf("10:15:00"), read.get(1).getCheckinTime());
+        assertNull(read.get(1).getCheckoutTime());
+    }
+}
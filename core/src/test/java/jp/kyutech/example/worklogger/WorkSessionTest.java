@@ -0,0 +1,100 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Test;
+
+import java.sql.Date;
+import java.sql.Time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * WorkSessionTest class to run unit tests on the development machine
+ * (host).
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class WorkSessionTest {
+    @Test
+    public void transitions() {
+        int state = WorkSession.STATE_IDLE;
+        state = WorkSession.getNextState(state, WorkSession.EVENT_START_WORK);
+        assertEquals(WorkSession.STATE_WORKING, state);
+        state = WorkSession.getNextState(state, WorkSession.EVENT_START_BREAK);
+        assertEquals(WorkSession.STATE_ON_BREAK, state);
+        state = WorkSession.getNextState(state, WorkSession.EVENT_STOP_BREAK);
+        assertEquals(WorkSession.STATE_WORKING, state);
+        state = WorkSession.getNextState(state, WorkSession.EVENT_STOP_WORK);
+        assertEquals(WorkSession.STATE_DONE, state);
+    }
+
+    @Test
+    public void breakBeforeWork() {
+        try {
+            WorkSession.getNextState(WorkSession.STATE_IDLE,
+                    WorkSession.EVENT_START_BREAK);
+            fail("A break cannot be started before working");
+        } catch (IllegalStateException ex) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void restore() {
+        Date today = DateTimeUtils.getDateOf(System.currentTimeMillis());
+        WorkSession session = new WorkSession();
+
+        session.restore(null, today);
+        assertEquals(WorkSession.STATE_IDLE, session.getState());
+
+        WorkInterval interval = new WorkInterval(WorkInterval.KIND_BREAK,
+                System.currentTimeMillis());
+        session.restore(interval, today);
+        assertEquals(WorkSession.STATE_ON_BREAK, session.getState());
+
+        interval.setEnd(System.currentTimeMillis());
+        session.restore(interval, today);
+        assertEquals(WorkSession.STATE_DONE, session.getState());
+
+        // A finished session of a previous day is not continued.
+        session.rollOver(DateTimeUtils.getNextDay(today));
+        assertEquals(WorkSession.STATE_IDLE, session.getState());
+    }
+
+    @Test
+    public void restoreFromRecordWithoutIntervals() {
+        Date today = DateTimeUtils.getDateOf(System.currentTimeMillis());
+        WorkRecord record = new WorkRecord();
+        record.setDate(today);
+        WorkSession session = new WorkSession();
+
+        // Not checked in today.
+        session.restore(null, record, today);
+        assertEquals(WorkSession.STATE_IDLE, session.getState());
+
+        // Checked in before the database was upgraded.
+        record.setCheckinTime(Time.valueOf("09:00:00"));
+        session.restore(null, record, today);
+        assertEquals(WorkSession.STATE_WORKING, session.getState());
+        assertEquals(record, session.getWorkRecord());
+
+        record.setCheckoutTime(Time.valueOf("18:00:00"));
+        session.restore(null, record, today);
+        assertEquals(WorkSession.STATE_DONE, session.getState());
+
+        // An interval of a previous day does not hide the record of today.
+        WorkInterval interval = new WorkInterval(WorkInterval.KIND_WORK,
+                System.currentTimeMillis() - DateTimeUtils.MSEC_PER_DAY);
+        interval.setEnd(interval.getStart() + 1000);
+        session.restore(interval, record, today);
+        assertEquals(WorkSession.STATE_DONE, session.getState());
+
+        // A record of a previous day is not continued.
+        record.setDate(DateTimeUtils.fromEpochDay(DateTimeUtils.toEpochDay(today) - 1));
+        record.setCheckoutTime(null);
+        session.restore(null, record, today);
+        assertEquals(WorkSession.STATE_IDLE, session.getState());
+    }
+}
@@ -0,0 +1,107 @@
+package jp.kyutech.example.worklogger;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WorkloadGeneratorTest class to run unit tests on the development
+ * machine (host).
+ *
+ * @author Masanobu UMEDA
+ * @version $Revision$
+ */
+
+public class WorkloadGeneratorTest {
+    private static WorkloadGenerator generator(long seed) {
+        WorkloadGenerator generator = new WorkloadGenerator();
+        generator.setSeed(seed);
+        generator.setUsers(5);
+        generator.setDays(3 * 365);
+        return generator;
+    }
+
+    private static List<String> toStrings(WorkloadGenerator generator) {
+        List<String> list = new ArrayList<>();
+        for (WorkRecord record : generator) {
+            list.add(record.toString());
+        }
+        return list;
+    }
+
+    @Test
+    public void isDeterministic() {
+        assertEquals(toStrings(generator(42)), toStrings(generator(42)));
+        assertNotEquals(toStrings(generator(42)), toStrings(generator(43)));
+    }
+
+    @Test
+    public void shapesHistory() {
+        int nrecords = 0;
+        int nmissed = 0;
+        int novernight = 0;
+        Calendar cal = new GregorianCalendar();
+        Iterator<WorkRecord> it = generator(1).iterator();
+        while (it.hasNext()) {
+            WorkRecord record = it.next();
+            nrecords++;
+            cal.setTimeInMillis(record.getDate().getTime());
+            int day_of_week = cal.get(Calendar.DAY_OF_WEEK);
+            assertTrue(day_of_week != Calendar.SATURDAY && day_of_week != Calendar.SUNDAY);
+            if (record.getCheckoutTime() == null) {
+                nmissed++;
+            } else if (!DateTimeUtils.isValidTimeRange(record.getCheckinTime(),
+                                                        record.getCheckoutTime())) {
+                novernight++;
+            }
+        }
+        // About 5 users * 3 years * 250 workdays
+        assertTrue(nrecords > 3500 && nrecords < 4000);
+        assertTrue(nmissed > 0 && nmissed < nrecords / 10);
+        assertTrue(novernight > 0 && novernight < nrecords / 10);
+    }
+
+    @Test
+    public void writesInBatches() {
+        WorkloadGenerator generator = generator(7);
+        generator.setVolume(10000);
+        InMemoryWorkRecordStore store = new InMemoryWorkRecordStore();
+        long count = generator.writeTo(store, 512);
+        assertEquals(count, store.size());
+        assertTrue(Math.abs(count - 10000) < 500);
+
+        WorkRecord last = store.getLastWorkRecord();
+        assertEquals(count, last.getId());
+        assertEquals(5, store.getWorkRecordsBetween(last.getDate(), last.getDate()).size());
+    }
+
+    @Test
+    public void writesText() throws Exception {
+        WorkloadGenerator generator = generator(3);
+        generator.setStartDate(Date.valueOf("2021-04-01"));
+        generator.setDays(30);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        generator.writeText(out, WorkloadGenerator.getUserName(0));
+        assertEquals(31, out.toString("UTF-8").split("\n").length);
+
+        int nrecords = 0;
+        for (WorkRecord record : generator) {
+            if (record.getUser().equals(WorkloadGenerator.getUserName(0))) {
+                nrecords++;
+            }
+        }
+        assertEquals(nrecords, WorkRecordTextCodec.read(
+                new ByteArrayInputStream(out.toByteArray())).size());
+    }
+}